@@ -4212,6 +4212,13 @@ public class Intent implements Parcelable, Cloneable {
      * @hide
      */
     public static final int FLAG_RECEIVER_BOOT_UPGRADE = 0x02000000;
+    /**
+     * Set by the system on the copies of a broadcast that it dispatches through
+     * one of the per-process shards of a broadcast queue, so that a receiver
+     * finishing is matched against the right queue.
+     * @hide
+     */
+    public static final int FLAG_RECEIVER_SHARDED = 0x01000000;
 
     /**
      * @hide Flags that can't be changed with PendingIntent.
@@ -1839,7 +1839,8 @@ public class IntentFilter implements Parcelable {
         */
     }
 
-    private IntentFilter(Parcel source) {
+    /** @hide */
+    public IntentFilter(Parcel source) {
         mActions = new ArrayList<String>();
         source.readStringList(mActions);
         if (source.readInt() != 0) {
@@ -1880,6 +1881,28 @@ public class IntentFilter implements Parcelable {
         setAutoVerify(source.readInt() > 0);
     }
 
+    /**
+     * Interns the actions, categories, schemes and types, as the add methods
+     * do. Unparcelled filters that are kept for a long time, like those of
+     * cached packages, call this so they don't each hold their own copies.
+     *
+     * @hide
+     */
+    public final void internStrings() {
+        internStrings(mActions);
+        internStrings(mCategories);
+        internStrings(mDataSchemes);
+        internStrings(mDataTypes);
+    }
+
+    private static void internStrings(ArrayList<String> list) {
+        if (list != null) {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                list.set(i, list.get(i).intern());
+            }
+        }
+    }
+
     private final boolean findMimeType(String type) {
         final ArrayList<String> t = mDataTypes;
 
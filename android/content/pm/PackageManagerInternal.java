@@ -115,4 +115,13 @@ public abstract class PackageManagerInternal {
      */
     public abstract void grantDefaultPermissionsToDefaultSimCallManager(String packageName,
             int userId);
+
+    /**
+     * Returns a number that changes whenever a receiver is added or removed, or
+     * the per-user state of a package (installed, stopped, hidden, enabled
+     * components) changes.  Receivers resolved while it had a given value are
+     * still what {@link PackageManager#queryBroadcastReceivers} would return as
+     * long as it keeps that value.
+     */
+    public abstract int getReceiverStateGeneration();
 }
@@ -38,6 +38,8 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.FileUtils;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.os.PatternMatcher;
 import android.os.UserHandle;
 import android.text.TextUtils;
@@ -190,6 +192,7 @@ public class PackageParser {
     private String[] mSeparateProcesses;
     private boolean mOnlyCoreApps;
     private DisplayMetrics mMetrics;
+    private PackageParserCache mCache;
 
     private static final int SDK_VERSION = Build.VERSION.SDK_INT;
     private static final String[] SDK_CODENAMES = Build.VERSION.ACTIVE_CODENAMES;
@@ -373,6 +376,14 @@ public class PackageParser {
         mMetrics = metrics;
     }
 
+    /**
+     * Makes {@link #parsePackage} look up and store its results in
+     * {@code cache}.
+     */
+    public void setCache(PackageParserCache cache) {
+        mCache = cache;
+    }
+
     public static final boolean isApkFile(File file) {
         return isApkPath(file.getName());
     }
@@ -750,11 +761,44 @@ public class PackageParser {
      * @see #parsePackageLite(File, int)
      */
     public Package parsePackage(File packageFile, int flags) throws PackageParserException {
+        final PackageParserCache cache = mCache;
+        final String cacheConfig = (cache != null) ? getCacheConfig(flags) : null;
+        if (cache != null) {
+            final Package pkg = cache.get(packageFile, cacheConfig);
+            if (pkg != null) {
+                return pkg;
+            }
+        }
+
+        final Package pkg;
         if (packageFile.isDirectory()) {
-            return parseClusterPackage(packageFile, flags);
+            pkg = parseClusterPackage(packageFile, flags);
         } else {
-            return parseMonolithicPackage(packageFile, flags);
+            pkg = parseMonolithicPackage(packageFile, flags);
+        }
+
+        if (cache != null) {
+            cache.put(packageFile, cacheConfig, pkg);
+        }
+        return pkg;
+    }
+
+    /**
+     * Describes everything besides the package itself that the result of
+     * {@link #parsePackage} depends on.
+     */
+    private String getCacheConfig(int flags) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(Integer.toHexString(flags));
+        sb.append(' ').append(mOnlyCoreApps);
+        sb.append(' ').append(mMetrics.densityDpi);
+        sb.append(' ').append(sCompatibilityModeEnabled);
+        if (mSeparateProcesses != null) {
+            for (String proc : mSeparateProcesses) {
+                sb.append(' ').append(proc);
+            }
         }
+        return sb.toString();
     }
 
     /**
@@ -1945,6 +1989,32 @@ public class PackageParser {
         return true;
     }
 
+    /**
+     * Returns the canonical copy of {@code str}; used on strings read back
+     * from the cache that parsing would have interned.
+     */
+    private static String intern(String str) {
+        return (str != null) ? str.intern() : null;
+    }
+
+    private static void internStringList(List<String> list) {
+        if (list != null) {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                list.set(i, list.get(i).intern());
+            }
+        }
+    }
+
+    private static void internPackageItemInfo(PackageItemInfo info, Package owner) {
+        info.name = intern(info.name);
+        info.packageName = owner.packageName;
+    }
+
+    private static void internComponentInfo(ComponentInfo info, Package owner) {
+        internPackageItemInfo(info, owner);
+        info.processName = intern(info.processName);
+    }
+
     private static String buildClassName(String pkg, CharSequence clsSeq,
             String[] outError) {
         if (clsSeq == null || clsSeq.length() <= 0) {
@@ -4291,7 +4361,7 @@ public class PackageParser {
         public boolean baseHardwareAccelerated;
 
         // For now we only support one application per package.
-        public final ApplicationInfo applicationInfo = new ApplicationInfo();
+        public final ApplicationInfo applicationInfo;
 
         public final ArrayList<Permission> permissions = new ArrayList<Permission>(0);
         public final ArrayList<PermissionGroup> permissionGroups = new ArrayList<PermissionGroup>(0);
@@ -4405,10 +4475,215 @@ public class PackageParser {
 
         public Package(String packageName) {
             this.packageName = packageName;
+            applicationInfo = new ApplicationInfo();
             applicationInfo.packageName = packageName;
             applicationInfo.uid = -1;
         }
 
+        /**
+         * Restores a package written by {@link #writeToParcel}.
+         */
+        Package(Parcel in) {
+            packageName = in.readString().intern();
+            splitNames = in.readStringArray();
+            volumeUuid = in.readString();
+            codePath = in.readString();
+            baseCodePath = in.readString();
+            splitCodePaths = in.readStringArray();
+            baseRevisionCode = in.readInt();
+            splitRevisionCodes = in.createIntArray();
+            splitFlags = in.createIntArray();
+            splitPrivateFlags = in.createIntArray();
+            baseHardwareAccelerated = in.readInt() != 0;
+            applicationInfo = ApplicationInfo.CREATOR.createFromParcel(in);
+            internPackageItemInfo(applicationInfo, this);
+            applicationInfo.className = intern(applicationInfo.className);
+            applicationInfo.processName = intern(applicationInfo.processName);
+            applicationInfo.taskAffinity = intern(applicationInfo.taskAffinity);
+            applicationInfo.permission = intern(applicationInfo.permission);
+            applicationInfo.manageSpaceActivityName =
+                    intern(applicationInfo.manageSpaceActivityName);
+            applicationInfo.backupAgentName = intern(applicationInfo.backupAgentName);
+
+            for (int i = in.readInt(); i > 0; i--) {
+                permissions.add(new Permission(this, in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                permissionGroups.add(new PermissionGroup(this, in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                activities.add(new Activity(this, in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                receivers.add(new Activity(this, in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                providers.add(new Provider(this, in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                services.add(new Service(this, in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                instrumentation.add(new Instrumentation(this, in));
+            }
+
+            in.readStringList(requestedPermissions);
+            protectedBroadcasts = in.createStringArrayList();
+            libraryNames = in.createStringArrayList();
+            usesLibraries = in.createStringArrayList();
+            usesOptionalLibraries = in.createStringArrayList();
+            internStringList(requestedPermissions);
+            internStringList(protectedBroadcasts);
+            internStringList(libraryNames);
+            internStringList(usesLibraries);
+            internStringList(usesOptionalLibraries);
+
+            final int preferredCount = in.readInt();
+            if (preferredCount >= 0) {
+                preferredActivityFilters = new ArrayList<ActivityIntentInfo>(preferredCount);
+                for (int i = 0; i < preferredCount; i++) {
+                    final Activity activity = activities.get(in.readInt());
+                    preferredActivityFilters.add(new ActivityIntentInfo(activity, in));
+                }
+            }
+
+            mOriginalPackages = in.createStringArrayList();
+            mRealPackage = in.readString();
+            mAdoptPermissions = in.createStringArrayList();
+            mAppMetaData = in.readBundle();
+            mVersionCode = in.readInt();
+            mVersionName = intern(in.readString());
+            mSharedUserId = intern(in.readString());
+            mSharedUserLabel = in.readInt();
+            configPreferences = in.createTypedArrayList(ConfigurationInfo.CREATOR);
+            reqFeatures = in.createTypedArrayList(FeatureInfo.CREATOR);
+            featureGroups = in.createTypedArrayList(FeatureGroupInfo.CREATOR);
+            installLocation = in.readInt();
+            coreApp = in.readInt() != 0;
+            mRequiredForAllUsers = in.readInt() != 0;
+            mRestrictedAccountType = in.readString();
+            mRequiredAccountType = in.readString();
+            mOverlayTarget = in.readString();
+            mOverlayPriority = in.readInt();
+            mTrustedOverlay = in.readInt() != 0;
+
+            final ArrayList<String> upgradeKeySets = in.createStringArrayList();
+            if (upgradeKeySets != null) {
+                mUpgradeKeySets = new ArraySet<String>(upgradeKeySets);
+            }
+            final int keySetCount = in.readInt();
+            if (keySetCount >= 0) {
+                mKeySetMapping = new ArrayMap<String, ArraySet<PublicKey>>(keySetCount);
+                for (int i = 0; i < keySetCount; i++) {
+                    final String name = in.readString();
+                    final int keyCount = in.readInt();
+                    final ArraySet<PublicKey> keys = new ArraySet<PublicKey>(keyCount);
+                    for (int j = 0; j < keyCount; j++) {
+                        final PublicKey key = parsePublicKey(in.readString());
+                        if (key == null) {
+                            throw new IllegalStateException("Unreadable key in key set " + name);
+                        }
+                        keys.add(key);
+                    }
+                    mKeySetMapping.put(name, keys);
+                }
+            }
+        }
+
+        /**
+         * Writes the state that {@link PackageParser#parsePackage} produces.
+         * Certificates and everything the package manager fills in after
+         * parsing are left out.
+         */
+        void writeToParcel(Parcel dest, int flags) {
+            flags |= Parcelable.PARCELABLE_ELIDE_DUPLICATES;
+            dest.writeString(packageName);
+            dest.writeStringArray(splitNames);
+            dest.writeString(volumeUuid);
+            dest.writeString(codePath);
+            dest.writeString(baseCodePath);
+            dest.writeStringArray(splitCodePaths);
+            dest.writeInt(baseRevisionCode);
+            dest.writeIntArray(splitRevisionCodes);
+            dest.writeIntArray(splitFlags);
+            dest.writeIntArray(splitPrivateFlags);
+            dest.writeInt(baseHardwareAccelerated ? 1 : 0);
+            applicationInfo.writeToParcel(dest, flags);
+
+            writeComponents(dest, permissions, flags);
+            writeComponents(dest, permissionGroups, flags);
+            writeComponents(dest, activities, flags);
+            writeComponents(dest, receivers, flags);
+            writeComponents(dest, providers, flags);
+            writeComponents(dest, services, flags);
+            writeComponents(dest, instrumentation, flags);
+
+            dest.writeStringList(requestedPermissions);
+            dest.writeStringList(protectedBroadcasts);
+            dest.writeStringList(libraryNames);
+            dest.writeStringList(usesLibraries);
+            dest.writeStringList(usesOptionalLibraries);
+
+            if (preferredActivityFilters == null) {
+                dest.writeInt(-1);
+            } else {
+                final int N = preferredActivityFilters.size();
+                dest.writeInt(N);
+                for (int i = 0; i < N; i++) {
+                    final ActivityIntentInfo intent = preferredActivityFilters.get(i);
+                    dest.writeInt(activities.indexOf(intent.activity));
+                    intent.writeIntentInfoToParcel(dest, flags);
+                }
+            }
+
+            dest.writeStringList(mOriginalPackages);
+            dest.writeString(mRealPackage);
+            dest.writeStringList(mAdoptPermissions);
+            dest.writeBundle(mAppMetaData);
+            dest.writeInt(mVersionCode);
+            dest.writeString(mVersionName);
+            dest.writeString(mSharedUserId);
+            dest.writeInt(mSharedUserLabel);
+            dest.writeTypedList(configPreferences);
+            dest.writeTypedList(reqFeatures);
+            dest.writeTypedList(featureGroups);
+            dest.writeInt(installLocation);
+            dest.writeInt(coreApp ? 1 : 0);
+            dest.writeInt(mRequiredForAllUsers ? 1 : 0);
+            dest.writeString(mRestrictedAccountType);
+            dest.writeString(mRequiredAccountType);
+            dest.writeString(mOverlayTarget);
+            dest.writeInt(mOverlayPriority);
+            dest.writeInt(mTrustedOverlay ? 1 : 0);
+
+            dest.writeStringList(mUpgradeKeySets != null
+                    ? new ArrayList<String>(mUpgradeKeySets) : null);
+            if (mKeySetMapping == null) {
+                dest.writeInt(-1);
+            } else {
+                final int N = mKeySetMapping.size();
+                dest.writeInt(N);
+                for (int i = 0; i < N; i++) {
+                    dest.writeString(mKeySetMapping.keyAt(i));
+                    final ArraySet<PublicKey> keys = mKeySetMapping.valueAt(i);
+                    dest.writeInt(keys.size());
+                    for (int j = 0; j < keys.size(); j++) {
+                        dest.writeString(Base64.encodeToString(
+                                keys.valueAt(j).getEncoded(), Base64.NO_WRAP));
+                    }
+                }
+            }
+        }
+
+        private static void writeComponents(Parcel dest,
+                ArrayList<? extends Component> components, int flags) {
+            final int N = components.size();
+            dest.writeInt(N);
+            for (int i = 0; i < N; i++) {
+                components.get(i).writeToParcel(dest, flags);
+            }
+        }
+
         public List<String> getAllCodePaths() {
             ArrayList<String> paths = new ArrayList<>();
             paths.add(baseCodePath);
@@ -4622,6 +4897,31 @@ public class PackageParser {
             componentName = clone.componentName;
             componentShortName = clone.componentShortName;
         }
+
+        /**
+         * Restores the part of a component written by {@link #writeToParcel};
+         * subclasses read their info and intents after it.
+         */
+        Component(Package _owner, Parcel in) {
+            owner = _owner;
+            className = intern(in.readString());
+            metaData = in.readBundle();
+            intents = in.readInt() != 0 ? new ArrayList<II>(0) : null;
+        }
+
+        void writeToParcel(Parcel dest, int flags) {
+            dest.writeString(className);
+            dest.writeBundle(metaData);
+            dest.writeInt(intents != null ? 1 : 0);
+        }
+
+        void writeIntents(Parcel dest, int flags) {
+            final int N = intents.size();
+            dest.writeInt(N);
+            for (int i = 0; i < N; i++) {
+                intents.get(i).writeIntentInfoToParcel(dest, flags);
+            }
+        }
         
         public ComponentName getComponentName() {
             if (componentName != null) {
@@ -4662,6 +4962,21 @@ public class PackageParser {
             super(_owner);
             info = _info;
         }
+
+        Permission(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = PermissionInfo.CREATOR.createFromParcel(in);
+            internPackageItemInfo(info, _owner);
+            info.group = intern(info.group);
+            tree = in.readInt() != 0;
+        }
+
+        @Override
+        void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+            dest.writeInt(tree ? 1 : 0);
+        }
         
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
@@ -4688,6 +5003,18 @@ public class PackageParser {
             info = _info;
         }
 
+        PermissionGroup(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = PermissionGroupInfo.CREATOR.createFromParcel(in);
+            internPackageItemInfo(info, _owner);
+        }
+
+        @Override
+        void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -4853,6 +5180,27 @@ public class PackageParser {
             info = _info;
             info.applicationInfo = args.owner.applicationInfo;
         }
+
+        Activity(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ActivityInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            internComponentInfo(info, _owner);
+            info.permission = intern(info.permission);
+            info.taskAffinity = intern(info.taskAffinity);
+            info.targetActivity = intern(info.targetActivity);
+            info.parentActivityName = intern(info.parentActivityName);
+            for (int i = in.readInt(); i > 0; i--) {
+                intents.add(new ActivityIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+            writeIntents(dest, flags);
+        }
         
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
@@ -4907,6 +5255,24 @@ public class PackageParser {
             info = _info;
             info.applicationInfo = args.owner.applicationInfo;
         }
+
+        Service(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ServiceInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            internComponentInfo(info, _owner);
+            info.permission = intern(info.permission);
+            for (int i = in.readInt(); i > 0; i--) {
+                intents.add(new ServiceIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+            writeIntents(dest, flags);
+        }
         
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
@@ -4957,6 +5323,28 @@ public class PackageParser {
             this.syncable = existingProvider.syncable;
         }
 
+        Provider(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ProviderInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            internComponentInfo(info, _owner);
+            info.authority = intern(info.authority);
+            info.readPermission = intern(info.readPermission);
+            info.writePermission = intern(info.writePermission);
+            syncable = in.readInt() != 0;
+            for (int i = in.readInt(); i > 0; i--) {
+                intents.add(new ProviderIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+            dest.writeInt(syncable ? 1 : 0);
+            writeIntents(dest, flags);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5001,6 +5389,19 @@ public class PackageParser {
             super(args, _info);
             info = _info;
         }
+
+        Instrumentation(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = InstrumentationInfo.CREATOR.createFromParcel(in);
+            internPackageItemInfo(info, _owner);
+            info.targetPackage = intern(info.targetPackage);
+        }
+
+        @Override
+        void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            info.writeToParcel(dest, flags);
+        }
         
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
@@ -5037,6 +5438,32 @@ public class PackageParser {
         public int logo;
         public int banner;
         public int preferred;
+
+        public IntentInfo() {
+        }
+
+        IntentInfo(Parcel in) {
+            super(in);
+            internStrings();
+            hasDefault = in.readInt() != 0;
+            labelRes = in.readInt();
+            nonLocalizedLabel = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
+            icon = in.readInt();
+            logo = in.readInt();
+            banner = in.readInt();
+            preferred = in.readInt();
+        }
+
+        void writeIntentInfoToParcel(Parcel dest, int flags) {
+            writeToParcel(dest, flags);
+            dest.writeInt(hasDefault ? 1 : 0);
+            dest.writeInt(labelRes);
+            TextUtils.writeToParcel(nonLocalizedLabel, dest, flags);
+            dest.writeInt(icon);
+            dest.writeInt(logo);
+            dest.writeInt(banner);
+            dest.writeInt(preferred);
+        }
     }
 
     public final static class ActivityIntentInfo extends IntentInfo {
@@ -5046,6 +5473,11 @@ public class PackageParser {
             activity = _activity;
         }
 
+        ActivityIntentInfo(Activity _activity, Parcel in) {
+            super(in);
+            activity = _activity;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ActivityIntentInfo{");
@@ -5064,6 +5496,11 @@ public class PackageParser {
             service = _service;
         }
 
+        ServiceIntentInfo(Service _service, Parcel in) {
+            super(in);
+            service = _service;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ServiceIntentInfo{");
@@ -5082,6 +5519,11 @@ public class PackageParser {
             this.provider = provider;
         }
 
+        ProviderIntentInfo(Provider provider, Parcel in) {
+            super(in);
+            this.provider = provider;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ProviderIntentInfo{");
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.pm;
+
+import android.os.FileUtils;
+import android.util.DisplayMetrics;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Parses every package in a directory of APKs, without a cache, through a
+ * cache that is fully populated, and through one whose entries are all
+ * stale.
+ */
+public class PackageParserBenchmark extends SimpleBenchmark {
+
+    @Param({"/system/app", "/system/priv-app"})
+    String mDir;
+
+    private final ArrayList<File> mPackages = new ArrayList<File>();
+    private File mCacheDir;
+    private DisplayMetrics mMetrics;
+
+    @Override
+    protected void setUp() throws Exception {
+        final File[] files = new File(mDir).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() || PackageParser.isApkFile(file)) {
+                    mPackages.add(file);
+                }
+            }
+        }
+        mCacheDir = File.createTempFile("package_cache", null);
+        mCacheDir.delete();
+        mCacheDir.mkdirs();
+        mMetrics = new DisplayMetrics();
+        mMetrics.setToDefaults();
+
+        // Populate the cache once for timeCached.
+        parseAll(new PackageParserCache(mCacheDir), 0);
+    }
+
+    @Override
+    protected void tearDown() {
+        FileUtils.deleteContents(mCacheDir);
+        mCacheDir.delete();
+        mPackages.clear();
+    }
+
+    private int parseAll(PackageParserCache cache, int flags) {
+        int count = 0;
+        for (File file : mPackages) {
+            final PackageParser pp = new PackageParser();
+            pp.setDisplayMetrics(mMetrics);
+            pp.setCache(cache);
+            try {
+                count += pp.parsePackage(file, flags).activities.size();
+            } catch (PackageParser.PackageParserException e) {
+                // Count only the packages that parse.
+            }
+        }
+        return count;
+    }
+
+    public int timeUncached(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            sum += parseAll(null, 0);
+        }
+        return sum;
+    }
+
+    public int timeCached(int reps) {
+        final PackageParserCache cache = new PackageParserCache(mCacheDir);
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            sum += parseAll(cache, 0);
+        }
+        if (cache.getMissCount() != 0) {
+            throw new IllegalStateException(cache.getMissCount() + " cache misses");
+        }
+        return sum;
+    }
+
+    public int timeStale(int reps) {
+        // Different parse flags invalidate every entry, so each parse also
+        // pays for the lookup and for rewriting its entry.
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            sum += parseAll(new PackageParserCache(mCacheDir),
+                    (i & 1) == 0 ? PackageParser.PARSE_CHATTY : 0);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.pm;
+
+import android.os.Build;
+import android.os.Parcel;
+import android.util.AtomicFile;
+import android.util.Slog;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the results of {@link PackageParser#parsePackage} on disk, one
+ * parcelled {@link PackageParser.Package} per package, so that unchanged
+ * packages need not be parsed again on the next boot.
+ * <p>
+ * An entry is only used when the build fingerprint, the size and
+ * modification time of every APK of the package, and the parser
+ * configuration all match what they were when it was written; otherwise it
+ * is a miss and gets replaced. Parcels are not a stable format, which is why
+ * the fingerprint is part of every entry.
+ * <p>
+ * The whole cache is wiped when the build fingerprint changes, and
+ * {@link #pruneUnused} deletes the entries of packages that are gone.
+ * <p>
+ * Safe to share between parsers running on different threads.
+ *
+ * @hide
+ */
+public class PackageParserCache {
+    private static final String TAG = "PackageParserCache";
+
+    /** Bump whenever the parcelled form of a package changes. */
+    private static final int CACHE_VERSION = 1;
+
+    /** Holds the version and build fingerprint all entries were written with. */
+    private static final String STAMP_FILE = "stamp";
+
+    private final File mCacheDir;
+
+    /** Names of the entry files looked up successfully or written since construction. */
+    private final Set<String> mUsedEntries =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mWriteFailures = new AtomicInteger();
+
+    public PackageParserCache(File cacheDir) {
+        mCacheDir = cacheDir;
+        wipeIfStale();
+    }
+
+    /**
+     * Deletes every entry if the cache was written by another build, since
+     * none of them can be used.
+     */
+    private void wipeIfStale() {
+        final byte[] stamp = (CACHE_VERSION + " " + Build.FINGERPRINT)
+                .getBytes(StandardCharsets.UTF_8);
+        final AtomicFile stampFile = new AtomicFile(new File(mCacheDir, STAMP_FILE));
+        try {
+            if (Arrays.equals(stamp, stampFile.readFully())) {
+                return;
+            }
+        } catch (IOException e) {
+            // Missing or unreadable; either way the entries can't be trusted.
+        }
+
+        final File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            Slog.i(TAG, "Build changed, deleting " + files.length + " cache files");
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = stampFile.startWrite();
+            fos.write(stamp);
+            stampFile.finishWrite(fos);
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to write cache stamp", e);
+            stampFile.failWrite(fos);
+        }
+    }
+
+    /**
+     * Deletes the entries that were neither used nor written since the cache
+     * was created, i.e. those of packages that were uninstalled or moved.
+     * Call once every package on the device has been scanned.
+     */
+    public void pruneUnused() {
+        final File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        int pruned = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".bak")) {
+                name = name.substring(0, name.length() - 4);
+            }
+            if (!STAMP_FILE.equals(name) && !mUsedEntries.contains(name)) {
+                file.delete();
+                pruned++;
+            }
+        }
+        if (pruned > 0) {
+            Slog.i(TAG, "Pruned " + pruned + " unused cache files");
+        }
+    }
+
+    /**
+     * Returns the package parsed earlier from {@code packageFile} with the
+     * parser configuration {@code config}, or null if there is no such entry
+     * or the package has changed since.
+     */
+    PackageParser.Package get(File packageFile, String config) {
+        final AtomicFile file = getEntryFile(packageFile);
+        final byte[] bytes;
+        try {
+            bytes = file.readFully();
+        } catch (FileNotFoundException e) {
+            mMisses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to read cache entry for " + packageFile, e);
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        final Parcel in = Parcel.obtain();
+        try {
+            in.unmarshall(bytes, 0, bytes.length);
+            in.setDataPosition(0);
+            if (in.readInt() == CACHE_VERSION
+                    && Build.FINGERPRINT.equals(in.readString())
+                    && packageFile.getAbsolutePath().equals(in.readString())
+                    && config.equals(in.readString())
+                    && Arrays.equals(getStamp(packageFile), in.createLongArray())) {
+                final PackageParser.Package pkg = new PackageParser.Package(in);
+                mUsedEntries.add(file.getBaseFile().getName());
+                mHits.incrementAndGet();
+                return pkg;
+            }
+        } catch (RuntimeException e) {
+            Slog.w(TAG, "Corrupt cache entry for " + packageFile, e);
+            file.delete();
+        } finally {
+            in.recycle();
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores {@code pkg}, just parsed from {@code packageFile} with the parser
+     * configuration {@code config}. Must be called before anything modifies
+     * the package.
+     */
+    void put(File packageFile, String config, PackageParser.Package pkg) {
+        final Parcel out = Parcel.obtain();
+        final byte[] bytes;
+        try {
+            out.writeInt(CACHE_VERSION);
+            out.writeString(Build.FINGERPRINT);
+            out.writeString(packageFile.getAbsolutePath());
+            out.writeString(config);
+            out.writeLongArray(getStamp(packageFile));
+            pkg.writeToParcel(out, 0);
+            bytes = out.marshall();
+        } finally {
+            out.recycle();
+        }
+
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            mWriteFailures.incrementAndGet();
+            return;
+        }
+        final AtomicFile file = getEntryFile(packageFile);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            fos.write(bytes);
+            file.finishWrite(fos);
+            mUsedEntries.add(file.getBaseFile().getName());
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to write cache entry for " + packageFile, e);
+            file.failWrite(fos);
+            mWriteFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns how many lookups found a valid entry.
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Returns how many lookups found no entry or a stale one.
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Returns how many entries could not be written.
+     */
+    public int getWriteFailureCount() {
+        return mWriteFailures.get();
+    }
+
+    private AtomicFile getEntryFile(File packageFile) {
+        // The name alone is not unique across partitions, so add a hash of
+        // the full path; the path itself is checked when the entry is read.
+        final String path = packageFile.getAbsolutePath();
+        return new AtomicFile(new File(mCacheDir,
+                packageFile.getName() + "-" + Integer.toHexString(path.hashCode())));
+    }
+
+    /**
+     * Returns the size and modification time of {@code packageFile}, or the
+     * name, size and modification time of every APK in it if it is a cluster
+     * package directory. Other entries, like the oat/ and lib/ directories
+     * that dexopt and native library extraction write to, don't affect what
+     * the parser returns and are left out.
+     */
+    private static long[] getStamp(File packageFile) {
+        if (!packageFile.isDirectory()) {
+            return new long[] { packageFile.length(), packageFile.lastModified() };
+        }
+        final File[] files = packageFile.listFiles();
+        if (files == null) {
+            return new long[0];
+        }
+        Arrays.sort(files);
+        final long[] stamp = new long[files.length * 3];
+        int n = 0;
+        for (File file : files) {
+            if (PackageParser.isApkFile(file)) {
+                stamp[n++] = file.getName().hashCode();
+                stamp[n++] = file.length();
+                stamp[n++] = file.lastModified();
+            }
+        }
+        return Arrays.copyOf(stamp, n);
+    }
+}
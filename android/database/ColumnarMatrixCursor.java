@@ -0,0 +1,580 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+/**
+ * A mutable, in-memory cursor that stores each column in its own typed array.
+ * <p>
+ * Where {@link MatrixCursor} keeps every cell as an {@code Object}, this class
+ * declares a type for each column up front and stores integer columns in a
+ * {@code long[]}, float columns in a {@code double[]}, and string and blob columns
+ * in {@code String[]} and {@code byte[][]}.  Numeric values are never boxed, which
+ * keeps large numeric result sets small and makes {@link #getLong} and
+ * {@link #getDouble} plain array reads.
+ * </p><p>
+ * Rows can be added one at a time with {@link #newRow()}, or in bulk by reserving
+ * rows with {@link #appendRows(int)} and copying whole column slices in with
+ * {@link #putLongs}, {@link #putDoubles}, {@link #putStrings} and {@link #putBlobs}.
+ * Integer and float cells that were never written read as 0; use
+ * {@link RowBuilder#addNull()} or {@link #putNull} to store an explicit null.
+ * </p><p>
+ * Not safe for concurrent use.
+ * </p>
+ */
+public class ColumnarMatrixCursor extends AbstractCursor {
+
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final int columnCount;
+
+    // Exactly one of these is non-null for each column, depending on its type.
+    private final long[][] longColumns;
+    private final double[][] doubleColumns;
+    private final String[][] stringColumns;
+    private final byte[][][] blobColumns;
+
+    // Null bitmaps for numeric columns, allocated the first time a null is stored.
+    private final long[][] nullMasks;
+
+    private int rowCount = 0;
+    private int capacity;
+
+    private final RowBuilder rowBuilder = new RowBuilder();
+
+    /**
+     * Constructs a new cursor with the given initial capacity.
+     *
+     * @param columnNames names of the columns, the ordering of which
+     *  determines column ordering elsewhere in this cursor
+     * @param columnTypes the type of each column, one of
+     *  {@link Cursor#FIELD_TYPE_INTEGER}, {@link Cursor#FIELD_TYPE_FLOAT},
+     *  {@link Cursor#FIELD_TYPE_STRING} or {@link Cursor#FIELD_TYPE_BLOB}
+     * @param initialCapacity in rows
+     * @throws IllegalArgumentException if the arrays differ in length or a
+     *  column type is not supported
+     */
+    public ColumnarMatrixCursor(String[] columnNames, int[] columnTypes, int initialCapacity) {
+        if (columnNames.length != columnTypes.length) {
+            throw new IllegalArgumentException("columnNames.length = "
+                    + columnNames.length + ", columnTypes.length = "
+                    + columnTypes.length);
+        }
+
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes.clone();
+        this.columnCount = columnNames.length;
+
+        if (initialCapacity < 1) {
+            initialCapacity = 1;
+        }
+        this.capacity = initialCapacity;
+
+        longColumns = new long[columnCount][];
+        doubleColumns = new double[columnCount][];
+        stringColumns = new String[columnCount][];
+        blobColumns = new byte[columnCount][][];
+        nullMasks = new long[columnCount][];
+
+        for (int i = 0; i < columnCount; i++) {
+            switch (this.columnTypes[i]) {
+                case FIELD_TYPE_INTEGER:
+                    longColumns[i] = new long[initialCapacity];
+                    break;
+                case FIELD_TYPE_FLOAT:
+                    doubleColumns[i] = new double[initialCapacity];
+                    break;
+                case FIELD_TYPE_STRING:
+                    stringColumns[i] = new String[initialCapacity];
+                    break;
+                case FIELD_TYPE_BLOB:
+                    blobColumns[i] = new byte[initialCapacity][];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported type "
+                            + this.columnTypes[i] + " for column " + columnNames[i]);
+            }
+        }
+    }
+
+    /**
+     * Constructs a new cursor.
+     *
+     * @param columnNames names of the columns, the ordering of which
+     *  determines column ordering elsewhere in this cursor
+     * @param columnTypes the type of each column
+     */
+    public ColumnarMatrixCursor(String[] columnNames, int[] columnTypes) {
+        this(columnNames, columnTypes, 16);
+    }
+
+    /**
+     * Adds a new row to the end and returns a builder for that row. The same
+     * builder instance is reused for every row, so it is only valid until the
+     * next call to {@link #newRow()}.
+     *
+     * @return builder which can be used to set the column values for the new
+     *  row
+     */
+    public RowBuilder newRow() {
+        final int row = appendRows(1);
+        rowBuilder.reset(row);
+        return rowBuilder;
+    }
+
+    /**
+     * Reserves {@code count} new rows at the end of the cursor. The new rows
+     * hold 0 in numeric columns and null in string and blob columns until they
+     * are filled in.
+     *
+     * @return the index of the first new row
+     */
+    public int appendRows(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0: " + count);
+        }
+        final int first = rowCount;
+        ensureCapacity(first + count);
+        rowCount += count;
+        return first;
+    }
+
+    /**
+     * Copies {@code count} values from {@code src} into an integer column,
+     * starting at {@code firstRow}.
+     */
+    public void putLongs(int column, int firstRow, long[] src, int srcOffset, int count) {
+        checkRange(firstRow, count);
+        System.arraycopy(src, srcOffset, columnOf(longColumns, column, FIELD_TYPE_INTEGER),
+                firstRow, count);
+        clearNulls(column, firstRow, count);
+    }
+
+    /**
+     * Copies {@code count} values from {@code src} into a float column,
+     * starting at {@code firstRow}.
+     */
+    public void putDoubles(int column, int firstRow, double[] src, int srcOffset, int count) {
+        checkRange(firstRow, count);
+        System.arraycopy(src, srcOffset, columnOf(doubleColumns, column, FIELD_TYPE_FLOAT),
+                firstRow, count);
+        clearNulls(column, firstRow, count);
+    }
+
+    /**
+     * Copies {@code count} values from {@code src} into a string column,
+     * starting at {@code firstRow}.
+     */
+    public void putStrings(int column, int firstRow, String[] src, int srcOffset, int count) {
+        checkRange(firstRow, count);
+        System.arraycopy(src, srcOffset, columnOf(stringColumns, column, FIELD_TYPE_STRING),
+                firstRow, count);
+    }
+
+    /**
+     * Copies {@code count} values from {@code src} into a blob column,
+     * starting at {@code firstRow}.
+     */
+    public void putBlobs(int column, int firstRow, byte[][] src, int srcOffset, int count) {
+        checkRange(firstRow, count);
+        System.arraycopy(src, srcOffset, columnOf(blobColumns, column, FIELD_TYPE_BLOB),
+                firstRow, count);
+    }
+
+    /**
+     * Stores a null in the given cell.
+     */
+    public void putNull(int row, int column) {
+        checkRange(row, 1);
+        checkColumn(column);
+        switch (columnTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                longColumns[column][row] = 0;
+                setNull(column, row);
+                break;
+            case FIELD_TYPE_FLOAT:
+                doubleColumns[column][row] = 0;
+                setNull(column, row);
+                break;
+            case FIELD_TYPE_STRING:
+                stringColumns[column][row] = null;
+                break;
+            case FIELD_TYPE_BLOB:
+                blobColumns[column][row] = null;
+                break;
+        }
+    }
+
+    /** Ensures that this cursor has room for {@code rows} rows. */
+    private void ensureCapacity(int rows) {
+        if (rows <= capacity) {
+            return;
+        }
+        int newCapacity = capacity * 2;
+        if (newCapacity < rows) {
+            newCapacity = rows;
+        }
+        for (int i = 0; i < columnCount; i++) {
+            switch (columnTypes[i]) {
+                case FIELD_TYPE_INTEGER: {
+                    long[] grown = new long[newCapacity];
+                    System.arraycopy(longColumns[i], 0, grown, 0, rowCount);
+                    longColumns[i] = grown;
+                    break;
+                }
+                case FIELD_TYPE_FLOAT: {
+                    double[] grown = new double[newCapacity];
+                    System.arraycopy(doubleColumns[i], 0, grown, 0, rowCount);
+                    doubleColumns[i] = grown;
+                    break;
+                }
+                case FIELD_TYPE_STRING: {
+                    String[] grown = new String[newCapacity];
+                    System.arraycopy(stringColumns[i], 0, grown, 0, rowCount);
+                    stringColumns[i] = grown;
+                    break;
+                }
+                case FIELD_TYPE_BLOB: {
+                    byte[][] grown = new byte[newCapacity][];
+                    System.arraycopy(blobColumns[i], 0, grown, 0, rowCount);
+                    blobColumns[i] = grown;
+                    break;
+                }
+            }
+            if (nullMasks[i] != null) {
+                long[] grown = new long[maskLength(newCapacity)];
+                System.arraycopy(nullMasks[i], 0, grown, 0, nullMasks[i].length);
+                nullMasks[i] = grown;
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    private static int maskLength(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    private void setNull(int column, int row) {
+        long[] mask = nullMasks[column];
+        if (mask == null) {
+            mask = new long[maskLength(capacity)];
+            nullMasks[column] = mask;
+        }
+        mask[row >>> 6] |= 1L << row;
+    }
+
+    private void clearNulls(int column, int firstRow, int count) {
+        final long[] mask = nullMasks[column];
+        if (mask == null) {
+            return;
+        }
+        final int end = firstRow + count;
+        for (int row = firstRow; row < end; row++) {
+            mask[row >>> 6] &= ~(1L << row);
+        }
+    }
+
+    private boolean isNullNumeric(int column, int row) {
+        final long[] mask = nullMasks[column];
+        return mask != null && (mask[row >>> 6] & (1L << row)) != 0;
+    }
+
+    private <T> T columnOf(T[] columns, int column, int expectedType) {
+        checkColumn(column);
+        if (columnTypes[column] != expectedType) {
+            throw new IllegalArgumentException("Column " + columnNames[column]
+                    + " has type " + columnTypes[column] + ", not " + expectedType);
+        }
+        return columns[column];
+    }
+
+    private void checkColumn(int column) {
+        if (column < 0 || column >= columnCount) {
+            throw new CursorIndexOutOfBoundsException("Requested column: "
+                    + column + ", # of columns: " +  columnCount);
+        }
+    }
+
+    private void checkRange(int firstRow, int count) {
+        if (firstRow < 0 || count < 0 || firstRow + count > rowCount) {
+            throw new CursorIndexOutOfBoundsException("Rows " + firstRow + " to "
+                    + (firstRow + count) + " out of range, # of rows: " + rowCount);
+        }
+    }
+
+    /**
+     * Validates the column index and the cursor position, and returns the
+     * current row.
+     */
+    private int row(int column) {
+        checkColumn(column);
+        if (mPos < 0) {
+            throw new CursorIndexOutOfBoundsException("Before first row.");
+        }
+        if (mPos >= rowCount) {
+            throw new CursorIndexOutOfBoundsException("After last row.");
+        }
+        return mPos;
+    }
+
+    /**
+     * Builds a row of values from left to right. Unlike
+     * {@link MatrixCursor.RowBuilder}, the typed {@code add} methods store
+     * values without boxing them.
+     */
+    public class RowBuilder {
+        private int row;
+        private int column;
+
+        RowBuilder() {
+        }
+
+        void reset(int row) {
+            this.row = row;
+            this.column = 0;
+        }
+
+        private int nextColumn() {
+            if (column == columnCount) {
+                throw new CursorIndexOutOfBoundsException(
+                        "No more columns left.");
+            }
+            return column++;
+        }
+
+        /**
+         * Sets the next column value in this row.
+         *
+         * @throws CursorIndexOutOfBoundsException if you try to add too many
+         *  values
+         * @return this builder to support chaining
+         */
+        public RowBuilder add(long value) {
+            final int c = nextColumn();
+            switch (columnTypes[c]) {
+                case FIELD_TYPE_INTEGER:
+                    longColumns[c][row] = value;
+                    break;
+                case FIELD_TYPE_FLOAT:
+                    doubleColumns[c][row] = value;
+                    break;
+                case FIELD_TYPE_STRING:
+                    stringColumns[c][row] = Long.toString(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Column " + columnNames[c]
+                            + " cannot hold a number");
+            }
+            return this;
+        }
+
+        /**
+         * Sets the next column value in this row.
+         *
+         * @return this builder to support chaining
+         */
+        public RowBuilder add(double value) {
+            final int c = nextColumn();
+            switch (columnTypes[c]) {
+                case FIELD_TYPE_INTEGER:
+                    longColumns[c][row] = (long) value;
+                    break;
+                case FIELD_TYPE_FLOAT:
+                    doubleColumns[c][row] = value;
+                    break;
+                case FIELD_TYPE_STRING:
+                    stringColumns[c][row] = Double.toString(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Column " + columnNames[c]
+                            + " cannot hold a number");
+            }
+            return this;
+        }
+
+        /**
+         * Sets the next column value in this row.
+         *
+         * @return this builder to support chaining
+         */
+        public RowBuilder add(String value) {
+            final int c = nextColumn();
+            if (value == null) {
+                putNull(row, c);
+                return this;
+            }
+            switch (columnTypes[c]) {
+                case FIELD_TYPE_INTEGER:
+                    longColumns[c][row] = Long.parseLong(value);
+                    break;
+                case FIELD_TYPE_FLOAT:
+                    doubleColumns[c][row] = Double.parseDouble(value);
+                    break;
+                case FIELD_TYPE_STRING:
+                    stringColumns[c][row] = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Column " + columnNames[c]
+                            + " cannot hold a string");
+            }
+            return this;
+        }
+
+        /**
+         * Sets the next column value in this row.
+         *
+         * @return this builder to support chaining
+         */
+        public RowBuilder add(byte[] value) {
+            final int c = nextColumn();
+            if (value == null) {
+                putNull(row, c);
+                return this;
+            }
+            if (columnTypes[c] != FIELD_TYPE_BLOB) {
+                throw new IllegalArgumentException("Column " + columnNames[c]
+                        + " cannot hold a blob");
+            }
+            blobColumns[c][row] = value;
+            return this;
+        }
+
+        /**
+         * Sets the next column value in this row to null.
+         *
+         * @return this builder to support chaining
+         */
+        public RowBuilder addNull() {
+            putNull(row, nextColumn());
+            return this;
+        }
+    }
+
+    // AbstractCursor implementation.
+
+    @Override
+    public int getCount() {
+        return rowCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        final int row = row(column);
+        switch (columnTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                if (isNullNumeric(column, row)) return null;
+                return Long.toString(longColumns[column][row]);
+            case FIELD_TYPE_FLOAT:
+                if (isNullNumeric(column, row)) return null;
+                return Double.toString(doubleColumns[column][row]);
+            case FIELD_TYPE_STRING:
+                return stringColumns[column][row];
+            default:
+                byte[] value = blobColumns[column][row];
+                return value == null ? null : value.toString();
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        final int row = row(column);
+        switch (columnTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                return (int) longColumns[column][row];
+            case FIELD_TYPE_FLOAT:
+                return (int) doubleColumns[column][row];
+            default:
+                String value = getString(column);
+                if (value == null) return 0;
+                return Integer.parseInt(value);
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        final int row = row(column);
+        switch (columnTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                return longColumns[column][row];
+            case FIELD_TYPE_FLOAT:
+                return (long) doubleColumns[column][row];
+            default:
+                String value = getString(column);
+                if (value == null) return 0;
+                return Long.parseLong(value);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final int row = row(column);
+        switch (columnTypes[column]) {
+            case FIELD_TYPE_INTEGER:
+                return longColumns[column][row];
+            case FIELD_TYPE_FLOAT:
+                return doubleColumns[column][row];
+            default:
+                String value = getString(column);
+                if (value == null) return 0.0d;
+                return Double.parseDouble(value);
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        final int row = row(column);
+        if (columnTypes[column] == FIELD_TYPE_BLOB) {
+            return blobColumns[column][row];
+        }
+        if (isNull(column)) {
+            return null;
+        }
+        throw new ClassCastException("Column " + columnNames[column] + " is not a blob");
+    }
+
+    @Override
+    public int getType(int column) {
+        return isNull(column) ? FIELD_TYPE_NULL : columnTypes[column];
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        final int row = row(column);
+        switch (columnTypes[column]) {
+            case FIELD_TYPE_STRING:
+                return stringColumns[column][row] == null;
+            case FIELD_TYPE_BLOB:
+                return blobColumns[column][row] == null;
+            default:
+                return isNullNumeric(column, row);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+/**
+ * Compares filling and scanning a numeric result set with {@link MatrixCursor}
+ * and {@link ColumnarMatrixCursor}.
+ */
+public class ColumnarMatrixCursorBenchmark extends SimpleBenchmark {
+    private static final String[] COLUMNS = { "id", "timestamp", "value" };
+    private static final int[] TYPES = { Cursor.FIELD_TYPE_INTEGER,
+            Cursor.FIELD_TYPE_INTEGER, Cursor.FIELD_TYPE_FLOAT };
+
+    @Param({"1000", "100000"})
+    private int mRows;
+
+    private MatrixCursor mMatrixCursor;
+    private ColumnarMatrixCursor mColumnarCursor;
+
+    @Override
+    protected void setUp() {
+        mMatrixCursor = fillMatrixCursor();
+        mColumnarCursor = fillColumnarCursor();
+    }
+
+    private MatrixCursor fillMatrixCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, mRows);
+        for (int i = 0; i < mRows; i++) {
+            cursor.newRow().add(i).add(1000L * i).add(i * 0.25);
+        }
+        return cursor;
+    }
+
+    private ColumnarMatrixCursor fillColumnarCursor() {
+        ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(COLUMNS, TYPES, mRows);
+        for (int i = 0; i < mRows; i++) {
+            cursor.newRow().add(i).add(1000L * i).add(i * 0.25);
+        }
+        return cursor;
+    }
+
+    public int timeMatrixCursorFill(int reps) {
+        int count = 0;
+        for (int i = 0; i < reps; i++) {
+            count += fillMatrixCursor().getCount();
+        }
+        return count;
+    }
+
+    public int timeColumnarCursorFill(int reps) {
+        int count = 0;
+        for (int i = 0; i < reps; i++) {
+            count += fillColumnarCursor().getCount();
+        }
+        return count;
+    }
+
+    public int timeColumnarCursorBulkFill(int reps) {
+        final long[] ids = new long[mRows];
+        final long[] timestamps = new long[mRows];
+        final double[] values = new double[mRows];
+        for (int i = 0; i < mRows; i++) {
+            ids[i] = i;
+            timestamps[i] = 1000L * i;
+            values[i] = i * 0.25;
+        }
+        int count = 0;
+        for (int i = 0; i < reps; i++) {
+            ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(COLUMNS, TYPES, mRows);
+            int first = cursor.appendRows(mRows);
+            cursor.putLongs(0, first, ids, 0, mRows);
+            cursor.putLongs(1, first, timestamps, 0, mRows);
+            cursor.putDoubles(2, first, values, 0, mRows);
+            count += cursor.getCount();
+        }
+        return count;
+    }
+
+    public double timeMatrixCursorScan(int reps) {
+        return scan(mMatrixCursor, reps);
+    }
+
+    public double timeColumnarCursorScan(int reps) {
+        return scan(mColumnarCursor, reps);
+    }
+
+    private static double scan(Cursor cursor, int reps) {
+        double sum = 0;
+        for (int i = 0; i < reps; i++) {
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                sum += cursor.getLong(0) + cursor.getLong(1) + cursor.getDouble(2);
+            }
+        }
+        return sum;
+    }
+}
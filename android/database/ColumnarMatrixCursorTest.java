@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import junit.framework.TestCase;
+
+public class ColumnarMatrixCursorTest extends TestCase {
+
+    private static final String[] NAMES = { "i", "d", "s", "b" };
+    private static final int[] TYPES = { Cursor.FIELD_TYPE_INTEGER, Cursor.FIELD_TYPE_FLOAT,
+            Cursor.FIELD_TYPE_STRING, Cursor.FIELD_TYPE_BLOB };
+
+    public void testEmptyCursor() {
+        Cursor cursor = new ColumnarMatrixCursor(NAMES, TYPES);
+        assertEquals(0, cursor.getCount());
+        assertEquals(4, cursor.getColumnCount());
+    }
+
+    public void testRowBuilder() {
+        ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(NAMES, TYPES, 1);
+        for (int i = 0; i < 100; i++) {
+            cursor.newRow().add(i).add(i / 4.0).add("s" + i).add(new byte[] { (byte) i });
+        }
+        assertEquals(100, cursor.getCount());
+
+        int i = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(i, cursor.getLong(0));
+            assertEquals(i, cursor.getInt(0));
+            assertEquals(i / 4.0, cursor.getDouble(1));
+            assertEquals("s" + i, cursor.getString(2));
+            assertEquals((byte) i, cursor.getBlob(3)[0]);
+            assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(0));
+            assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(1));
+            assertEquals(Integer.toString(i), cursor.getString(0));
+            i++;
+        }
+        assertEquals(100, i);
+    }
+
+    public void testNullValues() {
+        ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(NAMES, TYPES);
+        cursor.newRow().addNull().addNull().addNull().addNull();
+        cursor.newRow();
+        cursor.moveToFirst();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(cursor.isNull(i));
+            assertEquals(Cursor.FIELD_TYPE_NULL, cursor.getType(i));
+            assertNull(cursor.getString(i));
+        }
+        assertEquals(0L, cursor.getLong(0));
+        assertEquals(0.0d, cursor.getDouble(1));
+
+        // Numeric cells that were never written read as 0, not null.
+        cursor.moveToNext();
+        assertFalse(cursor.isNull(0));
+        assertEquals(0L, cursor.getLong(0));
+        assertTrue(cursor.isNull(2));
+    }
+
+    public void testBulkAppend() {
+        ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(
+                new String[] { "a", "b" },
+                new int[] { Cursor.FIELD_TYPE_INTEGER, Cursor.FIELD_TYPE_FLOAT });
+        long[] longs = new long[1000];
+        double[] doubles = new double[1000];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = i * 3L;
+            doubles[i] = i * 0.5;
+        }
+        int first = cursor.appendRows(1000);
+        cursor.putLongs(0, first, longs, 0, 1000);
+        cursor.putDoubles(1, first, doubles, 0, 1000);
+        cursor.putNull(10, 0);
+
+        assertEquals(1000, cursor.getCount());
+        cursor.moveToPosition(999);
+        assertEquals(2997L, cursor.getLong(0));
+        assertEquals(499.5d, cursor.getDouble(1));
+        cursor.moveToPosition(10);
+        assertTrue(cursor.isNull(0));
+
+        // Overwriting clears the null flag.
+        cursor.putLongs(0, 10, longs, 10, 1);
+        assertFalse(cursor.isNull(0));
+        assertEquals(30L, cursor.getLong(0));
+    }
+
+    public void testTypeMismatch() {
+        ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(NAMES, TYPES);
+        cursor.appendRows(1);
+        try {
+            cursor.putLongs(2, 0, new long[1], 0, 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            cursor.newRow().add(1).add(2).add(3).add(4);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testMismatchedTypesArray() {
+        try {
+            new ColumnarMatrixCursor(NAMES, new int[] { Cursor.FIELD_TYPE_INTEGER });
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTooManyValues() {
+        ColumnarMatrixCursor cursor = new ColumnarMatrixCursor(
+                new String[] { "a" }, new int[] { Cursor.FIELD_TYPE_INTEGER });
+        try {
+            cursor.newRow().add(1).add(2);
+            fail();
+        } catch (CursorIndexOutOfBoundsException expected) {
+        }
+    }
+}
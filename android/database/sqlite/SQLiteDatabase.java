@@ -1320,6 +1320,39 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Runs the provided SQL and returns a forward-only {@link SQLiteStreamingCursor}
+     * over the result set.  The cursor fills one {@link android.database.CursorWindow}
+     * at a time as it advances and never counts the rows up front, which makes
+     * this a cheap way to scan a large result set once.
+     *
+     * @param sql the SQL query. The SQL string must not be ; terminated
+     * @param selectionArgs You may include ?s in where clause in the query,
+     *     which will be replaced by the values from selectionArgs. The
+     *     values will be bound as Strings.
+     * @param cancellationSignal A signal to cancel the operation in progress, or null if none.
+     * If the operation is canceled, then {@link OperationCanceledException} will be thrown
+     * when the query is executed or the cursor is advanced.
+     * @return A {@link SQLiteStreamingCursor} object, which is positioned before the
+     * first entry.
+     */
+    public SQLiteStreamingCursor rawQueryStreaming(String sql, String[] selectionArgs,
+            CancellationSignal cancellationSignal) {
+        acquireReference();
+        try {
+            final SQLiteQuery query = new SQLiteQuery(this, sql, cancellationSignal);
+            try {
+                query.bindAllArgsAsStrings(selectionArgs);
+                return new SQLiteStreamingCursor(query);
+            } catch (RuntimeException ex) {
+                query.close();
+                throw ex;
+            }
+        } finally {
+            releaseReference();
+        }
+    }
+
     /**
      * Convenience method for inserting a row into the database.
      *
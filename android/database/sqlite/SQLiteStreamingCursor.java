@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import dalvik.system.CloseGuard;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWindow;
+
+import java.io.Closeable;
+import java.util.HashMap;
+
+/**
+ * A forward-only view of the results of a query on a {@link SQLiteDatabase}.
+ * <p>
+ * Unlike {@link SQLiteCursor}, this class never counts the result set: the
+ * first window is filled with only as many rows as fit, and {@link #moveToNext}
+ * fills the next window once the cursor runs off the end of the current one.
+ * A single {@link CursorWindow} is reused throughout, so a scan of a large
+ * table holds one window's worth of rows at a time.  Each refill runs the
+ * query again and steps past the rows already read, as {@link SQLiteCursor}
+ * does when it moves outside its window.  The trade-off is that the result
+ * set cannot be rewound, counted up front, or sent to another process.
+ * </p><p>
+ * The cursor does not hold a database connection between refills.  Like
+ * other cursors, it is not thread-safe.
+ * </p>
+ */
+public final class SQLiteStreamingCursor implements Closeable {
+    private final CloseGuard mCloseGuard = CloseGuard.get();
+
+    private final SQLiteQuery mQuery;
+    private final String[] mColumns;
+
+    private CursorWindow mWindow;
+    private HashMap<String, Integer> mColumnNameMap;
+    private int mPos = -1;
+    private boolean mAfterLast;
+    private boolean mClosed;
+
+    SQLiteStreamingCursor(SQLiteQuery query) {
+        mQuery = query;
+        mColumns = query.getColumnNames();
+        mCloseGuard.open("close");
+    }
+
+    /**
+     * Get the database that this cursor is associated with.
+     * @return the SQLiteDatabase that this cursor is associated with.
+     */
+    public SQLiteDatabase getDatabase() {
+        return mQuery.getDatabase();
+    }
+
+    /**
+     * Moves the cursor to the next row.
+     *
+     * @return false if the cursor is already past the last entry in the result set.
+     */
+    public boolean moveToNext() {
+        if (mAfterLast) {
+            return false;
+        }
+        if (mClosed) {
+            throw new IllegalStateException("Cannot move a closed cursor.");
+        }
+        mPos += 1;
+        if (mWindow == null
+                || mPos >= mWindow.getStartPosition() + mWindow.getNumRows()) {
+            fillWindow();
+            if (mWindow.getStartPosition() != mPos || mWindow.getNumRows() == 0) {
+                mAfterLast = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fillWindow() {
+        if (mWindow == null) {
+            mWindow = new CursorWindow(mQuery.getDatabase().getPath());
+        } else {
+            mWindow.clear();
+        }
+        mQuery.fillWindow(mWindow, mPos, mPos, false);
+    }
+
+    /**
+     * Returns the current position of the cursor in the row set, starting
+     * at -1 before the first row.
+     */
+    public int getPosition() {
+        return mPos;
+    }
+
+    public boolean isBeforeFirst() {
+        return mPos == -1;
+    }
+
+    public boolean isAfterLast() {
+        return mAfterLast;
+    }
+
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    public String getColumnName(int columnIndex) {
+        return mColumns[columnIndex];
+    }
+
+    public int getColumnIndex(String columnName) {
+        // Create mColumnNameMap on demand
+        if (mColumnNameMap == null) {
+            String[] columns = mColumns;
+            int columnCount = columns.length;
+            HashMap<String, Integer> map = new HashMap<String, Integer>(columnCount, 1);
+            for (int i = 0; i < columnCount; i++) {
+                map.put(columns[i], i);
+            }
+            mColumnNameMap = map;
+        }
+
+        Integer i = mColumnNameMap.get(columnName);
+        return i != null ? i.intValue() : -1;
+    }
+
+    public int getColumnIndexOrThrow(String columnName) {
+        final int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    /**
+     * Returns the data type of the given column's value, one of the
+     * {@link Cursor#FIELD_TYPE_NULL} family of constants.
+     */
+    public int getType(int column) {
+        return currentRow(column).getType(mPos, column);
+    }
+
+    public boolean isNull(int column) {
+        return getType(column) == Cursor.FIELD_TYPE_NULL;
+    }
+
+    public long getLong(int column) {
+        return currentRow(column).getLong(mPos, column);
+    }
+
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    public double getDouble(int column) {
+        return currentRow(column).getDouble(mPos, column);
+    }
+
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    public String getString(int column) {
+        return currentRow(column).getString(mPos, column);
+    }
+
+    public byte[] getBlob(int column) {
+        return currentRow(column).getBlob(mPos, column);
+    }
+
+    /**
+     * Copies the text of the requested column into the supplied buffer, growing
+     * {@link CharArrayBuffer#data} only if the value does not fit.  Reusing the
+     * same buffer across rows avoids creating a String per value.
+     */
+    public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+        currentRow(column).copyStringToBuffer(mPos, column, buffer);
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Closes the cursor and releases its window.
+     * Does nothing if the cursor is already closed.
+     */
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mCloseGuard.close();
+        try {
+            if (mWindow != null) {
+                mWindow.close();
+                mWindow = null;
+            }
+        } finally {
+            mQuery.close();
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            if (mCloseGuard != null) {
+                mCloseGuard.warnIfOpen();
+            }
+            close();
+        } finally {
+            super.finalize();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteStreamingCursor: " + mQuery.getSql();
+    }
+
+    private CursorWindow currentRow(int column) {
+        if (mClosed) {
+            throw new IllegalStateException("Cannot read from a closed cursor.");
+        }
+        if (mPos == -1 || mAfterLast) {
+            throw new IllegalStateException("The cursor is not positioned on a row.");
+        }
+        if (column < 0 || column >= mColumns.length) {
+            throw new SQLiteBindOrColumnIndexOutOfRangeException("column index " + column
+                    + " is out of range; the cursor has " + mColumns.length + " columns.");
+        }
+        return mWindow;
+    }
+}
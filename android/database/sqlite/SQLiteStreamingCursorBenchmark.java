@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import java.io.File;
+
+/**
+ * Compares a full forward scan through {@link SQLiteCursor} with the same scan
+ * through {@link SQLiteStreamingCursor}.
+ */
+public class SQLiteStreamingCursorBenchmark extends SimpleBenchmark {
+    private static final String SELECT = "SELECT id, value, name FROM t ORDER BY id";
+
+    @Param({"10000", "1000000"})
+    private int mRows;
+
+    private File mDatabaseFile;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDatabaseFile = File.createTempFile("streaming_cursor_benchmark", ".db");
+        mDatabaseFile.delete();
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile.getPath(), null);
+        mDatabase.execSQL("CREATE TABLE t (id INTEGER PRIMARY KEY, value REAL, name TEXT)");
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO t VALUES (?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < mRows; i++) {
+                insert.bindLong(1, i);
+                insert.bindDouble(2, i * 0.5);
+                insert.bindString(3, "name" + i);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            insert.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        SQLiteDatabase.deleteDatabase(mDatabaseFile);
+    }
+
+    public long timeWindowedCursorScan(int reps) {
+        long sum = 0;
+        CharArrayBuffer buffer = new CharArrayBuffer(32);
+        for (int i = 0; i < reps; i++) {
+            Cursor c = mDatabase.rawQuery(SELECT, null);
+            try {
+                while (c.moveToNext()) {
+                    sum += c.getLong(0);
+                    sum += (long) c.getDouble(1);
+                    c.copyStringToBuffer(2, buffer);
+                    sum += buffer.sizeCopied;
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return sum;
+    }
+
+    public long timeStreamingCursorScan(int reps) {
+        long sum = 0;
+        CharArrayBuffer buffer = new CharArrayBuffer(32);
+        for (int i = 0; i < reps; i++) {
+            SQLiteStreamingCursor c = mDatabase.rawQueryStreaming(SELECT, null, null);
+            try {
+                while (c.moveToNext()) {
+                    sum += c.getLong(0);
+                    sum += (long) c.getDouble(1);
+                    c.copyStringToBuffer(2, buffer);
+                    sum += buffer.sizeCopied;
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return sum;
+    }
+}
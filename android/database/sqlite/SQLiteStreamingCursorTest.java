@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+
+public class SQLiteStreamingCursorTest extends AndroidTestCase {
+    private static final String TABLE_NAME = "testStreaming";
+
+    private SQLiteDatabase mDatabase;
+    private File mDatabaseFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        File dbDir = getContext().getDir(this.getClass().getName(), Context.MODE_PRIVATE);
+        mDatabaseFile = new File(dbDir, "sqlitestreamingcursor_test.db");
+        if (mDatabaseFile.exists()) {
+            mDatabaseFile.delete();
+        }
+        mDatabase = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile.getPath(), null);
+        assertNotNull(mDatabase);
+        mDatabase.execSQL("CREATE TABLE " + TABLE_NAME
+                + " (i INTEGER, d REAL, s TEXT, b BLOB);");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < 100; i++) {
+                mDatabase.execSQL("INSERT INTO " + TABLE_NAME + " VALUES (?, ?, ?, ?);",
+                        new Object[] { i, i / 2.0, i % 10 == 0 ? null : "row" + i,
+                                new byte[] { (byte) i } });
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        mDatabaseFile.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testForwardScan() {
+        SQLiteStreamingCursor c = mDatabase.rawQueryStreaming(
+                "SELECT i, d, s, b FROM " + TABLE_NAME + " ORDER BY i", null, null);
+        try {
+            assertEquals(4, c.getColumnCount());
+            assertEquals(2, c.getColumnIndexOrThrow("s"));
+            assertTrue(c.isBeforeFirst());
+            int count = 0;
+            while (c.moveToNext()) {
+                assertEquals(count, c.getPosition());
+                assertEquals(count, c.getInt(0));
+                assertEquals(count / 2.0, c.getDouble(1));
+                if (count % 10 == 0) {
+                    assertTrue(c.isNull(2));
+                } else {
+                    assertEquals(Cursor.FIELD_TYPE_STRING, c.getType(2));
+                    assertEquals("row" + count, c.getString(2));
+                }
+                assertEquals((byte) count, c.getBlob(3)[0]);
+                count++;
+            }
+            assertEquals(100, count);
+            assertTrue(c.isAfterLast());
+            assertFalse(c.moveToNext());
+        } finally {
+            c.close();
+        }
+        assertTrue(c.isClosed());
+        // The connection must have been handed back to the pool.
+        assertFalse(mDatabase.isDbLockedByCurrentThread());
+    }
+
+    @SmallTest
+    public void testCopyStringToBufferReusesBuffer() {
+        SQLiteStreamingCursor c = mDatabase.rawQueryStreaming(
+                "SELECT s FROM " + TABLE_NAME + " WHERE s IS NOT NULL ORDER BY i", null, null);
+        try {
+            CharArrayBuffer buffer = new CharArrayBuffer(16);
+            char[] data = buffer.data;
+            while (c.moveToNext()) {
+                c.copyStringToBuffer(0, buffer);
+                assertSame(data, buffer.data);
+                assertEquals(c.getString(0), new String(buffer.data, 0, buffer.sizeCopied));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    @SmallTest
+    public void testSelectionArgs() {
+        SQLiteStreamingCursor c = mDatabase.rawQueryStreaming(
+                "SELECT i FROM " + TABLE_NAME + " WHERE i >= ?", new String[] { "95" }, null);
+        try {
+            int count = 0;
+            while (c.moveToNext()) {
+                count++;
+            }
+            assertEquals(5, count);
+        } finally {
+            c.close();
+        }
+    }
+
+    @MediumTest
+    public void testScanSpansWindows() {
+        // Rows of 256KB each, so that a scan needs several windows.
+        final byte[] big = new byte[256 * 1024];
+        mDatabase.execSQL("CREATE TABLE big (i INTEGER, b BLOB);");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < 40; i++) {
+                big[0] = (byte) i;
+                mDatabase.execSQL("INSERT INTO big VALUES (?, ?);", new Object[] { i, big });
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        SQLiteStreamingCursor c = mDatabase.rawQueryStreaming(
+                "SELECT i, b FROM big ORDER BY i", null, null);
+        try {
+            int count = 0;
+            while (c.moveToNext()) {
+                assertEquals(count, c.getPosition());
+                assertEquals(count, c.getInt(0));
+                assertEquals((byte) count, c.getBlob(1)[0]);
+                count++;
+            }
+            assertEquals(40, count);
+            assertTrue(c.isAfterLast());
+        } finally {
+            c.close();
+        }
+    }
+
+    @SmallTest
+    public void testAccessBeforeFirstRowThrows() {
+        SQLiteStreamingCursor c = mDatabase.rawQueryStreaming(
+                "SELECT i FROM " + TABLE_NAME, null, null);
+        try {
+            c.getLong(0);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -32,12 +32,21 @@ public class BaseBundle {
     static final boolean DEBUG = false;
 
     static final int BUNDLE_MAGIC = 0x4C444E42; // 'B' 'N' 'D' 'L'
+    // Same as BUNDLE_MAGIC, but every value is preceded by its length in bytes
+    // so that it can be skipped when unparcelling lazily.
+    static final int BUNDLE_MAGIC_INDEXED = 0x49444E42; // 'B' 'N' 'D' 'I'
     static final Parcel EMPTY_PARCEL;
 
     static {
         EMPTY_PARCEL = Parcel.obtain();
     }
 
+    /**
+     * Whether bundles written in the indexed format leave their values
+     * in the parcel until they are first read.
+     */
+    private static volatile boolean sLazyUnparcel = true;
+
     // Invariant - exactly one of mMap / mParcelledData will be null
     // (except inside a call to unparcel)
 
@@ -50,6 +59,19 @@ public class BaseBundle {
      */
     Parcel mParcelledData = null;
 
+    /*
+     * True if mParcelledData was written with BUNDLE_MAGIC_INDEXED.
+     */
+    boolean mParcelledIndexed = false;
+
+    /*
+     * If the Bundle was unparcelled lazily, this holds the data that the
+     * LazyValue entries in mMap point into.  It is released once the last
+     * lazy value has been read.
+     */
+    private Parcel mLazySource = null;
+    private int mLazyValueCount = 0;
+
     /**
      * The ClassLoader used when unparcelling data from mParcelledData.
      */
@@ -129,11 +151,21 @@ public class BaseBundle {
         } else {
             mParcelledData = null;
         }
+        mParcelledIndexed = b.mParcelledIndexed;
 
-        if (b.mMap != null) {
-            mMap = new ArrayMap<String, Object>(b.mMap);
-        } else {
-            mMap = null;
+        synchronized (b) {
+            if (b.mMap != null) {
+                mMap = new ArrayMap<String, Object>(b.mMap);
+            } else {
+                mMap = null;
+            }
+
+            if (b.mLazySource != null) {
+                // The copied LazyValue offsets stay valid in a copy of the source.
+                mLazySource = Parcel.obtain();
+                mLazySource.appendFrom(b.mLazySource, 0, b.mLazySource.dataSize());
+                mLazyValueCount = b.mLazyValueCount;
+            }
         }
 
         mClassLoader = b.mClassLoader;
@@ -157,7 +189,7 @@ public class BaseBundle {
         if (size == 0) {
             return null;
         }
-        Object o = mMap.valueAt(0);
+        Object o = getValueAt(0);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -218,9 +250,24 @@ public class BaseBundle {
             mMap.erase();
             mMap.ensureCapacity(N);
         }
-        mParcelledData.readArrayMapInternal(mMap, N, mClassLoader);
+        releaseLazySource();
+        if (mParcelledIndexed) {
+            final boolean lazy = sLazyUnparcel;
+            mParcelledData.readArrayMapIndexedInternal(mMap, N, mClassLoader, lazy);
+            if (lazy && N > 0) {
+                // Keep the data around; values are read from it on first access.
+                mLazySource = mParcelledData;
+                mLazyValueCount = N;
+                mParcelledData = null;
+                mParcelledIndexed = false;
+                return;
+            }
+        } else {
+            mParcelledData.readArrayMapInternal(mMap, N, mClassLoader);
+        }
         mParcelledData.recycle();
         mParcelledData = null;
+        mParcelledIndexed = false;
         if (DEBUG) Log.d(TAG, "unparcel " + Integer.toHexString(System.identityHashCode(this))
                 + " final map: " + mMap);
     }
@@ -232,6 +279,106 @@ public class BaseBundle {
         return mParcelledData != null;
     }
 
+    /**
+     * Enables or disables lazy unparcelling for bundles received from now on.
+     * When enabled, {@link #unparcel} only builds the key index and each value
+     * is deserialized the first time it is read.
+     *
+     * @hide
+     */
+    public static void setLazyUnparcelEnabled(boolean enabled) {
+        sLazyUnparcel = enabled;
+    }
+
+    /**
+     * Returns the value for the given key, deserializing it first if it is
+     * still held in the parcel.  The caller must have called {@link #unparcel}.
+     */
+    final Object getValue(String key) {
+        final int i = mMap.indexOfKey(key);
+        if (i < 0) {
+            return null;
+        }
+        return getValueAt(i);
+    }
+
+    /**
+     * Returns the value at the given index of {@link #mMap}, deserializing it
+     * first if it is still held in the parcel.
+     */
+    final Object getValueAt(int i) {
+        Object value = mMap.valueAt(i);
+        if (!(value instanceof LazyValue)) {
+            return value;
+        }
+        synchronized (this) {
+            value = mMap.valueAt(i);
+            if (value instanceof LazyValue) {
+                value = ((LazyValue) value).read(mLazySource, mClassLoader);
+                mMap.setValueAt(i, value);
+                if (--mLazyValueCount == 0) {
+                    releaseLazySource();
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Deserializes every value that is still held in the parcel.  Used before
+     * handing {@link #mMap} to code that reads values directly.
+     */
+    /* package */ synchronized void unparcelValues() {
+        unparcel();
+        if (mLazySource == null) {
+            return;
+        }
+        for (int i = mMap.size() - 1; i >= 0 && mLazySource != null; i--) {
+            getValueAt(i);
+        }
+        releaseLazySource();
+    }
+
+    private void releaseLazySource() {
+        if (mLazySource != null) {
+            mLazySource.recycle();
+            mLazySource = null;
+        }
+        mLazyValueCount = 0;
+    }
+
+    /**
+     * Returns true if values that have not been read yet might hold file
+     * descriptors.
+     */
+    /* package */ synchronized boolean lazyValuesHaveFileDescriptors() {
+        return mLazySource != null && mLazySource.hasFileDescriptors();
+    }
+
+    /**
+     * Placeholder stored in {@link #mMap} for a value that has not been
+     * deserialized yet.  It records where the value lives in the lazy source.
+     */
+    static final class LazyValue {
+        final int mOffset;
+        final int mLength;
+
+        LazyValue(int offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+
+        Object read(Parcel source, ClassLoader loader) {
+            source.setDataPosition(mOffset);
+            return source.readValue(loader);
+        }
+
+        @Override
+        public String toString() {
+            return "(parcelled, " + mLength + " bytes)";
+        }
+    }
+
     /**
      * Returns the number of mappings contained in this Bundle.
      *
@@ -255,7 +402,10 @@ public class BaseBundle {
      */
     public void clear() {
         unparcel();
-        mMap.clear();
+        synchronized (this) {
+            mMap.clear();
+            releaseLazySource();
+        }
     }
 
     /**
@@ -279,7 +429,40 @@ public class BaseBundle {
     @Nullable
     public Object get(String key) {
         unparcel();
-        return mMap.get(key);
+        return getValue(key);
+    }
+
+    /**
+     * Inserts a value into {@link #mMap}, releasing the lazy source once the
+     * last value still held in it has been replaced.  The caller must have
+     * called {@link #unparcel}.
+     */
+    final void putValue(String key, Object value) {
+        synchronized (this) {
+            if (mMap.put(key, value) instanceof LazyValue && --mLazyValueCount == 0) {
+                releaseLazySource();
+            }
+        }
+    }
+
+    /**
+     * Inserts all mappings of {@code map}, none of which may be a lazy value,
+     * as {@link #putValue} does.
+     */
+    final void putAllValues(ArrayMap<String, Object> map) {
+        synchronized (this) {
+            if (mLazyValueCount > 0) {
+                for (int i = map.size() - 1; i >= 0; i--) {
+                    if (mMap.get(map.keyAt(i)) instanceof LazyValue) {
+                        mLazyValueCount--;
+                    }
+                }
+            }
+            mMap.putAll(map);
+            if (mLazySource != null && mLazyValueCount == 0) {
+                releaseLazySource();
+            }
+        }
     }
 
     /**
@@ -289,7 +472,11 @@ public class BaseBundle {
      */
     public void remove(String key) {
         unparcel();
-        mMap.remove(key);
+        synchronized (this) {
+            if (mMap.remove(key) instanceof LazyValue && --mLazyValueCount == 0) {
+                releaseLazySource();
+            }
+        }
     }
 
     /**
@@ -299,8 +486,8 @@ public class BaseBundle {
      */
     public void putAll(PersistableBundle bundle) {
         unparcel();
-        bundle.unparcel();
-        mMap.putAll(bundle.mMap);
+        bundle.unparcelValues();
+        putAllValues(bundle.mMap);
     }
 
     /**
@@ -310,7 +497,7 @@ public class BaseBundle {
      */
     void putAll(ArrayMap map) {
         unparcel();
-        mMap.putAll(map);
+        putAllValues(map);
     }
 
     /**
@@ -332,7 +519,7 @@ public class BaseBundle {
      */
     public void putBoolean(@Nullable String key, boolean value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -344,7 +531,7 @@ public class BaseBundle {
      */
     void putByte(@Nullable String key, byte value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -356,7 +543,7 @@ public class BaseBundle {
      */
     void putChar(@Nullable String key, char value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -368,7 +555,7 @@ public class BaseBundle {
      */
     void putShort(@Nullable String key, short value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -380,7 +567,7 @@ public class BaseBundle {
      */
     public void putInt(@Nullable String key, int value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -392,7 +579,7 @@ public class BaseBundle {
      */
     public void putLong(@Nullable String key, long value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -404,7 +591,7 @@ public class BaseBundle {
      */
     void putFloat(@Nullable String key, float value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -416,7 +603,7 @@ public class BaseBundle {
      */
     public void putDouble(@Nullable String key, double value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -428,7 +615,7 @@ public class BaseBundle {
      */
     public void putString(@Nullable String key, @Nullable String value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -440,7 +627,7 @@ public class BaseBundle {
      */
     void putCharSequence(@Nullable String key, @Nullable CharSequence value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -452,7 +639,7 @@ public class BaseBundle {
      */
     void putIntegerArrayList(@Nullable String key, @Nullable ArrayList<Integer> value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -464,7 +651,7 @@ public class BaseBundle {
      */
     void putStringArrayList(@Nullable String key, @Nullable ArrayList<String> value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -476,7 +663,7 @@ public class BaseBundle {
      */
     void putCharSequenceArrayList(@Nullable String key, @Nullable ArrayList<CharSequence> value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -488,7 +675,7 @@ public class BaseBundle {
      */
     void putSerializable(@Nullable String key, @Nullable Serializable value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -500,7 +687,7 @@ public class BaseBundle {
      */
     public void putBooleanArray(@Nullable String key, @Nullable boolean[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -512,7 +699,7 @@ public class BaseBundle {
      */
     void putByteArray(@Nullable String key, @Nullable byte[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -524,7 +711,7 @@ public class BaseBundle {
      */
     void putShortArray(@Nullable String key, @Nullable short[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -536,7 +723,7 @@ public class BaseBundle {
      */
     void putCharArray(@Nullable String key, @Nullable char[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -548,7 +735,7 @@ public class BaseBundle {
      */
     public void putIntArray(@Nullable String key, @Nullable int[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -560,7 +747,7 @@ public class BaseBundle {
      */
     public void putLongArray(@Nullable String key, @Nullable long[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -572,7 +759,7 @@ public class BaseBundle {
      */
     void putFloatArray(@Nullable String key, @Nullable float[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -584,7 +771,7 @@ public class BaseBundle {
      */
     public void putDoubleArray(@Nullable String key, @Nullable double[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -596,7 +783,7 @@ public class BaseBundle {
      */
     public void putStringArray(@Nullable String key, @Nullable String[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -608,7 +795,7 @@ public class BaseBundle {
      */
     void putCharSequenceArray(@Nullable String key, @Nullable CharSequence[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -657,7 +844,7 @@ public class BaseBundle {
      */
     public boolean getBoolean(String key, boolean defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -691,7 +878,7 @@ public class BaseBundle {
      */
     Byte getByte(String key, byte defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -725,7 +912,7 @@ public class BaseBundle {
      */
     char getChar(String key, char defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -759,7 +946,7 @@ public class BaseBundle {
      */
     short getShort(String key, short defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -793,7 +980,7 @@ public class BaseBundle {
      */
    public int getInt(String key, int defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -827,7 +1014,7 @@ public class BaseBundle {
      */
     public long getLong(String key, long defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -861,7 +1048,7 @@ public class BaseBundle {
      */
     float getFloat(String key, float defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -895,7 +1082,7 @@ public class BaseBundle {
      */
     public double getDouble(String key, double defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -918,7 +1105,7 @@ public class BaseBundle {
     @Nullable
     public String getString(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -954,7 +1141,7 @@ public class BaseBundle {
     @Nullable
     CharSequence getCharSequence(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (CharSequence) o;
         } catch (ClassCastException e) {
@@ -990,7 +1177,7 @@ public class BaseBundle {
     @Nullable
     Serializable getSerializable(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1013,7 +1200,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<Integer> getIntegerArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1036,7 +1223,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<String> getStringArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1059,7 +1246,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<CharSequence> getCharSequenceArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1082,7 +1269,7 @@ public class BaseBundle {
     @Nullable
     public boolean[] getBooleanArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1105,7 +1292,7 @@ public class BaseBundle {
     @Nullable
     byte[] getByteArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1128,7 +1315,7 @@ public class BaseBundle {
     @Nullable
     short[] getShortArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1151,7 +1338,7 @@ public class BaseBundle {
     @Nullable
     char[] getCharArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1174,7 +1361,7 @@ public class BaseBundle {
     @Nullable
     public int[] getIntArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1197,7 +1384,7 @@ public class BaseBundle {
     @Nullable
     public long[] getLongArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1220,7 +1407,7 @@ public class BaseBundle {
     @Nullable
     float[] getFloatArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1243,7 +1430,7 @@ public class BaseBundle {
     @Nullable
     public double[] getDoubleArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1266,7 +1453,7 @@ public class BaseBundle {
     @Nullable
     public String[] getStringArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1289,7 +1476,7 @@ public class BaseBundle {
     @Nullable
     CharSequence[] getCharSequenceArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1313,7 +1500,7 @@ public class BaseBundle {
             } else {
                 int length = mParcelledData.dataSize();
                 parcel.writeInt(length);
-                parcel.writeInt(BUNDLE_MAGIC);
+                parcel.writeInt(mParcelledIndexed ? BUNDLE_MAGIC_INDEXED : BUNDLE_MAGIC);
                 parcel.appendFrom(mParcelledData, 0, length);
             }
         } else {
@@ -1324,10 +1511,14 @@ public class BaseBundle {
             }
             int lengthPos = parcel.dataPosition();
             parcel.writeInt(-1); // dummy, will hold length
-            parcel.writeInt(BUNDLE_MAGIC);
+            parcel.writeInt(BUNDLE_MAGIC_INDEXED);
 
             int startPos = parcel.dataPosition();
-            parcel.writeArrayMapInternal(mMap);
+            synchronized (this) {
+                // Values that were never read are copied across without being
+                // deserialized.
+                parcel.writeArrayMapIndexedInternal(mMap, mLazySource);
+            }
             int endPos = parcel.dataPosition();
 
             // Backpatch length
@@ -1352,13 +1543,15 @@ public class BaseBundle {
     }
 
     private void readFromParcelInner(Parcel parcel, int length) {
+        releaseLazySource();
+        mParcelledIndexed = false;
         if (length == 0) {
             // Empty Bundle or end of data.
             mParcelledData = EMPTY_PARCEL;
             return;
         }
         int magic = parcel.readInt();
-        if (magic != BUNDLE_MAGIC) {
+        if (magic != BUNDLE_MAGIC && magic != BUNDLE_MAGIC_INDEXED) {
             //noinspection ThrowableInstanceNeverThrown
             throw new IllegalStateException("Bad magic number for Bundle: 0x"
                     + Integer.toHexString(magic));
@@ -1376,5 +1569,6 @@ public class BaseBundle {
         p.setDataPosition(0);
 
         mParcelledData = p;
+        mParcelledIndexed = magic == BUNDLE_MAGIC_INDEXED;
     }
 }
@@ -179,8 +179,8 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putAll(Bundle bundle) {
         unparcel();
-        bundle.unparcel();
-        mMap.putAll(bundle.mMap);
+        bundle.unparcelValues();
+        putAllValues(bundle.mMap);
 
         // fd state is now known if and only if both bundles already knew
         mHasFds |= bundle.mHasFds;
@@ -199,8 +199,12 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                     fdFound = true;
                 }
             } else {
+                // Values that have not been read yet are still in a parcel
+                if (lazyValuesHaveFileDescriptors()) {
+                    fdFound = true;
+                }
                 // It's been unparcelled, so we need to walk the map
-                for (int i=mMap.size()-1; i>=0; i--) {
+                for (int i=mMap.size()-1; i>=0 && !fdFound; i--) {
                     Object obj = mMap.valueAt(i);
                     if (obj instanceof Parcelable) {
                         if ((((Parcelable)obj).describeContents()
@@ -258,7 +262,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @hide
      */
     public void filterValues() {
-        unparcel();
+        unparcelValues();
         if (mMap != null) {
             for (int i = mMap.size() - 1; i >= 0; i--) {
                 Object value = mMap.valueAt(i);
@@ -345,7 +349,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putParcelable(@Nullable String key, @Nullable Parcelable value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
         mFdsKnown = false;
     }
 
@@ -358,7 +362,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putSize(@Nullable String key, @Nullable Size value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -370,7 +374,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putSizeF(@Nullable String key, @Nullable SizeF value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -383,7 +387,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putParcelableArray(@Nullable String key, @Nullable Parcelable[] value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
         mFdsKnown = false;
     }
 
@@ -398,14 +402,14 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     public void putParcelableArrayList(@Nullable String key,
             @Nullable ArrayList<? extends Parcelable> value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
         mFdsKnown = false;
     }
 
     /** {@hide} */
     public void putParcelableList(String key, List<? extends Parcelable> value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
         mFdsKnown = false;
     }
 
@@ -420,7 +424,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     public void putSparseParcelableArray(@Nullable String key,
             @Nullable SparseArray<? extends Parcelable> value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
         mFdsKnown = false;
     }
 
@@ -542,7 +546,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putBundle(@Nullable String key, @Nullable Bundle value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -561,7 +565,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putBinder(@Nullable String key, @Nullable IBinder value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -577,7 +581,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Deprecated
     public void putIBinder(@Nullable String key, @Nullable IBinder value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -721,7 +725,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Size getSize(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (Size) o;
         } catch (ClassCastException e) {
@@ -741,7 +745,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public SizeF getSizeF(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (SizeF) o;
         } catch (ClassCastException e) {
@@ -761,7 +765,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Bundle getBundle(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -784,7 +788,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> T getParcelable(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -807,7 +811,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Parcelable[] getParcelableArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -830,7 +834,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> ArrayList<T> getParcelableArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -854,7 +858,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> SparseArray<T> getSparseParcelableArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1003,7 +1007,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public IBinder getBinder(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1030,7 +1034,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public IBinder getIBinder(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1103,6 +1107,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                         mParcelledData.dataSize() + "]";
             }
         }
+        unparcelValues();
         return "Bundle[" + mMap.toString() + "]";
     }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import android.graphics.Rect;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+public class BundleLazyUnparcelTest extends TestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        BaseBundle.setLazyUnparcelEnabled(true);
+        super.tearDown();
+    }
+
+    private static Bundle createBundle() {
+        Bundle nested = new Bundle();
+        nested.putString("inner", "value");
+
+        Bundle b = new Bundle();
+        b.putInt("int", 42);
+        b.putString("string", "hello");
+        b.putLongArray("longs", new long[] { 1, 2, 3 });
+        b.putParcelable("rect", new Rect(1, 2, 3, 4));
+        b.putBundle("nested", nested);
+        return b;
+    }
+
+    private static Bundle roundTrip(Bundle b) {
+        Parcel p = Parcel.obtain();
+        try {
+            p.writeBundle(b);
+            p.setDataPosition(0);
+            return p.readBundle(Rect.class.getClassLoader());
+        } finally {
+            p.recycle();
+        }
+    }
+
+    private static void assertContents(Bundle b) {
+        assertEquals(5, b.size());
+        assertEquals(42, b.getInt("int"));
+        assertEquals("hello", b.getString("string"));
+        assertEquals(3, b.getLongArray("longs")[2]);
+        assertEquals(new Rect(1, 2, 3, 4), b.getParcelable("rect"));
+        assertEquals("value", b.getBundle("nested").getString("inner"));
+        assertNull(b.get("missing"));
+    }
+
+    @SmallTest
+    public void testLazyRoundTrip() {
+        Bundle b = roundTrip(createBundle());
+        assertTrue(b.isParcelled());
+        assertTrue(b.containsKey("rect"));
+        assertFalse(b.isParcelled());
+        assertContents(b);
+    }
+
+    @SmallTest
+    public void testEagerRoundTrip() {
+        BaseBundle.setLazyUnparcelEnabled(false);
+        assertContents(roundTrip(createBundle()));
+    }
+
+    @SmallTest
+    public void testUnreadValuesSurviveRewrite() {
+        Bundle b = roundTrip(createBundle());
+        // Only touch one value before writing the bundle out again.
+        assertEquals(42, b.getInt("int"));
+        b.putString("added", "new");
+        Bundle again = roundTrip(b);
+        assertEquals("new", again.getString("added"));
+        again.remove("added");
+        assertContents(again);
+    }
+
+    @SmallTest
+    public void testRemoveUnreadValues() {
+        Bundle b = roundTrip(createBundle());
+        b.remove("string");
+        b.remove("longs");
+        b.remove("rect");
+        // The source still backs the values that were not removed.
+        assertEquals(2, b.size());
+        assertEquals(42, b.getInt("int"));
+        assertEquals("value", b.getBundle("nested").getString("inner"));
+        b.remove("int");
+        b.remove("nested");
+        assertTrue(b.isEmpty());
+    }
+
+    @SmallTest
+    public void testOverwriteUnreadValues() {
+        Bundle b = roundTrip(createBundle());
+        b.putString("string", "replaced");
+        b.putInt("int", 7);
+        Bundle other = new Bundle();
+        other.putLongArray("longs", new long[] { 4 });
+        b.putAll(other);
+        assertEquals("replaced", b.getString("string"));
+        assertEquals(7, b.getInt("int"));
+        assertEquals(4, b.getLongArray("longs")[0]);
+        // The values that were not replaced still read from the source.
+        assertEquals(new Rect(1, 2, 3, 4), b.getParcelable("rect"));
+        assertEquals("value", b.getBundle("nested").getString("inner"));
+    }
+
+    @SmallTest
+    public void testToStringShowsUnreadValues() {
+        Bundle b = roundTrip(createBundle());
+        b.size();
+        String s = b.toString();
+        assertTrue(s, s.contains("hello"));
+        assertFalse(s, s.contains("parcelled"));
+    }
+
+    @SmallTest
+    public void testCopyOfLazyBundle() {
+        Bundle b = roundTrip(createBundle());
+        b.size();
+        Bundle copy = new Bundle(b);
+        b.clear();
+        assertContents(copy);
+    }
+
+    @SmallTest
+    public void testPutAllFromLazyBundle() {
+        Bundle b = roundTrip(createBundle());
+        Bundle target = new Bundle();
+        target.putAll(b);
+        assertContents(target);
+    }
+}
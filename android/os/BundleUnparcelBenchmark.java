@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import android.content.Intent;
+import android.graphics.Rect;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+/**
+ * Measures reading a single extra out of an {@link Intent} with many extras
+ * that has just been unmarshalled, with and without lazy Bundle unparcelling.
+ */
+public class BundleUnparcelBenchmark extends SimpleBenchmark {
+
+    @Param({"10", "100", "500"})
+    private int mExtras;
+
+    @Param({"true", "false"})
+    private boolean mLazy;
+
+    private Parcel mParcel;
+
+    @Override
+    protected void setUp() {
+        BaseBundle.setLazyUnparcelEnabled(mLazy);
+
+        Intent intent = new Intent("com.example.ACTION");
+        for (int i = 0; i < mExtras; i++) {
+            switch (i % 4) {
+                case 0:
+                    intent.putExtra("string" + i, "value number " + i);
+                    break;
+                case 1:
+                    intent.putExtra("ints" + i, new int[64]);
+                    break;
+                case 2:
+                    intent.putExtra("rect" + i, new Rect(i, i, i + 10, i + 10));
+                    break;
+                default:
+                    Bundle nested = new Bundle();
+                    for (int j = 0; j < 16; j++) {
+                        nested.putLong("nested" + j, j);
+                    }
+                    intent.putExtra("bundle" + i, nested);
+                    break;
+            }
+        }
+        intent.putExtra("wanted", 1234);
+
+        mParcel = Parcel.obtain();
+        intent.writeToParcel(mParcel, 0);
+    }
+
+    @Override
+    protected void tearDown() {
+        mParcel.recycle();
+        mParcel = null;
+        BaseBundle.setLazyUnparcelEnabled(true);
+    }
+
+    public int timeReadOneExtra(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            mParcel.setDataPosition(0);
+            Intent intent = Intent.CREATOR.createFromParcel(mParcel);
+            intent.setExtrasClassLoader(Rect.class.getClassLoader());
+            sum += intent.getIntExtra("wanted", 0);
+        }
+        return sum;
+    }
+
+    public int timeReadAllExtras(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            mParcel.setDataPosition(0);
+            Intent intent = Intent.CREATOR.createFromParcel(mParcel);
+            intent.setExtrasClassLoader(Rect.class.getClassLoader());
+            Bundle extras = intent.getExtras();
+            for (String key : extras.keySet()) {
+                if (extras.get(key) != null) {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+}
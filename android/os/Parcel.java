@@ -35,12 +35,15 @@ import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Container for a message (data and object references) that can
@@ -240,6 +243,16 @@ public final class Parcel {
     private static final int EX_UNSUPPORTED_OPERATION = -7;
     private static final int EX_HAS_REPLY_HEADER = -128;  // special; see below
 
+    // Int and long arrays of at least this many bytes are written as a blob,
+    // which goes by file descriptor when the parcel allows it.  This is the
+    // in-place limit of the native blob writer.
+    private static final int ARRAY_BLOB_THRESHOLD = 16 * 1024;
+    // Written in place of the length of an int or long array sent as a blob.
+    private static final int ARRAY_BLOB_MARKER = -2;
+
+    private static final boolean LITTLE_ENDIAN =
+            ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
     private static native int nativeDataSize(long nativePtr);
     private static native int nativeDataAvail(long nativePtr);
     private static native int nativeDataPosition(long nativePtr);
@@ -523,6 +536,74 @@ public final class Parcel {
         nativeWriteBlob(mNativePtr, b, offset, len);
     }
 
+    /**
+     * Write the remaining bytes of a buffer into the parcel at the current
+     * {@link #dataPosition}, in the same format as {@link #writeByteArray}.
+     * Buffers backed by an accessible array are written straight from it;
+     * others are copied out first.  The buffer's position is advanced past
+     * the bytes that were written.
+     * @param b Bytes to place into the parcel, or null.
+     * {@hide}
+     */
+    public final void writeByteBuffer(ByteBuffer b) {
+        if (b == null) {
+            writeInt(-1);
+            return;
+        }
+        final int len = b.remaining();
+        if (b.hasArray()) {
+            nativeWriteByteArray(mNativePtr, b.array(), b.arrayOffset() + b.position(), len);
+        } else {
+            // Direct or read-only buffer; there is no way at its bytes from here.
+            byte[] copy = new byte[len];
+            b.duplicate().get(copy);
+            nativeWriteByteArray(mNativePtr, copy, 0, len);
+        }
+        b.position(b.position() + len);
+    }
+
+    /**
+     * Write an array of ints into the parcel at the current {@link #dataPosition}
+     * using the ashmem-backed blob mechanism of {@link #writeBlob}.  Arrays
+     * bigger than the in-place limit are sent by file descriptor if the parcel
+     * allows them, which keeps them out of the binder transaction buffer.
+     * {@link #writeIntArray} does this by itself for large arrays.  Read with
+     * {@link #createIntArrayBlob}.
+     * {@hide}
+     */
+    public final void writeIntArrayBlob(int[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeIntArrayBlobInternal(val, 0, val.length);
+    }
+
+    private void writeIntArrayBlobInternal(int[] val, int offset, int len) {
+        byte[] b = new byte[len << 2];
+        ByteBuffer.wrap(b).order(ByteOrder.nativeOrder()).asIntBuffer().put(val, offset, len);
+        nativeWriteBlob(mNativePtr, b, 0, b.length);
+    }
+
+    /**
+     * Write an array of longs into the parcel using the blob mechanism.  See
+     * {@link #writeIntArrayBlob}.  Read with {@link #createLongArrayBlob}.
+     * {@hide}
+     */
+    public final void writeLongArrayBlob(long[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeLongArrayBlobInternal(val, 0, val.length);
+    }
+
+    private void writeLongArrayBlobInternal(long[] val, int offset, int len) {
+        byte[] b = new byte[len << 3];
+        ByteBuffer.wrap(b).order(ByteOrder.nativeOrder()).asLongBuffer().put(val, offset, len);
+        nativeWriteBlob(mNativePtr, b, 0, b.length);
+    }
+
     /**
      * Write an integer value into the parcel at the current dataPosition(),
      * growing dataCapacity() if needed.
@@ -670,6 +751,38 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Flatten an ArrayMap into the parcel at the current dataPosition(),
+     * writing the length of each value in front of it so that a reader can
+     * skip over values without deserializing them.  Entries holding a
+     * {@link BaseBundle.LazyValue} are copied straight from {@code lazySource}.
+     */
+    /* package */ void writeArrayMapIndexedInternal(ArrayMap<String, Object> val,
+            Parcel lazySource) {
+        final int N = val.size();
+        writeInt(N);
+        for (int i=0; i<N; i++) {
+            writeString(val.keyAt(i));
+            final Object value = val.valueAt(i);
+            if (value instanceof BaseBundle.LazyValue) {
+                final BaseBundle.LazyValue lazy = (BaseBundle.LazyValue) value;
+                writeInt(lazy.mLength);
+                appendFrom(lazySource, lazy.mOffset, lazy.mLength);
+            } else {
+                final int lengthPos = dataPosition();
+                writeInt(-1); // dummy, will hold length
+                final int startPos = dataPosition();
+                writeValue(value);
+                final int endPos = dataPosition();
+
+                // Backpatch length
+                setDataPosition(lengthPos);
+                writeInt(endPos - startPos);
+                setDataPosition(endPos);
+            }
+        }
+    }
+
     /**
      * @hide For testing only.
      */
@@ -872,18 +985,39 @@ public final class Parcel {
 
     public final void writeIntArray(int[] val) {
         if (val != null) {
-            int N = val.length;
-            writeInt(N);
-            for (int i=0; i<N; i++) {
-                writeInt(val[i]);
-            }
+            writeIntArrayInternal(val, 0, val.length);
         } else {
             writeInt(-1);
         }
     }
 
+    /**
+     * Write part of an int array, for example one taken from a pool, in the
+     * same format as {@link #writeIntArray(int[])}.
+     * {@hide}
+     */
+    public final void writeIntArray(int[] val, int offset, int len) {
+        Arrays.checkOffsetAndCount(val.length, offset, len);
+        writeIntArrayInternal(val, offset, len);
+    }
+
+    private void writeIntArrayInternal(int[] val, int offset, int N) {
+        if (N >= (ARRAY_BLOB_THRESHOLD >> 2)) {
+            writeInt(ARRAY_BLOB_MARKER);
+            writeIntArrayBlobInternal(val, offset, N);
+            return;
+        }
+        writeInt(N);
+        for (int i=0; i<N; i++) {
+            writeInt(val[offset + i]);
+        }
+    }
+
     public final int[] createIntArray() {
         int N = readInt();
+        if (N == ARRAY_BLOB_MARKER) {
+            return createIntArrayBlob();
+        }
         if (N >= 0 && N <= (dataAvail() >> 2)) {
             int[] val = new int[N];
             for (int i=0; i<N; i++) {
@@ -897,6 +1031,14 @@ public final class Parcel {
 
     public final void readIntArray(int[] val) {
         int N = readInt();
+        if (N == ARRAY_BLOB_MARKER) {
+            int[] blob = createIntArrayBlob();
+            if (blob != null && blob.length == val.length) {
+                System.arraycopy(blob, 0, val, 0, blob.length);
+                return;
+            }
+            throw new RuntimeException("bad array lengths");
+        }
         if (N == val.length) {
             for (int i=0; i<N; i++) {
                 val[i] = readInt();
@@ -906,20 +1048,91 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Read an int array written by {@link #writeIntArray} into a caller-supplied
+     * array, for example one taken from a pool, instead of allocating one.
+     * @return the number of ints read, or -1 if a null array was written.
+     * @throws RuntimeException if the array does not fit in {@code maxLen}.
+     * {@hide}
+     */
+    public final int readIntArray(int[] dest, int offset, int maxLen) {
+        Arrays.checkOffsetAndCount(dest.length, offset, maxLen);
+        int N = readInt();
+        if (N == ARRAY_BLOB_MARKER) {
+            int[] blob = createIntArrayBlob();
+            if (blob == null) {
+                return -1;
+            }
+            if (blob.length > maxLen) {
+                throw new RuntimeException("bad array lengths");
+            }
+            System.arraycopy(blob, 0, dest, offset, blob.length);
+            return blob.length;
+        }
+        if (N < 0) {
+            return -1;
+        }
+        if (N > maxLen || N > (dataAvail() >> 2)) {
+            throw new RuntimeException("bad array lengths");
+        }
+        for (int i=0; i<N; i++) {
+            dest[offset + i] = readInt();
+        }
+        return N;
+    }
+
+    /**
+     * Read an int array written by {@link #writeIntArrayBlob}.
+     * {@hide}
+     */
+    public final int[] createIntArrayBlob() {
+        byte[] b = readBlob();
+        if (b == null) {
+            return null;
+        }
+        if ((b.length & 3) != 0) {
+            throw new RuntimeException("bad array lengths");
+        }
+        int[] val = new int[b.length >> 2];
+        ByteBuffer.wrap(b).order(ByteOrder.nativeOrder()).asIntBuffer().get(val);
+        return val;
+    }
+
     public final void writeLongArray(long[] val) {
         if (val != null) {
-            int N = val.length;
-            writeInt(N);
-            for (int i=0; i<N; i++) {
-                writeLong(val[i]);
-            }
+            writeLongArrayInternal(val, 0, val.length);
         } else {
             writeInt(-1);
         }
     }
 
+    /**
+     * Write part of a long array in the same format as
+     * {@link #writeLongArray(long[])}.
+     * {@hide}
+     */
+    public final void writeLongArray(long[] val, int offset, int len) {
+        Arrays.checkOffsetAndCount(val.length, offset, len);
+        writeLongArrayInternal(val, offset, len);
+    }
+
+    private void writeLongArrayInternal(long[] val, int offset, int N) {
+        if (N >= (ARRAY_BLOB_THRESHOLD >> 3)) {
+            writeInt(ARRAY_BLOB_MARKER);
+            writeLongArrayBlobInternal(val, offset, N);
+            return;
+        }
+        writeInt(N);
+        for (int i=0; i<N; i++) {
+            writeLong(val[offset + i]);
+        }
+    }
+
     public final long[] createLongArray() {
         int N = readInt();
+        if (N == ARRAY_BLOB_MARKER) {
+            return createLongArrayBlob();
+        }
         // >>3 because stored longs are 64 bits
         if (N >= 0 && N <= (dataAvail() >> 3)) {
             long[] val = new long[N];
@@ -934,6 +1147,14 @@ public final class Parcel {
 
     public final void readLongArray(long[] val) {
         int N = readInt();
+        if (N == ARRAY_BLOB_MARKER) {
+            long[] blob = createLongArrayBlob();
+            if (blob != null && blob.length == val.length) {
+                System.arraycopy(blob, 0, val, 0, blob.length);
+                return;
+            }
+            throw new RuntimeException("bad array lengths");
+        }
         if (N == val.length) {
             for (int i=0; i<N; i++) {
                 val[i] = readLong();
@@ -943,6 +1164,57 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Read a long array written by {@link #writeLongArray} into a
+     * caller-supplied array.
+     * @return the number of longs read, or -1 if a null array was written.
+     * @throws RuntimeException if the array does not fit in {@code maxLen}.
+     * {@hide}
+     */
+    public final int readLongArray(long[] dest, int offset, int maxLen) {
+        Arrays.checkOffsetAndCount(dest.length, offset, maxLen);
+        int N = readInt();
+        if (N == ARRAY_BLOB_MARKER) {
+            long[] blob = createLongArrayBlob();
+            if (blob == null) {
+                return -1;
+            }
+            if (blob.length > maxLen) {
+                throw new RuntimeException("bad array lengths");
+            }
+            System.arraycopy(blob, 0, dest, offset, blob.length);
+            return blob.length;
+        }
+        if (N < 0) {
+            return -1;
+        }
+        // >>3 because stored longs are 64 bits
+        if (N > maxLen || N > (dataAvail() >> 3)) {
+            throw new RuntimeException("bad array lengths");
+        }
+        for (int i=0; i<N; i++) {
+            dest[offset + i] = readLong();
+        }
+        return N;
+    }
+
+    /**
+     * Read a long array written by {@link #writeLongArrayBlob}.
+     * {@hide}
+     */
+    public final long[] createLongArrayBlob() {
+        byte[] b = readBlob();
+        if (b == null) {
+            return null;
+        }
+        if ((b.length & 7) != 0) {
+            throw new RuntimeException("bad array lengths");
+        }
+        long[] val = new long[b.length >> 3];
+        ByteBuffer.wrap(b).order(ByteOrder.nativeOrder()).asLongBuffer().get(val);
+        return val;
+    }
+
     public final void writeFloatArray(float[] val) {
         if (val != null) {
             int N = val.length;
@@ -1829,6 +2101,78 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Read a byte[] written by {@link #writeByteArray} or {@link #writeByteBuffer}
+     * into a caller-supplied array, for example one taken from a pool.
+     * @return the number of bytes read, or -1 if a null array was written.
+     * @throws RuntimeException if the array does not fit in {@code maxLen}.
+     * {@hide}
+     */
+    public final int readByteArray(byte[] dest, int offset, int maxLen) {
+        Arrays.checkOffsetAndCount(dest.length, offset, maxLen);
+        int N = readInt();
+        if (N < 0) {
+            return -1;
+        }
+        if (N > maxLen || N > dataAvail()) {
+            throw new RuntimeException("bad array lengths");
+        }
+        // The bytes are padded out to whole ints; take them four at a time.
+        for (int i=0; i<N; i+=4) {
+            final int word = readInt();
+            final int end = Math.min(N - i, 4);
+            for (int j=0; j<end; j++) {
+                dest[offset + i + j] = byteOfWord(word, j);
+            }
+        }
+        return N;
+    }
+
+    /**
+     * Read a byte[] written by {@link #writeByteArray} or {@link #writeByteBuffer}
+     * into the remaining space of a buffer, advancing its position.  Neither
+     * heap nor direct buffers need an intermediate Java array.
+     * @return the number of bytes read, or -1 if a null array was written.
+     * @throws RuntimeException if the data does not fit in the buffer.
+     * {@hide}
+     */
+    public final int readByteBuffer(ByteBuffer dest) {
+        if (dest.isReadOnly()) {
+            throw new IllegalArgumentException("dest is read-only");
+        }
+        final int maxLen = dest.remaining();
+        if (dest.hasArray()) {
+            int N = readByteArray(dest.array(), dest.arrayOffset() + dest.position(), maxLen);
+            if (N > 0) {
+                dest.position(dest.position() + N);
+            }
+            return N;
+        }
+        int N = readInt();
+        if (N < 0) {
+            return -1;
+        }
+        if (N > maxLen || N > dataAvail()) {
+            throw new RuntimeException("bad array lengths");
+        }
+        for (int i=0; i<N; i+=4) {
+            final int word = readInt();
+            final int end = Math.min(N - i, 4);
+            for (int j=0; j<end; j++) {
+                dest.put(byteOfWord(word, j));
+            }
+        }
+        return N;
+    }
+
+    /**
+     * Returns the byte at index {@code i} in memory of an int read from the
+     * parcel, which holds its data in native byte order.
+     */
+    private static byte byteOfWord(int word, int i) {
+        return (byte) (LITTLE_ENDIAN ? word >>> (i << 3) : word >>> ((3 - i) << 3));
+    }
+
     /**
      * Read a blob of data from the parcel and return it as a byte array.
      * {@hide}
@@ -2364,71 +2708,127 @@ public final class Parcel {
         if (name == null) {
             return null;
         }
-        Parcelable.Creator<?> creator;
-        synchronized (mCreators) {
-            HashMap<String,Parcelable.Creator<?>> map = mCreators.get(loader);
-            if (map == null) {
-                map = new HashMap<>();
-                mCreators.put(loader, map);
-            }
-            creator = map.get(name);
-            if (creator == null) {
-                try {
-                    // If loader == null, explicitly emulate Class.forName(String) "caller
-                    // classloader" behavior.
-                    ClassLoader parcelableClassLoader =
-                            (loader == null ? getClass().getClassLoader() : loader);
-                    // Avoid initializing the Parcelable class until we know it implements
-                    // Parcelable and has the necessary CREATOR field. http://b/1171613.
-                    Class<?> parcelableClass = Class.forName(name, false /* initialize */,
-                            parcelableClassLoader);
-                    if (!Parcelable.class.isAssignableFrom(parcelableClass)) {
-                        throw new BadParcelableException("Parcelable protocol requires that the "
-                                + "class implements Parcelable");
-                    }
-                    Field f = parcelableClass.getField("CREATOR");
-                    if ((f.getModifiers() & Modifier.STATIC) == 0) {
-                        throw new BadParcelableException("Parcelable protocol requires "
-                                + "the CREATOR object to be static on class " + name);
-                    }
-                    Class<?> creatorType = f.getType();
-                    if (!Parcelable.Creator.class.isAssignableFrom(creatorType)) {
-                        // Fail before calling Field.get(), not after, to avoid initializing
-                        // parcelableClass unnecessarily.
-                        throw new BadParcelableException("Parcelable protocol requires a "
-                                + "Parcelable.Creator object called "
-                                + "CREATOR on class " + name);
-                    }
-                    creator = (Parcelable.Creator<?>) f.get(null);
-                }
-                catch (IllegalAccessException e) {
-                    Log.e(TAG, "Illegal access when unmarshalling: " + name, e);
-                    throw new BadParcelableException(
-                            "IllegalAccessException when unmarshalling: " + name);
-                }
-                catch (ClassNotFoundException e) {
-                    Log.e(TAG, "Class not found when unmarshalling: " + name, e);
-                    throw new BadParcelableException(
-                            "ClassNotFoundException when unmarshalling: " + name);
-                }
-                catch (NoSuchFieldException e) {
-                    throw new BadParcelableException("Parcelable protocol requires a "
-                            + "Parcelable.Creator object called "
-                            + "CREATOR on class " + name);
-                }
-                if (creator == null) {
-                    throw new BadParcelableException("Parcelable protocol requires a "
-                            + "non-null Parcelable.Creator object called "
-                            + "CREATOR on class " + name);
-                }
 
-                map.put(name, creator);
+        // If loader == null, explicitly emulate Class.forName(String) "caller
+        // classloader" behavior.
+        final ClassLoader parcelableClassLoader =
+                (loader == null ? getClass().getClassLoader() : loader);
+
+        // Fast path: creators registered ahead of time for framework classes,
+        // then creators already looked up through this class loader.  Neither
+        // takes a lock.
+        Parcelable.Creator<?> creator = sPreloadedCreators.get(name);
+        if (creator != null) {
+            return creator;
+        }
+        ConcurrentHashMap<String, Parcelable.Creator<?>> map =
+                sCreators.get(parcelableClassLoader);
+        if (map != null) {
+            creator = map.get(name);
+            if (creator != null) {
+                return creator;
+            }
+        } else {
+            map = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, Parcelable.Creator<?>> existing =
+                    sCreators.putIfAbsent(parcelableClassLoader, map);
+            if (existing != null) {
+                map = existing;
             }
         }
 
+        creator = findParcelableCreator(name, parcelableClassLoader);
+        // Two threads may race to look up the same class; both get the same
+        // static CREATOR, so it does not matter which one wins.
+        Parcelable.Creator<?> existing = map.putIfAbsent(name, creator);
+        return existing != null ? existing : creator;
+    }
+
+    /**
+     * Finds the static CREATOR field of the named class through reflection.
+     */
+    private static Parcelable.Creator<?> findParcelableCreator(String name,
+            ClassLoader parcelableClassLoader) {
+        Parcelable.Creator<?> creator;
+        try {
+            // Avoid initializing the Parcelable class until we know it implements
+            // Parcelable and has the necessary CREATOR field. http://b/1171613.
+            Class<?> parcelableClass = Class.forName(name, false /* initialize */,
+                    parcelableClassLoader);
+            if (!Parcelable.class.isAssignableFrom(parcelableClass)) {
+                throw new BadParcelableException("Parcelable protocol requires that the "
+                        + "class implements Parcelable");
+            }
+            Field f = parcelableClass.getField("CREATOR");
+            if ((f.getModifiers() & Modifier.STATIC) == 0) {
+                throw new BadParcelableException("Parcelable protocol requires "
+                        + "the CREATOR object to be static on class " + name);
+            }
+            Class<?> creatorType = f.getType();
+            if (!Parcelable.Creator.class.isAssignableFrom(creatorType)) {
+                // Fail before calling Field.get(), not after, to avoid initializing
+                // parcelableClass unnecessarily.
+                throw new BadParcelableException("Parcelable protocol requires a "
+                        + "Parcelable.Creator object called "
+                        + "CREATOR on class " + name);
+            }
+            creator = (Parcelable.Creator<?>) f.get(null);
+        }
+        catch (IllegalAccessException e) {
+            Log.e(TAG, "Illegal access when unmarshalling: " + name, e);
+            throw new BadParcelableException(
+                    "IllegalAccessException when unmarshalling: " + name);
+        }
+        catch (ClassNotFoundException e) {
+            Log.e(TAG, "Class not found when unmarshalling: " + name, e);
+            throw new BadParcelableException(
+                    "ClassNotFoundException when unmarshalling: " + name);
+        }
+        catch (NoSuchFieldException e) {
+            throw new BadParcelableException("Parcelable protocol requires a "
+                    + "Parcelable.Creator object called "
+                    + "CREATOR on class " + name);
+        }
+        if (creator == null) {
+            throw new BadParcelableException("Parcelable protocol requires a "
+                    + "non-null Parcelable.Creator object called "
+                    + "CREATOR on class " + name);
+        }
         return creator;
     }
 
+    /**
+     * Registers the CREATOR of a Parcelable class ahead of time so that
+     * unmarshalling it never needs reflection.  Creators of classes loaded by
+     * the framework's class loader are used for every class loader, since those
+     * all delegate to it; other creators are only used for lookups through the
+     * class's own loader.
+     *
+     * @hide
+     */
+    public static <T extends Parcelable> void registerParcelableCreator(Class<T> clazz,
+            Parcelable.Creator<T> creator) {
+        if (clazz == null || creator == null) {
+            throw new IllegalArgumentException("clazz and creator must not be null");
+        }
+        final String name = clazz.getName();
+        final ClassLoader loader = clazz.getClassLoader();
+        if (loader == null || loader == Parcel.class.getClassLoader()) {
+            sPreloadedCreators.put(name, creator);
+            return;
+        }
+        ConcurrentHashMap<String, Parcelable.Creator<?>> map = sCreators.get(loader);
+        if (map == null) {
+            map = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, Parcelable.Creator<?>> existing =
+                    sCreators.putIfAbsent(loader, map);
+            if (existing != null) {
+                map = existing;
+            }
+        }
+        map.put(name, creator);
+    }
+
     /**
      * Read and return a new Parcelable array from the parcel.
      * The given class loader will be used to load any enclosed
@@ -2494,11 +2894,18 @@ public final class Parcel {
         }
     }
 
-    // Cache of previously looked up CREATOR.createFromParcel() methods for
-    // particular classes.  Keys are the names of the classes, values are
-    // Method objects.
-    private static final HashMap<ClassLoader,HashMap<String,Parcelable.Creator<?>>>
-        mCreators = new HashMap<>();
+    // Cache of previously looked up CREATOR objects for particular classes,
+    // per class loader.  Keys of the inner maps are the names of the classes.
+    // Reads do not lock, so binder threads unmarshalling Parcelables in
+    // parallel do not contend with each other.
+    private static final ConcurrentHashMap<ClassLoader,
+            ConcurrentHashMap<String, Parcelable.Creator<?>>> sCreators =
+                    new ConcurrentHashMap<>();
+
+    // CREATOR objects registered ahead of time for classes that are visible
+    // from every class loader.  Keys are the names of the classes.
+    private static final ConcurrentHashMap<String, Parcelable.Creator<?>>
+        sPreloadedCreators = new ConcurrentHashMap<>();
 
     /** @hide for internal use only. */
     static protected final Parcel obtain(int obj) {
@@ -2599,6 +3006,35 @@ public final class Parcel {
         outVal.validate();
     }
 
+    /**
+     * Reads entries written by {@link #writeArrayMapIndexedInternal}.  If
+     * {@code lazy} is true, values are not deserialized; each one is recorded
+     * as a {@link BaseBundle.LazyValue} holding its offset in this parcel.
+     */
+    /* package */ void readArrayMapIndexedInternal(ArrayMap outVal, int N,
+        ClassLoader loader, boolean lazy) {
+        final int dataSize = dataSize();
+        while (N > 0) {
+            String key = readString();
+            int length = readInt();
+            int offset = dataPosition();
+            if (length < 0 || length > dataSize - offset) {
+                throw new BadParcelableException("Bad length " + length
+                        + " for Bundle value at offset " + offset);
+            }
+            Object value;
+            if (lazy) {
+                value = new BaseBundle.LazyValue(offset, length);
+            } else {
+                value = readValue(loader);
+            }
+            setDataPosition(offset + length);
+            outVal.append(key, value);
+            N--;
+        }
+        outVal.validate();
+    }
+
     /* package */ void readArrayMapSafelyInternal(ArrayMap outVal, int N,
         ClassLoader loader) {
         if (DEBUG_ARRAY_MAP) {
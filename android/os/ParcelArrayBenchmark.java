@@ -16,9 +16,13 @@
 
 package android.os;
 
+import android.graphics.Rect;
+
 import com.google.caliper.Param;
 import com.google.caliper.SimpleBenchmark;
 
+import java.nio.ByteBuffer;
+
 public class ParcelArrayBenchmark extends SimpleBenchmark {
 
     @Param({ "1", "10", "100", "1000" })
@@ -33,6 +37,10 @@ public class ParcelArrayBenchmark extends SimpleBenchmark {
     private Parcel mByteParcel;
     private Parcel mIntParcel;
     private Parcel mLongParcel;
+    private Parcel mParcelableParcel;
+
+    private int[] mPooledIntArray;
+    private ByteBuffer mDirectBuffer;
 
     @Override
     protected void setUp() {
@@ -48,6 +56,16 @@ public class ParcelArrayBenchmark extends SimpleBenchmark {
         mIntParcel.writeIntArray(mIntArray);
         mLongParcel = Parcel.obtain();
         mLongParcel.writeLongArray(mLongArray);
+
+        Rect[] rects = new Rect[mSize];
+        for (int i = 0; i < mSize; i++) {
+            rects[i] = new Rect(i, i, i + 1, i + 1);
+        }
+        mPooledIntArray = new int[mSize * 2];
+        mDirectBuffer = ByteBuffer.allocateDirect(mSize);
+
+        mParcelableParcel = Parcel.obtain();
+        mParcelableParcel.writeParcelableArray(rects, 0);
     }
 
     @Override
@@ -119,4 +137,42 @@ public class ParcelArrayBenchmark extends SimpleBenchmark {
         }
     }
 
+    public void timeReadIntArrayIntoPool(int reps) {
+        for (int i = 0; i < reps; i++) {
+            mIntParcel.setDataPosition(0);
+            mIntParcel.readIntArray(mPooledIntArray, 0, mPooledIntArray.length);
+        }
+    }
+
+    public void timeWriteDirectByteBuffer(int reps) {
+        for (int i = 0; i < reps; i++) {
+            mWriteParcel.setDataPosition(0);
+            mDirectBuffer.clear();
+            mWriteParcel.writeByteBuffer(mDirectBuffer);
+        }
+    }
+
+    public void timeReadDirectByteBuffer(int reps) {
+        for (int i = 0; i < reps; i++) {
+            mByteParcel.setDataPosition(0);
+            mDirectBuffer.clear();
+            mByteParcel.readByteBuffer(mDirectBuffer);
+        }
+    }
+
+    public void timeWriteIntArrayBlob(int reps) {
+        for (int i = 0; i < reps; i++) {
+            mWriteParcel.setDataPosition(0);
+            mWriteParcel.writeIntArrayBlob(mIntArray);
+        }
+    }
+
+    public void timeReadParcelableArray(int reps) {
+        final ClassLoader loader = Rect.class.getClassLoader();
+        for (int i = 0; i < reps; i++) {
+            mParcelableParcel.setDataPosition(0);
+            mParcelableParcel.readParcelableArray(loader);
+        }
+    }
+
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ParcelArrayTest extends TestCase {
+
+    private Parcel mParcel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mParcel = Parcel.obtain();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mParcel.recycle();
+        super.tearDown();
+    }
+
+    private static int[] ints(int n) {
+        int[] val = new int[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = i * 31 - 7;
+        }
+        return val;
+    }
+
+    private static long[] longs(int n) {
+        long[] val = new long[n];
+        for (int i = 0; i < n; i++) {
+            val[i] = (i * 31L - 7) << 33;
+        }
+        return val;
+    }
+
+    @SmallTest
+    public void testPooledIntArray() {
+        int[] src = ints(10);
+        mParcel.writeIntArray(src, 2, 5);
+        mParcel.writeIntArray(null);
+        mParcel.setDataPosition(0);
+
+        int[] pool = new int[8];
+        assertEquals(5, mParcel.readIntArray(pool, 1, 7));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(src, 2, 7), Arrays.copyOfRange(pool, 1, 6)));
+        assertEquals(-1, mParcel.readIntArray(pool, 0, 8));
+    }
+
+    @SmallTest
+    public void testPooledIntArrayTooSmall() {
+        mParcel.writeIntArray(ints(10));
+        mParcel.setDataPosition(0);
+        try {
+            mParcel.readIntArray(new int[4], 0, 4);
+            fail("expected RuntimeException");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testPooledLongArray() {
+        long[] src = longs(6);
+        mParcel.writeLongArray(src, 0, 6);
+        mParcel.setDataPosition(0);
+
+        long[] pool = new long[6];
+        assertEquals(6, mParcel.readLongArray(pool, 0, 6));
+        assertTrue(Arrays.equals(src, pool));
+    }
+
+    @SmallTest
+    public void testPooledByteArray() {
+        byte[] src = { 1, 2, 3, 4, 5, 6, 7 };
+        mParcel.writeByteArray(src);
+        mParcel.writeInt(42);
+        mParcel.setDataPosition(0);
+
+        byte[] pool = new byte[9];
+        assertEquals(7, mParcel.readByteArray(pool, 1, 8));
+        assertTrue(Arrays.equals(src, Arrays.copyOfRange(pool, 1, 8)));
+        // The padding after the bytes was consumed as well.
+        assertEquals(42, mParcel.readInt());
+    }
+
+    @SmallTest
+    public void testDirectByteBuffer() {
+        ByteBuffer src = ByteBuffer.allocateDirect(5);
+        src.put(new byte[] { 9, 8, 7, 6, 5 }).flip();
+        mParcel.writeByteBuffer(src);
+        assertEquals(0, src.remaining());
+        mParcel.setDataPosition(0);
+        assertTrue(Arrays.equals(new byte[] { 9, 8, 7, 6, 5 }, mParcel.createByteArray()));
+
+        mParcel.setDataPosition(0);
+        ByteBuffer dest = ByteBuffer.allocateDirect(8);
+        assertEquals(5, mParcel.readByteBuffer(dest));
+        assertEquals(5, dest.position());
+        dest.flip();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(9 - i, dest.get());
+        }
+    }
+
+    @SmallTest
+    public void testHeapByteBuffer() {
+        ByteBuffer src = ByteBuffer.wrap(new byte[] { 0, 1, 2, 3 }, 1, 3);
+        mParcel.writeByteBuffer(src.asReadOnlyBuffer());
+        mParcel.writeByteBuffer(src);
+        mParcel.setDataPosition(0);
+
+        ByteBuffer dest = ByteBuffer.allocate(6);
+        assertEquals(3, mParcel.readByteBuffer(dest));
+        assertEquals(3, mParcel.readByteBuffer(dest));
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3, 1, 2, 3 }, dest.array()));
+    }
+
+    @SmallTest
+    public void testArrayBlobs() {
+        int[] intSrc = ints(100);
+        long[] longSrc = longs(100);
+        mParcel.writeIntArrayBlob(intSrc);
+        mParcel.writeLongArrayBlob(longSrc);
+        mParcel.writeIntArrayBlob(null);
+        mParcel.setDataPosition(0);
+
+        assertTrue(Arrays.equals(intSrc, mParcel.createIntArrayBlob()));
+        assertTrue(Arrays.equals(longSrc, mParcel.createLongArrayBlob()));
+        assertNull(mParcel.createIntArrayBlob());
+    }
+
+    @SmallTest
+    public void testLargeArraysUseBlob() {
+        int[] intSrc = ints(100000);
+        long[] longSrc = longs(50000);
+        mParcel.writeIntArray(intSrc);
+        mParcel.writeLongArray(longSrc);
+        mParcel.writeIntArray(intSrc);
+        mParcel.writeLongArray(longSrc);
+        mParcel.setDataPosition(0);
+
+        assertTrue(Arrays.equals(intSrc, mParcel.createIntArray()));
+        assertTrue(Arrays.equals(longSrc, mParcel.createLongArray()));
+
+        int[] intDest = new int[intSrc.length];
+        mParcel.readIntArray(intDest);
+        assertTrue(Arrays.equals(intSrc, intDest));
+        long[] longDest = new long[longSrc.length + 1];
+        assertEquals(longSrc.length, mParcel.readLongArray(longDest, 1, longSrc.length));
+        assertTrue(Arrays.equals(longSrc, Arrays.copyOfRange(longDest, 1, longDest.length)));
+    }
+}
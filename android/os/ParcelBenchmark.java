@@ -16,6 +16,8 @@
 
 package android.os;
 
+import android.graphics.Rect;
+
 import com.google.caliper.SimpleBenchmark;
 
 public class ParcelBenchmark extends SimpleBenchmark {
@@ -74,4 +76,38 @@ public class ParcelBenchmark extends SimpleBenchmark {
             mParcel.readLong();
         }
     }
+
+    public void timeReadParcelableCreator(int reps) {
+        final ClassLoader loader = Rect.class.getClassLoader();
+        mParcel.writeString(Rect.class.getName());
+        for (int i = 0; i < reps; i++) {
+            mParcel.setDataPosition(0);
+            mParcel.readParcelableCreator(loader);
+        }
+    }
+
+    public void timeReadParcelableCreatorContended(int reps) throws InterruptedException {
+        final ClassLoader loader = Rect.class.getClassLoader();
+        final int threadCount = 4;
+        final int perThread = Math.max(1, reps / threadCount);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Parcel p = Parcel.obtain();
+                    p.writeString(Rect.class.getName());
+                    for (int i = 0; i < perThread; i++) {
+                        p.setDataPosition(0);
+                        p.readParcelableCreator(loader);
+                    }
+                    p.recycle();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
 }
@@ -62,6 +62,16 @@ public interface Parcelable {
      * may want to release resources at this point.
      */
     public static final int PARCELABLE_WRITE_RETURN_VALUE = 0x0001;
+
+    /**
+     * Flag for use with {@link #writeToParcel}: a parent object will take
+     * care of writing objects it shares with this one, such as the
+     * {@link android.content.pm.ApplicationInfo} that every component of a
+     * package points to, and restore them after reading.
+     *
+     * @hide
+     */
+    public static final int PARCELABLE_ELIDE_DUPLICATES = 0x0002;
     
     /**
      * Bit masks for use with {@link #describeContents}: each bit represents a
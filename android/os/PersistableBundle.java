@@ -141,7 +141,7 @@ public final class PersistableBundle extends BaseBundle implements Cloneable, Pa
      */
     public void putPersistableBundle(@Nullable String key, @Nullable PersistableBundle value) {
         unparcel();
-        mMap.put(key, value);
+        putValue(key, value);
     }
 
     /**
@@ -155,7 +155,7 @@ public final class PersistableBundle extends BaseBundle implements Cloneable, Pa
     @Nullable
     public PersistableBundle getPersistableBundle(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -196,7 +196,7 @@ public final class PersistableBundle extends BaseBundle implements Cloneable, Pa
 
     /** @hide */
     public void saveToXml(XmlSerializer out) throws IOException, XmlPullParserException {
-        unparcel();
+        unparcelValues();
         XmlUtils.writeMapXml(mMap, out, this);
     }
 
@@ -263,6 +263,7 @@ public final class PersistableBundle extends BaseBundle implements Cloneable, Pa
                         mParcelledData.dataSize() + "]";
             }
         }
+        unparcelValues();
         return "PersistableBundle[" + mMap.toString() + "]";
     }
 
@@ -7002,6 +7002,15 @@ public final class Settings {
          */
         public static final String DROPBOX_RESERVE_PERCENT = "dropbox_reserve_percent";
 
+        /**
+         * Whether {@link DropBoxManager} appends small entries to shared segment
+         * files instead of writing a file for each.
+         * Type: int (0 = files only, 1 = use segments)
+         *
+         * @hide
+         */
+        public static final String DROPBOX_SEGMENTS = "dropbox_segments";
+
         /**
          * Prefix for per-tag dropbox disable/enable settings.
          *
@@ -17,6 +17,14 @@
 package android.util;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * Utilities for encoding and decoding the Base64 representation of
@@ -70,13 +78,14 @@ public class Base64 {
 
     /* package */ static abstract class Coder {
         public byte[] output;
+        public int outputOffset;
         public int op;
 
         /**
          * Encode/decode another block of input data.  this.output is
          * provided by the caller, and must be big enough to hold all
-         * the coded data.  On exit, this.opwill be set to the length
-         * of the coded data.
+         * the coded data starting at this.outputOffset.  On exit,
+         * this.op will be set to the length of the coded data.
          *
          * @param finish true if this is the final call to process for
          *        this object.  Will finalize the coder state and
@@ -273,7 +282,7 @@ public class Base64 {
             // the member variable is final.)
             int state = this.state;
             int value = this.value;
-            int op = 0;
+            int op = this.outputOffset;
             final byte[] output = this.output;
             final int[] alphabet = this.alphabet;
 
@@ -395,7 +404,7 @@ public class Base64 {
                 // more.
                 this.state = state;
                 this.value = value;
-                this.op = op;
+                this.op = op - outputOffset;
                 return true;
             }
 
@@ -433,7 +442,7 @@ public class Base64 {
             }
 
             this.state = state;
-            this.op = op;
+            this.op = op - outputOffset;
             return true;
         }
     }
@@ -508,12 +517,30 @@ public class Base64 {
      */
     public static byte[] encode(byte[] input, int offset, int len, int flags) {
         Encoder encoder = new Encoder(flags, null);
+        int output_len = encodedLength(len, flags);
 
-        // Compute the exact length of the array we will produce.
+        encoder.output = new byte[output_len];
+        encoder.process(input, offset, len, true);
+
+        assert encoder.op == output_len;
+
+        return encoder.output;
+    }
+
+    /**
+     * Returns the exact number of bytes that encoding {@code len} bytes
+     * of input with the given flags produces.
+     *
+     * @param len    the number of bytes of input to encode
+     * @param flags  controls certain features of the encoded output.
+     *               Passing {@code DEFAULT} results in output that
+     *               adheres to RFC 2045.
+     */
+    public static int encodedLength(int len, int flags) {
         int output_len = len / 3 * 4;
 
         // Account for the tail of the data and the padding bytes, if any.
-        if (encoder.do_padding) {
+        if ((flags & NO_PADDING) == 0) {
             if (len % 3 > 0) {
                 output_len += 4;
             }
@@ -526,17 +553,11 @@ public class Base64 {
         }
 
         // Account for the newlines, if any.
-        if (encoder.do_newline && len > 0) {
+        if ((flags & NO_WRAP) == 0 && len > 0) {
             output_len += (((len-1) / (3 * Encoder.LINE_GROUPS)) + 1) *
-                (encoder.do_cr ? 2 : 1);
+                ((flags & CRLF) != 0 ? 2 : 1);
         }
-
-        encoder.output = new byte[output_len];
-        encoder.process(input, offset, len, true);
-
-        assert encoder.op == output_len;
-
-        return encoder.output;
+        return output_len;
     }
 
     /* package */ static class Encoder extends Coder {
@@ -604,7 +625,7 @@ public class Base64 {
             // Using local variables makes the encoder about 9% faster.
             final byte[] alphabet = this.alphabet;
             final byte[] output = this.output;
-            int op = 0;
+            int op = this.outputOffset;
             int count = this.count;
 
             int p = offset;
@@ -711,7 +732,7 @@ public class Base64 {
                         if (do_cr) output[op++] = '\r';
                         output[op++] = '\n';
                     }
-                } else if (do_newline && op > 0 && count != LINE_GROUPS) {
+                } else if (do_newline && op > outputOffset && count != LINE_GROUPS) {
                     if (do_cr) output[op++] = '\r';
                     output[op++] = '\n';
                 }
@@ -730,12 +751,403 @@ public class Base64 {
                 }
             }
 
-            this.op = op;
+            this.op = op - outputOffset;
             this.count = count;
 
             return true;
         }
     }
 
+    //  --------------------------------------------------------
+    //  NIO buffers
+    //  --------------------------------------------------------
+
+    /**
+     * Inputs shorter than this are always coded on the calling thread;
+     * handing them to other threads costs more than it saves.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 256 * 1024;
+
+    /** Bytes copied at a time through buffers without a backing array. */
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    /**
+     * Base64-encode the remaining bytes of {@code input} into {@code
+     * output}.  On return the input is consumed and the output's position
+     * has advanced by {@link #encodedLength encodedLength(input.remaining(),
+     * flags)}.  Heap buffers are coded in place; direct buffers are copied
+     * through a small scratch array.
+     *
+     * @param input  the data to encode
+     * @param output the buffer to write the encoded data to
+     * @param flags  controls certain features of the encoded output.
+     *               Passing {@code DEFAULT} results in output that
+     *               adheres to RFC 2045.
+     *
+     * @throws BufferOverflowException if {@code output} doesn't have room
+     * for the encoded data; neither buffer is changed
+     */
+    public static void encode(ByteBuffer input, ByteBuffer output, int flags) {
+        encode(input, output, flags, null);
+    }
+
+    /**
+     * Base64-encode the remaining bytes of {@code input} into {@code
+     * output} like {@link #encode(ByteBuffer, ByteBuffer, int)}, splitting
+     * large inputs into chunks that are encoded concurrently.  Chunks are
+     * aligned to whole output lines, so the result is byte-for-byte the
+     * same as encoding serially.
+     *
+     * @param executor runs all but one of the chunks; the calling thread
+     *        runs the other and waits for the rest.  May be null to
+     *        encode on the calling thread only.
+     *
+     * @throws BufferOverflowException if {@code output} doesn't have room
+     * for the encoded data; neither buffer is changed
+     */
+    public static void encode(ByteBuffer input, ByteBuffer output, int flags,
+            Executor executor) {
+        int len = input.remaining();
+        int outputLen = encodedLength(len, flags);
+        if (output.remaining() < outputLen) {
+            throw new BufferOverflowException();
+        }
+
+        int chunks = executor == null ? 1 : chunkCount(len);
+        if (chunks == 1) {
+            process(new Encoder(flags, null), input, output, true);
+            return;
+        }
+
+        // Every chunk but the last is a whole number of output lines,
+        // which leaves the encoder with no tail and no partial line, so
+        // each chunk's output lands exactly where serial encoding would
+        // have put it.
+        int groupBytes = 3 * Encoder.LINE_GROUPS;
+        int chunkLen = (len + chunks - 1) / chunks;
+        chunkLen = (chunkLen + groupBytes - 1) / groupBytes * groupBytes;
+        int chunkOutputLen = encodedLength(chunkLen, flags);
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(chunks);
+        for (int i = 0; i * chunkLen < len; ++i) {
+            int offset = i * chunkLen;
+            final ByteBuffer in = slice(input, offset, Math.min(chunkLen, len - offset));
+            final ByteBuffer out = slice(output, i * chunkOutputLen,
+                    outputLen - i * chunkOutputLen);
+            final Encoder encoder = new Encoder(flags, null);
+            final boolean finish = (i + 1) * chunkLen >= len;
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    return process(encoder, in, out, finish);
+                }
+            });
+        }
+        runAll(tasks, executor);
+
+        input.position(input.limit());
+        output.position(output.position() + outputLen);
+    }
+
+    /**
+     * Decode the remaining Base64-encoded bytes of {@code input} into
+     * {@code output}.  On return the input is consumed and the output's
+     * position has advanced past the decoded data.
+     *
+     * <p>The padding '=' characters at the end are considered optional, but
+     * if any are present, there must be the correct number of them.
+     *
+     * @param input  the data to decode
+     * @param output the buffer to write the decoded data to.  It must have
+     *               room for {@code input.remaining() * 3 / 4} bytes, the
+     *               most the input could represent.
+     * @param flags  controls certain features of the decoded output.
+     *               Pass {@code DEFAULT} to decode standard Base64.
+     *
+     * @return the number of decoded bytes
+     *
+     * @throws IllegalArgumentException if the input contains
+     * incorrect padding; neither buffer's position is changed
+     * @throws BufferOverflowException if {@code output} is too small;
+     * neither buffer is changed
+     */
+    public static int decode(ByteBuffer input, ByteBuffer output, int flags) {
+        return decode(input, output, flags, null);
+    }
+
+    /**
+     * Decode the remaining Base64-encoded bytes of {@code input} into
+     * {@code output} like {@link #decode(ByteBuffer, ByteBuffer, int)},
+     * splitting large inputs into chunks that are decoded concurrently.
+     *
+     * <p>Chunk boundaries are placed on 4-character tuple boundaries of the
+     * data characters, so whitespace and line breaks anywhere in the
+     * input are fine.  Input that can't be split cleanly, such as padding
+     * before the end, is decoded serially.
+     *
+     * @param executor runs all but one of the chunks; the calling thread
+     *        runs the other and waits for the rest.  May be null to
+     *        decode on the calling thread only.
+     *
+     * @return the number of decoded bytes
+     *
+     * @throws IllegalArgumentException if the input contains
+     * incorrect padding; neither buffer's position is changed
+     * @throws BufferOverflowException if {@code output} is too small;
+     * neither buffer is changed
+     */
+    public static int decode(ByteBuffer input, ByteBuffer output, int flags,
+            Executor executor) {
+        int len = input.remaining();
+        if (output.remaining() < len / 4 * 3 + len % 4 * 3 / 4) {
+            throw new BufferOverflowException();
+        }
+
+        int chunks = executor == null ? 1 : chunkCount(len);
+        if (chunks > 1) {
+            int decoded = decodeChunks(input, output, flags, executor, chunks);
+            if (decoded >= 0) {
+                input.position(input.limit());
+                output.position(output.position() + decoded);
+                return decoded;
+            }
+        }
+
+        int start = output.position();
+        if (!process(new Decoder(flags, null), input, output, true)) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+        return output.position() - start;
+    }
+
+    /**
+     * Decodes {@code input} in {@code chunks} concurrent pieces without
+     * moving either buffer.
+     *
+     * @return the number of decoded bytes, or -1 if the input couldn't
+     *         be split cleanly and should be decoded serially
+     */
+    private static int decodeChunks(ByteBuffer input, ByteBuffer output, int flags,
+            Executor executor, int chunks) {
+        final int[] alphabet =
+                ((flags & URL_SAFE) == 0) ? Decoder.DECODE : Decoder.DECODE_WEBSAFE;
+        final int len = input.remaining();
+        final int chunkLen = len / chunks;
+
+        // First count the data characters in each nominal chunk so that
+        // every chunk's output offset is known up front.
+        final int[] dataCounts = new int[chunks];
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(chunks);
+        for (int i = 0; i < chunks; ++i) {
+            final int chunk = i;
+            int offset = i * chunkLen;
+            final ByteBuffer in = slice(input, offset, i == chunks - 1 ? len - offset : chunkLen);
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    dataCounts[chunk] = countData(in, alphabet);
+                    return true;
+                }
+            });
+        }
+        runAll(tasks, executor);
+
+        // Then nudge each boundary forward past the rest of its tuple.
+        int[] starts = new int[chunks + 1];
+        int[] dataStarts = new int[chunks + 1];
+        int data = 0;
+        for (int i = 1; i < chunks; ++i) {
+            data += dataCounts[i - 1];
+            int p = i * chunkLen;
+            int pData = data;
+            while (pData % 4 != 0 && p < len) {
+                if (alphabet[input.get(input.position() + p++) & 0xff] >= 0) {
+                    ++pData;
+                }
+            }
+            if (pData % 4 != 0 || p < starts[i - 1]) {
+                return -1;
+            }
+            starts[i] = p;
+            dataStarts[i] = pData;
+        }
+        starts[chunks] = len;
+
+        final ByteBuffer[] outs = new ByteBuffer[chunks];
+        tasks.clear();
+        for (int i = 0; i < chunks; ++i) {
+            final int chunk = i;
+            final ByteBuffer in = slice(input, starts[i], starts[i + 1] - starts[i]);
+            final ByteBuffer out = outs[i] = slice(output, dataStarts[i] / 4 * 3,
+                    output.remaining() - dataStarts[i] / 4 * 3);
+            final Decoder decoder = new Decoder(flags, null);
+            final boolean finish = i == chunks - 1;
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    // Padding or an error before the last chunk leaves the
+                    // decoder mid-tuple; the serial decoder sorts that out.
+                    return process(decoder, in, out, finish) && (finish || decoder.state == 0);
+                }
+            });
+        }
+        if (!runAll(tasks, executor)) {
+            return -1;
+        }
+        return outs[chunks - 1].position() - output.position();
+    }
+
+    private static int countData(ByteBuffer in, int[] alphabet) {
+        int count = 0;
+        if (in.hasArray()) {
+            byte[] array = in.array();
+            int end = in.arrayOffset() + in.limit();
+            for (int p = in.arrayOffset() + in.position(); p < end; ++p) {
+                if (alphabet[array[p] & 0xff] >= 0) {
+                    ++count;
+                }
+            }
+        } else {
+            for (int p = in.position(), end = in.limit(); p < end; ++p) {
+                if (alphabet[in.get(p) & 0xff] >= 0) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of chunks to split {@code len} bytes of input
+     * into, or 1 if it isn't worth splitting.
+     */
+    private static int chunkCount(int len) {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                len / PARALLEL_CHUNK_SIZE));
+    }
+
+    /**
+     * Returns an independent view of {@code len} bytes of {@code buffer}
+     * starting {@code offset} bytes past its position.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int len) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(buffer.position() + offset);
+        slice.limit(buffer.position() + offset + len);
+        return slice;
+    }
+
+    /**
+     * Runs {@code tasks}, the first on the calling thread and the rest on
+     * {@code executor}, and waits for all of them.  Waiting isn't
+     * interruptible so that no task can write to a buffer after this
+     * returns; an interrupt is preserved for the caller.
+     *
+     * @return true if every task returned true
+     */
+    private static boolean runAll(List<Callable<Boolean>> tasks, Executor executor) {
+        List<FutureTask<Boolean>> futures = new ArrayList<FutureTask<Boolean>>(tasks.size());
+        for (int i = 1; i < tasks.size(); ++i) {
+            FutureTask<Boolean> future = new FutureTask<Boolean>(tasks.get(i));
+            futures.add(future);
+            executor.execute(future);
+        }
+
+        boolean result;
+        RuntimeException thrown = null;
+        try {
+            result = tasks.get(0).call();
+        } catch (Exception e) {
+            result = false;
+            thrown = (RuntimeException) e;
+        }
+
+        boolean interrupted = false;
+        for (FutureTask<Boolean> future : futures) {
+            while (true) {
+                try {
+                    result &= future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    result = false;
+                    if (thrown == null) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        thrown = (RuntimeException) cause;
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (thrown != null) {
+            throw thrown;
+        }
+        return result;
+    }
+
+    /**
+     * Runs {@code coder} over the remaining bytes of {@code input},
+     * writing to {@code output}, which must have room for everything it
+     * produces.  Both buffers advance on success and are left where they
+     * were on failure.
+     *
+     * @return false if bad base-64 data was detected in the input
+     */
+    private static boolean process(Coder coder, ByteBuffer input, ByteBuffer output,
+            boolean finish) {
+        int inputPosition = input.position();
+        int outputPosition = output.position();
+        if (input.hasArray() && output.hasArray()) {
+            coder.output = output.array();
+            coder.outputOffset = output.arrayOffset() + outputPosition;
+            if (!coder.process(input.array(), input.arrayOffset() + inputPosition,
+                    input.remaining(), finish)) {
+                return false;
+            }
+            input.position(input.limit());
+            output.position(outputPosition + coder.op);
+            return true;
+        }
+
+        byte[] scratch = input.hasArray()
+                ? null
+                : new byte[Math.min(input.remaining(), SCRATCH_SIZE)];
+        boolean copyOutput = !output.hasArray();
+        if (copyOutput) {
+            coder.output = new byte[coder.maxOutputSize(SCRATCH_SIZE)];
+        } else {
+            coder.output = output.array();
+        }
+        do {
+            int len = Math.min(input.remaining(), SCRATCH_SIZE);
+            byte[] in;
+            int offset;
+            if (scratch != null) {
+                input.get(scratch, 0, len);
+                in = scratch;
+                offset = 0;
+            } else {
+                in = input.array();
+                offset = input.arrayOffset() + input.position();
+                input.position(input.position() + len);
+            }
+            coder.outputOffset = copyOutput ? 0 : output.arrayOffset() + output.position();
+            if (!coder.process(in, offset, len, finish && !input.hasRemaining())) {
+                input.position(inputPosition);
+                output.position(outputPosition);
+                return false;
+            }
+            if (copyOutput) {
+                output.put(coder.output, 0, coder.op);
+            } else {
+                output.position(output.position() + coder.op);
+            }
+        } while (input.hasRemaining());
+        return true;
+    }
+
     private Base64() { }   // don't instantiate
 }
@@ -32,6 +32,7 @@ public class Base64InputStream extends FilterInputStream {
     private static final int BUFFER_SIZE = 2048;
     private boolean eof;
     private byte[] inputBuffer;
+    private final byte[] outputBuffer;
     private int outputStart;
     private int outputEnd;
 
@@ -67,7 +68,7 @@ public class Base64InputStream extends FilterInputStream {
         } else {
             coder = new Base64.Decoder(flags, null);
         }
-        coder.output = new byte[coder.maxOutputSize(BUFFER_SIZE)];
+        outputBuffer = new byte[coder.maxOutputSize(BUFFER_SIZE)];
         outputStart = 0;
         outputEnd = 0;
     }
@@ -112,11 +113,16 @@ public class Base64InputStream extends FilterInputStream {
         if (outputStart >= outputEnd) {
             return -1;
         } else {
-            return coder.output[outputStart++] & 0xff;
+            return outputBuffer[outputStart++] & 0xff;
         }
     }
 
     public int read(byte[] b, int off, int len) throws IOException {
+        if (outputStart >= outputEnd && len >= outputBuffer.length) {
+            // Nothing is buffered and the caller has room for a whole
+            // buffer's worth, so decode/encode straight into their array.
+            return process(b, off);
+        }
         if (outputStart >= outputEnd) {
             refill();
         }
@@ -124,30 +130,48 @@ public class Base64InputStream extends FilterInputStream {
             return -1;
         }
         int bytes = Math.min(len, outputEnd-outputStart);
-        System.arraycopy(coder.output, outputStart, b, off, bytes);
+        System.arraycopy(outputBuffer, outputStart, b, off, bytes);
         outputStart += bytes;
         return bytes;
     }
 
     /**
-     * Read data from the input stream into inputBuffer, then
-     * decode/encode it into the empty coder.output, and reset the
-     * outputStart and outputEnd pointers.
+     * Decode/encode data from the input stream into the empty
+     * outputBuffer, and reset the outputStart and outputEnd pointers.
      */
     private void refill() throws IOException {
-        if (eof) return;
-        int bytesRead = in.read(inputBuffer);
-        boolean success;
-        if (bytesRead == -1) {
-            eof = true;
-            success = coder.process(EMPTY, 0, 0, true);
-        } else {
-            success = coder.process(inputBuffer, 0, bytesRead, false);
-        }
-        if (!success) {
-            throw new Base64DataException("bad base-64");
-        }
-        outputEnd = coder.op;
+        outputEnd = Math.max(process(outputBuffer, 0), 0);
         outputStart = 0;
     }
+
+    /**
+     * Read data from the input stream into inputBuffer and
+     * decode/encode it into output at offset, which must have room for
+     * outputBuffer.length bytes.  Keeps reading until some output is
+     * produced, since a short read may not complete a tuple.
+     *
+     * @return the number of bytes produced, or -1 at the end of the
+     *         stream
+     */
+    private int process(byte[] output, int offset) throws IOException {
+        coder.output = output;
+        coder.outputOffset = offset;
+        while (!eof) {
+            int bytesRead = in.read(inputBuffer);
+            boolean success;
+            if (bytesRead == -1) {
+                eof = true;
+                success = coder.process(EMPTY, 0, 0, true);
+            } else {
+                success = coder.process(inputBuffer, 0, bytesRead, false);
+            }
+            if (!success) {
+                throw new Base64DataException("bad base-64");
+            }
+            if (coder.op > 0) {
+                return coder.op;
+            }
+        }
+        return -1;
+    }
 }
@@ -33,6 +33,8 @@ public class Base64OutputStream extends FilterOutputStream {
 
     private static byte[] EMPTY = new byte[0];
 
+    private static final int MAX_SLICE = 64 * 1024;
+
     /**
      * Performs Base64 encoding on the data written to the stream,
      * writing the encoded data to another OutputStream.
@@ -134,11 +136,18 @@ public class Base64OutputStream extends FilterOutputStream {
      *        encoder/decoder state to be finalized.
      */
     private void internalWrite(byte[] b, int off, int len, boolean finish) throws IOException {
-        coder.output = embiggen(coder.output, coder.maxOutputSize(len));
-        if (!coder.process(b, off, len, finish)) {
-            throw new Base64DataException("bad base-64");
-        }
-        out.write(coder.output, 0, coder.op);
+        // Code large writes a slice at a time so that the output buffer
+        // stays small however much is written at once.
+        do {
+            int sliceLen = Math.min(len, MAX_SLICE);
+            coder.output = embiggen(coder.output, coder.maxOutputSize(sliceLen));
+            if (!coder.process(b, off, sliceLen, finish && sliceLen == len)) {
+                throw new Base64DataException("bad base-64");
+            }
+            out.write(coder.output, 0, coder.op);
+            off += sliceLen;
+            len -= sliceLen;
+        } while (len > 0);
     }
 
     /**
@@ -23,7 +23,10 @@ import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.concurrent.Executor;
 
 public class Base64Test extends TestCase {
     private static final String TAG = "Base64Test";
@@ -415,6 +418,18 @@ public class Base64Test extends TestCase {
         assertEquals(255, in.read());
     }
 
+    /** Reads that return less than a tuple mustn't look like the end of the stream. */
+    public void testShortReads() throws IOException {
+        InputStream in = new Base64InputStream(new ByteArrayInputStream("/v8=".getBytes()) {
+            @Override public int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        }, Base64.DEFAULT);
+        assertEquals(254, in.read());
+        assertEquals(255, in.read());
+        assertEquals(-1, in.read());
+    }
+
     /**
      * Tests that Base64OutputStream produces exactly the same results
      * as calling Base64.encode/.decode on an in-memory array.
@@ -528,4 +543,130 @@ public class Base64Test extends TestCase {
             assertEquals(plain, actual);
         }
     }
+
+    private static final int[] FLAGSES = { Base64.DEFAULT,
+                                           Base64.NO_PADDING,
+                                           Base64.NO_WRAP,
+                                           Base64.NO_PADDING | Base64.NO_WRAP,
+                                           Base64.CRLF,
+                                           Base64.URL_SAFE };
+
+    private static ByteBuffer wrap(byte[] bytes, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length + 8)
+                : ByteBuffer.allocate(bytes.length + 8);
+        buffer.position(3);
+        buffer.put(bytes);
+        buffer.flip();
+        buffer.position(3);
+        return buffer;
+    }
+
+    private static byte[] remaining(ByteBuffer buffer, int start) {
+        byte[] bytes = new byte[buffer.position() - start];
+        buffer.flip();
+        buffer.position(start);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Tests that the ByteBuffer methods produce exactly the same results
+     * as the byte[] methods for heap and direct buffers.
+     */
+    public void testByteBuffers() throws Exception {
+        Random rng = new Random(32176L);
+        for (int len : new int[] { 0, 1, 2, 3, 56, 57, 58, 1000, 20000 }) {
+            byte[] plain = new byte[len];
+            rng.nextBytes(plain);
+            for (int flags : FLAGSES) {
+                byte[] encoded = Base64.encode(plain, flags);
+                assertEquals(encoded.length, Base64.encodedLength(len, flags));
+                for (boolean direct : new boolean[] { false, true }) {
+                    ByteBuffer in = wrap(plain, direct);
+                    ByteBuffer out = direct ? ByteBuffer.allocateDirect(encoded.length + 5)
+                            : ByteBuffer.allocate(encoded.length + 5);
+                    out.position(5);
+                    Base64.encode(in, out, flags);
+                    assertFalse(in.hasRemaining());
+                    assertEquals(encoded, remaining(out, 5));
+
+                    in = wrap(encoded, direct);
+                    out = ByteBuffer.allocate(encoded.length);
+                    assertEquals(len, Base64.decode(in, out, flags));
+                    assertFalse(in.hasRemaining());
+                    assertEquals(plain, remaining(out, 0));
+                }
+            }
+        }
+    }
+
+    public void testByteBufferErrors() throws Exception {
+        ByteBuffer in = ByteBuffer.wrap("hello".getBytes());
+        ByteBuffer out = ByteBuffer.allocate(7);
+        try {
+            Base64.encode(in, out, Base64.DEFAULT);
+            fail();
+        } catch (BufferOverflowException expected) {
+        }
+        assertEquals(0, in.position());
+        assertEquals(0, out.position());
+
+        in = ByteBuffer.wrap("aGVsbG8sIHdvcmxkLg=".getBytes());
+        out = ByteBuffer.allocate(64);
+        try {
+            Base64.decode(in, out, Base64.DEFAULT);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, in.position());
+        assertEquals(0, out.position());
+    }
+
+    private static final Executor NEW_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    /** Tests that chunked coding is byte-for-byte the same as serial coding. */
+    public void testParallel() throws Exception {
+        Random rng = new Random(32176L);
+        byte[] plain = new byte[3 * 1024 * 1024 + 17];
+        rng.nextBytes(plain);
+        for (int flags : FLAGSES) {
+            byte[] encoded = Base64.encode(plain, flags);
+            for (boolean direct : new boolean[] { false, true }) {
+                ByteBuffer out = ByteBuffer.allocate(encoded.length);
+                Base64.encode(wrap(plain, direct), out, flags, NEW_THREAD);
+                assertEquals(encoded, remaining(out, 0));
+
+                out = ByteBuffer.allocate(encoded.length);
+                assertEquals(plain.length,
+                        Base64.decode(wrap(encoded, direct), out, flags, NEW_THREAD));
+                assertEquals(plain, remaining(out, 0));
+            }
+        }
+
+        // Irregular whitespace moves tuples off any fixed alignment.
+        byte[] encoded = Base64.encode(plain, Base64.NO_WRAP);
+        ByteArrayOutputStream spaced = new ByteArrayOutputStream();
+        for (int i = 0; i < encoded.length; ++i) {
+            spaced.write(encoded[i]);
+            if (rng.nextInt(7) == 0) {
+                spaced.write(' ');
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(spaced.size());
+        Base64.decode(ByteBuffer.wrap(spaced.toByteArray()), out, Base64.DEFAULT, NEW_THREAD);
+        assertEquals(plain, remaining(out, 0));
+
+        // Padding before the end is still an error.
+        encoded[encoded.length / 2] = '=';
+        try {
+            Base64.decode(ByteBuffer.wrap(encoded), ByteBuffer.allocate(encoded.length),
+                    Base64.DEFAULT, NEW_THREAD);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
 }
@@ -0,0 +1,1159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>)
+ * encoded value as a stream of tokens, directly from UTF-8 bytes. This has the
+ * same API as {@link JsonReader} in its default strict mode, but decodes from
+ * an {@link InputStream} or {@link ByteBuffer} without a {@link java.io.Reader}
+ * in between. Text is only converted to Strings when a name or string value is
+ * requested; skipped values, matched names and numbers are handled as bytes.
+ *
+ * <h3>Selecting names</h3>
+ * Decoders usually compare each name against a fixed set of expected names.
+ * Encode those names once as {@link Options} and call {@link #selectName}
+ * instead of {@link #nextName}: the name is compared against the pre-encoded
+ * bytes in place and its index returned, without creating a String.
+ * <pre>   {@code
+ *
+ *   static final Utf8JsonReader.Options NAMES
+ *       = Utf8JsonReader.Options.of("id", "text", "user");
+ *
+ *   public Message readMessage(Utf8JsonReader reader) throws IOException {
+ *     long id = -1;
+ *     String text = null;
+ *     User user = null;
+ *
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *       switch (reader.selectName(NAMES)) {
+ *         case 0:
+ *           id = reader.nextLong();
+ *           break;
+ *         case 1:
+ *           text = reader.nextString();
+ *           break;
+ *         case 2:
+ *           user = readUser(reader);
+ *           break;
+ *         default:
+ *           reader.skipName();
+ *           reader.skipValue();
+ *       }
+ *     }
+ *     reader.endObject();
+ *     return new Message(id, text, user);
+ *   }}</pre>
+ *
+ * <h3>Numbers</h3>
+ * Integral numbers that fit in a long are decoded without allocation, and so
+ * are decimals with at most 15 significant digits and small exponents, which
+ * can be converted exactly. Other numbers fall back to {@link
+ * Double#parseDouble}.
+ *
+ * <p>When reading from a heap {@link ByteBuffer} the buffer's array is parsed
+ * in place and the buffer's position is not changed. Other sources are read
+ * through an internal buffer of 8 KiB. Malformed UTF-8 sequences in strings
+ * are replaced with U+FFFD. Instances of this class are not thread safe.
+ */
+public final class Utf8JsonReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The largest integer represented exactly by a double. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** Powers of ten that are represented exactly by a double. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** The byte sources; both are null when parsing a heap buffer in place. */
+    private final InputStream in;
+    private final ByteBuffer source;
+
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+
+    /** The offset in the input of {@code buffer[0]}, for error messages. */
+    private long bufferStart;
+
+    /** Scratch space for decoding strings. */
+    private char[] chars = new char[64];
+
+    private JsonScope[] stack = new JsonScope[32];
+    private int stackSize;
+    {
+        stack[stackSize++] = JsonScope.EMPTY_DOCUMENT;
+    }
+
+    /** The type of the next token to be returned by {@link #peek}. */
+    private JsonToken token;
+
+    /**
+     * True if the current token is a name or string whose contents, following
+     * the opening quote, have not been consumed yet.
+     */
+    private boolean stringPending;
+
+    /** The decoded name if it was read by {@link #selectName} but not matched. */
+    private String name;
+
+    /** The position and length of the current number token in the buffer. */
+    private int numberPos;
+    private int numberLength;
+
+    /** True if the current number token was decoded to {@link #peekedLong}. */
+    private boolean hasPeekedLong;
+    private long peekedLong;
+
+    private boolean booleanValue;
+
+    /**
+     * Creates a new instance that reads a UTF-8 encoded JSON document from
+     * {@code in}.
+     */
+    public Utf8JsonReader(InputStream in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        this.in = in;
+        this.source = null;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a new instance that reads a UTF-8 encoded JSON document from the
+     * remaining bytes of {@code in}.
+     */
+    public Utf8JsonReader(ByteBuffer in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        this.in = null;
+        if (in.hasArray()) {
+            this.source = null;
+            this.buffer = in.array();
+            this.pos = in.arrayOffset() + in.position();
+            this.limit = in.arrayOffset() + in.limit();
+            this.bufferStart = -pos;
+        } else {
+            this.source = in.duplicate();
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Names to be matched by {@link #selectName}, encoded once as the UTF-8
+     * bytes that appear between the quotes in a document.
+     */
+    public static final class Options {
+        final String[] strings;
+        final byte[][] encoded;
+
+        private Options(String[] strings, byte[][] encoded) {
+            this.strings = strings;
+            this.encoded = encoded;
+        }
+
+        public static Options of(String... names) {
+            String[] strings = names.clone();
+            byte[][] encoded = new byte[strings.length][];
+            for (int i = 0; i < strings.length; i++) {
+                if (strings[i] == null) {
+                    throw new NullPointerException("names[" + i + "] == null");
+                }
+                encoded[i] = Utf8JsonWriter.encodeString(strings[i]);
+            }
+            return new Options(strings, encoded);
+        }
+
+        public int size() {
+            return strings.length;
+        }
+
+        public String get(int index) {
+            return strings[index];
+        }
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * beginning of a new array.
+     */
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * end of the current array.
+     */
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * beginning of a new object.
+     */
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * end of the current object.
+     */
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        peek();
+        if (token != expected) {
+            throw new IllegalStateException("Expected " + expected + " but was " + peek());
+        }
+        advance();
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     */
+    public boolean hasNext() throws IOException {
+        peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public JsonToken peek() throws IOException {
+        if (token != null) {
+            return token;
+        }
+
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                skipByteOrderMark();
+                replaceTop(JsonScope.NONEMPTY_DOCUMENT);
+                JsonToken firstToken = nextValue();
+                if (token != JsonToken.BEGIN_ARRAY && token != JsonToken.BEGIN_OBJECT) {
+                    throw new IOException(
+                            "Expected JSON document to start with '[' or '{' but was " + token);
+                }
+                return firstToken;
+            case EMPTY_ARRAY:
+                return nextInArray(true);
+            case NONEMPTY_ARRAY:
+                return nextInArray(false);
+            case EMPTY_OBJECT:
+                return nextInObject(true);
+            case DANGLING_NAME:
+                return objectValue();
+            case NONEMPTY_OBJECT:
+                return nextInObject(false);
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace(false) == -1) {
+                    return token = JsonToken.END_DOCUMENT;
+                }
+                pos--;
+                throw syntaxError("Expected EOF");
+            case CLOSED:
+                throw new IllegalStateException("Utf8JsonReader is closed");
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Advances the cursor in the JSON stream to the next token.
+     */
+    private JsonToken advance() throws IOException {
+        peek();
+        if (stringPending) {
+            skipString();
+            stringPending = false;
+        }
+        JsonToken result = token;
+        token = null;
+        name = null;
+        hasPeekedLong = false;
+        return result;
+    }
+
+    /**
+     * Returns the next token, a {@link JsonToken#NAME property name}, and
+     * consumes it.
+     *
+     * @throws IOException if the next token in the stream is not a property
+     *     name.
+     */
+    public String nextName() throws IOException {
+        peek();
+        if (token != JsonToken.NAME) {
+            throw new IllegalStateException("Expected a name but was " + peek());
+        }
+        String result = name;
+        if (stringPending) {
+            result = readString();
+            stringPending = false;
+        }
+        token = null;
+        name = null;
+        return result;
+    }
+
+    /**
+     * Consumes the next token if it is a property name in {@code options} and
+     * returns its index. Otherwise returns -1 and leaves the name to be read by
+     * {@link #nextName} or {@link #skipName}.
+     */
+    public int selectName(Options options) throws IOException {
+        peek();
+        if (token != JsonToken.NAME) {
+            throw new IllegalStateException("Expected a name but was " + peek());
+        }
+        if (stringPending) {
+            int end = findUnescapedQuote();
+            if (end != -1) {
+                int length = end - pos;
+                byte[][] encoded = options.encoded;
+                for (int i = 0; i < encoded.length; i++) {
+                    if (encoded[i].length == length && regionMatches(encoded[i], pos)) {
+                        pos = end + 1;
+                        stringPending = false;
+                        token = null;
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            // The name has escapes, so its bytes may differ from the options.
+            name = readString();
+            stringPending = false;
+        }
+        String[] strings = options.strings;
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i].equals(name)) {
+                token = null;
+                name = null;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Consumes the next token, a {@link JsonToken#NAME property name}, without
+     * decoding it.
+     */
+    public void skipName() throws IOException {
+        peek();
+        if (token != JsonToken.NAME) {
+            throw new IllegalStateException("Expected a name but was " + peek());
+        }
+        advance();
+    }
+
+    private boolean regionMatches(byte[] expected, int offset) {
+        byte[] buffer = this.buffer;
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the {@link JsonToken#STRING string} value of the next token,
+     * consuming it. If the next token is a number, this method will return its
+     * string form.
+     *
+     * @throws IllegalStateException if the next token is not a string or if
+     *     this reader is closed.
+     */
+    public String nextString() throws IOException {
+        peek();
+        String result;
+        if (token == JsonToken.STRING) {
+            result = readString();
+            stringPending = false;
+        } else if (token == JsonToken.NUMBER) {
+            result = numberString();
+        } else {
+            throw new IllegalStateException("Expected a string but was " + peek());
+        }
+        advance();
+        return result;
+    }
+
+    /**
+     * Returns the {@link JsonToken#BOOLEAN boolean} value of the next token,
+     * consuming it.
+     *
+     * @throws IllegalStateException if the next token is not a boolean or if
+     *     this reader is closed.
+     */
+    public boolean nextBoolean() throws IOException {
+        peek();
+        if (token != JsonToken.BOOLEAN) {
+            throw new IllegalStateException("Expected a boolean but was " + token);
+        }
+        boolean result = booleanValue;
+        advance();
+        return result;
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is a
+     * literal null.
+     *
+     * @throws IllegalStateException if the next token is not null or if this
+     *     reader is closed.
+     */
+    public void nextNull() throws IOException {
+        peek();
+        if (token != JsonToken.NULL) {
+            throw new IllegalStateException("Expected null but was " + token);
+        }
+        advance();
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER double} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt to
+     * parse it as a double using {@link Double#parseDouble(String)}.
+     *
+     * @throws IllegalStateException if the next token is not a literal value.
+     */
+    public double nextDouble() throws IOException {
+        peek();
+        double result;
+        if (token == JsonToken.NUMBER) {
+            result = hasPeekedLong ? (double) peekedLong : parseDouble();
+        } else if (token == JsonToken.STRING) {
+            result = Double.parseDouble(readString());
+            stringPending = false;
+        } else {
+            throw new IllegalStateException("Expected a double but was " + token);
+        }
+        advance();
+        return result;
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER long} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt to
+     * parse it as a long. If the next token's numeric value cannot be exactly
+     * represented by a Java {@code long}, this method throws.
+     *
+     * @throws IllegalStateException if the next token is not a literal value.
+     * @throws NumberFormatException if the next literal value cannot be parsed
+     *     as a number, or exactly represented as a long.
+     */
+    public long nextLong() throws IOException {
+        peek();
+        long result;
+        if (token == JsonToken.NUMBER && hasPeekedLong) {
+            result = peekedLong;
+        } else if (token == JsonToken.NUMBER) {
+            double asDouble = parseDouble();
+            result = (long) asDouble;
+            if ((double) result != asDouble) {
+                throw new NumberFormatException(numberString());
+            }
+        } else if (token == JsonToken.STRING) {
+            String value = readString();
+            stringPending = false;
+            result = parseLong(value);
+        } else {
+            throw new IllegalStateException("Expected a long but was " + token);
+        }
+        advance();
+        return result;
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER int} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt to
+     * parse it as an int. If the next token's numeric value cannot be exactly
+     * represented by a Java {@code int}, this method throws.
+     *
+     * @throws IllegalStateException if the next token is not a literal value.
+     * @throws NumberFormatException if the next literal value cannot be parsed
+     *     as a number, or exactly represented as an int.
+     */
+    public int nextInt() throws IOException {
+        peek();
+        long asLong;
+        if (token == JsonToken.NUMBER && hasPeekedLong) {
+            asLong = peekedLong;
+        } else if (token == JsonToken.NUMBER) {
+            double asDouble = parseDouble();
+            asLong = (long) asDouble;
+            if ((double) asLong != asDouble) {
+                throw new NumberFormatException(numberString());
+            }
+        } else if (token == JsonToken.STRING) {
+            String value = readString();
+            stringPending = false;
+            asLong = parseLong(value);
+        } else {
+            throw new IllegalStateException("Expected an int but was " + token);
+        }
+        int result = (int) asLong;
+        if (result != asLong) {
+            throw new NumberFormatException(
+                    token == JsonToken.NUMBER ? numberString() : Long.toString(asLong));
+        }
+        advance();
+        return result;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ignored) {
+            double asDouble = Double.parseDouble(value);
+            long result = (long) asDouble;
+            if ((double) result != asDouble) {
+                throw new NumberFormatException(value);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Closes this JSON reader and the underlying input stream, if any.
+     */
+    public void close() throws IOException {
+        token = null;
+        stringPending = false;
+        stack[0] = JsonScope.CLOSED;
+        stackSize = 1;
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    /**
+     * Skips the next value recursively. If it is an object or array, all
+     * nested elements are skipped. Strings are skipped without being decoded.
+     * This method is intended for use when the JSON token stream contains
+     * unrecognized or unhandled values.
+     */
+    public void skipValue() throws IOException {
+        int count = 0;
+        do {
+            JsonToken token = advance();
+            if (token == JsonToken.BEGIN_ARRAY || token == JsonToken.BEGIN_OBJECT) {
+                count++;
+            } else if (token == JsonToken.END_ARRAY || token == JsonToken.END_OBJECT) {
+                count--;
+            }
+        } while (count != 0);
+    }
+
+    private void push(JsonScope newTop) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = newTop;
+    }
+
+    private void replaceTop(JsonScope newTop) {
+        stack[stackSize - 1] = newTop;
+    }
+
+    private JsonToken nextInArray(boolean firstElement) throws IOException {
+        if (firstElement) {
+            replaceTop(JsonScope.NONEMPTY_ARRAY);
+        } else {
+            switch (nextNonWhitespace(true)) {
+                case ']':
+                    stackSize--;
+                    return token = JsonToken.END_ARRAY;
+                case ',':
+                    break;
+                default:
+                    pos--;
+                    throw syntaxError("Unterminated array");
+            }
+        }
+
+        if (firstElement && nextNonWhitespace(true) == ']') {
+            stackSize--;
+            return token = JsonToken.END_ARRAY;
+        } else if (firstElement) {
+            pos--;
+        }
+        return nextValue();
+    }
+
+    private JsonToken nextInObject(boolean firstElement) throws IOException {
+        int c = nextNonWhitespace(true);
+        if (c == '}') {
+            stackSize--;
+            return token = JsonToken.END_OBJECT;
+        }
+        if (!firstElement) {
+            if (c != ',') {
+                pos--;
+                throw syntaxError("Unterminated object");
+            }
+            c = nextNonWhitespace(true);
+        }
+        if (c != '"') {
+            pos--;
+            throw syntaxError("Expected name");
+        }
+        replaceTop(JsonScope.DANGLING_NAME);
+        stringPending = true;
+        return token = JsonToken.NAME;
+    }
+
+    private JsonToken objectValue() throws IOException {
+        if (nextNonWhitespace(true) != ':') {
+            pos--;
+            throw syntaxError("Expected ':'");
+        }
+        replaceTop(JsonScope.NONEMPTY_OBJECT);
+        return nextValue();
+    }
+
+    private JsonToken nextValue() throws IOException {
+        int c = nextNonWhitespace(true);
+        switch (c) {
+            case '{':
+                push(JsonScope.EMPTY_OBJECT);
+                return token = JsonToken.BEGIN_OBJECT;
+
+            case '[':
+                push(JsonScope.EMPTY_ARRAY);
+                return token = JsonToken.BEGIN_ARRAY;
+
+            case '"':
+                stringPending = true;
+                return token = JsonToken.STRING;
+
+            default:
+                pos--;
+                return readLiteral();
+        }
+    }
+
+    /**
+     * Returns true once {@code limit - pos >= minimum}. If the data is
+     * exhausted before that many bytes are available, this returns false. When
+     * parsing a buffer in place no more data can arrive.
+     */
+    private boolean fill(int minimum) throws IOException {
+        if (limit - pos >= minimum) {
+            return true;
+        }
+        if (in == null && source == null) {
+            return false;
+        }
+
+        // Move any remaining bytes to the front of the buffer.
+        bufferStart += pos;
+        if (limit != pos) {
+            limit -= pos;
+            System.arraycopy(buffer, pos, buffer, 0, limit);
+        } else {
+            limit = 0;
+        }
+        pos = 0;
+
+        while (limit < minimum && limit < buffer.length) {
+            int count;
+            if (in != null) {
+                count = in.read(buffer, limit, buffer.length - limit);
+            } else {
+                count = Math.min(source.remaining(), buffer.length - limit);
+                if (count == 0) {
+                    count = -1;
+                } else {
+                    source.get(buffer, limit, count);
+                }
+            }
+            if (count == -1) {
+                return false;
+            }
+            limit += count;
+        }
+        return limit >= minimum;
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        if (fill(3)
+                && buffer[pos] == (byte) 0xef
+                && buffer[pos + 1] == (byte) 0xbb
+                && buffer[pos + 2] == (byte) 0xbf) {
+            pos += 3;
+        }
+    }
+
+    /**
+     * Returns the next byte that isn't whitespace, consuming it. At the end of
+     * the input this returns -1, or throws if {@code throwOnEof}.
+     */
+    private int nextNonWhitespace(boolean throwOnEof) throws IOException {
+        while (pos < limit || fill(1)) {
+            int c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\t' && c != '\r') {
+                return c;
+            }
+        }
+        if (throwOnEof) {
+            throw new EOFException("End of input at byte " + (bufferStart + pos));
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the closing quote of the string at {@code pos},
+     * or -1 if the string contains an escape sequence or doesn't fit in the
+     * buffer.
+     */
+    private int findUnescapedQuote() throws IOException {
+        int p = pos;
+        while (true) {
+            byte[] buffer = this.buffer;
+            for (int limit = this.limit; p < limit; p++) {
+                byte b = buffer[p];
+                if (b == '"') {
+                    return p;
+                } else if (b == '\\') {
+                    return -1;
+                }
+            }
+            int scanned = p - pos;
+            if (!fill(scanned + 1)) {
+                return -1;
+            }
+            p = pos + scanned;
+        }
+    }
+
+    /**
+     * Consumes the string at {@code pos}, up to and including its closing
+     * quote, without decoding it.
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            byte[] buffer = this.buffer;
+            int p = pos;
+            for (int limit = this.limit; p < limit; p++) {
+                byte b = buffer[p];
+                if (b == '"') {
+                    pos = p + 1;
+                    return;
+                } else if (b == '\\') {
+                    if (p + 1 == limit) {
+                        break;
+                    }
+                    p++;
+                }
+            }
+            pos = p;
+            if (!fill(2) && (pos == limit || buffer[pos] == '\\')) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Decodes and consumes the string at {@code pos}, up to and including its
+     * closing quote.
+     */
+    private String readString() throws IOException {
+        char[] chars = this.chars;
+        int length = 0;
+        while (true) {
+            // Copy runs of ASCII without checking for a full buffer each time.
+            byte[] buffer = this.buffer;
+            int p = pos;
+            int run = Math.min(limit - p, chars.length - length);
+            int end = p + run;
+            while (p < end) {
+                byte b = buffer[p];
+                if (b < 0 || b == '"' || b == '\\') {
+                    break;
+                }
+                chars[length++] = (char) b;
+                p++;
+            }
+            pos = p;
+
+            if (length > chars.length - 2) {
+                chars = this.chars = Arrays.copyOf(chars, chars.length * 2);
+                continue;
+            }
+            if (pos == limit && !fill(1)) {
+                throw syntaxError("Unterminated string");
+            }
+
+            int b = buffer[pos] & 0xff;
+            if (b == '"') {
+                pos++;
+                return new String(chars, 0, length);
+            } else if (b == '\\') {
+                pos++;
+                chars[length++] = readEscapeCharacter();
+            } else if (b >= 0x80) {
+                int codePoint = readCodePoint(b);
+                if (codePoint >= 0x10000) {
+                    chars[length++] = Character.highSurrogate(codePoint);
+                    chars[length++] = Character.lowSurrogate(codePoint);
+                } else {
+                    chars[length++] = (char) codePoint;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes and consumes the multi-byte UTF-8 sequence starting with {@code
+     * lead} at {@code pos}. Malformed sequences decode to U+FFFD, consuming
+     * one byte.
+     */
+    private int readCodePoint(int lead) throws IOException {
+        int length;
+        int min;
+        int codePoint;
+        if ((lead & 0xe0) == 0xc0) {
+            length = 2;
+            min = 0x80;
+            codePoint = lead & 0x1f;
+        } else if ((lead & 0xf0) == 0xe0) {
+            length = 3;
+            min = 0x800;
+            codePoint = lead & 0x0f;
+        } else if ((lead & 0xf8) == 0xf0) {
+            length = 4;
+            min = 0x10000;
+            codePoint = lead & 0x07;
+        } else {
+            pos++;
+            return 0xfffd;
+        }
+
+        if (!fill(length)) {
+            pos++;
+            return 0xfffd;
+        }
+        for (int i = 1; i < length; i++) {
+            int b = buffer[pos + i];
+            if ((b & 0xc0) != 0x80) {
+                pos++;
+                return 0xfffd;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3f);
+        }
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE
+                        && codePoint <= Character.MAX_SURROGATE)) {
+            pos++;
+            return 0xfffd;
+        }
+        pos += length;
+        return codePoint;
+    }
+
+    /**
+     * Unescapes the character identified by the byte(s) following a
+     * backslash.
+     *
+     * @throws NumberFormatException if any unicode escape sequences are
+     *     malformed.
+     */
+    private char readEscapeCharacter() throws IOException {
+        if (pos == limit && !fill(1)) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+
+        byte escaped = buffer[pos++];
+        switch (escaped) {
+            case 'u':
+                if (!fill(4)) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int result = 0;
+                for (int i = pos, end = pos + 4; i < end; i++) {
+                    int digit = Character.digit(buffer[i], 16);
+                    if (digit == -1) {
+                        throw new NumberFormatException(
+                                "\\u" + new String(buffer, pos, 4, StandardCharsets.US_ASCII));
+                    }
+                    result = (result << 4) | digit;
+                }
+                pos += 4;
+                return (char) result;
+
+            case 't':
+                return '\t';
+
+            case 'b':
+                return '\b';
+
+            case 'n':
+                return '\n';
+
+            case 'r':
+                return '\r';
+
+            case 'f':
+                return '\f';
+
+            case '"':
+            case '\\':
+            case '/':
+                return (char) escaped;
+
+            default:
+                pos--;
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Reads a null, boolean or number literal, consuming it. Integral numbers
+     * that fit in a long are decoded immediately.
+     */
+    private JsonToken readLiteral() throws IOException {
+        int length = 0;
+        findNonLiteralCharacter:
+        while (true) {
+            for (; pos + length < limit; length++) {
+                switch (buffer[pos + length]) {
+                    case '{':
+                    case '}':
+                    case '[':
+                    case ']':
+                    case ':':
+                    case ',':
+                    case '"':
+                    case ' ':
+                    case '\t':
+                    case '\f':
+                    case '\r':
+                    case '\n':
+                        break findNonLiteralCharacter;
+                }
+            }
+            if (length == buffer.length) {
+                throw syntaxError("Literal too long");
+            }
+            if (!fill(length + 1)) {
+                break;
+            }
+        }
+
+        int start = pos;
+        if (length == 4 && matchesIgnoreCase(start, "null")) {
+            pos += length;
+            return token = JsonToken.NULL;
+        } else if (length == 4 && matchesIgnoreCase(start, "true")) {
+            pos += length;
+            booleanValue = true;
+            return token = JsonToken.BOOLEAN;
+        } else if (length == 5 && matchesIgnoreCase(start, "false")) {
+            pos += length;
+            booleanValue = false;
+            return token = JsonToken.BOOLEAN;
+        } else if (length > 0 && decodeNumber(start, length)) {
+            pos += length;
+            numberPos = start;
+            numberLength = length;
+            return token = JsonToken.NUMBER;
+        }
+        throw syntaxError(length == 0 ? "Expected literal value" : "Malformed literal");
+    }
+
+    private boolean matchesIgnoreCase(int offset, String lowercase) {
+        for (int i = 0; i < lowercase.length(); i++) {
+            if ((buffer[offset + i] | 0x20) != lowercase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates the number literal at {@code offset} against the JSON grammar
+     * and decodes it to {@link #peekedLong} if it is an integer that fits.
+     */
+    private boolean decodeNumber(int offset, int length) {
+        byte[] buffer = this.buffer;
+        int p = offset;
+        int end = offset + length;
+
+        boolean negative = buffer[p] == '-';
+        if (negative && ++p == end) {
+            return false;
+        }
+
+        // Accumulate negatively to reach Long.MIN_VALUE.
+        long value = 0;
+        boolean fitsLong = true;
+        if (buffer[p] == '0') {
+            p++;
+        } else if (buffer[p] >= '1' && buffer[p] <= '9') {
+            while (p < end && buffer[p] >= '0' && buffer[p] <= '9') {
+                int digit = buffer[p++] - '0';
+                if (value < Long.MIN_VALUE / 10
+                        || (value == Long.MIN_VALUE / 10 && digit > 8)) {
+                    fitsLong = false;
+                }
+                value = value * 10 - digit;
+            }
+        } else {
+            return false;
+        }
+
+        boolean integral = true;
+        if (p < end && buffer[p] == '.') {
+            integral = false;
+            p++;
+            while (p < end && buffer[p] >= '0' && buffer[p] <= '9') {
+                p++;
+            }
+        }
+        if (p < end && (buffer[p] == 'e' || buffer[p] == 'E')) {
+            integral = false;
+            p++;
+            if (p < end && (buffer[p] == '+' || buffer[p] == '-')) {
+                p++;
+            }
+            int digitsStart = p;
+            while (p < end && buffer[p] >= '0' && buffer[p] <= '9') {
+                p++;
+            }
+            if (p == digitsStart) {
+                return false;
+            }
+        }
+        if (p != end) {
+            return false;
+        }
+
+        // "-0" stays on the double path so that it decodes to -0.0.
+        hasPeekedLong = integral && fitsLong && (negative ? value != 0 : value != Long.MIN_VALUE);
+        peekedLong = negative ? value : -value;
+        return true;
+    }
+
+    /**
+     * Converts the current number token, which is known to be well formed, to
+     * a double. Numbers with at most 15 significant digits and a decimal
+     * exponent within 22 of zero are converted exactly with one floating point
+     * operation; others use {@link Double#parseDouble}.
+     */
+    private double parseDouble() {
+        byte[] buffer = this.buffer;
+        int p = numberPos;
+        int end = numberPos + numberLength;
+        boolean negative = buffer[p] == '-';
+        if (negative) {
+            p++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenPoint = false;
+        for (; p < end; p++) {
+            int b = buffer[p];
+            if (b == '.') {
+                seenPoint = true;
+            } else if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    if (++digits > 15) {
+                        return slowParseDouble();
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else {
+                break;
+            }
+        }
+        if (p < end) {
+            // An exponent: 'e' or 'E', an optional sign and digits.
+            p++;
+            boolean negativeExponent = buffer[p] == '-';
+            if (buffer[p] == '-' || buffer[p] == '+') {
+                p++;
+            }
+            if (end - p > 4) {
+                return slowParseDouble();
+            }
+            int explicit = 0;
+            for (; p < end; p++) {
+                explicit = explicit * 10 + (buffer[p] - '0');
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+
+        double result;
+        if (mantissa == 0) {
+            result = 0.0;
+        } else if (mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            result = exponent < 0
+                    ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return slowParseDouble();
+        }
+        return negative ? -result : result;
+    }
+
+    private double slowParseDouble() {
+        return Double.parseDouble(numberString());
+    }
+
+    private String numberString() {
+        return new String(buffer, numberPos, numberLength, StandardCharsets.US_ASCII);
+    }
+
+    @Override public String toString() {
+        return getClass().getSimpleName() + " at byte " + (bufferStart + pos);
+    }
+
+    /**
+     * Throws a new IO exception with the given message and the current
+     * position in the input.
+     */
+    private IOException syntaxError(String message) throws IOException {
+        throw new MalformedJsonException(message + " at byte " + (bufferStart + pos));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public final class Utf8JsonReaderTest extends TestCase {
+
+    private static Utf8JsonReader reader(String json) {
+        return new Utf8JsonReader(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Returns a reader that receives its input one byte at a time. */
+    private static Utf8JsonReader slowReader(String json) {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new Utf8JsonReader(new InputStream() {
+            int pos;
+            @Override public int read() {
+                return pos < bytes.length ? bytes[pos++] & 0xff : -1;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if (pos == bytes.length) {
+                    return -1;
+                }
+                b[off] = bytes[pos++];
+                return 1;
+            }
+        });
+    }
+
+    public void testReadArray() throws IOException {
+        String json = "[true, false, null, \"a\", 1, -2.5e1, {}]";
+        for (Utf8JsonReader reader : Arrays.asList(reader(json), slowReader(json))) {
+            reader.beginArray();
+            assertEquals(true, reader.nextBoolean());
+            assertEquals(false, reader.nextBoolean());
+            reader.nextNull();
+            assertEquals("a", reader.nextString());
+            assertEquals(1, reader.nextInt());
+            assertEquals(-25.0, reader.nextDouble());
+            reader.beginObject();
+            reader.endObject();
+            assertFalse(reader.hasNext());
+            reader.endArray();
+            assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+        }
+    }
+
+    public void testReadStrings() throws IOException {
+        String value = "caf\u00e9 \u4e2d \ud83d\ude00 \"quoted\" \\ \n\t\u2028";
+        String json = "[\"caf\u00e9 \\u4e2d \ud83d\ude00 \\\"quoted\\\" \\\\ \\n\\t\\u2028\"]";
+        for (Utf8JsonReader reader : Arrays.asList(reader(json), slowReader(json))) {
+            reader.beginArray();
+            assertEquals(value, reader.nextString());
+            reader.endArray();
+        }
+    }
+
+    public void testLongString() throws IOException {
+        char[] chars = new char[20000];
+        Arrays.fill(chars, '\u00e9');
+        String value = new String(chars);
+        Utf8JsonReader reader = new Utf8JsonReader(new ByteArrayInputStream(
+                ("[\"" + value + "\", \"" + value + "\", 1]").getBytes(StandardCharsets.UTF_8)));
+        reader.beginArray();
+        assertEquals(value, reader.nextString());
+        reader.skipValue();
+        assertEquals(1, reader.nextInt());
+        reader.endArray();
+    }
+
+    public void testMalformedUtf8IsReplaced() throws IOException {
+        byte[] bytes = { '[', '"', 'a', (byte) 0xc3, 'b', (byte) 0xed, (byte) 0xa0, (byte) 0x80,
+                '"', ']' };
+        Utf8JsonReader reader = new Utf8JsonReader(ByteBuffer.wrap(bytes));
+        reader.beginArray();
+        assertEquals("a\ufffdb\ufffd\ufffd\ufffd", reader.nextString());
+        reader.endArray();
+    }
+
+    public void testSelectName() throws IOException {
+        Utf8JsonReader.Options options = Utf8JsonReader.Options.of("a", "caf\u00e9", "q\"");
+        String json = "{\"caf\u00e9\":1,\"q\\\"\":2,\"\\u0061\":3,\"other\":4,\"skipped\":[5]}";
+        for (Utf8JsonReader reader : Arrays.asList(reader(json), slowReader(json))) {
+            reader.beginObject();
+            assertEquals(1, reader.selectName(options));
+            assertEquals(1, reader.nextInt());
+            assertEquals(2, reader.selectName(options));
+            assertEquals(2, reader.nextInt());
+            assertEquals(0, reader.selectName(options));
+            assertEquals(3, reader.nextInt());
+            assertEquals(-1, reader.selectName(options));
+            assertEquals("other", reader.nextName());
+            assertEquals(4, reader.nextInt());
+            assertEquals(-1, reader.selectName(options));
+            reader.skipName();
+            reader.skipValue();
+            reader.endObject();
+        }
+    }
+
+    public void testNumbers() throws IOException {
+        String json = "[0, -0, 9223372036854775807, -9223372036854775808, 9223372036854775808,"
+                + " 0.1, 1.7976931348623157e308, 4.9e-324, 123456789012345678, 1e22, 1.5e-300,"
+                + " 3.0, \"12\"]";
+        Utf8JsonReader reader = reader(json);
+        reader.beginArray();
+        assertEquals(0L, reader.nextLong());
+        assertEquals(Double.doubleToLongBits(-0.0),
+                Double.doubleToLongBits(reader.nextDouble()));
+        assertEquals(Long.MAX_VALUE, reader.nextLong());
+        assertEquals(Long.MIN_VALUE, reader.nextLong());
+        assertEquals(9223372036854775808.0, reader.nextDouble());
+        assertEquals(0.1, reader.nextDouble());
+        assertEquals(Double.MAX_VALUE, reader.nextDouble());
+        assertEquals(Double.MIN_VALUE, reader.nextDouble());
+        assertEquals("123456789012345678", reader.nextString());
+        assertEquals(1e22, reader.nextDouble());
+        assertEquals(1.5e-300, reader.nextDouble());
+        assertEquals(3, reader.nextInt());
+        assertEquals(12, reader.nextInt());
+        reader.endArray();
+    }
+
+    public void testDecimalsMatchParseDouble() throws IOException {
+        String[] values = { "0.3", "2.675", "1234567.891", "-0.000123", "98765.4321e-3",
+                "1.00000000000001", "123456789012345.6", "5e-22", "7.25e21" };
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            json.append(i == 0 ? "" : ",").append(values[i]);
+        }
+        Utf8JsonReader reader = reader(json.append("]").toString());
+        reader.beginArray();
+        for (String value : values) {
+            assertEquals(value, Double.parseDouble(value), reader.nextDouble());
+        }
+        reader.endArray();
+    }
+
+    public void testIntOverflow() throws IOException {
+        Utf8JsonReader reader = reader("[2147483648, 1.5]");
+        reader.beginArray();
+        try {
+            reader.nextInt();
+            fail();
+        } catch (NumberFormatException expected) {
+        }
+        assertEquals(2147483648L, reader.nextLong());
+        try {
+            reader.nextLong();
+            fail();
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    public void testBufferIsNotModified() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap("xx[1]".getBytes(StandardCharsets.UTF_8));
+        buffer.position(2);
+        Utf8JsonReader reader = new Utf8JsonReader(buffer);
+        reader.beginArray();
+        assertEquals(1, reader.nextInt());
+        reader.endArray();
+        assertEquals(2, buffer.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put("{\"a\":[]}".getBytes(StandardCharsets.UTF_8)).flip();
+        reader = new Utf8JsonReader(direct);
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.skipValue();
+        reader.endObject();
+        assertEquals(0, direct.position());
+    }
+
+    public void testByteOrderMark() throws IOException {
+        Utf8JsonReader reader = reader("\ufeff[]");
+        reader.beginArray();
+        reader.endArray();
+    }
+
+    public void testMalformed() throws IOException {
+        for (String json : new String[] { "[1,]", "{\"a\" 1}", "[01]", "[1.e]", "[nul]",
+                "[1] 2", "{\"a\":1,}" }) {
+            Utf8JsonReader reader = reader(json);
+            try {
+                reader.skipValue();
+                reader.peek();
+                fail(json);
+            } catch (MalformedJsonException expected) {
+            }
+        }
+    }
+
+    public void testInvalidEscape() throws IOException {
+        Utf8JsonReader reader = reader("[\"\\x\"]");
+        reader.beginArray();
+        try {
+            reader.nextString();
+            fail();
+        } catch (MalformedJsonException expected) {
+        }
+    }
+
+    public void testTopLevelValueMustBeContainer() throws IOException {
+        try {
+            reader("\"a\"").peek();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testRoundTripThroughWriter() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(256);
+        Utf8JsonWriter writer = new Utf8JsonWriter(bytes);
+        Utf8JsonReader.Options names = Utf8JsonReader.Options.of("n\u00e4me", "values");
+        writer.beginObject();
+        writer.name(names, 0).value("v\u00e4lue \ud83d\ude00");
+        writer.name(names, 1).beginArray()
+                .value(Long.MIN_VALUE).value(-0.0).value(1234567.0).value(0.1).value(true)
+                .nullValue().endArray();
+        writer.endObject();
+        writer.close();
+        bytes.flip();
+
+        Utf8JsonReader reader = new Utf8JsonReader(bytes);
+        reader.beginObject();
+        assertEquals(0, reader.selectName(names));
+        assertEquals("v\u00e4lue \ud83d\ude00", reader.nextString());
+        assertEquals(1, reader.selectName(names));
+        reader.beginArray();
+        assertEquals(Long.MIN_VALUE, reader.nextLong());
+        assertEquals("-0.0", reader.nextString());
+        assertEquals("1234567.0", reader.nextString());
+        assertEquals(0.1, reader.nextDouble());
+        assertTrue(reader.nextBoolean());
+        reader.nextNull();
+        reader.endArray();
+        reader.endObject();
+    }
+}
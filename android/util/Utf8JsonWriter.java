@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>)
+ * encoded value as UTF-8 bytes, one token at a time. This has the same API and
+ * output as {@link JsonWriter}, but encodes straight into a byte buffer instead
+ * of going through a {@link java.io.Writer}, so no UTF-16 to UTF-8 transcoding
+ * pass is needed. Integral numbers are formatted without allocating.
+ *
+ * <p>Names that are written often can be encoded once with {@link
+ * Utf8JsonReader.Options} and written with {@link #name(Utf8JsonReader.Options,
+ * int)}, which copies the pre-encoded bytes.
+ *
+ * <p>Output is buffered; call {@link #flush} or {@link #close} to write it to
+ * the underlying stream or byte buffer. Instances of this class are not thread
+ * safe.
+ */
+public final class Utf8JsonWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Larger than the longest encoding of a single char: a 6 byte escape. */
+    private static final int MAX_BYTES_PER_CHAR = 12;
+
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+    /** The destination; exactly one of these is non-null. */
+    private final OutputStream out;
+    private final ByteBuffer target;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    private JsonScope[] stack = new JsonScope[32];
+    private int stackSize;
+    {
+        stack[stackSize++] = JsonScope.EMPTY_DOCUMENT;
+    }
+
+    /** The bytes of one level of indentation, or null for compact output. */
+    private byte[] indent;
+
+    private boolean lenient;
+
+    /**
+     * Creates a new instance that writes UTF-8 encoded JSON to {@code out}.
+     */
+    public Utf8JsonWriter(OutputStream out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+        this.out = out;
+        this.target = null;
+    }
+
+    /**
+     * Creates a new instance that writes UTF-8 encoded JSON into {@code
+     * target}, starting at its position. Writing more than {@code
+     * target.remaining()} bytes causes a {@link java.nio.BufferOverflowException}
+     * when the output is flushed.
+     */
+    public Utf8JsonWriter(ByteBuffer target) {
+        if (target == null) {
+            throw new NullPointerException("target == null");
+        }
+        this.out = null;
+        this.target = target;
+    }
+
+    /**
+     * Sets the indentation string to be repeated for each level of indentation
+     * in the encoded document. If {@code indent.isEmpty()} the encoded document
+     * will be compact. Otherwise the encoded document will be more
+     * human-readable.
+     *
+     * @param indent a string containing only whitespace.
+     */
+    public void setIndent(String indent) {
+        if (indent.isEmpty()) {
+            this.indent = null;
+        } else {
+            byte[] bytes = new byte[indent.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) indent.charAt(i);
+            }
+            this.indent = bytes;
+        }
+    }
+
+    /**
+     * Configure this writer to relax its syntax rules, as described by {@link
+     * JsonWriter#setLenient}.
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * Returns true if this writer has relaxed syntax rules.
+     */
+    public boolean isLenient() {
+        return lenient;
+    }
+
+    /**
+     * Begins encoding a new array. Each call to this method must be paired with
+     * a call to {@link #endArray}.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter beginArray() throws IOException {
+        return open(JsonScope.EMPTY_ARRAY, '[');
+    }
+
+    /**
+     * Ends encoding the current array.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter endArray() throws IOException {
+        return close(JsonScope.EMPTY_ARRAY, JsonScope.NONEMPTY_ARRAY, ']');
+    }
+
+    /**
+     * Begins encoding a new object. Each call to this method must be paired
+     * with a call to {@link #endObject}.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter beginObject() throws IOException {
+        return open(JsonScope.EMPTY_OBJECT, '{');
+    }
+
+    /**
+     * Ends encoding the current object.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter endObject() throws IOException {
+        return close(JsonScope.EMPTY_OBJECT, JsonScope.NONEMPTY_OBJECT, '}');
+    }
+
+    private Utf8JsonWriter open(JsonScope empty, char openBracket) throws IOException {
+        beforeValue(true);
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = empty;
+        writeByte(openBracket);
+        return this;
+    }
+
+    private Utf8JsonWriter close(JsonScope empty, JsonScope nonempty, char closeBracket)
+            throws IOException {
+        JsonScope context = stack[stackSize - 1];
+        if (context != nonempty && context != empty) {
+            throw new IllegalStateException("Nesting problem: " + stackToString());
+        }
+
+        stackSize--;
+        if (context == nonempty) {
+            newline();
+        }
+        writeByte(closeBracket);
+        return this;
+    }
+
+    private void replaceTop(JsonScope topOfStack) {
+        stack[stackSize - 1] = topOfStack;
+    }
+
+    /**
+     * Encodes the property name.
+     *
+     * @param name the name of the forthcoming value. May not be null.
+     * @return this writer.
+     */
+    public Utf8JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        beforeName();
+        string(name);
+        return this;
+    }
+
+    /**
+     * Encodes the property name at {@code index} in {@code names} by copying
+     * its pre-encoded bytes.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter name(Utf8JsonReader.Options names, int index) throws IOException {
+        byte[] encoded = names.encoded[index];
+        beforeName();
+        writeByte('"');
+        writeBytes(encoded, 0, encoded.length);
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}.
+     *
+     * @param value the literal string value, or null to encode a null literal.
+     * @return this writer.
+     */
+    public Utf8JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue(false);
+        string(value);
+        return this;
+    }
+
+    /**
+     * Encodes {@code null}.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter nullValue() throws IOException {
+        beforeValue(false);
+        writeBytes(NULL, 0, NULL.length);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter value(boolean value) throws IOException {
+        beforeValue(false);
+        byte[] bytes = value ? TRUE : FALSE;
+        writeBytes(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value} in the format of {@link Double#toString(double)}.
+     *
+     * @param value a finite value. May not be {@link Double#isNaN() NaNs} or
+     *     {@link Double#isInfinite() infinities} unless this writer is lenient.
+     * @return this writer.
+     */
+    public Utf8JsonWriter value(double value) throws IOException {
+        if (!lenient && (Double.isNaN(value) || Double.isInfinite(value))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue(false);
+        long asLong = (long) value;
+        if (asLong == value && asLong > -10000000L && asLong < 10000000L
+                && (asLong != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            // Double.toString() formats these as the integer followed by ".0".
+            writeLong(asLong);
+            writeByte('.');
+            writeByte('0');
+        } else {
+            writeAscii(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}.
+     *
+     * @return this writer.
+     */
+    public Utf8JsonWriter value(long value) throws IOException {
+        beforeValue(false);
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}.
+     *
+     * @param value a finite value. May not be {@link Double#isNaN() NaNs} or
+     *     {@link Double#isInfinite() infinities} unless this writer is lenient.
+     * @return this writer.
+     */
+    public Utf8JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+
+        String string = value.toString();
+        if (!lenient &&
+                (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN"))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue(false);
+        writeAscii(string);
+        return this;
+    }
+
+    /**
+     * Writes all buffered bytes to the underlying stream or byte buffer, and
+     * flushes the stream.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Flushes this writer and closes the underlying stream, if any.
+     *
+     * @throws IOException if the JSON document is incomplete.
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        if (out != null) {
+            out.close();
+        }
+
+        if (stack[stackSize - 1] != JsonScope.NONEMPTY_DOCUMENT) {
+            throw new IOException("Incomplete document");
+        }
+    }
+
+    /**
+     * Returns {@code value} as it appears between the quotes of a JSON string
+     * written by this class.
+     */
+    static byte[] encodeString(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8JsonWriter writer = new Utf8JsonWriter(bytes);
+        try {
+            writer.string(value);
+            writer.flushBuffer();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        byte[] quoted = bytes.toByteArray();
+        return Arrays.copyOfRange(quoted, 1, quoted.length - 1);
+    }
+
+    private void string(String value) throws IOException {
+        writeByte('"');
+        byte[] buffer = this.buffer;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            if (count > buffer.length - MAX_BYTES_PER_CHAR) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+
+            /*
+             * Escape the same characters as JsonWriter: quotation mark, reverse
+             * solidus, the control characters, and '\u2028' and '\u2029'.
+             */
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[count++] = (byte) c;
+                    continue;
+                }
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        buffer[count++] = '\\';
+                        buffer[count++] = (byte) c;
+                        break;
+                    case '\t':
+                        buffer[count++] = '\\';
+                        buffer[count++] = 't';
+                        break;
+                    case '\b':
+                        buffer[count++] = '\\';
+                        buffer[count++] = 'b';
+                        break;
+                    case '\n':
+                        buffer[count++] = '\\';
+                        buffer[count++] = 'n';
+                        break;
+                    case '\r':
+                        buffer[count++] = '\\';
+                        buffer[count++] = 'r';
+                        break;
+                    case '\f':
+                        buffer[count++] = '\\';
+                        buffer[count++] = 'f';
+                        break;
+                    default:
+                        unicodeEscape(c);
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate; replace it as String.getBytes() does.
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void unicodeEscape(char c) {
+        buffer[count++] = '\\';
+        buffer[count++] = 'u';
+        buffer[count++] = HEX[(c >> 12) & 0xf];
+        buffer[count++] = HEX[(c >> 8) & 0xf];
+        buffer[count++] = HEX[(c >> 4) & 0xf];
+        buffer[count++] = HEX[c & 0xf];
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (count > buffer.length - 20) {
+            flushBuffer();
+        }
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0, length = s.length(); i < length; i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writeOut(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            writeOut(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeOut(byte[] bytes, int offset, int length) throws IOException {
+        if (out != null) {
+            out.write(bytes, offset, length);
+        } else {
+            target.put(bytes, offset, length);
+        }
+    }
+
+    private void newline() throws IOException {
+        if (indent == null) {
+            return;
+        }
+
+        writeByte('\n');
+        for (int i = 1; i < stackSize; i++) {
+            writeBytes(indent, 0, indent.length);
+        }
+    }
+
+    /**
+     * Inserts any necessary separators and whitespace before a name. Also
+     * adjusts the stack to expect the name's value.
+     */
+    private void beforeName() throws IOException {
+        JsonScope context = stack[stackSize - 1];
+        if (context == JsonScope.NONEMPTY_OBJECT) { // first in object
+            writeByte(',');
+        } else if (context != JsonScope.EMPTY_OBJECT) { // not in an object!
+            throw new IllegalStateException("Nesting problem: " + stackToString());
+        }
+        newline();
+        replaceTop(JsonScope.DANGLING_NAME);
+    }
+
+    /**
+     * Inserts any necessary separators and whitespace before a literal value,
+     * inline array, or inline object. Also adjusts the stack to expect either a
+     * closing bracket or another element.
+     *
+     * @param root true if the value is a new array or object, the two values
+     *     permitted as top-level elements.
+     */
+    private void beforeValue(boolean root) throws IOException {
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT: // first in document
+                if (!lenient && !root) {
+                    throw new IllegalStateException(
+                            "JSON must start with an array or an object.");
+                }
+                replaceTop(JsonScope.NONEMPTY_DOCUMENT);
+                break;
+
+            case EMPTY_ARRAY: // first in array
+                replaceTop(JsonScope.NONEMPTY_ARRAY);
+                newline();
+                break;
+
+            case NONEMPTY_ARRAY: // another in array
+                writeByte(',');
+                newline();
+                break;
+
+            case DANGLING_NAME: // value for name
+                writeByte(':');
+                if (indent != null) {
+                    writeByte(' ');
+                }
+                replaceTop(JsonScope.NONEMPTY_OBJECT);
+                break;
+
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException(
+                        "JSON must have only one top-level value.");
+
+            default:
+                throw new IllegalStateException("Nesting problem: " + stackToString());
+        }
+    }
+
+    private String stackToString() {
+        return Arrays.asList(stack).subList(0, stackSize).toString();
+    }
+}
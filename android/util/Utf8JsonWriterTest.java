@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public final class Utf8JsonWriterTest extends TestCase {
+
+    /** Writes the same document with JsonWriter and Utf8JsonWriter. */
+    private static void assertSameOutput(String indent, Object... values) throws IOException {
+        StringWriter chars = new StringWriter();
+        JsonWriter expected = new JsonWriter(chars);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8JsonWriter actual = new Utf8JsonWriter(bytes);
+        expected.setIndent(indent);
+        actual.setIndent(indent);
+
+        expected.beginObject();
+        actual.beginObject();
+        for (int i = 0; i < values.length; i++) {
+            String name = "name" + i;
+            expected.name(name);
+            actual.name(name);
+            Object value = values[i];
+            if (value instanceof String) {
+                expected.value((String) value);
+                actual.value((String) value);
+            } else if (value instanceof Double) {
+                expected.value((Double) value);
+                actual.value((Double) value);
+            } else if (value instanceof Long) {
+                expected.value((Long) value);
+                actual.value((Long) value);
+            } else if (value instanceof Boolean) {
+                expected.value((Boolean) value);
+                actual.value((Boolean) value);
+            } else if (value == null) {
+                expected.nullValue();
+                actual.nullValue();
+            } else {
+                expected.beginArray().value((Number) value).endArray();
+                actual.beginArray().value((Number) value).endArray();
+            }
+        }
+        expected.endObject();
+        actual.endObject();
+        expected.close();
+        actual.close();
+
+        assertEquals(chars.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testMatchesJsonWriter() throws IOException {
+        Object[] values = { "plain", "caf\u00e9 \u4e2d \ud83d\ude00", "\"\\/\b\f\n\r\t\u0001",
+                "\u2028\u2029", 0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 0.0, -0.0, 1.0,
+                -9999999.0, 10000000.0, 0.001, 1e-4, 3.14159, true, false, null,
+                (Integer) 7, (Float) 1.5f };
+        assertSameOutput("", values);
+        assertSameOutput("  ", values);
+    }
+
+    public void testLongStrings() throws IOException {
+        char[] chars = new char[10000];
+        Arrays.fill(chars, '\u4e2d');
+        String wide = new String(chars);
+        Arrays.fill(chars, '\n');
+        assertSameOutput("", wide, new String(chars), wide + "\ud83d\ude00");
+    }
+
+    public void testUnpairedSurrogate() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8JsonWriter writer = new Utf8JsonWriter(bytes);
+        writer.beginArray().value("a\ud800b\udc00").endArray();
+        writer.close();
+        assertEquals("[\"a?b?\"]", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testByteBufferTarget() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        Utf8JsonWriter writer = new Utf8JsonWriter(buffer);
+        writer.beginArray().value(12).endArray();
+        writer.flush();
+        assertEquals(4, buffer.position());
+
+        writer = new Utf8JsonWriter(ByteBuffer.allocate(4));
+        writer.beginArray().value("too long").endArray();
+        try {
+            writer.flush();
+            fail();
+        } catch (BufferOverflowException expected) {
+        }
+    }
+
+    public void testStrictness() throws IOException {
+        Utf8JsonWriter writer = new Utf8JsonWriter(new ByteArrayOutputStream());
+        try {
+            writer.value("a");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        writer.beginArray();
+        try {
+            writer.value(Double.NaN);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            writer.endObject();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
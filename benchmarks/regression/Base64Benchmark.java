@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares the byte[] and stream Base64 APIs with the ByteBuffer API,
+ * serially and chunked across threads, on attachment-sized inputs.
+ */
+public class Base64Benchmark extends SimpleBenchmark {
+    @Param({"65536", "1048576", "16777216"}) int size;
+    @Param boolean direct;
+
+    private byte[] plain;
+    private byte[] encoded;
+    private ByteBuffer plainBuffer;
+    private ByteBuffer encodedBuffer;
+    private ByteBuffer output;
+    private byte[] readBuffer;
+    private ExecutorService executor;
+
+    @Override protected void setUp() throws Exception {
+        plain = new byte[size];
+        new Random(0).nextBytes(plain);
+        encoded = Base64.encode(plain, Base64.DEFAULT);
+        plainBuffer = allocate(plain.length);
+        plainBuffer.put(plain).flip();
+        encodedBuffer = allocate(encoded.length);
+        encodedBuffer.put(encoded).flip();
+        output = allocate(encoded.length);
+        readBuffer = new byte[8192];
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override protected void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public int timeEncodeByteArray(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            sum += Base64.encode(plain, Base64.DEFAULT).length;
+        }
+        return sum;
+    }
+
+    public int timeDecodeByteArray(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            sum += Base64.decode(encoded, Base64.DEFAULT).length;
+        }
+        return sum;
+    }
+
+    public int timeEncodeOutputStream(int reps) throws Exception {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded.length);
+            OutputStream out = new Base64OutputStream(bytes, Base64.DEFAULT);
+            out.write(plain);
+            out.close();
+            sum += bytes.size();
+        }
+        return sum;
+    }
+
+    public int timeDecodeInputStream(int reps) throws Exception {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            InputStream in = new Base64InputStream(
+                    new ByteArrayInputStream(encoded), Base64.DEFAULT);
+            int count;
+            while ((count = in.read(readBuffer)) != -1) {
+                sum += count;
+            }
+            in.close();
+        }
+        return sum;
+    }
+
+    public int timeEncodeByteBuffer(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            plainBuffer.rewind();
+            output.clear();
+            Base64.encode(plainBuffer, output, Base64.DEFAULT);
+            sum += output.position();
+        }
+        return sum;
+    }
+
+    public int timeDecodeByteBuffer(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            encodedBuffer.rewind();
+            output.clear();
+            sum += Base64.decode(encodedBuffer, output, Base64.DEFAULT);
+        }
+        return sum;
+    }
+
+    public int timeEncodeByteBufferParallel(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            plainBuffer.rewind();
+            output.clear();
+            Base64.encode(plainBuffer, output, Base64.DEFAULT, executor);
+            sum += output.position();
+        }
+        return sum;
+    }
+
+    public int timeDecodeByteBufferParallel(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            encodedBuffer.rewind();
+            output.clear();
+            sum += Base64.decode(encodedBuffer, output, Base64.DEFAULT, executor);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Runner.main(Base64Benchmark.class, args);
+    }
+}
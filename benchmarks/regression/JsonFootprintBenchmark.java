@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Measures parsing and reading a feed of many records that share the same
+ * names, the case that {@code JSONObject}'s shared name tables and {@code
+ * JSONArray}'s unboxed number storage are designed for.
+ *
+ * <p>Caliper only reports time, so {@link #main} also prints the heap
+ * retained per parsed document when run with {@code --footprint}.
+ */
+public class JsonFootprintBenchmark extends SimpleBenchmark {
+    @Param({"10", "1000"}) int records;
+
+    private String json;
+
+    @Override protected void setUp() throws Exception {
+        json = createFeed(records);
+    }
+
+    public void timeParse(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            new JSONArray(json);
+        }
+    }
+
+    public void timeParseAndRead(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            JSONArray feed = new JSONArray(json);
+            long sum = 0;
+            for (int r = 0; r < feed.length(); ++r) {
+                JSONObject record = feed.getJSONObject(r);
+                sum += record.getLong("id");
+                sum += record.getJSONObject("user").getString("screen_name").length();
+                JSONArray coordinates = record.getJSONArray("coordinates");
+                sum += (long) (coordinates.getDouble(0) + coordinates.getDouble(1));
+            }
+            if (sum == 0) {
+                throw new AssertionError();
+            }
+        }
+    }
+
+    /**
+     * Returns a JSON array of {@code count} records modeled on a social network
+     * timeline: nested objects, repeated names, and arrays of numbers.
+     */
+    static String createFeed(int count) {
+        StringBuilder result = new StringBuilder();
+        result.append('[');
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append("{\"id\":").append(100000000000L + i)
+                    .append(",\"created_at\":\"Mon Jan 05 10:0").append(i % 10)
+                    .append(":00 +0000 2015\"")
+                    .append(",\"text\":\"Status update number ").append(i).append("\"")
+                    .append(",\"retweet_count\":").append(i % 17)
+                    .append(",\"favorited\":").append(i % 3 == 0)
+                    .append(",\"in_reply_to\":null")
+                    .append(",\"coordinates\":[").append(37.0 + i / 1000.0).append(',')
+                    .append(-122.0 - i / 1000.0).append(']')
+                    .append(",\"entity_ids\":[").append(i).append(',').append(i + 1).append(',')
+                    .append(i + 2).append(']')
+                    .append(",\"user\":{\"id\":").append(i % 50)
+                    .append(",\"screen_name\":\"user").append(i % 50).append("\"")
+                    .append(",\"followers_count\":").append(i * 7)
+                    .append(",\"verified\":false}}");
+        }
+        result.append(']');
+        return result.toString();
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void printFootprint() throws Exception {
+        final int documents = 20;
+        for (int records : new int[] { 10, 1000 }) {
+            String json = createFeed(records);
+            Object[] retained = new Object[documents];
+            long before = usedMemory();
+            for (int i = 0; i < documents; ++i) {
+                retained[i] = new JSONArray(json);
+            }
+            long after = usedMemory();
+            System.out.println(records + " records: " + (after - before) / documents
+                    + " bytes per document, " + (after - before) / (documents * records)
+                    + " bytes per record");
+            if (retained[documents - 1] == null) {
+                throw new AssertionError();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("--footprint")) {
+            printFootprint();
+            return;
+        }
+        Runner.main(JsonFootprintBenchmark.class, args);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import java.io.StringReader;
+import org.kxml2.io.KXmlParser;
+import org.kxml2.io.NameTable;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Parses a packages.xml-style document with a fresh parser each time, with
+ * fresh parsers sharing a {@link NameTable}, and with one parser reset through
+ * {@link KXmlParser#setInput}.
+ */
+public class KXmlParserBenchmark extends SimpleBenchmark {
+    @Param({"100", "1000"}) int packages;
+
+    private String xml;
+
+    @Override protected void setUp() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n");
+        builder.append("<packages xmlns:android=\"http://schemas.android.com/apk/res/android\">\n");
+        for (int i = 0; i < packages; i++) {
+            builder.append("<package name=\"com.example.package").append(i)
+                    .append("\" codePath=\"/data/app/com.example.package").append(i)
+                    .append("-1\" flags=\"").append(0x38be44 + i)
+                    .append("\" ft=\"").append(Long.toHexString(1420070400000L + i))
+                    .append("\" version=\"").append(i % 40)
+                    .append("\" userId=\"").append(10000 + i).append("\">\n");
+            builder.append("<sigs count=\"1\"><cert index=\"").append(i % 7)
+                    .append("\" /></sigs>\n<perms>\n");
+            for (int p = 0; p < 6; p++) {
+                builder.append("<item android:name=\"android.permission.PERMISSION_").append(p)
+                        .append("\" android:granted=\"true\" android:flags=\"0\" />\n");
+            }
+            builder.append("</perms>\n</package>\n");
+        }
+        builder.append("</packages>\n");
+        xml = builder.toString();
+    }
+
+    public void timeNewParser(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            check(parse(newParser(new NameTable())));
+        }
+    }
+
+    public void timeNewParserSharedNames(int reps) throws Exception {
+        NameTable names = new NameTable();
+        for (int i = 0; i < reps; ++i) {
+            check(parse(newParser(names)));
+        }
+    }
+
+    public void timeReusedParser(int reps) throws Exception {
+        KXmlParser parser = newParser(new NameTable());
+        for (int i = 0; i < reps; ++i) {
+            check(parse(parser));
+        }
+    }
+
+    private static KXmlParser newParser(NameTable names) throws Exception {
+        KXmlParser parser = new KXmlParser(names);
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        return parser;
+    }
+
+    private long parse(KXmlParser parser) throws Exception {
+        parser.setInput(new StringReader(xml));
+        long sum = 0;
+        int type;
+        while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (type == XmlPullParser.START_TAG) {
+                sum += parser.getAttributeCount();
+                String name = parser.getAttributeValue(null, "name");
+                if (name != null) {
+                    sum += name.length();
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static void check(long result) {
+        if (result == 0) {
+            throw new AssertionError();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Runner.main(KXmlParserBenchmark.class, args);
+    }
+}
@@ -29,6 +29,8 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.SAXParserFactory;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.JSONVisitor;
 import org.xml.sax.InputSource;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xmlpull.v1.XmlPullParser;
@@ -62,6 +64,16 @@ public final class ParseBenchmark extends SimpleBenchmark {
                 return new OrgJsonParser();
             }
         },
+        ORG_JSON_STREAM("json") {
+            @Override Parser newParser() {
+                return new OrgJsonStreamParser();
+            }
+        },
+        ORG_JSON_VISITOR("json") {
+            @Override Parser newParser() {
+                return new OrgJsonVisitorParser();
+            }
+        },
         XML_PULL("xml") {
             @Override Parser newParser() {
                 return new GeneralXmlPullParser();
@@ -189,6 +201,20 @@ public final class ParseBenchmark extends SimpleBenchmark {
         }
     }
 
+    private static class OrgJsonStreamParser implements Parser {
+        @Override public void parse(String data) throws Exception {
+            JSONTokener.fromReader(new StringReader(data)).nextValue();
+        }
+    }
+
+    private static class OrgJsonVisitorParser implements Parser {
+        private final JSONVisitor visitor = new JSONVisitor() {};
+
+        @Override public void parse(String data) throws Exception {
+            JSONTokener.fromReader(new StringReader(data)).visit(visitor);
+        }
+    }
+
     private static class GeneralXmlPullParser implements Parser {
         @Override public void parse(String data) throws Exception {
             XmlPullParser xmlParser = android.util.Xml.newPullParser();
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures UTF-8 coding through {@link CharsetDecoder} and {@link CharsetEncoder}
+ * on heap and direct buffers, next to the String conversions that inline their
+ * own UTF-8 code. Run against a build without the Java UTF-8 coders to compare
+ * with ICU.
+ */
+public class Utf8CharsetBenchmark extends SimpleBenchmark {
+    enum Text {
+        ASCII("The quick brown fox jumps over the lazy dog. "),
+        LATIN("Z\u00fcrich, M\u00fcnchen und K\u00f6ln sind sch\u00f6n. "),
+        CJK("\u4eca\u65e5\u306f\u3044\u3044\u5929\u6c17\u3067\u3059\u306d\u3002"),
+        EMOJI("ok \ud83d\ude00 \ud83d\udc4d ");
+
+        final String unit;
+
+        Text(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    @Param({"16", "1024", "65536"}) int length;
+    @Param Text text;
+    @Param boolean direct;
+
+    private String string;
+    private byte[] bytes;
+    private ByteBuffer byteBuffer;
+    private CharBuffer charBuffer;
+    private ByteBuffer encodeBuffer;
+    private CharBuffer decodeBuffer;
+    private CharsetDecoder decoder;
+    private CharsetEncoder encoder;
+
+    @Override protected void setUp() throws Exception {
+        StringBuilder builder = new StringBuilder(length + text.unit.length());
+        while (builder.length() < length) {
+            builder.append(text.unit);
+        }
+        string = builder.toString();
+        bytes = string.getBytes(StandardCharsets.UTF_8);
+
+        byteBuffer = allocate(bytes.length);
+        byteBuffer.put(bytes).flip();
+        charBuffer = direct
+                ? ByteBuffer.allocateDirect(string.length() * 2).asCharBuffer()
+                : CharBuffer.allocate(string.length());
+        charBuffer.put(string).flip();
+        encodeBuffer = allocate(bytes.length);
+        decodeBuffer = direct
+                ? ByteBuffer.allocateDirect(string.length() * 2).asCharBuffer()
+                : CharBuffer.allocate(string.length());
+
+        decoder = StandardCharsets.UTF_8.newDecoder();
+        encoder = StandardCharsets.UTF_8.newEncoder();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public int timeDecoder(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            byteBuffer.rewind();
+            decodeBuffer.clear();
+            decoder.reset();
+            decoder.decode(byteBuffer, decodeBuffer, true);
+            decoder.flush(decodeBuffer);
+            sum += decodeBuffer.position();
+        }
+        return sum;
+    }
+
+    public int timeEncoder(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            charBuffer.rewind();
+            encodeBuffer.clear();
+            encoder.reset();
+            encoder.encode(charBuffer, encodeBuffer, true);
+            encoder.flush(encodeBuffer);
+            sum += encodeBuffer.position();
+        }
+        return sum;
+    }
+
+    public int timeNewString(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            sum += new String(bytes, StandardCharsets.UTF_8).length();
+        }
+        return sum;
+    }
+
+    public int timeGetBytes(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; ++i) {
+            sum += string.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Runner.main(Utf8CharsetBenchmark.class, args);
+    }
+}
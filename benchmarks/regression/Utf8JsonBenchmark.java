@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import android.util.Utf8JsonReader;
+import android.util.Utf8JsonWriter;
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares {@link JsonReader} and {@link JsonWriter} with their UTF-8 byte
+ * oriented counterparts on large documents, decoding each record into fields
+ * the way an application would.
+ */
+public class Utf8JsonBenchmark extends SimpleBenchmark {
+    @Param({"1000", "10000"}) int records;
+
+    private static final Utf8JsonReader.Options RECORD_NAMES = Utf8JsonReader.Options.of(
+            "id", "text", "retweet_count", "coordinates", "user");
+    private static final Utf8JsonReader.Options USER_NAMES = Utf8JsonReader.Options.of(
+            "screen_name", "followers_count");
+
+    private byte[] bytes;
+
+    @Override protected void setUp() throws Exception {
+        bytes = JsonFootprintBenchmark.createFeed(records).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void timeJsonReader(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+            long sum = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("id") || name.equals("retweet_count")) {
+                        sum += reader.nextLong();
+                    } else if (name.equals("text")) {
+                        sum += reader.nextString().length();
+                    } else if (name.equals("coordinates")) {
+                        reader.beginArray();
+                        sum += (long) (reader.nextDouble() + reader.nextDouble());
+                        reader.endArray();
+                    } else if (name.equals("user")) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String userName = reader.nextName();
+                            if (userName.equals("screen_name")) {
+                                sum += reader.nextString().length();
+                            } else if (userName.equals("followers_count")) {
+                                sum += reader.nextLong();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+            reader.close();
+            check(sum);
+        }
+    }
+
+    public void timeUtf8JsonReaderStream(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            check(read(new Utf8JsonReader(new ByteArrayInputStream(bytes))));
+        }
+    }
+
+    public void timeUtf8JsonReaderByteBuffer(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            check(read(new Utf8JsonReader(ByteBuffer.wrap(bytes))));
+        }
+    }
+
+    private static long read(Utf8JsonReader reader) throws IOException {
+        long sum = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(RECORD_NAMES)) {
+                    case 0:
+                    case 2:
+                        sum += reader.nextLong();
+                        break;
+                    case 1:
+                        sum += reader.nextString().length();
+                        break;
+                    case 3:
+                        reader.beginArray();
+                        sum += (long) (reader.nextDouble() + reader.nextDouble());
+                        reader.endArray();
+                        break;
+                    case 4:
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.selectName(USER_NAMES)) {
+                                case 0:
+                                    sum += reader.nextString().length();
+                                    break;
+                                case 1:
+                                    sum += reader.nextLong();
+                                    break;
+                                default:
+                                    reader.skipName();
+                                    reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipName();
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        reader.close();
+        return sum;
+    }
+
+    public void timeJsonWriter(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.beginArray();
+            for (int r = 0; r < records; ++r) {
+                writer.beginObject();
+                writer.name("id").value(100000000000L + r);
+                writer.name("text").value("Status update number " + r);
+                writer.name("retweet_count").value(r % 17);
+                writer.name("coordinates").beginArray()
+                        .value(37.0 + r / 1000.0).value(-122.0 - r / 1000.0).endArray();
+                writer.name("user").beginObject()
+                        .name("screen_name").value("user" + (r % 50))
+                        .name("followers_count").value(r * 7)
+                        .endObject();
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.close();
+            check(out.size());
+        }
+    }
+
+    public void timeUtf8JsonWriter(int reps) throws Exception {
+        for (int i = 0; i < reps; ++i) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            Utf8JsonWriter writer = new Utf8JsonWriter(out);
+            writer.beginArray();
+            for (int r = 0; r < records; ++r) {
+                writer.beginObject();
+                writer.name(RECORD_NAMES, 0).value(100000000000L + r);
+                writer.name(RECORD_NAMES, 1).value("Status update number " + r);
+                writer.name(RECORD_NAMES, 2).value(r % 17);
+                writer.name(RECORD_NAMES, 3).beginArray()
+                        .value(37.0 + r / 1000.0).value(-122.0 - r / 1000.0).endArray();
+                writer.name(RECORD_NAMES, 4).beginObject()
+                        .name(USER_NAMES, 0).value("user" + (r % 50))
+                        .name(USER_NAMES, 1).value(r * 7)
+                        .endObject();
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.close();
+            check(out.size());
+        }
+    }
+
+    private static void check(long result) {
+        if (result == 0) {
+            throw new AssertionError();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Runner.main(Utf8JsonBenchmark.class, args);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks.regression;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.apache.harmony.xml.ExpatReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX throughput over a feed-like document, delivering text in Expat's pieces
+ * or coalesced, from a stream or fed incrementally in socket-sized buffers.
+ */
+public final class XmlSaxBenchmark extends SimpleBenchmark {
+
+  @Param({"100", "1000"}) int items;
+  @Param boolean coalesceCharacters;
+
+  private byte[] xml;
+  private ExpatReader reader;
+  private CountingHandler handler;
+
+  @Override protected void setUp() throws Exception {
+    StringBuilder xmlBuilder = new StringBuilder();
+    xmlBuilder.append("<?xml version='1.0' encoding='UTF-8'?>\n<rss version='2.0'><channel>\n");
+    for (int i = 0; i < items; i++) {
+      xmlBuilder.append("  <item id='").append(i).append("' lang='en'>\n")
+          .append("    <title>Item ").append(i).append(" &amp; friends</title>\n")
+          .append("    <link>http://example.com/items/").append(i).append("</link>\n")
+          .append("    <description>Line one of the description,\n")
+          .append("      line two with an entity &lt;b&gt; and\n")
+          .append("      line three.</description>\n")
+          .append("  </item>\n");
+    }
+    xmlBuilder.append("</channel></rss>\n");
+    xml = xmlBuilder.toString().getBytes("UTF-8");
+
+    reader = new ExpatReader();
+    reader.setFeature(ExpatReader.COALESCE_CHARACTERS, coalesceCharacters);
+    handler = new CountingHandler();
+    reader.setContentHandler(handler);
+  }
+
+  public int timeParseStream(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+    }
+    return handler.count;
+  }
+
+  public int timeParseByteBuffers(int reps) throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    for (int i = 0; i < reps; i++) {
+      feed(buffer);
+    }
+    return handler.count;
+  }
+
+  public int timeParseDirectByteBuffers(int reps) throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    for (int i = 0; i < reps; i++) {
+      feed(buffer);
+    }
+    return handler.count;
+  }
+
+  /** Feeds the document a buffer at a time, as a non-blocking socket would. */
+  private void feed(ByteBuffer buffer) throws Exception {
+    reader.startParse("UTF-8", null, null);
+    for (int offset = 0; offset < xml.length; offset += buffer.capacity()) {
+      buffer.clear();
+      buffer.put(xml, offset, Math.min(buffer.capacity(), xml.length - offset));
+      buffer.flip();
+      reader.parse(buffer);
+    }
+    reader.finishParse();
+  }
+
+  static class CountingHandler extends DefaultHandler {
+    int count;
+
+    @Override public void startElement(String uri, String localName, String qName,
+        Attributes attributes) {
+      if (attributes.getLength() > 0) {
+        // handlers commonly look an attribute up more than once
+        count += attributes.getValue("id").length() + attributes.getValue("id").hashCode();
+      }
+    }
+
+    @Override public void characters(char[] ch, int start, int length) {
+      count += length;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Runner.main(XmlSaxBenchmark.class, args);
+  }
+}
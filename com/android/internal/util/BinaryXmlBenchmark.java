@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.util.Xml;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Compares reading and writing a packages.xml-like file, the largest file read
+ * during boot, in the text and binary XML formats.
+ */
+public class BinaryXmlBenchmark extends SimpleBenchmark {
+
+    @Param({"100", "500"}) int mPackages;
+
+    private byte[] mText;
+    private byte[] mBinary;
+
+    @Override
+    protected void setUp() throws IOException {
+        mText = write(new FastXmlSerializer());
+        mBinary = write(new BinaryXmlSerializer());
+    }
+
+    public void timeWriteText(int reps) throws IOException {
+        for (int i = 0; i < reps; i++) {
+            write(new FastXmlSerializer());
+        }
+    }
+
+    public void timeWriteBinary(int reps) throws IOException {
+        for (int i = 0; i < reps; i++) {
+            write(new BinaryXmlSerializer());
+        }
+    }
+
+    public void timeReadText(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            final XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(new ByteArrayInputStream(mText), null);
+            read(parser);
+        }
+    }
+
+    public void timeReadBinary(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            final XmlPullParser parser = new BinaryXmlPullParser();
+            parser.setInput(new ByteArrayInputStream(mBinary), null);
+            read(parser);
+        }
+    }
+
+    /** Reads the values of every attribute, as Settings does. */
+    private static long read(XmlPullParser parser) throws Exception {
+        long sum = 0;
+        int type;
+        while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (type != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final String name = parser.getName();
+            if (name.equals("package")) {
+                sum += parser.getAttributeValue(null, "name").length();
+                sum += parser.getAttributeValue(null, "codePath").length();
+                sum += Integer.parseInt(parser.getAttributeValue(null, "flags"));
+                sum += Long.parseLong(parser.getAttributeValue(null, "ft"), 16);
+                sum += Integer.parseInt(parser.getAttributeValue(null, "version"));
+                sum += Integer.parseInt(parser.getAttributeValue(null, "userId"));
+            } else if (name.equals("item")) {
+                sum += parser.getAttributeValue(null, "name").length();
+                final String granted = parser.getAttributeValue(null, "granted");
+                if (granted != null && Boolean.parseBoolean(granted)) {
+                    sum++;
+                }
+            } else if (name.equals("cert")) {
+                sum += Integer.parseInt(parser.getAttributeValue(null, "index"));
+            }
+        }
+        return sum;
+    }
+
+    private byte[] write(XmlSerializer serializer) throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        serializer.setOutput(stream, "utf-8");
+        serializer.startDocument(null, true);
+        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        serializer.startTag(null, "packages");
+        for (int i = 0; i < mPackages; i++) {
+            final String packageName = "com.example.package" + i;
+            serializer.startTag(null, "package");
+            serializer.attribute(null, "name", packageName);
+            serializer.attribute(null, "codePath", "/data/app/" + packageName + "-1");
+            serializer.attribute(null, "nativeLibraryPath",
+                    "/data/app/" + packageName + "-1/lib");
+            serializer.attribute(null, "primaryCpuAbi", "arm64-v8a");
+            serializer.attribute(null, "flags", Integer.toString(0x38be44 + i));
+            serializer.attribute(null, "ft", Long.toHexString(1420070400000L + i));
+            serializer.attribute(null, "it", Long.toHexString(1420070400000L + i));
+            serializer.attribute(null, "ut", Long.toHexString(1420070400000L + i));
+            serializer.attribute(null, "version", Integer.toString(i % 40));
+            serializer.attribute(null, "userId", Integer.toString(10000 + i));
+            serializer.startTag(null, "sigs");
+            serializer.attribute(null, "count", "1");
+            serializer.startTag(null, "cert");
+            serializer.attribute(null, "index", Integer.toString(i % 7));
+            serializer.endTag(null, "cert");
+            serializer.endTag(null, "sigs");
+            serializer.startTag(null, "perms");
+            for (int p = 0; p < 6; p++) {
+                serializer.startTag(null, "item");
+                serializer.attribute(null, "name", "android.permission.PERMISSION_" + p);
+                serializer.attribute(null, "granted", "true");
+                serializer.attribute(null, "flags", "0");
+                serializer.endTag(null, "item");
+            }
+            serializer.endTag(null, "perms");
+            serializer.startTag(null, "proper-signing-keyset");
+            serializer.attribute(null, "identifier", Integer.toString(i + 1));
+            serializer.endTag(null, "proper-signing-keyset");
+            serializer.endTag(null, "package");
+        }
+        serializer.endTag(null, "packages");
+        serializer.endDocument();
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,876 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import static com.android.internal.util.BinaryXmlSerializer.ATTRIBUTE;
+import static com.android.internal.util.BinaryXmlSerializer.INTERNED_NEW;
+import static com.android.internal.util.BinaryXmlSerializer.LENGTH_LONG;
+import static com.android.internal.util.BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_0;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BOOLEAN_FALSE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BOOLEAN_TRUE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BYTES_BASE64;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BYTES_HEX;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_DOUBLE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_FLOAT;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_INT;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_INT_HEX;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_LONG;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_LONG_HEX;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_STRING;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_STRING_INTERNED;
+
+import android.util.Base64;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser for documents written by {@link BinaryXmlSerializer}. If the input
+ * doesn't start with the binary format's magic bytes it is parsed as text XML
+ * instead, configured the same way as {@link android.util.Xml#newPullParser},
+ * so files written by earlier releases are still readable and are upgraded the
+ * next time they are written.
+ * <p>
+ * Attributes written with typed methods such as
+ * {@link BinaryXmlSerializer#attributeInt} can be read back without parsing
+ * through the typed getters such as {@link #getAttributeInt}. Those getters
+ * also parse attributes stored as strings, so code using them works with
+ * either format.
+ */
+public class BinaryXmlPullParser implements XmlPullParser {
+    private static final int BUFFER_LEN = 32768;
+
+    /** Parses text documents; also holds the features and properties. */
+    private final KXmlParser mTextParser = new KXmlParser();
+    private boolean mUseText;
+
+    private InputStream mInputStream;
+    private final byte[] mBuffer = new byte[BUFFER_LEN];
+    private int mPos;
+    private int mLimit;
+    private long mBufferStart;
+
+    private String[] mInterned = new String[64];
+    private int mInternedCount;
+
+    private int mCurrentToken = START_DOCUMENT;
+    private int mCurrentDepth;
+    private String mCurrentName;
+    private String mCurrentText;
+
+    private int mAttributeCount;
+    private String[] mAttributeNames = new String[8];
+    private int[] mAttributeTypes = new int[8];
+    private String[] mAttributeStrings = new String[8];
+    private long[] mAttributeValues = new long[8];
+    private byte[][] mAttributeBytes = new byte[8][];
+
+    public BinaryXmlPullParser() {
+        try {
+            mTextParser.setFeature(XmlPullParser.FEATURE_PROCESS_DOCDECL, true);
+            mTextParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        } catch (XmlPullParserException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public void setInput(InputStream is, String inputEncoding) throws XmlPullParserException {
+        if (is == null) {
+            throw new IllegalArgumentException("is == null");
+        }
+        final byte[] magic = new byte[PROTOCOL_MAGIC_VERSION_0.length];
+        int count = 0;
+        try {
+            while (count < magic.length) {
+                int read = is.read(magic, count, magic.length - count);
+                if (read == -1) {
+                    break;
+                }
+                count += read;
+            }
+        } catch (IOException e) {
+            throw new XmlPullParserException(e.toString(), this, e);
+        }
+
+        boolean binary = count == magic.length;
+        for (int i = 0; i < count && binary; i++) {
+            binary = magic[i] == PROTOCOL_MAGIC_VERSION_0[i];
+        }
+        if (!binary) {
+            final PushbackInputStream text = new PushbackInputStream(is, magic.length);
+            try {
+                text.unread(magic, 0, count);
+            } catch (IOException e) {
+                throw new XmlPullParserException(e.toString(), this, e);
+            }
+            mUseText = true;
+            mTextParser.setInput(text, inputEncoding);
+            return;
+        }
+
+        mUseText = false;
+        mInputStream = is;
+        mPos = 0;
+        mLimit = 0;
+        mBufferStart = magic.length;
+        mInternedCount = 0;
+        mCurrentToken = START_DOCUMENT;
+        mCurrentDepth = 0;
+        mCurrentName = null;
+        mCurrentText = null;
+        mAttributeCount = 0;
+        try {
+            // The START_DOCUMENT token is the state after setInput(), not an event.
+            if (peekToken() == START_DOCUMENT) {
+                readByte();
+            }
+        } catch (IOException e) {
+            throw new XmlPullParserException(e.toString(), this, e);
+        }
+    }
+
+    public void setInput(Reader in) throws XmlPullParserException {
+        mUseText = true;
+        mTextParser.setInput(in);
+    }
+
+    public String getInputEncoding() {
+        return mUseText ? mTextParser.getInputEncoding() : "UTF-8";
+    }
+
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        mTextParser.setFeature(name, state);
+    }
+
+    public boolean getFeature(String name) {
+        return mTextParser.getFeature(name);
+    }
+
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        mTextParser.setProperty(name, value);
+    }
+
+    public Object getProperty(String name) {
+        return mTextParser.getProperty(name);
+    }
+
+    public void defineEntityReplacementText(String entityName, String replacementText)
+            throws XmlPullParserException {
+        if (mUseText) {
+            mTextParser.defineEntityReplacementText(entityName, replacementText);
+            return;
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    public int next() throws XmlPullParserException, IOException {
+        if (mUseText) {
+            return mTextParser.next();
+        }
+        while (true) {
+            switch (nextToken()) {
+                case START_TAG:
+                case END_TAG:
+                case END_DOCUMENT:
+                    return mCurrentToken;
+                case TEXT:
+                case CDSECT:
+                case IGNORABLE_WHITESPACE:
+                    coalesceText();
+                    return TEXT;
+            }
+        }
+    }
+
+    /**
+     * Appends any directly following text to the current text, skipping
+     * comments, and reports it all as a single {@link #TEXT} event.
+     */
+    private void coalesceText() throws IOException, XmlPullParserException {
+        String text = mCurrentText;
+        StringBuilder builder = null;
+        while (true) {
+            int token = peekToken();
+            if (token == TEXT || token == CDSECT || token == IGNORABLE_WHITESPACE) {
+                readByte();
+                if (builder == null) {
+                    builder = new StringBuilder(text);
+                }
+                builder.append(readUTF());
+            } else if (token == COMMENT) {
+                readByte();
+                readUTF();
+            } else {
+                break;
+            }
+        }
+        mCurrentToken = TEXT;
+        mCurrentText = builder != null ? builder.toString() : text;
+    }
+
+    public int nextToken() throws XmlPullParserException, IOException {
+        if (mUseText) {
+            return mTextParser.nextToken();
+        }
+        if (mCurrentToken == END_TAG) {
+            mCurrentDepth--;
+        } else if (mCurrentToken == END_DOCUMENT) {
+            return END_DOCUMENT;
+        }
+        mAttributeCount = 0;
+        mCurrentName = null;
+        mCurrentText = null;
+
+        if (peekToken() == -1) {
+            return mCurrentToken = END_DOCUMENT;
+        }
+        final int event = readByte();
+        final int token = event & 0x0f;
+        final int type = event & 0xf0;
+        switch (token) {
+            case START_DOCUMENT:
+            case END_DOCUMENT:
+                break;
+            case START_TAG:
+                mCurrentName = readInternedUTF();
+                mCurrentDepth++;
+                readAttributes();
+                break;
+            case END_TAG:
+                mCurrentName = readInternedUTF();
+                break;
+            case TEXT:
+            case CDSECT:
+            case IGNORABLE_WHITESPACE:
+            case COMMENT:
+                if (type != TYPE_STRING) {
+                    throw new XmlPullParserException("Unexpected type " + type, this, null);
+                }
+                mCurrentText = readUTF();
+                break;
+            default:
+                throw new XmlPullParserException("Unexpected token " + event, this, null);
+        }
+        return mCurrentToken = token;
+    }
+
+    private void readAttributes() throws IOException, XmlPullParserException {
+        while (peekToken() == ATTRIBUTE) {
+            final int type = readByte() & 0xf0;
+            final int i = mAttributeCount;
+            if (i == mAttributeNames.length) {
+                growAttributes();
+            }
+            mAttributeNames[i] = readInternedUTF();
+            mAttributeTypes[i] = type;
+            mAttributeStrings[i] = null;
+            mAttributeBytes[i] = null;
+            switch (type) {
+                case TYPE_STRING:
+                    mAttributeStrings[i] = readUTF();
+                    break;
+                case TYPE_STRING_INTERNED:
+                    mAttributeStrings[i] = readInternedUTF();
+                    break;
+                case TYPE_BYTES_HEX:
+                case TYPE_BYTES_BASE64:
+                    mAttributeBytes[i] = readBytes();
+                    break;
+                case TYPE_INT:
+                case TYPE_INT_HEX:
+                case TYPE_FLOAT:
+                    mAttributeValues[i] = readInt();
+                    break;
+                case TYPE_LONG:
+                case TYPE_LONG_HEX:
+                case TYPE_DOUBLE:
+                    mAttributeValues[i] = readLong();
+                    break;
+                case TYPE_BOOLEAN_TRUE:
+                case TYPE_BOOLEAN_FALSE:
+                    break;
+                default:
+                    throw new XmlPullParserException("Unexpected attribute type " + type, this,
+                            null);
+            }
+            mAttributeCount++;
+        }
+    }
+
+    private void growAttributes() {
+        final int newLength = mAttributeNames.length * 2;
+        String[] newNames = new String[newLength];
+        System.arraycopy(mAttributeNames, 0, newNames, 0, mAttributeCount);
+        mAttributeNames = newNames;
+        int[] newTypes = new int[newLength];
+        System.arraycopy(mAttributeTypes, 0, newTypes, 0, mAttributeCount);
+        mAttributeTypes = newTypes;
+        String[] newStrings = new String[newLength];
+        System.arraycopy(mAttributeStrings, 0, newStrings, 0, mAttributeCount);
+        mAttributeStrings = newStrings;
+        long[] newValues = new long[newLength];
+        System.arraycopy(mAttributeValues, 0, newValues, 0, mAttributeCount);
+        mAttributeValues = newValues;
+        byte[][] newBytes = new byte[newLength][];
+        System.arraycopy(mAttributeBytes, 0, newBytes, 0, mAttributeCount);
+        mAttributeBytes = newBytes;
+    }
+
+    public int getEventType() throws XmlPullParserException {
+        return mUseText ? mTextParser.getEventType() : mCurrentToken;
+    }
+
+    public int getDepth() {
+        return mUseText ? mTextParser.getDepth() : mCurrentDepth;
+    }
+
+    public String getPositionDescription() {
+        if (mUseText) {
+            return mTextParser.getPositionDescription();
+        }
+        return "Binary XML token " + mCurrentToken + " at byte " + (mBufferStart + mPos);
+    }
+
+    public int getLineNumber() {
+        return mUseText ? mTextParser.getLineNumber() : -1;
+    }
+
+    public int getColumnNumber() {
+        return mUseText ? mTextParser.getColumnNumber() : -1;
+    }
+
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (mUseText) {
+            return mTextParser.isWhitespace();
+        }
+        switch (mCurrentToken) {
+            case TEXT:
+            case CDSECT:
+            case IGNORABLE_WHITESPACE:
+                for (int i = 0; i < mCurrentText.length(); i++) {
+                    if (mCurrentText.charAt(i) > ' ') {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                throw new XmlPullParserException("Not applicable for token " + mCurrentToken,
+                        this, null);
+        }
+    }
+
+    public String getText() {
+        return mUseText ? mTextParser.getText() : mCurrentText;
+    }
+
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (mUseText) {
+            return mTextParser.getTextCharacters(holderForStartAndLength);
+        }
+        if (mCurrentText == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = mCurrentText.length();
+        return mCurrentText.toCharArray();
+    }
+
+    public String getNamespace() {
+        if (mUseText) {
+            return mTextParser.getNamespace();
+        }
+        return mCurrentName != null ? "" : null;
+    }
+
+    public String getName() {
+        return mUseText ? mTextParser.getName() : mCurrentName;
+    }
+
+    public String getPrefix() {
+        return mUseText ? mTextParser.getPrefix() : null;
+    }
+
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (mUseText) {
+            return mTextParser.isEmptyElementTag();
+        }
+        if (mCurrentToken != START_TAG) {
+            throw new XmlPullParserException("Not at START_TAG", this, null);
+        }
+        // The binary format doesn't distinguish empty elements.
+        return false;
+    }
+
+    public int getNamespaceCount(int depth) throws XmlPullParserException {
+        return mUseText ? mTextParser.getNamespaceCount(depth) : 0;
+    }
+
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        if (mUseText) {
+            return mTextParser.getNamespacePrefix(pos);
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        if (mUseText) {
+            return mTextParser.getNamespaceUri(pos);
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    public String getNamespace(String prefix) {
+        return mUseText ? mTextParser.getNamespace(prefix) : null;
+    }
+
+    public int getAttributeCount() {
+        if (mUseText) {
+            return mTextParser.getAttributeCount();
+        }
+        return mCurrentToken == START_TAG ? mAttributeCount : -1;
+    }
+
+    public String getAttributeNamespace(int index) {
+        if (mUseText) {
+            return mTextParser.getAttributeNamespace(index);
+        }
+        checkAttributeIndex(index);
+        return "";
+    }
+
+    public String getAttributeName(int index) {
+        if (mUseText) {
+            return mTextParser.getAttributeName(index);
+        }
+        checkAttributeIndex(index);
+        return mAttributeNames[index];
+    }
+
+    public String getAttributePrefix(int index) {
+        if (mUseText) {
+            return mTextParser.getAttributePrefix(index);
+        }
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    public String getAttributeType(int index) {
+        if (mUseText) {
+            return mTextParser.getAttributeType(index);
+        }
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    public boolean isAttributeDefault(int index) {
+        if (mUseText) {
+            return mTextParser.isAttributeDefault(index);
+        }
+        checkAttributeIndex(index);
+        return false;
+    }
+
+    /**
+     * Returns the value of the attribute at {@code index}. Typed values are
+     * formatted as their text equivalents would be written.
+     */
+    public String getAttributeValue(int index) {
+        if (mUseText) {
+            return mTextParser.getAttributeValue(index);
+        }
+        checkAttributeIndex(index);
+        final long value = mAttributeValues[index];
+        switch (mAttributeTypes[index]) {
+            case TYPE_STRING:
+            case TYPE_STRING_INTERNED:
+                return mAttributeStrings[index];
+            case TYPE_BYTES_HEX:
+                return HexDump.toHexString(mAttributeBytes[index]);
+            case TYPE_BYTES_BASE64:
+                return Base64.encodeToString(mAttributeBytes[index], Base64.NO_WRAP);
+            case TYPE_INT:
+                return Integer.toString((int) value);
+            case TYPE_INT_HEX:
+                return Integer.toHexString((int) value);
+            case TYPE_LONG:
+                return Long.toString(value);
+            case TYPE_LONG_HEX:
+                return Long.toHexString(value);
+            case TYPE_FLOAT:
+                return Float.toString(Float.intBitsToFloat((int) value));
+            case TYPE_DOUBLE:
+                return Double.toString(Double.longBitsToDouble(value));
+            case TYPE_BOOLEAN_TRUE:
+                return "true";
+            default:
+                return "false";
+        }
+    }
+
+    public String getAttributeValue(String namespace, String name) {
+        if (mUseText) {
+            return mTextParser.getAttributeValue(namespace, name);
+        }
+        final int index = getAttributeIndex(namespace, name);
+        return index != -1 ? getAttributeValue(index) : null;
+    }
+
+    /**
+     * Returns the index of the attribute called {@code name} on the current
+     * tag, or -1 if there is none.
+     */
+    public int getAttributeIndex(String namespace, String name) {
+        if (mUseText) {
+            for (int i = 0, count = mTextParser.getAttributeCount(); i < count; i++) {
+                if (name.equals(mTextParser.getAttributeName(i)) && (namespace == null
+                        || namespace.equals(mTextParser.getAttributeNamespace(i)))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < mAttributeCount; i++) {
+            if (mAttributeNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getAttributeInt(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_INT) {
+            return (int) mAttributeValues[index];
+        }
+        final String value = getAttributeValue(index);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, "int", e);
+        }
+    }
+
+    public int getAttributeIntHex(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_INT_HEX) {
+            return (int) mAttributeValues[index];
+        }
+        final String value = getAttributeValue(index);
+        try {
+            final long result = Long.parseLong(value, 16);
+            if (result < Integer.MIN_VALUE || result > 0xffffffffL) {
+                throw new NumberFormatException(value);
+            }
+            return (int) result;
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, "hex int", e);
+        }
+    }
+
+    public long getAttributeLong(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_LONG) {
+            return mAttributeValues[index];
+        }
+        final String value = getAttributeValue(index);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, "long", e);
+        }
+    }
+
+    public long getAttributeLongHex(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_LONG_HEX) {
+            return mAttributeValues[index];
+        }
+        final String value = getAttributeValue(index);
+        try {
+            // Long.toHexString() writes negative values as 16 unsigned digits.
+            if (value.length() == 16) {
+                return (Long.parseLong(value.substring(0, 8), 16) << 32)
+                        | Long.parseLong(value.substring(8), 16);
+            }
+            return Long.parseLong(value, 16);
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, "hex long", e);
+        }
+    }
+
+    public float getAttributeFloat(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_FLOAT) {
+            return Float.intBitsToFloat((int) mAttributeValues[index]);
+        }
+        final String value = getAttributeValue(index);
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, "float", e);
+        }
+    }
+
+    public double getAttributeDouble(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_DOUBLE) {
+            return Double.longBitsToDouble(mAttributeValues[index]);
+        }
+        final String value = getAttributeValue(index);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, "double", e);
+        }
+    }
+
+    public boolean getAttributeBoolean(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_BOOLEAN_TRUE) {
+            return true;
+        } else if (attributeType(index) == TYPE_BOOLEAN_FALSE) {
+            return false;
+        }
+        final String value = getAttributeValue(index);
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw invalidAttribute(index, "boolean", null);
+    }
+
+    public byte[] getAttributeBytesHex(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_BYTES_HEX) {
+            return mAttributeBytes[index].clone();
+        }
+        final String value = getAttributeValue(index);
+        try {
+            return HexDump.hexStringToByteArray(value);
+        } catch (RuntimeException e) {
+            throw invalidAttribute(index, "hex bytes", e);
+        }
+    }
+
+    public byte[] getAttributeBytesBase64(int index) throws XmlPullParserException {
+        if (attributeType(index) == TYPE_BYTES_BASE64) {
+            return mAttributeBytes[index].clone();
+        }
+        final String value = getAttributeValue(index);
+        try {
+            return Base64.decode(value, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw invalidAttribute(index, "Base64 bytes", e);
+        }
+    }
+
+    private XmlPullParserException invalidAttribute(int index, String type, Throwable cause) {
+        return new XmlPullParserException("Invalid " + type + " attribute "
+                + getAttributeName(index) + "=" + getAttributeValue(index), this, cause);
+    }
+
+    /** Returns how the attribute at {@code index} is stored. */
+    private int attributeType(int index) {
+        if (mUseText) {
+            return TYPE_STRING;
+        }
+        checkAttributeIndex(index);
+        return mAttributeTypes[index];
+    }
+
+    private void checkAttributeIndex(int index) {
+        if (mCurrentToken != START_TAG || index < 0 || index >= mAttributeCount) {
+            throw new IndexOutOfBoundsException("Index " + index + ", count "
+                    + getAttributeCount());
+        }
+    }
+
+    public void require(int type, String namespace, String name)
+            throws XmlPullParserException, IOException {
+        if (mUseText) {
+            mTextParser.require(type, namespace, name);
+            return;
+        }
+        if (type != mCurrentToken
+                || (namespace != null && !namespace.equals(getNamespace()))
+                || (name != null && !name.equals(getName()))) {
+            throw new XmlPullParserException("expected " + TYPES[type] + " "
+                    + getPositionDescription(), this, null);
+        }
+    }
+
+    public String nextText() throws XmlPullParserException, IOException {
+        if (mUseText) {
+            return mTextParser.nextText();
+        }
+        if (mCurrentToken != START_TAG) {
+            throw new XmlPullParserException("precondition: START_TAG", this, null);
+        }
+        int eventType = next();
+        final String result;
+        if (eventType == TEXT) {
+            result = getText();
+            eventType = next();
+        } else {
+            result = "";
+        }
+        if (eventType != END_TAG) {
+            throw new XmlPullParserException("END_TAG expected", this, null);
+        }
+        return result;
+    }
+
+    public int nextTag() throws XmlPullParserException, IOException {
+        if (mUseText) {
+            return mTextParser.nextTag();
+        }
+        int eventType = next();
+        if (eventType == TEXT && isWhitespace()) {
+            eventType = next();
+        }
+        if (eventType != START_TAG && eventType != END_TAG) {
+            throw new XmlPullParserException("expected START_TAG or END_TAG not "
+                    + TYPES[eventType], this, null);
+        }
+        return eventType;
+    }
+
+    /**
+     * Returns the event type of the next token without consuming it, or -1 at
+     * the end of the input.
+     */
+    private int peekToken() throws IOException {
+        if (mPos == mLimit && !fill(1)) {
+            return -1;
+        }
+        return mBuffer[mPos] & 0x0f;
+    }
+
+    private boolean fill(int minimum) throws IOException {
+        mBufferStart += mPos;
+        if (mLimit != mPos) {
+            mLimit -= mPos;
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit);
+        } else {
+            mLimit = 0;
+        }
+        mPos = 0;
+        while (mLimit < minimum) {
+            int count = mInputStream.read(mBuffer, mLimit, BUFFER_LEN - mLimit);
+            if (count == -1) {
+                return false;
+            }
+            mLimit += count;
+        }
+        return true;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (mLimit - mPos < length && !fill(length)) {
+            throw new EOFException();
+        }
+    }
+
+    private int readByte() throws IOException {
+        ensure(1);
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    private int readShort() throws IOException {
+        ensure(2);
+        final byte[] buffer = mBuffer;
+        final int result = ((buffer[mPos] & 0xff) << 8) | (buffer[mPos + 1] & 0xff);
+        mPos += 2;
+        return result;
+    }
+
+    private int readInt() throws IOException {
+        ensure(4);
+        final byte[] buffer = mBuffer;
+        final int pos = mPos;
+        final int result = ((buffer[pos] & 0xff) << 24) | ((buffer[pos + 1] & 0xff) << 16)
+                | ((buffer[pos + 2] & 0xff) << 8) | (buffer[pos + 3] & 0xff);
+        mPos = pos + 4;
+        return result;
+    }
+
+    private long readLong() throws IOException {
+        final long high = readInt();
+        final long low = readInt() & 0xffffffffL;
+        return (high << 32) | low;
+    }
+
+    private int readLength() throws IOException {
+        final int length = readShort();
+        return length != LENGTH_LONG ? length : readInt();
+    }
+
+    private byte[] readBytes() throws IOException {
+        final byte[] result = new byte[readLength()];
+        readFully(result);
+        return result;
+    }
+
+    private String readUTF() throws IOException {
+        final int length = readLength();
+        if (length <= BUFFER_LEN) {
+            ensure(length);
+            final String result = new String(mBuffer, mPos, length, StandardCharsets.UTF_8);
+            mPos += length;
+            return result;
+        }
+        final byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readFully(byte[] dest) throws IOException {
+        int copied = 0;
+        while (copied < dest.length) {
+            if (mPos == mLimit && !fill(1)) {
+                throw new EOFException();
+            }
+            final int count = Math.min(dest.length - copied, mLimit - mPos);
+            System.arraycopy(mBuffer, mPos, dest, copied, count);
+            mPos += count;
+            copied += count;
+        }
+    }
+
+    private String readInternedUTF() throws IOException, XmlPullParserException {
+        final int index = readShort();
+        if (index != INTERNED_NEW) {
+            if (index >= mInternedCount) {
+                throw new XmlPullParserException("Invalid interned string " + index, this, null);
+            }
+            return mInterned[index];
+        }
+        final String result = readUTF();
+        if (mInternedCount < INTERNED_NEW) {
+            if (mInternedCount == mInterned.length) {
+                String[] newInterned = new String[mInternedCount * 2];
+                System.arraycopy(mInterned, 0, newInterned, 0, mInternedCount);
+                mInterned = newInterned;
+            }
+            mInterned[mInternedCount++] = result;
+        }
+        return result;
+    }
+}
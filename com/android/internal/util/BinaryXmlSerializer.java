@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.HashMap;
+
+/**
+ * Serializer that writes a compact binary encoding of XML, as a drop-in
+ * replacement for {@link FastXmlSerializer} in system services that persist
+ * their state as XML. Documents are read back with {@link BinaryXmlPullParser},
+ * which also still reads the text format, so a caller only needs to change the
+ * constructor it uses.
+ * <p>
+ * The document is written as a sequence of tokens, each starting with a byte
+ * holding an {@link XmlPullParser} event type in its low nibble and a value
+ * type in its high nibble. Tag and attribute names are written once and
+ * referred to by index afterwards. Attributes written with the typed methods
+ * such as {@link #attributeInt} are stored in binary form and skip formatting
+ * and parsing entirely; {@link BinaryXmlPullParser} still presents them as
+ * strings to callers that ask for strings.
+ * <p>
+ * Like {@link FastXmlSerializer}, this only does what is needed for the files
+ * being written with it: namespaces are written as a prefix of the name, and
+ * entity references, processing instructions and document type declarations
+ * are not supported.
+ */
+public class BinaryXmlSerializer implements XmlSerializer {
+    /**
+     * The first four bytes of every binary document; the last byte is the
+     * format version. A text document can never start with these bytes.
+     */
+    static final byte[] PROTOCOL_MAGIC_VERSION_0 = new byte[] { 0x41, 0x42, 0x58, 0x00 };
+
+    /** Token type for an attribute, which is not an {@link XmlPullParser} event. */
+    static final int ATTRIBUTE = 15;
+
+    static final int TYPE_NULL = 1 << 4;
+    static final int TYPE_STRING = 2 << 4;
+    static final int TYPE_STRING_INTERNED = 3 << 4;
+    static final int TYPE_BYTES_HEX = 4 << 4;
+    static final int TYPE_BYTES_BASE64 = 5 << 4;
+    static final int TYPE_INT = 6 << 4;
+    static final int TYPE_INT_HEX = 7 << 4;
+    static final int TYPE_LONG = 8 << 4;
+    static final int TYPE_LONG_HEX = 9 << 4;
+    static final int TYPE_FLOAT = 10 << 4;
+    static final int TYPE_DOUBLE = 11 << 4;
+    static final int TYPE_BOOLEAN_TRUE = 12 << 4;
+    static final int TYPE_BOOLEAN_FALSE = 13 << 4;
+
+    /** Index written before a string that is not in the interned table yet. */
+    static final int INTERNED_NEW = 0xffff;
+
+    /** Length written before data of 0xffff bytes or more, followed by an int length. */
+    static final int LENGTH_LONG = 0xffff;
+
+    private static final int BUFFER_LEN = 32768;
+
+    private final byte[] mBuffer = new byte[BUFFER_LEN];
+    private int mPos;
+
+    private OutputStream mOutputStream;
+
+    private final HashMap<String, Integer> mInterned = new HashMap<String, Integer>();
+
+    private String[] mTagNames = new String[8];
+    private int mTagCount = 0;
+
+    public void setOutput(OutputStream os, String encoding) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (os == null)
+            throw new IllegalArgumentException();
+        mOutputStream = os;
+        mPos = 0;
+        mInterned.clear();
+        mTagCount = 0;
+        writeRaw(PROTOCOL_MAGIC_VERSION_0, 0, PROTOCOL_MAGIC_VERSION_0.length);
+    }
+
+    public void setOutput(Writer writer) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void startDocument(String encoding, Boolean standalone) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (encoding != null && !"utf-8".equalsIgnoreCase(encoding)) {
+            throw new UnsupportedOperationException();
+        }
+        writeToken(XmlPullParser.START_DOCUMENT | TYPE_NULL);
+    }
+
+    public void endDocument() throws IOException, IllegalArgumentException, IllegalStateException {
+        writeToken(XmlPullParser.END_DOCUMENT | TYPE_NULL);
+        flush();
+    }
+
+    public XmlSerializer startTag(String namespace, String name) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        name = qualify(namespace, name);
+        if (mTagCount == mTagNames.length) {
+            String[] newTagNames = new String[mTagCount * 2];
+            System.arraycopy(mTagNames, 0, newTagNames, 0, mTagCount);
+            mTagNames = newTagNames;
+        }
+        mTagNames[mTagCount++] = name;
+        writeToken(XmlPullParser.START_TAG | TYPE_STRING_INTERNED);
+        writeInternedUTF(name);
+        return this;
+    }
+
+    public XmlSerializer endTag(String namespace, String name) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        name = qualify(namespace, name);
+        if (mTagCount == 0 || !mTagNames[mTagCount - 1].equals(name)) {
+            throw new IllegalArgumentException("Mismatched end tag " + name);
+        }
+        mTagNames[--mTagCount] = null;
+        writeToken(XmlPullParser.END_TAG | TYPE_STRING_INTERNED);
+        writeInternedUTF(name);
+        return this;
+    }
+
+    public XmlSerializer attribute(String namespace, String name, String value) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        writeToken(ATTRIBUTE | TYPE_STRING);
+        writeInternedUTF(qualify(namespace, name));
+        writeUTF(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is one of a small set of strings, such
+     * as an enum name, so that repeated values are stored once.
+     */
+    public XmlSerializer attributeInterned(String namespace, String name, String value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_STRING_INTERNED);
+        writeInternedUTF(qualify(namespace, name));
+        writeInternedUTF(value);
+        return this;
+    }
+
+    /** Writes a byte array attribute whose string form is hex. */
+    public XmlSerializer attributeBytesHex(String namespace, String name, byte[] value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_BYTES_HEX);
+        writeInternedUTF(qualify(namespace, name));
+        writeBytes(value);
+        return this;
+    }
+
+    /** Writes a byte array attribute whose string form is Base64. */
+    public XmlSerializer attributeBytesBase64(String namespace, String name, byte[] value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_BYTES_BASE64);
+        writeInternedUTF(qualify(namespace, name));
+        writeBytes(value);
+        return this;
+    }
+
+    public XmlSerializer attributeInt(String namespace, String name, int value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_INT);
+        writeInternedUTF(qualify(namespace, name));
+        writeInt(value);
+        return this;
+    }
+
+    /** Writes an int attribute whose string form is hex. */
+    public XmlSerializer attributeIntHex(String namespace, String name, int value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_INT_HEX);
+        writeInternedUTF(qualify(namespace, name));
+        writeInt(value);
+        return this;
+    }
+
+    public XmlSerializer attributeLong(String namespace, String name, long value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_LONG);
+        writeInternedUTF(qualify(namespace, name));
+        writeLong(value);
+        return this;
+    }
+
+    /** Writes a long attribute whose string form is hex. */
+    public XmlSerializer attributeLongHex(String namespace, String name, long value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_LONG_HEX);
+        writeInternedUTF(qualify(namespace, name));
+        writeLong(value);
+        return this;
+    }
+
+    public XmlSerializer attributeFloat(String namespace, String name, float value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_FLOAT);
+        writeInternedUTF(qualify(namespace, name));
+        writeInt(Float.floatToIntBits(value));
+        return this;
+    }
+
+    public XmlSerializer attributeDouble(String namespace, String name, double value)
+            throws IOException {
+        writeToken(ATTRIBUTE | TYPE_DOUBLE);
+        writeInternedUTF(qualify(namespace, name));
+        writeLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    public XmlSerializer attributeBoolean(String namespace, String name, boolean value)
+            throws IOException {
+        writeToken(ATTRIBUTE | (value ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE));
+        writeInternedUTF(qualify(namespace, name));
+        return this;
+    }
+
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        return text(new String(buf, start, len));
+    }
+
+    public XmlSerializer text(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.TEXT | TYPE_STRING);
+        writeUTF(text);
+        return this;
+    }
+
+    public void cdsect(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.CDSECT | TYPE_STRING);
+        writeUTF(text);
+    }
+
+    public void comment(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.COMMENT | TYPE_STRING);
+        writeUTF(text);
+    }
+
+    public void ignorableWhitespace(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        writeToken(XmlPullParser.IGNORABLE_WHITESPACE | TYPE_STRING);
+        writeUTF(text);
+    }
+
+    public void docdecl(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void entityRef(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void processingInstruction(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void flush() throws IOException {
+        if (mPos > 0) {
+            mOutputStream.write(mBuffer, 0, mPos);
+            mPos = 0;
+        }
+        mOutputStream.flush();
+    }
+
+    public int getDepth() {
+        return mTagCount;
+    }
+
+    public String getName() {
+        return mTagCount > 0 ? mTagNames[mTagCount - 1] : null;
+    }
+
+    public String getNamespace() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getPrefix(String namespace, boolean generatePrefix)
+            throws IllegalArgumentException {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getFeature(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setFeature(String name, boolean state) throws IllegalArgumentException,
+            IllegalStateException {
+        if (name.equals("http://xmlpull.org/v1/doc/features.html#indent-output")) {
+            // There is no whitespace to indent with.
+            return;
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    public Object getProperty(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setProperty(String name, Object value) throws IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setPrefix(String prefix, String namespace) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    private static String qualify(String namespace, String name) {
+        return namespace != null ? namespace + ':' + name : name;
+    }
+
+    private void writeToken(int token) throws IOException {
+        if (mPos == BUFFER_LEN) {
+            flushBuffer();
+        }
+        mBuffer[mPos++] = (byte) token;
+    }
+
+    private void writeShort(int value) throws IOException {
+        if (BUFFER_LEN - mPos < 2) {
+            flushBuffer();
+        }
+        mBuffer[mPos++] = (byte) (value >> 8);
+        mBuffer[mPos++] = (byte) value;
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (BUFFER_LEN - mPos < 4) {
+            flushBuffer();
+        }
+        mBuffer[mPos++] = (byte) (value >> 24);
+        mBuffer[mPos++] = (byte) (value >> 16);
+        mBuffer[mPos++] = (byte) (value >> 8);
+        mBuffer[mPos++] = (byte) value;
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int) (value >> 32));
+        writeInt((int) value);
+    }
+
+    private void writeLength(int length) throws IOException {
+        if (length < LENGTH_LONG) {
+            writeShort(length);
+        } else {
+            writeShort(LENGTH_LONG);
+            writeInt(length);
+        }
+    }
+
+    private void writeBytes(byte[] value) throws IOException {
+        writeLength(value.length);
+        writeRaw(value, 0, value.length);
+    }
+
+    /**
+     * Writes {@code value} as its UTF-8 length followed by its UTF-8 bytes.
+     * Unpaired surrogates are written as '?', as {@link String#getBytes} does.
+     */
+    private void writeUTF(String value) throws IOException {
+        final int N = value.length();
+        int length = N;
+        for (int i = 0; i < N; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < N
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 2;
+                }
+            }
+        }
+        writeLength(length);
+
+        final byte[] buffer = mBuffer;
+        for (int i = 0; i < N; i++) {
+            if (BUFFER_LEN - mPos < 4) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[mPos++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[mPos++] = (byte) (0xc0 | (c >> 6));
+                buffer[mPos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < N
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[mPos++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[mPos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[mPos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[mPos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[mPos++] = '?';
+            } else {
+                buffer[mPos++] = (byte) (0xe0 | (c >> 12));
+                buffer[mPos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[mPos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Writes the index of {@code value} in the interned table, adding it to
+     * the table the first time it is written.
+     */
+    private void writeInternedUTF(String value) throws IOException {
+        Integer index = mInterned.get(value);
+        if (index != null) {
+            writeShort(index);
+            return;
+        }
+        writeShort(INTERNED_NEW);
+        writeUTF(value);
+        if (mInterned.size() < INTERNED_NEW) {
+            mInterned.put(value, mInterned.size());
+        }
+    }
+
+    private void writeRaw(byte[] value, int offset, int length) throws IOException {
+        if (length > BUFFER_LEN - mPos) {
+            flushBuffer();
+            if (length > BUFFER_LEN) {
+                mOutputStream.write(value, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(value, offset, mBuffer, mPos, length);
+        mPos += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mPos > 0) {
+            mOutputStream.write(mBuffer, 0, mPos);
+            mPos = 0;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import static org.xmlpull.v1.XmlPullParser.END_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.END_TAG;
+import static org.xmlpull.v1.XmlPullParser.START_DOCUMENT;
+import static org.xmlpull.v1.XmlPullParser.START_TAG;
+import static org.xmlpull.v1.XmlPullParser.TEXT;
+
+import junit.framework.TestCase;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link BinaryXmlSerializer} and {@link BinaryXmlPullParser}
+ */
+public class BinaryXmlTest extends TestCase {
+
+    private static void writeDocument(XmlSerializer out) throws Exception {
+        out.startDocument(null, true);
+        out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        out.startTag(null, "packages");
+        for (int i = 0; i < 3; i++) {
+            out.startTag(null, "package");
+            out.attribute(null, "name", "com.example.app" + i);
+            out.attribute(null, "codePath", "/data/app/\u00e9<&>\"" + i);
+            out.attribute(null, "userId", Integer.toString(10000 + i));
+            out.startTag(null, "perms");
+            out.startTag(null, "item");
+            out.attribute(null, "name", "android.permission.INTERNET");
+            out.endTag(null, "item");
+            out.endTag(null, "perms");
+            out.endTag(null, "package");
+        }
+        out.startTag(null, "string");
+        out.text("hello \ud83d\ude00 world");
+        out.endTag(null, "string");
+        out.endTag(null, "packages");
+        out.endDocument();
+    }
+
+    private static BinaryXmlPullParser parse(byte[] bytes) throws Exception {
+        BinaryXmlPullParser parser = new BinaryXmlPullParser();
+        parser.setInput(new ByteArrayInputStream(bytes), null);
+        return parser;
+    }
+
+    /**
+     * Reads the document written by {@link #writeDocument}, skipping any
+     * whitespace text as callers of the text format do.
+     */
+    private static void assertDocument(XmlPullParser parser) throws Exception {
+        assertEquals(START_DOCUMENT, parser.getEventType());
+        assertEquals(START_TAG, parser.nextTag());
+        assertEquals("packages", parser.getName());
+        assertEquals(1, parser.getDepth());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(START_TAG, parser.nextTag());
+            assertEquals("package", parser.getName());
+            assertEquals(2, parser.getDepth());
+            assertEquals(3, parser.getAttributeCount());
+            assertEquals("com.example.app" + i, parser.getAttributeValue(null, "name"));
+            assertEquals("/data/app/\u00e9<&>\"" + i, parser.getAttributeValue(null, "codePath"));
+            assertEquals(Integer.toString(10000 + i), parser.getAttributeValue(null, "userId"));
+            assertEquals(null, parser.getAttributeValue(null, "missing"));
+            int outerDepth = parser.getDepth();
+            XmlUtils.skipCurrentTag(parser);
+            assertEquals(END_TAG, parser.getEventType());
+            assertEquals(outerDepth, parser.getDepth());
+        }
+        assertEquals(START_TAG, parser.nextTag());
+        assertEquals("hello \ud83d\ude00 world", parser.nextText());
+        assertEquals(END_TAG, parser.nextTag());
+        assertEquals("packages", parser.getName());
+        assertEquals(END_DOCUMENT, parser.next());
+    }
+
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        XmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(stream, "utf-8");
+        writeDocument(out);
+
+        assertDocument(parse(stream.toByteArray()));
+    }
+
+    public void testReadsTextFormat() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        XmlSerializer out = new FastXmlSerializer();
+        out.setOutput(stream, "utf-8");
+        writeDocument(out);
+
+        assertDocument(parse(stream.toByteArray()));
+    }
+
+    public void testBinaryIsSmaller() throws Exception {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        XmlSerializer out = new FastXmlSerializer();
+        out.setOutput(text, "utf-8");
+        writeDocument(out);
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        out = new BinaryXmlSerializer();
+        out.setOutput(binary, "utf-8");
+        writeDocument(out);
+
+        assertTrue(binary.size() < text.size());
+    }
+
+    public void testTypedAttributes() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        BinaryXmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(stream, "utf-8");
+        out.startDocument(null, true);
+        out.startTag(null, "typed");
+        out.attributeInt(null, "int", -42);
+        out.attributeIntHex(null, "intHex", 0xcafef00d);
+        out.attributeLong(null, "long", Long.MIN_VALUE);
+        out.attributeLongHex(null, "longHex", -1L);
+        out.attributeFloat(null, "float", 1.5f);
+        out.attributeDouble(null, "double", Math.PI);
+        out.attributeBoolean(null, "true", true);
+        out.attributeBoolean(null, "false", false);
+        out.attributeBytesHex(null, "hex", new byte[] { 1, (byte) 0xab });
+        out.attributeBytesBase64(null, "base64", new byte[] { 0, 1, 2, 3 });
+        out.attributeInterned(null, "interned", "enabled");
+        out.attribute(null, "string", "12");
+        out.endTag(null, "typed");
+        out.endDocument();
+
+        BinaryXmlPullParser parser = parse(stream.toByteArray());
+        assertEquals(START_TAG, parser.next());
+        assertEquals(-42, parser.getAttributeInt(parser.getAttributeIndex(null, "int")));
+        assertEquals("-42", parser.getAttributeValue(null, "int"));
+        assertEquals(0xcafef00d,
+                parser.getAttributeIntHex(parser.getAttributeIndex(null, "intHex")));
+        assertEquals("cafef00d", parser.getAttributeValue(null, "intHex"));
+        assertEquals(Long.MIN_VALUE,
+                parser.getAttributeLong(parser.getAttributeIndex(null, "long")));
+        assertEquals(-1L, parser.getAttributeLongHex(parser.getAttributeIndex(null, "longHex")));
+        assertEquals("ffffffffffffffff", parser.getAttributeValue(null, "longHex"));
+        assertEquals(1.5f, parser.getAttributeFloat(parser.getAttributeIndex(null, "float")));
+        assertEquals(Math.PI, parser.getAttributeDouble(parser.getAttributeIndex(null, "double")));
+        assertTrue(parser.getAttributeBoolean(parser.getAttributeIndex(null, "true")));
+        assertFalse(parser.getAttributeBoolean(parser.getAttributeIndex(null, "false")));
+        assertEquals("false", parser.getAttributeValue(null, "false"));
+        assertTrue(Arrays.equals(new byte[] { 1, (byte) 0xab },
+                parser.getAttributeBytesHex(parser.getAttributeIndex(null, "hex"))));
+        assertTrue(Arrays.equals(new byte[] { 0, 1, 2, 3 },
+                parser.getAttributeBytesBase64(parser.getAttributeIndex(null, "base64"))));
+        assertEquals("enabled", parser.getAttributeValue(null, "interned"));
+
+        // Typed getters also parse attributes written as strings.
+        assertEquals(12, parser.getAttributeInt(parser.getAttributeIndex(null, "string")));
+        assertEquals(12L, parser.getAttributeLong(parser.getAttributeIndex(null, "string")));
+        try {
+            parser.getAttributeBoolean(parser.getAttributeIndex(null, "string"));
+            fail();
+        } catch (org.xmlpull.v1.XmlPullParserException expected) {
+        }
+    }
+
+    public void testLongStrings() throws Exception {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, '\u4e2d');
+        String value = new String(chars);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        XmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(stream, "utf-8");
+        out.startDocument(null, true);
+        out.startTag(null, "long");
+        out.attribute(null, "value", value);
+        out.text(value);
+        out.text("!");
+        out.endTag(null, "long");
+        out.endDocument();
+
+        XmlPullParser parser = parse(stream.toByteArray());
+        assertEquals(START_TAG, parser.next());
+        assertEquals(value, parser.getAttributeValue(null, "value"));
+        assertEquals(TEXT, parser.next());
+        assertEquals(value + "!", parser.getText());
+        assertEquals(END_TAG, parser.next());
+    }
+
+    public void testMismatchedEndTag() throws Exception {
+        XmlSerializer out = new BinaryXmlSerializer();
+        out.setOutput(new ByteArrayOutputStream(), "utf-8");
+        out.startTag(null, "a");
+        try {
+            out.endTag(null, "b");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
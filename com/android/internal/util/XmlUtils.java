@@ -1521,6 +1521,15 @@ public class XmlUtils {
     }
 
     public static int readIntAttribute(XmlPullParser in, String name, int defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser parser = (BinaryXmlPullParser) in;
+            final int index = parser.getAttributeIndex(null, name);
+            try {
+                return index != -1 ? parser.getAttributeInt(index) : defaultValue;
+            } catch (XmlPullParserException e) {
+                return defaultValue;
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Integer.parseInt(value);
@@ -1530,6 +1539,18 @@ public class XmlUtils {
     }
 
     public static int readIntAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser parser = (BinaryXmlPullParser) in;
+            final int index = parser.getAttributeIndex(null, name);
+            try {
+                if (index != -1) {
+                    return parser.getAttributeInt(index);
+                }
+            } catch (XmlPullParserException e) {
+            }
+            throw new ProtocolException("problem parsing " + name + "="
+                    + in.getAttributeValue(null, name) + " as int");
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Integer.parseInt(value);
@@ -1540,10 +1561,23 @@ public class XmlUtils {
 
     public static void writeIntAttribute(XmlSerializer out, String name, int value)
             throws IOException {
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeInt(null, name, value);
+            return;
+        }
         out.attribute(null, name, Integer.toString(value));
     }
 
     public static long readLongAttribute(XmlPullParser in, String name, long defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser parser = (BinaryXmlPullParser) in;
+            final int index = parser.getAttributeIndex(null, name);
+            try {
+                return index != -1 ? parser.getAttributeLong(index) : defaultValue;
+            } catch (XmlPullParserException e) {
+                return defaultValue;
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Long.parseLong(value);
@@ -1553,6 +1587,18 @@ public class XmlUtils {
     }
 
     public static long readLongAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser parser = (BinaryXmlPullParser) in;
+            final int index = parser.getAttributeIndex(null, name);
+            try {
+                if (index != -1) {
+                    return parser.getAttributeLong(index);
+                }
+            } catch (XmlPullParserException e) {
+            }
+            throw new ProtocolException("problem parsing " + name + "="
+                    + in.getAttributeValue(null, name) + " as long");
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Long.parseLong(value);
@@ -1563,6 +1609,10 @@ public class XmlUtils {
 
     public static void writeLongAttribute(XmlSerializer out, String name, long value)
             throws IOException {
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeLong(null, name, value);
+            return;
+        }
         out.attribute(null, name, Long.toString(value));
     }
 
@@ -1577,6 +1627,10 @@ public class XmlUtils {
 
     public static void writeFloatAttribute(XmlSerializer out, String name, float value)
             throws IOException {
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeFloat(null, name, value);
+            return;
+        }
         out.attribute(null, name, Float.toString(value));
     }
 
@@ -1597,6 +1651,10 @@ public class XmlUtils {
 
     public static void writeBooleanAttribute(XmlSerializer out, String name, boolean value)
             throws IOException {
+        if (out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeBoolean(null, name, value);
+            return;
+        }
         out.attribute(null, name, Boolean.toString(value));
     }
 
@@ -1624,6 +1682,15 @@ public class XmlUtils {
     }
 
     public static byte[] readByteArrayAttribute(XmlPullParser in, String name) {
+        if (in instanceof BinaryXmlPullParser) {
+            final BinaryXmlPullParser parser = (BinaryXmlPullParser) in;
+            final int index = parser.getAttributeIndex(null, name);
+            try {
+                return index != -1 ? parser.getAttributeBytesBase64(index) : null;
+            } catch (XmlPullParserException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         if (value != null) {
             return Base64.decode(value, Base64.DEFAULT);
@@ -1634,7 +1701,9 @@ public class XmlUtils {
 
     public static void writeByteArrayAttribute(XmlSerializer out, String name, byte[] value)
             throws IOException {
-        if (value != null) {
+        if (value != null && out instanceof BinaryXmlSerializer) {
+            ((BinaryXmlSerializer) out).attributeBytesBase64(null, name, value);
+        } else if (value != null) {
             out.attribute(null, name, Base64.encodeToString(value, Base64.DEFAULT));
         }
     }
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Alarm batches ordered by start time, as kept by {@link AlarmManagerService}.
+ * Besides the usual ordered operations it finds, in logarithmic time, the
+ * earliest batch that a new alarm can join and the earliest batch that has
+ * wakeup alarms; a sorted list needs a linear scan for both.
+ *
+ * <p>This is a treap whose nodes are the batches themselves. Every node caches
+ * the latest end of any batch in its subtree that accepts more alarms, which
+ * makes it an interval tree for the coalescing search. A node's start, end and
+ * flags are copied in when it is added or {@link #update updated}, so a batch
+ * that is in the tree may change freely as long as it is updated afterwards.
+ * Batches with equal starts keep the order in which they were added.
+ */
+final class AlarmBatchTree<N extends AlarmBatchTree.Node> implements Iterable<N> {
+
+    /**
+     * Base class of the elements; holds the tree links and cached keys.
+     */
+    static abstract class Node {
+        Node mLeft;
+        Node mRight;
+        int mPriority;
+        long mSeq;
+        long mStart;
+        long mEnd;
+        boolean mCanCoalesce;
+        boolean mHasWakeups;
+        boolean mInTree;
+
+        /** Latest end of a node in this subtree that can coalesce, or Long.MIN_VALUE. */
+        long mMaxEnd;
+        boolean mAnyWakeups;
+        int mSize;
+
+        abstract long getStart();
+
+        abstract long getEnd();
+
+        /** Whether alarms may be added to this batch. */
+        abstract boolean canCoalesce();
+
+        abstract boolean hasWakeups();
+    }
+
+    private final Random mRandom = new Random(0);
+    private Node mRoot;
+    private long mNextSeq;
+
+    // Results of split(), which would otherwise need an allocation per call.
+    private Node mSplitLeft;
+    private Node mSplitRight;
+
+    int size() {
+        return mRoot != null ? mRoot.mSize : 0;
+    }
+
+    boolean isEmpty() {
+        return mRoot == null;
+    }
+
+    boolean contains(N node) {
+        return node.mInTree;
+    }
+
+    /**
+     * Adds {@code node}, after any batches that start at the same time.
+     */
+    void add(N node) {
+        if (node.mInTree) {
+            throw new IllegalStateException(node + " is already in the tree");
+        }
+        copyKeys(node);
+        node.mSeq = mNextSeq++;
+        node.mPriority = mRandom.nextInt();
+        node.mLeft = node.mRight = null;
+        node.mInTree = true;
+        mRoot = insert(mRoot, node);
+    }
+
+    void remove(N node) {
+        if (!node.mInTree) {
+            return;
+        }
+        mRoot = delete(mRoot, node);
+        node.mLeft = node.mRight = null;
+        node.mInTree = false;
+    }
+
+    /**
+     * Picks up changes to a batch in the tree. A batch whose start did not
+     * change keeps its position among batches with the same start.
+     */
+    void update(N node) {
+        if (!node.mInTree) {
+            throw new IllegalStateException(node + " is not in the tree");
+        }
+        if (node.getStart() != node.mStart) {
+            remove(node);
+            add(node);
+        } else {
+            refresh(mRoot, node);
+        }
+    }
+
+    void clear() {
+        // Mark everything as out of the tree so the batches can be added again.
+        for (N node : this) {
+            node.mInTree = false;
+        }
+        mRoot = null;
+    }
+
+    /**
+     * Returns the earliest batch, or null.
+     */
+    N first() {
+        Node t = mRoot;
+        if (t == null) {
+            return null;
+        }
+        while (t.mLeft != null) {
+            t = t.mLeft;
+        }
+        return cast(t);
+    }
+
+    /**
+     * Returns the earliest batch that has a wakeup alarm, or null.
+     */
+    N firstWakeup() {
+        Node t = mRoot;
+        while (t != null && t.mAnyWakeups) {
+            if (t.mLeft != null && t.mLeft.mAnyWakeups) {
+                t = t.mLeft;
+            } else if (t.mHasWakeups) {
+                return cast(t);
+            } else {
+                t = t.mRight;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the earliest batch that accepts more alarms and whose window
+     * overlaps [{@code whenElapsed}, {@code maxWhen}], or null.
+     */
+    N findCoalescable(long whenElapsed, long maxWhen) {
+        return cast(findCoalescable(mRoot, whenElapsed, maxWhen));
+    }
+
+    /**
+     * Iterates over the batches in start order. The tree must not be modified
+     * while iterating.
+     */
+    @Override
+    public Iterator<N> iterator() {
+        return new Iterator<N>() {
+            private final ArrayDeque<Node> mStack = new ArrayDeque<Node>();
+            {
+                pushLeft(mRoot);
+            }
+
+            private void pushLeft(Node t) {
+                for (; t != null; t = t.mLeft) {
+                    mStack.push(t);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !mStack.isEmpty();
+            }
+
+            @Override
+            public N next() {
+                if (mStack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                final Node t = mStack.pop();
+                pushLeft(t.mRight);
+                return cast(t);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private N cast(Node node) {
+        return (N) node;
+    }
+
+    private static void copyKeys(Node node) {
+        node.mStart = node.getStart();
+        node.mEnd = node.getEnd();
+        node.mCanCoalesce = node.canCoalesce();
+        node.mHasWakeups = node.hasWakeups();
+    }
+
+    private static void recompute(Node t) {
+        long maxEnd = t.mCanCoalesce ? t.mEnd : Long.MIN_VALUE;
+        boolean anyWakeups = t.mHasWakeups;
+        int size = 1;
+        final Node l = t.mLeft;
+        if (l != null) {
+            maxEnd = Math.max(maxEnd, l.mMaxEnd);
+            anyWakeups |= l.mAnyWakeups;
+            size += l.mSize;
+        }
+        final Node r = t.mRight;
+        if (r != null) {
+            maxEnd = Math.max(maxEnd, r.mMaxEnd);
+            anyWakeups |= r.mAnyWakeups;
+            size += r.mSize;
+        }
+        t.mMaxEnd = maxEnd;
+        t.mAnyWakeups = anyWakeups;
+        t.mSize = size;
+    }
+
+    /** Orders by start, then by the order in which nodes were added. */
+    private static boolean before(Node a, Node b) {
+        return a.mStart < b.mStart || (a.mStart == b.mStart && a.mSeq < b.mSeq);
+    }
+
+    private Node insert(Node t, Node node) {
+        if (t == null) {
+            recompute(node);
+            return node;
+        }
+        if (node.mPriority > t.mPriority) {
+            split(t, node);
+            node.mLeft = mSplitLeft;
+            node.mRight = mSplitRight;
+            recompute(node);
+            return node;
+        }
+        if (before(node, t)) {
+            t.mLeft = insert(t.mLeft, node);
+        } else {
+            t.mRight = insert(t.mRight, node);
+        }
+        recompute(t);
+        return t;
+    }
+
+    /** Splits {@code t} into the nodes before {@code key} and the rest. */
+    private void split(Node t, Node key) {
+        if (t == null) {
+            mSplitLeft = mSplitRight = null;
+        } else if (before(t, key)) {
+            split(t.mRight, key);
+            t.mRight = mSplitLeft;
+            recompute(t);
+            mSplitLeft = t;
+        } else {
+            split(t.mLeft, key);
+            t.mLeft = mSplitRight;
+            recompute(t);
+            mSplitRight = t;
+        }
+    }
+
+    private static Node merge(Node l, Node r) {
+        if (l == null) {
+            return r;
+        }
+        if (r == null) {
+            return l;
+        }
+        if (l.mPriority > r.mPriority) {
+            l.mRight = merge(l.mRight, r);
+            recompute(l);
+            return l;
+        } else {
+            r.mLeft = merge(l, r.mLeft);
+            recompute(r);
+            return r;
+        }
+    }
+
+    private static Node delete(Node t, Node node) {
+        if (t == null) {
+            throw new IllegalStateException("Tree is missing " + node);
+        }
+        if (t == node) {
+            return merge(t.mLeft, t.mRight);
+        }
+        if (before(node, t)) {
+            t.mLeft = delete(t.mLeft, node);
+        } else {
+            t.mRight = delete(t.mRight, node);
+        }
+        recompute(t);
+        return t;
+    }
+
+    private static void refresh(Node t, Node node) {
+        if (t == null) {
+            throw new IllegalStateException("Tree is missing " + node);
+        }
+        if (t == node) {
+            copyKeys(node);
+        } else if (before(node, t)) {
+            refresh(t.mLeft, node);
+        } else {
+            refresh(t.mRight, node);
+        }
+        recompute(t);
+    }
+
+    private static Node findCoalescable(Node t, long whenElapsed, long maxWhen) {
+        // Subtrees whose batches all end too early are skipped, as is everything
+        // to the right of a batch that starts too late.
+        while (t != null && t.mMaxEnd >= whenElapsed) {
+            final Node found = findCoalescable(t.mLeft, whenElapsed, maxWhen);
+            if (found != null) {
+                return found;
+            }
+            if (t.mStart > maxWhen) {
+                return null;
+            }
+            if (t.mCanCoalesce && t.mEnd >= whenElapsed) {
+                return t;
+            }
+            t = t.mRight;
+        }
+        return null;
+    }
+}
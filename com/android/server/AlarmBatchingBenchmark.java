@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Replays a synthetic alarm trace through a model of the batching done by
+ * {@link AlarmManagerService}. LIST keeps batches in a sorted list, scans
+ * for coalescing and rebatches everything when an alarm is replaced; TREE
+ * uses {@link AlarmBatchTree}, an operation index and incremental
+ * rebatching. The trace is apps re-setting inexact alarms, some exact and
+ * standalone ones, delivery as time passes and the odd clock change.
+ */
+public class AlarmBatchingBenchmark extends SimpleBenchmark {
+
+    enum Structure { LIST, TREE }
+
+    @Param({"100", "1000", "5000"})
+    int mAlarms;
+
+    @Param
+    Structure mStructure;
+
+    private static final int SET = 0;
+    private static final int ADVANCE = 1;
+    private static final int CLOCK_CHANGE = 2;
+
+    private int[] mOps;
+    private long[] mArgs;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Random random = new Random(42);
+        final int count = mAlarms * 4;
+        mOps = new int[count];
+        mArgs = new long[count * 4];
+        long now = 0;
+        for (int i = 0; i < count; i++) {
+            final int r = random.nextInt(1000);
+            if (r < 10) {
+                mOps[i] = ADVANCE;
+                now += 60 * 1000;
+                mArgs[i * 4] = now;
+            } else if (r < 11) {
+                mOps[i] = CLOCK_CHANGE;
+            } else {
+                mOps[i] = SET;
+                final long when = now + 10 * 1000 + random.nextInt(6 * 60 * 60 * 1000);
+                final boolean exact = random.nextInt(10) == 0;
+                mArgs[i * 4] = random.nextInt(mAlarms);
+                mArgs[i * 4 + 1] = when;
+                mArgs[i * 4 + 2] = exact ? when : when + (long) (.75 * (when - now));
+                mArgs[i * 4 + 3] = (exact && random.nextInt(4) == 0 ? 1 : 0)
+                        | (random.nextBoolean() ? 2 : 0);
+            }
+        }
+    }
+
+    public int timeReplay(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            final Simulator sim = mStructure == Structure.TREE
+                    ? new TreeSimulator() : new ListSimulator();
+            for (int op = 0; op < mOps.length; op++) {
+                switch (mOps[op]) {
+                    case SET:
+                        final int flags = (int) mArgs[op * 4 + 3];
+                        sim.set((int) mArgs[op * 4], mArgs[op * 4 + 1], mArgs[op * 4 + 2],
+                                (flags & 1) != 0, (flags & 2) != 0);
+                        break;
+                    case ADVANCE:
+                        sum += sim.deliver(mArgs[op * 4]);
+                        break;
+                    case CLOCK_CHANGE:
+                        sim.rebatchAll();
+                        break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    static final class Alarm {
+        final int id;
+        final long when;
+        final long maxWhen;
+        final boolean standalone;
+        final boolean wakeup;
+        Batch batch;
+
+        Alarm(int id, long when, long maxWhen, boolean standalone, boolean wakeup) {
+            this.id = id;
+            this.when = when;
+            this.maxWhen = maxWhen;
+            this.standalone = standalone;
+            this.wakeup = wakeup;
+        }
+    }
+
+    static final class Batch extends AlarmBatchTree.Node {
+        long start;
+        long end = Long.MAX_VALUE;
+        boolean standalone;
+        final ArrayList<Alarm> alarms = new ArrayList<Alarm>();
+
+        void add(Alarm a) {
+            alarms.add(a);
+            a.batch = this;
+            start = Math.max(start, a.when);
+            end = Math.min(end, a.maxWhen);
+            standalone |= a.standalone;
+        }
+
+        @Override
+        long getStart() {
+            return start;
+        }
+
+        @Override
+        long getEnd() {
+            return end;
+        }
+
+        @Override
+        boolean canCoalesce() {
+            return !standalone;
+        }
+
+        @Override
+        boolean hasWakeups() {
+            for (int i = 0; i < alarms.size(); i++) {
+                if (alarms.get(i).wakeup) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static abstract class Simulator {
+        final void set(int id, long when, long maxWhen, boolean standalone, boolean wakeup) {
+            remove(id);
+            add(new Alarm(id, when, maxWhen, standalone, wakeup));
+            nextWakeup();
+        }
+
+        abstract void add(Alarm a);
+
+        abstract void remove(int id);
+
+        abstract int deliver(long now);
+
+        abstract void rebatchAll();
+
+        abstract Batch nextWakeup();
+    }
+
+    static final class ListSimulator extends Simulator {
+        private final ArrayList<Batch> mBatches = new ArrayList<Batch>();
+
+        @Override
+        void add(Alarm a) {
+            int i = 0;
+            if (!a.standalone) {
+                for (; i < mBatches.size(); i++) {
+                    final Batch b = mBatches.get(i);
+                    if (!b.standalone && b.end >= a.when && b.start <= a.maxWhen) {
+                        break;
+                    }
+                }
+            }
+            if (a.standalone || i == mBatches.size()) {
+                final Batch b = new Batch();
+                b.add(a);
+                insert(b);
+            } else {
+                final Batch b = mBatches.get(i);
+                final long start = b.start;
+                b.add(a);
+                if (b.start != start) {
+                    mBatches.remove(i);
+                    insert(b);
+                }
+            }
+        }
+
+        private void insert(Batch b) {
+            int lo = 0;
+            int hi = mBatches.size();
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (mBatches.get(mid).start <= b.start) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            mBatches.add(lo, b);
+        }
+
+        @Override
+        void remove(int id) {
+            boolean removed = false;
+            for (int i = mBatches.size() - 1; i >= 0; i--) {
+                final ArrayList<Alarm> alarms = mBatches.get(i).alarms;
+                for (int j = alarms.size() - 1; j >= 0; j--) {
+                    if (alarms.get(j).id == id) {
+                        alarms.remove(j);
+                        removed = true;
+                    }
+                }
+            }
+            if (removed) {
+                rebatchAll();
+            }
+        }
+
+        @Override
+        int deliver(long now) {
+            int delivered = 0;
+            while (!mBatches.isEmpty() && mBatches.get(0).start <= now) {
+                delivered += mBatches.remove(0).alarms.size();
+            }
+            return delivered;
+        }
+
+        @Override
+        void rebatchAll() {
+            final ArrayList<Batch> old = new ArrayList<Batch>(mBatches);
+            mBatches.clear();
+            for (int i = 0; i < old.size(); i++) {
+                final ArrayList<Alarm> alarms = old.get(i).alarms;
+                for (int j = 0; j < alarms.size(); j++) {
+                    add(alarms.get(j));
+                }
+            }
+        }
+
+        @Override
+        Batch nextWakeup() {
+            for (int i = 0; i < mBatches.size(); i++) {
+                if (mBatches.get(i).hasWakeups()) {
+                    return mBatches.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class TreeSimulator extends Simulator {
+        private final AlarmBatchTree<Batch> mBatches = new AlarmBatchTree<Batch>();
+        private final HashMap<Integer, Alarm> mById = new HashMap<Integer, Alarm>();
+
+        @Override
+        void add(Alarm a) {
+            final Batch b = a.standalone ? null : mBatches.findCoalescable(a.when, a.maxWhen);
+            if (b == null) {
+                final Batch batch = new Batch();
+                batch.add(a);
+                mBatches.add(batch);
+            } else {
+                b.add(a);
+                mBatches.update(b);
+            }
+            mById.put(a.id, a);
+        }
+
+        @Override
+        void remove(int id) {
+            final Alarm a = mById.remove(id);
+            if (a == null || a.batch == null) {
+                return;
+            }
+            final Batch b = a.batch;
+            mBatches.remove(b);
+            b.alarms.remove(a);
+            for (int i = 0; i < b.alarms.size(); i++) {
+                add(b.alarms.get(i));
+            }
+        }
+
+        @Override
+        int deliver(long now) {
+            int delivered = 0;
+            Batch b;
+            while ((b = mBatches.first()) != null && b.start <= now) {
+                mBatches.remove(b);
+                for (int i = 0; i < b.alarms.size(); i++) {
+                    b.alarms.get(i).batch = null;
+                }
+                delivered += b.alarms.size();
+            }
+            return delivered;
+        }
+
+        @Override
+        void rebatchAll() {
+            final ArrayList<Batch> old = new ArrayList<Batch>(mBatches.size());
+            for (Batch b : mBatches) {
+                old.add(b);
+            }
+            mBatches.clear();
+            for (int i = 0; i < old.size(); i++) {
+                final ArrayList<Alarm> alarms = old.get(i).alarms;
+                for (int j = 0; j < alarms.size(); j++) {
+                    add(alarms.get(j));
+                }
+            }
+        }
+
+        @Override
+        Batch nextWakeup() {
+            return mBatches.firstWakeup();
+        }
+    }
+}
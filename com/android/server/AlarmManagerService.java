@@ -319,7 +319,7 @@ class AlarmManagerService extends SystemService {
     final LinkedList<WakeupEvent> mRecentWakeups = new LinkedList<WakeupEvent>();
     final long RECENT_WAKEUP_PERIOD = 1000L * 60 * 60 * 24; // one day
 
-    final class Batch {
+    final class Batch extends AlarmBatchTree.Node {
         long start;     // These endpoints are always in ELAPSED
         long end;
         int flags;      // Flags for alarms, such as FLAG_STANDALONE.
@@ -337,6 +337,22 @@ class AlarmManagerService extends SystemService {
             end = seed.maxWhenElapsed;
             flags = seed.flags;
             alarms.add(seed);
+            attachLocked(seed);
+        }
+
+        @Override
+        long getStart() {
+            return start;
+        }
+
+        @Override
+        long getEnd() {
+            return end;
+        }
+
+        @Override
+        boolean canCoalesce() {
+            return (flags&AlarmManager.FLAG_STANDALONE) == 0;
         }
 
         int size() {
@@ -359,6 +375,7 @@ class AlarmManagerService extends SystemService {
                 index = 0 - index - 1;
             }
             alarms.add(index, alarm);
+            attachLocked(alarm);
             if (DEBUG_BATCH) {
                 Slog.v(TAG, "Adding " + alarm + " to " + this);
             }
@@ -386,6 +403,7 @@ class AlarmManagerService extends SystemService {
                 Alarm alarm = alarms.get(i);
                 if (alarm.operation.equals(operation)) {
                     alarms.remove(i);
+                    detachAlarmLocked(alarm);
                     didRemove = true;
                     if (alarm.alarmClock != null) {
                         mNextAlarmClockMayChange = true;
@@ -419,6 +437,7 @@ class AlarmManagerService extends SystemService {
                 Alarm alarm = alarms.get(i);
                 if (alarm.operation.getTargetPackage().equals(packageName)) {
                     alarms.remove(i);
+                    detachAlarmLocked(alarm);
                     didRemove = true;
                     if (alarm.alarmClock != null) {
                         mNextAlarmClockMayChange = true;
@@ -451,6 +470,7 @@ class AlarmManagerService extends SystemService {
                 Alarm alarm = alarms.get(i);
                 if (UserHandle.getUserId(alarm.operation.getCreatorUid()) == userHandle) {
                     alarms.remove(i);
+                    detachAlarmLocked(alarm);
                     didRemove = true;
                     if (alarm.alarmClock != null) {
                         mNextAlarmClockMayChange = true;
@@ -484,6 +504,7 @@ class AlarmManagerService extends SystemService {
             return false;
         }
 
+        @Override
         boolean hasWakeups() {
             final int N = alarms.size();
             for (int i = 0; i < N; i++) {
@@ -496,6 +517,11 @@ class AlarmManagerService extends SystemService {
             return false;
         }
 
+        private void attachLocked(Alarm alarm) {
+            alarm.batch = this;
+            mAlarmsByOperation.put(alarm.operation, alarm);
+        }
+
         @Override
         public String toString() {
             StringBuilder b = new StringBuilder(40);
@@ -512,20 +538,6 @@ class AlarmManagerService extends SystemService {
         }
     }
 
-    static class BatchTimeOrder implements Comparator<Batch> {
-        public int compare(Batch b1, Batch b2) {
-            long when1 = b1.start;
-            long when2 = b2.start;
-            if (when1 - when2 > 0) {
-                return 1;
-            }
-            if (when1 - when2 < 0) {
-                return -1;
-            }
-            return 0;
-        }
-    }
-
     final Comparator<Alarm> mAlarmDispatchComparator = new Comparator<Alarm>() {
         @Override
         public int compare(Alarm lhs, Alarm rhs) {
@@ -587,8 +599,12 @@ class AlarmManagerService extends SystemService {
 
     // minimum recurrence period or alarm futurity for us to be able to fuzz it
     static final long MIN_FUZZABLE_INTERVAL = 10000;
-    static final BatchTimeOrder sBatchOrder = new BatchTimeOrder();
-    final ArrayList<Batch> mAlarmBatches = new ArrayList<>();
+    final AlarmBatchTree<Batch> mAlarmBatches = new AlarmBatchTree<>();
+
+    // Scheduled alarms by operation; set() replaces any earlier alarm for the
+    // same operation, so there is at most one.  Entries for alarms that have
+    // since left their batch (Alarm.batch == null) are stale and ignored.
+    final HashMap<PendingIntent, Alarm> mAlarmsByOperation = new HashMap<>();
 
     // set to null if in idle mode; while in this mode, any alarms we don't want
     // to run during this time are placed in mPendingWhileIdleAlarms
@@ -625,26 +641,11 @@ class AlarmManagerService extends SystemService {
         return triggerAtTime + (long)(.75 * futurity);
     }
 
-    // returns true if the batch was added at the head
-    static boolean addBatchLocked(ArrayList<Batch> list, Batch newBatch) {
-        int index = Collections.binarySearch(list, newBatch, sBatchOrder);
-        if (index < 0) {
-            index = 0 - index - 1;
+    void detachAlarmLocked(Alarm a) {
+        a.batch = null;
+        if (mAlarmsByOperation.get(a.operation) == a) {
+            mAlarmsByOperation.remove(a.operation);
         }
-        list.add(index, newBatch);
-        return (index == 0);
-    }
-
-    // Return the index of the matching batch, or -1 if none found.
-    int attemptCoalesceLocked(long whenElapsed, long maxWhen) {
-        final int N = mAlarmBatches.size();
-        for (int i = 0; i < N; i++) {
-            Batch b = mAlarmBatches.get(i);
-            if ((b.flags&AlarmManager.FLAG_STANDALONE) == 0 && b.canHold(whenElapsed, maxWhen)) {
-                return i;
-            }
-        }
-        return -1;
     }
 
     // The RTC clock has moved arbitrarily, so we need to recalculate all the batching
@@ -655,7 +656,10 @@ class AlarmManagerService extends SystemService {
     }
 
     void rebatchAllAlarmsLocked(boolean doValidate) {
-        ArrayList<Batch> oldSet = (ArrayList<Batch>) mAlarmBatches.clone();
+        ArrayList<Batch> oldSet = new ArrayList<>(mAlarmBatches.size());
+        for (Batch batch : mAlarmBatches) {
+            oldSet.add(batch);
+        }
         mAlarmBatches.clear();
         Alarm oldPendingIdleUntil = mPendingIdleUntil;
         final long nowElapsed = SystemClock.elapsedRealtime();
@@ -664,7 +668,9 @@ class AlarmManagerService extends SystemService {
             Batch batch = oldSet.get(batchNum);
             final int N = batch.size();
             for (int i = 0; i < N; i++) {
-                reAddAlarmLocked(batch.get(i), nowElapsed, doValidate);
+                Alarm a = batch.get(i);
+                detachAlarmLocked(a);
+                reAddAlarmLocked(a, nowElapsed, doValidate);
             }
         }
         if (oldPendingIdleUntil != null && oldPendingIdleUntil != mPendingIdleUntil) {
@@ -1006,19 +1012,14 @@ class AlarmManagerService extends SystemService {
             }
         }
 
-        int whichBatch = ((a.flags&AlarmManager.FLAG_STANDALONE) != 0)
-                ? -1 : attemptCoalesceLocked(a.whenElapsed, a.maxWhenElapsed);
-        if (whichBatch < 0) {
-            Batch batch = new Batch(a);
-            addBatchLocked(mAlarmBatches, batch);
+        Batch batch = ((a.flags&AlarmManager.FLAG_STANDALONE) != 0)
+                ? null : mAlarmBatches.findCoalescable(a.whenElapsed, a.maxWhenElapsed);
+        if (batch == null) {
+            mAlarmBatches.add(new Batch(a));
         } else {
-            Batch batch = mAlarmBatches.get(whichBatch);
-            if (batch.add(a)) {
-                // The start time of this batch advanced, so batch ordering may
-                // have just been broken.  Move it to where it now belongs.
-                mAlarmBatches.remove(whichBatch);
-                addBatchLocked(mAlarmBatches, batch);
-            }
+            // Narrows the batch, and moves it if its start time advanced.
+            batch.add(a);
+            mAlarmBatches.update(batch);
         }
 
         if (a.alarmClock != null) {
@@ -1427,10 +1428,9 @@ class AlarmManagerService extends SystemService {
         PrintWriter pw = new PrintWriter(bs);
         final long nowRTC = System.currentTimeMillis();
         final long nowELAPSED = SystemClock.elapsedRealtime();
-        final int NZ = mAlarmBatches.size();
-        for (int iz = 0; iz < NZ; iz++) {
-            Batch bz = mAlarmBatches.get(iz);
-            pw.append("Batch "); pw.print(iz); pw.append(": "); pw.println(bz);
+        int iz = 0;
+        for (Batch bz : mAlarmBatches) {
+            pw.append("Batch "); pw.print(iz++); pw.append(": "); pw.println(bz);
             dumpAlarmList(pw, bz.alarms, "  ", nowELAPSED, nowRTC, sdf);
             pw.flush();
             Slog.v(TAG, bs.toString());
@@ -1441,12 +1441,12 @@ class AlarmManagerService extends SystemService {
     private boolean validateConsistencyLocked() {
         if (DEBUG_VALIDATE) {
             long lastTime = Long.MIN_VALUE;
-            final int N = mAlarmBatches.size();
-            for (int i = 0; i < N; i++) {
-                Batch b = mAlarmBatches.get(i);
+            int i = 0;
+            for (Batch b : mAlarmBatches) {
                 if (b.start >= lastTime) {
                     // duplicate start times are okay because of standalone batches
                     lastTime = b.start;
+                    i++;
                 } else {
                     Slog.e(TAG, "CONSISTENCY FAILURE: Batch " + i + " is out of order");
                     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -1459,14 +1459,7 @@ class AlarmManagerService extends SystemService {
     }
 
     private Batch findFirstWakeupBatchLocked() {
-        final int N = mAlarmBatches.size();
-        for (int i = 0; i < N; i++) {
-            Batch b = mAlarmBatches.get(i);
-            if (b.hasWakeups()) {
-                return b;
-            }
-        }
-        return null;
+        return mAlarmBatches.firstWakeup();
     }
 
     long getNextWakeFromIdleTimeImpl() {
@@ -1493,9 +1486,8 @@ class AlarmManagerService extends SystemService {
         SparseArray<AlarmManager.AlarmClockInfo> nextForUser = mTmpSparseAlarmClockArray;
         nextForUser.clear();
 
-        final int N = mAlarmBatches.size();
-        for (int i = 0; i < N; i++) {
-            ArrayList<Alarm> alarms = mAlarmBatches.get(i).alarms;
+        for (Batch b : mAlarmBatches) {
+            ArrayList<Alarm> alarms = b.alarms;
             final int M = alarms.size();
 
             for (int j = 0; j < M; j++) {
@@ -1610,7 +1602,7 @@ class AlarmManagerService extends SystemService {
         long nextNonWakeup = 0;
         if (mAlarmBatches.size() > 0) {
             final Batch firstWakeup = findFirstWakeupBatchLocked();
-            final Batch firstBatch = mAlarmBatches.get(0);
+            final Batch firstBatch = mAlarmBatches.first();
             if (firstWakeup != null && mNextWakeup != firstWakeup.start) {
                 mNextWakeup = firstWakeup.start;
                 setLocked(ELAPSED_REALTIME_WAKEUP, firstWakeup.start);
@@ -1632,12 +1624,12 @@ class AlarmManagerService extends SystemService {
 
     private void removeLocked(PendingIntent operation) {
         boolean didRemove = false;
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
-            didRemove |= b.remove(operation);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
+        Batch changed = null;
+        final Alarm existing = mAlarmsByOperation.get(operation);
+        if (existing != null && existing.batch != null) {
+            changed = existing.batch;
+            didRemove = changed.remove(operation);
+            mAlarmBatches.remove(changed);
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (mPendingWhileIdleAlarms.get(i).operation.equals(operation)) {
@@ -1651,14 +1643,28 @@ class AlarmManagerService extends SystemService {
                 Slog.v(TAG, "remove(operation) changed bounds; rebatching");
             }
             boolean restorePending = false;
+            boolean idleChanged = false;
             if (mPendingIdleUntil != null && mPendingIdleUntil.operation.equals(operation)) {
                 mPendingIdleUntil = null;
                 restorePending = true;
+                idleChanged = true;
             }
             if (mNextWakeFromIdle != null && mNextWakeFromIdle.operation.equals(operation)) {
                 mNextWakeFromIdle = null;
+                idleChanged = true;
+            }
+            if (idleChanged) {
+                // The idle-until time depends on the other alarms; redo everything.
+                if (changed.size() > 0) {
+                    mAlarmBatches.add(changed);
+                }
+                rebatchAllAlarmsLocked(true);
+            } else {
+                // Only the batch that lost the alarm got wider, so only its
+                // remaining alarms may now fit better elsewhere.
+                rebatchLocked(changed);
+                rescheduleKernelAlarmsLocked();
             }
-            rebatchAllAlarmsLocked(true);
             if (restorePending) {
                 restorePendingWhileIdleAlarmsLocked();
             }
@@ -1666,14 +1672,25 @@ class AlarmManagerService extends SystemService {
         }
     }
 
+    /**
+     * Adds the alarms of {@code batch}, which is not in mAlarmBatches, back to
+     * the batches one at a time.
+     */
+    private void rebatchLocked(Batch batch) {
+        final int N = batch.size();
+        for (int i = 0; i < N; i++) {
+            Alarm a = batch.get(i);
+            detachAlarmLocked(a);
+            setImplLocked(a, true, false);
+        }
+    }
+
     void removeLocked(String packageName) {
         boolean didRemove = false;
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
+        // Any change is followed by a full rebatch, which also drops the
+        // batches that end up empty.
+        for (Batch b : mAlarmBatches) {
             didRemove |= b.remove(packageName);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (mPendingWhileIdleAlarms.get(i).operation.getTargetPackage().equals(packageName)) {
@@ -1694,12 +1711,10 @@ class AlarmManagerService extends SystemService {
 
     void removeUserLocked(int userHandle) {
         boolean didRemove = false;
-        for (int i = mAlarmBatches.size() - 1; i >= 0; i--) {
-            Batch b = mAlarmBatches.get(i);
+        // Any change is followed by a full rebatch, which also drops the
+        // batches that end up empty.
+        for (Batch b : mAlarmBatches) {
             didRemove |= b.remove(userHandle);
-            if (b.size() == 0) {
-                mAlarmBatches.remove(i);
-            }
         }
         for (int i = mPendingWhileIdleAlarms.size() - 1; i >= 0; i--) {
             if (UserHandle.getUserId(mPendingWhileIdleAlarms.get(i).operation.getCreatorUid())
@@ -1751,8 +1766,7 @@ class AlarmManagerService extends SystemService {
     }
 
     boolean lookForPackageLocked(String packageName) {
-        for (int i = 0; i < mAlarmBatches.size(); i++) {
-            Batch b = mAlarmBatches.get(i);
+        for (Batch b : mAlarmBatches) {
             if (b.hasPackage(packageName)) {
                 return true;
             }
@@ -1835,7 +1849,7 @@ class AlarmManagerService extends SystemService {
         // start of the list until we either empty it or hit a batch
         // that is not yet deliverable
         while (mAlarmBatches.size() > 0) {
-            Batch batch = mAlarmBatches.get(0);
+            Batch batch = mAlarmBatches.first();
             if (batch.start > nowELAPSED) {
                 // Everything else is scheduled for the future
                 break;
@@ -1843,11 +1857,12 @@ class AlarmManagerService extends SystemService {
 
             // We will (re)schedule some alarms now; don't let that interfere
             // with delivery of this current batch
-            mAlarmBatches.remove(0);
+            mAlarmBatches.remove(batch);
 
             final int N = batch.size();
             for (int i = 0; i < N; i++) {
                 Alarm alarm = batch.get(i);
+                detachAlarmLocked(alarm);
 
                 if ((alarm.flags&AlarmManager.FLAG_ALLOW_WHILE_IDLE) != 0) {
                     // If this is an ALLOW_WHILE_IDLE alarm, we constrain how frequently the app can
@@ -1959,6 +1974,7 @@ class AlarmManagerService extends SystemService {
         public long maxWhenElapsed; // also in the elapsed time base
         public long repeatInterval;
         public PriorityClass priorityClass;
+        Batch batch;                // the batch holding this alarm, if any
 
         public Alarm(int _type, long _when, long _whenElapsed, long _windowLength, long _maxWhen,
                 long _interval, PendingIntent _op, WorkSource _ws, int _flags,
@@ -2027,10 +2043,8 @@ class AlarmManagerService extends SystemService {
         }
     }
 
-    void recordWakeupAlarms(ArrayList<Batch> batches, long nowELAPSED, long nowRTC) {
-        final int numBatches = batches.size();
-        for (int nextBatch = 0; nextBatch < numBatches; nextBatch++) {
-            Batch b = batches.get(nextBatch);
+    void recordWakeupAlarms(AlarmBatchTree<Batch> batches, long nowELAPSED, long nowRTC) {
+        for (Batch b : batches) {
             if (b.start > nowELAPSED) {
                 break;
             }
@@ -25,11 +25,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.ActivityManager;
 import android.app.ActivityThread;
@@ -49,6 +51,7 @@ import android.os.IBinder;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.storage.MountServiceInternal;
 import android.util.ArrayMap;
@@ -60,13 +63,13 @@ import android.util.Slog;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.util.TimeUtils;
-import android.util.Xml;
 
 import com.android.internal.app.IAppOpsService;
 import com.android.internal.app.IAppOpsCallback;
 import com.android.internal.os.Zygote;
 import com.android.internal.util.ArrayUtils;
-import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.BinaryXmlPullParser;
+import com.android.internal.util.BinaryXmlSerializer;
 import com.android.internal.util.XmlUtils;
 
 import libcore.util.EmptyArray;
@@ -81,16 +84,26 @@ public class AppOpsService extends IAppOpsService.Stub {
     // Write at most every 30 minutes.
     static final long WRITE_DELAY = DEBUG ? 1000 : 30*60*1000;
 
+    // Write mode changes once they have settled for 10 seconds, but no later than
+    // a minute after the first one.
+    static final long FAST_WRITE_DELAY = 10*1000;
+    static final long FAST_WRITE_MAX_DELAY = 60*1000;
+
+    // Must be a power of two.
+    static final int UID_STRIPES = 16;
+
     Context mContext;
     final AtomicFile mFile;
     final Handler mHandler;
 
-    boolean mWriteScheduled;
+    // Set without any lock by the note and start paths; see scheduleWrite().
+    final AtomicBoolean mWriteScheduled = new AtomicBoolean();
     boolean mFastWriteScheduled;
+    long mFirstFastWriteRequest;
     final Runnable mWriteRunner = new Runnable() {
         public void run() {
             synchronized (AppOpsService.this) {
-                mWriteScheduled = false;
+                mWriteScheduled.set(false);
                 mFastWriteScheduled = false;
                 AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
                     @Override protected Void doInBackground(Void... params) {
@@ -103,9 +116,141 @@ public class AppOpsService extends IAppOpsService.Stub {
         }
     };
 
-    final SparseArray<UidState> mUidStates = new SparseArray<>();
+    /*
+     * Per-uid state is split over UID_STRIPES stripes, each guarded by its own
+     * lock, so that apps noting ops at the same time rarely wait on each other.
+     * The service lock still guards the watchers, clients and audio restrictions.
+     * A stripe may be locked while holding the service lock, never the other way
+     * around, and never while holding another stripe.
+     */
+    final UidStripe[] mUidStripes = new UidStripe[UID_STRIPES];
+
+    // Replaced, never modified, so that it can be read without locking.
+    private volatile SparseArray<boolean[]> mOpRestrictions = new SparseArray<boolean[]>();
+
+    static final class UidStripe {
+        final SparseArray<UidState> uidStates = new SparseArray<>();
+
+        // What checkOperation() reads instead of uidStates; rebuilt under the
+        // stripe lock whenever a mode of one of its uids changes.
+        volatile ModeTable modes = ModeTable.EMPTY;
+
+        void updateModesLocked() {
+            modes = ModeTable.build(uidStates);
+        }
+    }
 
-    private final SparseArray<boolean[]> mOpRestrictions = new SparseArray<boolean[]>();
+    /**
+     * The modes of a stripe's uids that differ from the default, in flat arrays
+     * indexed by op code.  Immutable once built.
+     */
+    static final class ModeTable {
+        static final ModeTable EMPTY = new ModeTable(EmptyArray.INT, new UidModes[0]);
+
+        final int[] uids;
+        final UidModes[] uidModes;
+
+        ModeTable(int[] uids, UidModes[] uidModes) {
+            this.uids = uids;
+            this.uidModes = uidModes;
+        }
+
+        static ModeTable build(SparseArray<UidState> uidStates) {
+            int count = 0;
+            final int[] uids = new int[uidStates.size()];
+            final UidModes[] uidModes = new UidModes[uidStates.size()];
+            for (int i = 0; i < uidStates.size(); i++) {
+                final UidModes modes = UidModes.build(uidStates.valueAt(i));
+                if (modes != null) {
+                    uids[count] = uidStates.keyAt(i);
+                    uidModes[count] = modes;
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return EMPTY;
+            }
+            return new ModeTable(Arrays.copyOf(uids, count), Arrays.copyOf(uidModes, count));
+        }
+
+        /** Same as reading the uid mode and then the package's op under the lock. */
+        int getMode(int switchCode, int uid, String packageName) {
+            final int index = Arrays.binarySearch(uids, uid);
+            if (index >= 0) {
+                final UidModes modes = uidModes[index];
+                if (modes.uidModes != null
+                        && modes.uidModes[switchCode] != AppOpsManager.MODE_ALLOWED) {
+                    return modes.uidModes[switchCode];
+                }
+                for (int i = 0; i < modes.packageNames.length; i++) {
+                    if (modes.packageNames[i].equals(packageName)) {
+                        return modes.packageModes[i][switchCode];
+                    }
+                }
+            }
+            return AppOpsManager.opToDefaultMode(switchCode);
+        }
+    }
+
+    static final class UidModes {
+        // Null if the uid has no uid-wide modes.
+        final int[] uidModes;
+        // Only the packages with an op not in its default mode.
+        final String[] packageNames;
+        final int[][] packageModes;
+
+        UidModes(int[] uidModes, String[] packageNames, int[][] packageModes) {
+            this.uidModes = uidModes;
+            this.packageNames = packageNames;
+            this.packageModes = packageModes;
+        }
+
+        static UidModes build(UidState uidState) {
+            int[] uidModes = null;
+            if (uidState.opModes != null && uidState.opModes.size() > 0) {
+                uidModes = new int[AppOpsManager._NUM_OP];
+                for (int i = 0; i < uidState.opModes.size(); i++) {
+                    uidModes[uidState.opModes.keyAt(i)] = uidState.opModes.valueAt(i);
+                }
+            }
+            ArrayList<String> packageNames = null;
+            ArrayList<int[]> packageModes = null;
+            final int packageCount = uidState.pkgOps != null ? uidState.pkgOps.size() : 0;
+            for (int i = 0; i < packageCount; i++) {
+                final Ops ops = uidState.pkgOps.valueAt(i);
+                int[] modes = null;
+                for (int j = 0; j < ops.size(); j++) {
+                    final Op op = ops.valueAt(j);
+                    if (op.mode == AppOpsManager.opToDefaultMode(op.op)) {
+                        continue;
+                    }
+                    if (modes == null) {
+                        modes = new int[AppOpsManager._NUM_OP];
+                        for (int code = 0; code < modes.length; code++) {
+                            modes[code] = AppOpsManager.opToDefaultMode(code);
+                        }
+                    }
+                    modes[op.op] = op.mode;
+                }
+                if (modes != null) {
+                    if (packageNames == null) {
+                        packageNames = new ArrayList<>();
+                        packageModes = new ArrayList<>();
+                    }
+                    packageNames.add(ops.packageName);
+                    packageModes.add(modes);
+                }
+            }
+            if (uidModes == null && packageNames == null) {
+                return null;
+            }
+            if (packageNames == null) {
+                return new UidModes(uidModes, EmptyArray.STRING, new int[0][]);
+            }
+            return new UidModes(uidModes, packageNames.toArray(new String[packageNames.size()]),
+                    packageModes.toArray(new int[packageModes.size()][]));
+        }
+    }
 
     private static final class UidState {
         public final int uid;
@@ -221,21 +366,38 @@ public class AppOpsService extends IAppOpsService.Stub {
 
         @Override
         public void binderDied() {
-            synchronized (AppOpsService.this) {
-                for (int i=mStartedOps.size()-1; i>=0; i--) {
-                    finishOperationLocked(mStartedOps.get(i));
+            // Finishing an op only touches its uid's stripe, so the service
+            // lock isn't needed until the client itself is removed.
+            final Op[] startedOps;
+            synchronized (mStartedOps) {
+                startedOps = mStartedOps.toArray(new Op[mStartedOps.size()]);
+                mStartedOps.clear();
+            }
+            for (int i=startedOps.length-1; i>=0; i--) {
+                synchronized (stripeFor(startedOps[i].uid)) {
+                    finishOperationLocked(startedOps[i]);
                 }
+            }
+            synchronized (AppOpsService.this) {
                 mClients.remove(mAppToken);
             }
         }
     }
 
     public AppOpsService(File storagePath, Handler handler) {
+        for (int i = 0; i < UID_STRIPES; i++) {
+            mUidStripes[i] = new UidStripe();
+        }
         mFile = new AtomicFile(storagePath);
         mHandler = handler;
         readState();
     }
 
+    UidStripe stripeFor(int uid) {
+        // Mix in the user id so that the same app for different users lands elsewhere.
+        return mUidStripes[(uid ^ (uid >>> 16)) & (UID_STRIPES - 1)];
+    }
+
     public void publish(Context context) {
         mContext = context;
         ServiceManager.addService(Context.APP_OPS_SERVICE, asBinder());
@@ -244,42 +406,10 @@ public class AppOpsService extends IAppOpsService.Stub {
     public void systemReady() {
         synchronized (this) {
             boolean changed = false;
-            for (int i = mUidStates.size() - 1; i >= 0; i--) {
-                UidState uidState = mUidStates.valueAt(i);
-
-                String[] packageNames = getPackagesForUid(uidState.uid);
-                if (ArrayUtils.isEmpty(packageNames)) {
-                    uidState.clear();
-                    mUidStates.removeAt(i);
-                    changed = true;
-                    continue;
-                }
-
-                ArrayMap<String, Ops> pkgs = uidState.pkgOps;
-                if (pkgs == null) {
-                    continue;
-                }
-
-                Iterator<Ops> it = pkgs.values().iterator();
-                while (it.hasNext()) {
-                    Ops ops = it.next();
-                    int curUid;
-                    try {
-                        curUid = mContext.getPackageManager().getPackageUid(ops.packageName,
-                                UserHandle.getUserId(ops.uidState.uid));
-                    } catch (NameNotFoundException e) {
-                        curUid = -1;
-                    }
-                    if (curUid != ops.uidState.uid) {
-                        Slog.i(TAG, "Pruning old package " + ops.packageName
-                                + "/" + ops.uidState + ": new uid=" + curUid);
-                        it.remove();
-                        changed = true;
-                    }
-                }
-
-                if (uidState.isDefault()) {
-                    mUidStates.removeAt(i);
+            for (UidStripe stripe : mUidStripes) {
+                synchronized (stripe) {
+                    changed |= pruneStaleUidsLocked(stripe.uidStates);
+                    stripe.updateModesLocked();
                 }
             }
             if (changed) {
@@ -316,24 +446,73 @@ public class AppOpsService extends IAppOpsService.Stub {
                 });
     }
 
-    public void packageRemoved(int uid, String packageName) {
-        synchronized (this) {
-            UidState uidState = mUidStates.get(uid);
-            if (uidState == null) {
-                return;
+    private boolean pruneStaleUidsLocked(SparseArray<UidState> uidStates) {
+        boolean changed = false;
+        for (int i = uidStates.size() - 1; i >= 0; i--) {
+            UidState uidState = uidStates.valueAt(i);
+
+            String[] packageNames = getPackagesForUid(uidState.uid);
+            if (ArrayUtils.isEmpty(packageNames)) {
+                uidState.clear();
+                uidStates.removeAt(i);
+                changed = true;
+                continue;
             }
 
-            boolean changed = false;
+            ArrayMap<String, Ops> pkgs = uidState.pkgOps;
+            if (pkgs == null) {
+                continue;
+            }
 
-            // Remove any package state if such.
-            if (uidState.pkgOps != null && uidState.pkgOps.remove(packageName) != null) {
-                changed = true;
+            Iterator<Ops> it = pkgs.values().iterator();
+            while (it.hasNext()) {
+                Ops ops = it.next();
+                int curUid;
+                try {
+                    curUid = mContext.getPackageManager().getPackageUid(ops.packageName,
+                            UserHandle.getUserId(ops.uidState.uid));
+                } catch (NameNotFoundException e) {
+                    curUid = -1;
+                }
+                if (curUid != ops.uidState.uid) {
+                    Slog.i(TAG, "Pruning old package " + ops.packageName
+                            + "/" + ops.uidState + ": new uid=" + curUid);
+                    it.remove();
+                    changed = true;
+                }
             }
 
-            // If we just nuked the last package state check if the UID is valid.
-            if (changed && uidState.pkgOps.isEmpty()
-                    && getPackagesForUid(uid).length <= 0) {
-                mUidStates.remove(uid);
+            if (uidState.isDefault()) {
+                uidStates.removeAt(i);
+            }
+        }
+        return changed;
+    }
+
+    public void packageRemoved(int uid, String packageName) {
+        synchronized (this) {
+            final UidStripe stripe = stripeFor(uid);
+            boolean changed = false;
+            synchronized (stripe) {
+                UidState uidState = stripe.uidStates.get(uid);
+                if (uidState == null) {
+                    return;
+                }
+
+                // Remove any package state if such.
+                if (uidState.pkgOps != null && uidState.pkgOps.remove(packageName) != null) {
+                    changed = true;
+                }
+
+                // If we just nuked the last package state check if the UID is valid.
+                if (changed && uidState.pkgOps.isEmpty()
+                        && getPackagesForUid(uid).length <= 0) {
+                    stripe.uidStates.remove(uid);
+                }
+
+                if (changed) {
+                    stripe.updateModesLocked();
+                }
             }
 
             if (changed) {
@@ -344,10 +523,15 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     public void uidRemoved(int uid) {
         synchronized (this) {
-            if (mUidStates.indexOfKey(uid) >= 0) {
-                mUidStates.remove(uid);
-                scheduleFastWriteLocked();
+            final UidStripe stripe = stripeFor(uid);
+            synchronized (stripe) {
+                if (stripe.uidStates.indexOfKey(uid) < 0) {
+                    return;
+                }
+                stripe.uidStates.remove(uid);
+                stripe.updateModesLocked();
             }
+            scheduleFastWriteLocked();
         }
     }
 
@@ -355,8 +539,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         Slog.w(TAG, "Writing app ops before shutdown...");
         boolean doWrite = false;
         synchronized (this) {
-            if (mWriteScheduled) {
-                mWriteScheduled = false;
+            if (mWriteScheduled.getAndSet(false)) {
                 doWrite = true;
             }
         }
@@ -396,25 +579,27 @@ public class AppOpsService extends IAppOpsService.Stub {
         mContext.enforcePermission(android.Manifest.permission.GET_APP_OPS_STATS,
                 Binder.getCallingPid(), Binder.getCallingUid(), null);
         ArrayList<AppOpsManager.PackageOps> res = null;
-        synchronized (this) {
-            final int uidStateCount = mUidStates.size();
-            for (int i = 0; i < uidStateCount; i++) {
-                UidState uidState = mUidStates.valueAt(i);
-                if (uidState.pkgOps == null || uidState.pkgOps.isEmpty()) {
-                    continue;
-                }
-                ArrayMap<String, Ops> packages = uidState.pkgOps;
-                final int packageCount = packages.size();
-                for (int j = 0; j < packageCount; j++) {
-                    Ops pkgOps = packages.valueAt(j);
-                    ArrayList<AppOpsManager.OpEntry> resOps = collectOps(pkgOps, ops);
-                    if (resOps != null) {
-                        if (res == null) {
-                            res = new ArrayList<AppOpsManager.PackageOps>();
+        for (UidStripe stripe : mUidStripes) {
+            synchronized (stripe) {
+                final int uidStateCount = stripe.uidStates.size();
+                for (int i = 0; i < uidStateCount; i++) {
+                    UidState uidState = stripe.uidStates.valueAt(i);
+                    if (uidState.pkgOps == null || uidState.pkgOps.isEmpty()) {
+                        continue;
+                    }
+                    ArrayMap<String, Ops> packages = uidState.pkgOps;
+                    final int packageCount = packages.size();
+                    for (int j = 0; j < packageCount; j++) {
+                        Ops pkgOps = packages.valueAt(j);
+                        ArrayList<AppOpsManager.OpEntry> resOps = collectOps(pkgOps, ops);
+                        if (resOps != null) {
+                            if (res == null) {
+                                res = new ArrayList<AppOpsManager.PackageOps>();
+                            }
+                            AppOpsManager.PackageOps resPackage = new AppOpsManager.PackageOps(
+                                    pkgOps.packageName, pkgOps.uidState.uid, resOps);
+                            res.add(resPackage);
                         }
-                        AppOpsManager.PackageOps resPackage = new AppOpsManager.PackageOps(
-                                pkgOps.packageName, pkgOps.uidState.uid, resOps);
-                        res.add(resPackage);
                     }
                 }
             }
@@ -427,7 +612,7 @@ public class AppOpsService extends IAppOpsService.Stub {
             int[] ops) {
         mContext.enforcePermission(android.Manifest.permission.GET_APP_OPS_STATS,
                 Binder.getCallingPid(), Binder.getCallingUid(), null);
-        synchronized (this) {
+        synchronized (stripeFor(uid)) {
             Ops pkgOps = getOpsLocked(uid, packageName, false);
             if (pkgOps == null) {
                 return null;
@@ -444,6 +629,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         }
     }
 
+    // Must be called with the uid's stripe locked.
     private void pruneOp(Op op, int uid, String packageName) {
         if (op.time == 0 && op.rejectTime == 0) {
             Ops ops = getOpsLocked(uid, packageName, false);
@@ -458,7 +644,7 @@ public class AppOpsService extends IAppOpsService.Stub {
                             uidState.pkgOps = null;
                         }
                         if (uidState.isDefault()) {
-                            mUidStates.remove(uid);
+                            stripeFor(uid).uidStates.remove(uid);
                         }
                     }
                 }
@@ -475,7 +661,8 @@ public class AppOpsService extends IAppOpsService.Stub {
         verifyIncomingOp(code);
         code = AppOpsManager.opToSwitch(code);
 
-        synchronized (this) {
+        final UidStripe stripe = stripeFor(uid);
+        synchronized (stripe) {
             final int defaultMode = AppOpsManager.opToDefaultMode(code);
 
             UidState uidState = getUidStateLocked(uid, false);
@@ -486,13 +673,13 @@ public class AppOpsService extends IAppOpsService.Stub {
                 uidState = new UidState(uid);
                 uidState.opModes = new SparseIntArray();
                 uidState.opModes.put(code, mode);
-                mUidStates.put(uid, uidState);
-                scheduleWriteLocked();
+                stripe.uidStates.put(uid, uidState);
+                scheduleWrite();
             } else if (uidState.opModes == null) {
                 if (mode != defaultMode) {
                     uidState.opModes = new SparseIntArray();
                     uidState.opModes.put(code, mode);
-                    scheduleWriteLocked();
+                    scheduleWrite();
                 }
             } else {
                 if (uidState.opModes.get(code) == mode) {
@@ -506,8 +693,9 @@ public class AppOpsService extends IAppOpsService.Stub {
                 } else {
                     uidState.opModes.put(code, mode);
                 }
-                scheduleWriteLocked();
+                scheduleWrite();
             }
+            stripe.updateModesLocked();
         }
 
         String[] uidPackageNames = getPackagesForUid(uid);
@@ -584,32 +772,35 @@ public class AppOpsService extends IAppOpsService.Stub {
         verifyIncomingOp(code);
         ArrayList<Callback> repCbs = null;
         code = AppOpsManager.opToSwitch(code);
+        final UidStripe stripe = stripeFor(uid);
         synchronized (this) {
-            UidState uidState = getUidStateLocked(uid, false);
-            Op op = getOpLocked(code, uid, packageName, true);
-            if (op != null) {
-                if (op.mode != mode) {
-                    op.mode = mode;
-                    ArrayList<Callback> cbs = mOpModeWatchers.get(code);
-                    if (cbs != null) {
-                        if (repCbs == null) {
-                            repCbs = new ArrayList<Callback>();
+            synchronized (stripe) {
+                Op op = getOpLocked(code, uid, packageName, true);
+                if (op != null) {
+                    if (op.mode != mode) {
+                        op.mode = mode;
+                        ArrayList<Callback> cbs = mOpModeWatchers.get(code);
+                        if (cbs != null) {
+                            if (repCbs == null) {
+                                repCbs = new ArrayList<Callback>();
+                            }
+                            repCbs.addAll(cbs);
                         }
-                        repCbs.addAll(cbs);
-                    }
-                    cbs = mPackageModeWatchers.get(packageName);
-                    if (cbs != null) {
-                        if (repCbs == null) {
-                            repCbs = new ArrayList<Callback>();
+                        cbs = mPackageModeWatchers.get(packageName);
+                        if (cbs != null) {
+                            if (repCbs == null) {
+                                repCbs = new ArrayList<Callback>();
+                            }
+                            repCbs.addAll(cbs);
                         }
-                        repCbs.addAll(cbs);
-                    }
-                    if (mode == AppOpsManager.opToDefaultMode(op.op)) {
-                        // If going into the default mode, prune this op
-                        // if there is nothing else interesting in it.
-                        pruneOp(op, uid, packageName);
+                        if (mode == AppOpsManager.opToDefaultMode(op.op)) {
+                            // If going into the default mode, prune this op
+                            // if there is nothing else interesting in it.
+                            pruneOp(op, uid, packageName);
+                        }
+                        stripe.updateModesLocked();
+                        scheduleFastWriteLocked();
                     }
-                    scheduleFastWriteLocked();
                 }
             }
         }
@@ -686,70 +877,75 @@ public class AppOpsService extends IAppOpsService.Stub {
         HashMap<Callback, ArrayList<Pair<String, Integer>>> callbacks = null;
         synchronized (this) {
             boolean changed = false;
-            for (int i = mUidStates.size() - 1; i >= 0; i--) {
-                UidState uidState = mUidStates.valueAt(i);
-
-                SparseIntArray opModes = uidState.opModes;
-                if (opModes != null && (uidState.uid == reqUid || reqUid == -1)) {
-                    final int uidOpCount = opModes.size();
-                    for (int j = uidOpCount - 1; j >= 0; j--) {
-                        final int code = opModes.keyAt(j);
-                        if (AppOpsManager.opAllowsReset(code)) {
-                            opModes.removeAt(j);
-                            if (opModes.size() <= 0) {
-                                uidState.opModes = null;
-                            }
-                            for (String packageName : getPackagesForUid(uidState.uid)) {
-                                callbacks = addCallbacks(callbacks, packageName, code,
-                                        mOpModeWatchers.get(code));
-                                callbacks = addCallbacks(callbacks, packageName, code,
-                                        mPackageModeWatchers.get(packageName));
+            for (UidStripe stripe : mUidStripes) {
+                synchronized (stripe) {
+                    for (int i = stripe.uidStates.size() - 1; i >= 0; i--) {
+                        UidState uidState = stripe.uidStates.valueAt(i);
+
+                        SparseIntArray opModes = uidState.opModes;
+                        if (opModes != null && (uidState.uid == reqUid || reqUid == -1)) {
+                            final int uidOpCount = opModes.size();
+                            for (int j = uidOpCount - 1; j >= 0; j--) {
+                                final int code = opModes.keyAt(j);
+                                if (AppOpsManager.opAllowsReset(code)) {
+                                    opModes.removeAt(j);
+                                    if (opModes.size() <= 0) {
+                                        uidState.opModes = null;
+                                    }
+                                    for (String packageName : getPackagesForUid(uidState.uid)) {
+                                        callbacks = addCallbacks(callbacks, packageName, code,
+                                                mOpModeWatchers.get(code));
+                                        callbacks = addCallbacks(callbacks, packageName, code,
+                                                mPackageModeWatchers.get(packageName));
+                                    }
+                                }
                             }
                         }
-                    }
-                }
 
-                if (uidState.pkgOps == null) {
-                    continue;
-                }
+                        if (uidState.pkgOps == null) {
+                            continue;
+                        }
 
-                if (reqUserId != UserHandle.USER_ALL
-                        && reqUserId != UserHandle.getUserId(uidState.uid)) {
-                    // Skip any ops for a different user
-                    continue;
-                }
+                        if (reqUserId != UserHandle.USER_ALL
+                                && reqUserId != UserHandle.getUserId(uidState.uid)) {
+                            // Skip any ops for a different user
+                            continue;
+                        }
 
-                Map<String, Ops> packages = uidState.pkgOps;
-                Iterator<Map.Entry<String, Ops>> it = packages.entrySet().iterator();
-                while (it.hasNext()) {
-                    Map.Entry<String, Ops> ent = it.next();
-                    String packageName = ent.getKey();
-                    if (reqPackageName != null && !reqPackageName.equals(packageName)) {
-                        // Skip any ops for a different package
-                        continue;
-                    }
-                    Ops pkgOps = ent.getValue();
-                    for (int j=pkgOps.size()-1; j>=0; j--) {
-                        Op curOp = pkgOps.valueAt(j);
-                        if (AppOpsManager.opAllowsReset(curOp.op)
-                                && curOp.mode != AppOpsManager.opToDefaultMode(curOp.op)) {
-                            curOp.mode = AppOpsManager.opToDefaultMode(curOp.op);
-                            changed = true;
-                            callbacks = addCallbacks(callbacks, packageName, curOp.op,
-                                    mOpModeWatchers.get(curOp.op));
-                            callbacks = addCallbacks(callbacks, packageName, curOp.op,
-                                    mPackageModeWatchers.get(packageName));
-                            if (curOp.time == 0 && curOp.rejectTime == 0) {
-                                pkgOps.removeAt(j);
+                        Map<String, Ops> packages = uidState.pkgOps;
+                        Iterator<Map.Entry<String, Ops>> it = packages.entrySet().iterator();
+                        while (it.hasNext()) {
+                            Map.Entry<String, Ops> ent = it.next();
+                            String packageName = ent.getKey();
+                            if (reqPackageName != null && !reqPackageName.equals(packageName)) {
+                                // Skip any ops for a different package
+                                continue;
+                            }
+                            Ops pkgOps = ent.getValue();
+                            for (int j=pkgOps.size()-1; j>=0; j--) {
+                                Op curOp = pkgOps.valueAt(j);
+                                if (AppOpsManager.opAllowsReset(curOp.op)
+                                        && curOp.mode != AppOpsManager.opToDefaultMode(curOp.op)) {
+                                    curOp.mode = AppOpsManager.opToDefaultMode(curOp.op);
+                                    changed = true;
+                                    callbacks = addCallbacks(callbacks, packageName, curOp.op,
+                                            mOpModeWatchers.get(curOp.op));
+                                    callbacks = addCallbacks(callbacks, packageName, curOp.op,
+                                            mPackageModeWatchers.get(packageName));
+                                    if (curOp.time == 0 && curOp.rejectTime == 0) {
+                                        pkgOps.removeAt(j);
+                                    }
+                                }
+                            }
+                            if (pkgOps.size() == 0) {
+                                it.remove();
                             }
                         }
+                        if (uidState.isDefault()) {
+                            stripe.uidStates.remove(uidState.uid);
+                        }
                     }
-                    if (pkgOps.size() == 0) {
-                        it.remove();
-                    }
-                }
-                if (uidState.isDefault()) {
-                    mUidStates.remove(uidState.uid);
+                    stripe.updateModesLocked();
                 }
             }
 
@@ -840,24 +1036,12 @@ public class AppOpsService extends IAppOpsService.Stub {
     public int checkOperation(int code, int uid, String packageName) {
         verifyIncomingUid(uid);
         verifyIncomingOp(code);
-        synchronized (this) {
-            if (isOpRestricted(uid, code, packageName)) {
-                return AppOpsManager.MODE_IGNORED;
-            }
-            code = AppOpsManager.opToSwitch(code);
-            UidState uidState = getUidStateLocked(uid, false);
-            if (uidState != null && uidState.opModes != null) {
-                final int uidMode = uidState.opModes.get(code);
-                if (uidMode != AppOpsManager.MODE_ALLOWED) {
-                    return uidMode;
-                }
-            }
-            Op op = getOpLocked(code, uid, packageName, false);
-            if (op == null) {
-                return AppOpsManager.opToDefaultMode(code);
-            }
-            return op.mode;
+        if (isOpRestricted(uid, code, packageName)) {
+            return AppOpsManager.MODE_IGNORED;
         }
+        code = AppOpsManager.opToSwitch(code);
+        // No lock: the stripe's mode table is an immutable snapshot.
+        return stripeFor(uid).modes.getMode(code, uid, resolvePackageName(uid, packageName));
     }
 
     @Override
@@ -914,7 +1098,7 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     @Override
     public int checkPackage(int uid, String packageName) {
-        synchronized (this) {
+        synchronized (stripeFor(uid)) {
             if (getOpsRawLocked(uid, packageName, true) != null) {
                 return AppOpsManager.MODE_ALLOWED;
             } else {
@@ -945,7 +1129,7 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     private int noteOperationUnchecked(int code, int uid, String packageName,
             int proxyUid, String proxyPackageName) {
-        synchronized (this) {
+        synchronized (stripeFor(uid)) {
             Ops ops = getOpsLocked(uid, packageName, true);
             if (ops == null) {
                 if (DEBUG) Log.d(TAG, "noteOperation: no op for code " + code + " uid " + uid
@@ -995,7 +1179,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         verifyIncomingUid(uid);
         verifyIncomingOp(code);
         ClientState client = (ClientState)token;
-        synchronized (this) {
+        synchronized (stripeFor(uid)) {
             Ops ops = getOpsLocked(uid, packageName, true);
             if (ops == null) {
                 if (DEBUG) Log.d(TAG, "startOperation: no op for code " + code + " uid " + uid
@@ -1034,7 +1218,9 @@ public class AppOpsService extends IAppOpsService.Stub {
             }
             op.nesting++;
             if (client.mStartedOps != null) {
-                client.mStartedOps.add(op);
+                synchronized (client.mStartedOps) {
+                    client.mStartedOps.add(op);
+                }
             }
             return AppOpsManager.MODE_ALLOWED;
         }
@@ -1045,15 +1231,17 @@ public class AppOpsService extends IAppOpsService.Stub {
         verifyIncomingUid(uid);
         verifyIncomingOp(code);
         ClientState client = (ClientState)token;
-        synchronized (this) {
+        synchronized (stripeFor(uid)) {
             Op op = getOpLocked(code, uid, packageName, true);
             if (op == null) {
                 return;
             }
             if (client.mStartedOps != null) {
-                if (!client.mStartedOps.remove(op)) {
-                    throw new IllegalStateException("Operation not started: uid" + op.uid
-                            + " pkg=" + op.packageName + " op=" + op.op);
+                synchronized (client.mStartedOps) {
+                    if (!client.mStartedOps.remove(op)) {
+                        throw new IllegalStateException("Operation not started: uid" + op.uid
+                                + " pkg=" + op.packageName + " op=" + op.op);
+                    }
                 }
             }
             finishOperationLocked(op);
@@ -1065,6 +1253,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         return AppOpsManager.permissionToOpCode(permission);
     }
 
+    // Must be called with the op's stripe locked.
     void finishOperationLocked(Op op) {
         if (op.nesting <= 1) {
             if (op.nesting == 1) {
@@ -1099,25 +1288,36 @@ public class AppOpsService extends IAppOpsService.Stub {
         throw new IllegalArgumentException("Bad operation #" + op);
     }
 
+    // The methods below that end in Locked must be called with the uid's stripe locked.
+
     private UidState getUidStateLocked(int uid, boolean edit) {
-        UidState uidState = mUidStates.get(uid);
+        return getUidState(stripeFor(uid).uidStates, uid, edit);
+    }
+
+    private static UidState getUidState(SparseArray<UidState> uidStates, int uid,
+            boolean edit) {
+        UidState uidState = uidStates.get(uid);
         if (uidState == null) {
             if (!edit) {
                 return null;
             }
             uidState = new UidState(uid);
-            mUidStates.put(uid, uidState);
+            uidStates.put(uid, uidState);
         }
         return uidState;
     }
 
-    private Ops getOpsLocked(int uid, String packageName, boolean edit) {
+    private static String resolvePackageName(int uid, String packageName) {
         if (uid == 0) {
-            packageName = "root";
+            return "root";
         } else if (uid == Process.SHELL_UID) {
-            packageName = "com.android.shell";
+            return "com.android.shell";
         }
-        return getOpsRawLocked(uid, packageName, edit);
+        return packageName;
+    }
+
+    private Ops getOpsLocked(int uid, String packageName, boolean edit) {
+        return getOpsRawLocked(uid, resolvePackageName(uid, packageName), edit);
     }
 
     private Ops getOpsRawLocked(int uid, String packageName, boolean edit) {
@@ -1178,20 +1378,32 @@ public class AppOpsService extends IAppOpsService.Stub {
         return ops;
     }
 
-    private void scheduleWriteLocked() {
-        if (!mWriteScheduled) {
-            mWriteScheduled = true;
+    /**
+     * Batches everything noted until the next write.  Called on every note, so
+     * once a write is pending this only reads a flag, without locking.
+     */
+    private void scheduleWrite() {
+        if (!mWriteScheduled.get() && mWriteScheduled.compareAndSet(false, true)) {
             mHandler.postDelayed(mWriteRunner, WRITE_DELAY);
         }
     }
 
+    /**
+     * Writes mode changes soon, once they stop coming in.  Must be called with
+     * the service locked.
+     */
     private void scheduleFastWriteLocked() {
+        final long now = SystemClock.uptimeMillis();
         if (!mFastWriteScheduled) {
-            mWriteScheduled = true;
             mFastWriteScheduled = true;
-            mHandler.removeCallbacks(mWriteRunner);
-            mHandler.postDelayed(mWriteRunner, 10*1000);
+            mFirstFastWriteRequest = now;
+        } else if (now + FAST_WRITE_DELAY > mFirstFastWriteRequest + FAST_WRITE_MAX_DELAY) {
+            // Keep the one already scheduled so that the changes don't wait forever.
+            return;
         }
+        mWriteScheduled.set(true);
+        mHandler.removeCallbacks(mWriteRunner);
+        mHandler.postDelayed(mWriteRunner, FAST_WRITE_DELAY);
     }
 
     private Op getOpLocked(int code, int uid, String packageName, boolean edit) {
@@ -1212,7 +1424,7 @@ public class AppOpsService extends IAppOpsService.Stub {
             ops.put(code, op);
         }
         if (edit) {
-            scheduleWriteLocked();
+            scheduleWrite();
         }
         return op;
     }
@@ -1222,7 +1434,7 @@ public class AppOpsService extends IAppOpsService.Stub {
         boolean[] opRestrictions = mOpRestrictions.get(userHandle);
         if ((opRestrictions != null) && opRestrictions[code]) {
             if (AppOpsManager.opAllowSystemBypassRestriction(code)) {
-                synchronized (this) {
+                synchronized (stripeFor(uid)) {
                     Ops ops = getOpsLocked(uid, packageName, true);
                     if ((ops != null) && ops.isPrivileged) {
                         return false;
@@ -1236,76 +1448,86 @@ public class AppOpsService extends IAppOpsService.Stub {
 
     void readState() {
         synchronized (mFile) {
-            synchronized (this) {
-                FileInputStream stream;
-                try {
-                    stream = mFile.openRead();
-                } catch (FileNotFoundException e) {
-                    Slog.i(TAG, "No existing app ops " + mFile.getBaseFile() + "; starting empty");
-                    return;
+            // Parsed without holding any stripe, then swapped in.
+            final SparseArray<UidState> uidStates = new SparseArray<>();
+            FileInputStream stream;
+            try {
+                stream = mFile.openRead();
+            } catch (FileNotFoundException e) {
+                Slog.i(TAG, "No existing app ops " + mFile.getBaseFile() + "; starting empty");
+                return;
+            }
+            boolean success = false;
+            try {
+                XmlPullParser parser = new BinaryXmlPullParser();
+                parser.setInput(stream, StandardCharsets.UTF_8.name());
+                int type;
+                while ((type = parser.next()) != XmlPullParser.START_TAG
+                        && type != XmlPullParser.END_DOCUMENT) {
+                    ;
                 }
-                boolean success = false;
-                mUidStates.clear();
-                try {
-                    XmlPullParser parser = Xml.newPullParser();
-                    parser.setInput(stream, StandardCharsets.UTF_8.name());
-                    int type;
-                    while ((type = parser.next()) != XmlPullParser.START_TAG
-                            && type != XmlPullParser.END_DOCUMENT) {
-                        ;
-                    }
 
-                    if (type != XmlPullParser.START_TAG) {
-                        throw new IllegalStateException("no start tag found");
-                    }
+                if (type != XmlPullParser.START_TAG) {
+                    throw new IllegalStateException("no start tag found");
+                }
 
-                    int outerDepth = parser.getDepth();
-                    while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
-                            && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth)) {
-                        if (type == XmlPullParser.END_TAG || type == XmlPullParser.TEXT) {
-                            continue;
-                        }
+                int outerDepth = parser.getDepth();
+                while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                        && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth)) {
+                    if (type == XmlPullParser.END_TAG || type == XmlPullParser.TEXT) {
+                        continue;
+                    }
 
-                        String tagName = parser.getName();
-                        if (tagName.equals("pkg")) {
-                            readPackage(parser);
-                        } else if (tagName.equals("uid")) {
-                            readUidOps(parser);
-                        } else {
-                            Slog.w(TAG, "Unknown element under <app-ops>: "
-                                    + parser.getName());
-                            XmlUtils.skipCurrentTag(parser);
-                        }
+                    String tagName = parser.getName();
+                    if (tagName.equals("pkg")) {
+                        readPackage(parser, uidStates);
+                    } else if (tagName.equals("uid")) {
+                        readUidOps(parser, uidStates);
+                    } else {
+                        Slog.w(TAG, "Unknown element under <app-ops>: "
+                                + parser.getName());
+                        XmlUtils.skipCurrentTag(parser);
                     }
-                    success = true;
-                } catch (IllegalStateException e) {
-                    Slog.w(TAG, "Failed parsing " + e);
-                } catch (NullPointerException e) {
-                    Slog.w(TAG, "Failed parsing " + e);
-                } catch (NumberFormatException e) {
-                    Slog.w(TAG, "Failed parsing " + e);
-                } catch (XmlPullParserException e) {
-                    Slog.w(TAG, "Failed parsing " + e);
+                }
+                success = true;
+            } catch (IllegalStateException e) {
+                Slog.w(TAG, "Failed parsing " + e);
+            } catch (NullPointerException e) {
+                Slog.w(TAG, "Failed parsing " + e);
+            } catch (NumberFormatException e) {
+                Slog.w(TAG, "Failed parsing " + e);
+            } catch (XmlPullParserException e) {
+                Slog.w(TAG, "Failed parsing " + e);
+            } catch (IOException e) {
+                Slog.w(TAG, "Failed parsing " + e);
+            } catch (IndexOutOfBoundsException e) {
+                Slog.w(TAG, "Failed parsing " + e);
+            } finally {
+                if (!success) {
+                    uidStates.clear();
+                }
+                try {
+                    stream.close();
                 } catch (IOException e) {
-                    Slog.w(TAG, "Failed parsing " + e);
-                } catch (IndexOutOfBoundsException e) {
-                    Slog.w(TAG, "Failed parsing " + e);
-                } finally {
-                    if (!success) {
-                        mUidStates.clear();
-                    }
-                    try {
-                        stream.close();
-                    } catch (IOException e) {
+                }
+            }
+            for (UidStripe stripe : mUidStripes) {
+                synchronized (stripe) {
+                    stripe.uidStates.clear();
+                    for (int i = 0; i < uidStates.size(); i++) {
+                        if (stripeFor(uidStates.keyAt(i)) == stripe) {
+                            stripe.uidStates.put(uidStates.keyAt(i), uidStates.valueAt(i));
+                        }
                     }
+                    stripe.updateModesLocked();
                 }
             }
         }
     }
 
-    void readUidOps(XmlPullParser parser) throws NumberFormatException,
-            XmlPullParserException, IOException {
-        final int uid = Integer.parseInt(parser.getAttributeValue(null, "n"));
+    void readUidOps(XmlPullParser parser, SparseArray<UidState> uidStates)
+            throws NumberFormatException, XmlPullParserException, IOException {
+        final int uid = XmlUtils.readIntAttribute(parser, "n");
         int outerDepth = parser.getDepth();
         int type;
         while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
@@ -1316,9 +1538,9 @@ public class AppOpsService extends IAppOpsService.Stub {
 
             String tagName = parser.getName();
             if (tagName.equals("op")) {
-                final int code = Integer.parseInt(parser.getAttributeValue(null, "n"));
-                final int mode = Integer.parseInt(parser.getAttributeValue(null, "m"));
-                UidState uidState = getUidStateLocked(uid, true);
+                final int code = XmlUtils.readIntAttribute(parser, "n");
+                final int mode = XmlUtils.readIntAttribute(parser, "m");
+                UidState uidState = getUidState(uidStates, uid, true);
                 if (uidState.opModes == null) {
                     uidState.opModes = new SparseIntArray();
                 }
@@ -1331,8 +1553,8 @@ public class AppOpsService extends IAppOpsService.Stub {
         }
     }
 
-    void readPackage(XmlPullParser parser) throws NumberFormatException,
-            XmlPullParserException, IOException {
+    void readPackage(XmlPullParser parser, SparseArray<UidState> uidStates)
+            throws NumberFormatException, XmlPullParserException, IOException {
         String pkgName = parser.getAttributeValue(null, "n");
         int outerDepth = parser.getDepth();
         int type;
@@ -1344,7 +1566,7 @@ public class AppOpsService extends IAppOpsService.Stub {
 
             String tagName = parser.getName();
             if (tagName.equals("uid")) {
-                readUid(parser, pkgName);
+                readUid(parser, pkgName, uidStates);
             } else {
                 Slog.w(TAG, "Unknown element under <pkg>: "
                         + parser.getName());
@@ -1353,9 +1575,9 @@ public class AppOpsService extends IAppOpsService.Stub {
         }
     }
 
-    void readUid(XmlPullParser parser, String pkgName) throws NumberFormatException,
-            XmlPullParserException, IOException {
-        int uid = Integer.parseInt(parser.getAttributeValue(null, "n"));
+    void readUid(XmlPullParser parser, String pkgName, SparseArray<UidState> uidStates)
+            throws NumberFormatException, XmlPullParserException, IOException {
+        int uid = XmlUtils.readIntAttribute(parser, "n");
         String isPrivilegedString = parser.getAttributeValue(null, "p");
         boolean isPrivileged = false;
         if (isPrivilegedString == null) {
@@ -1388,33 +1610,18 @@ public class AppOpsService extends IAppOpsService.Stub {
 
             String tagName = parser.getName();
             if (tagName.equals("op")) {
-                Op op = new Op(uid, pkgName, Integer.parseInt(parser.getAttributeValue(null, "n")));
-                String mode = parser.getAttributeValue(null, "m");
-                if (mode != null) {
-                    op.mode = Integer.parseInt(mode);
-                }
-                String time = parser.getAttributeValue(null, "t");
-                if (time != null) {
-                    op.time = Long.parseLong(time);
-                }
-                time = parser.getAttributeValue(null, "r");
-                if (time != null) {
-                    op.rejectTime = Long.parseLong(time);
-                }
-                String dur = parser.getAttributeValue(null, "d");
-                if (dur != null) {
-                    op.duration = Integer.parseInt(dur);
-                }
-                String proxyUid = parser.getAttributeValue(null, "pu");
-                if (proxyUid != null) {
-                    op.proxyUid = Integer.parseInt(proxyUid);
-                }
+                Op op = new Op(uid, pkgName, XmlUtils.readIntAttribute(parser, "n"));
+                op.mode = XmlUtils.readIntAttribute(parser, "m", op.mode);
+                op.time = XmlUtils.readLongAttribute(parser, "t", op.time);
+                op.rejectTime = XmlUtils.readLongAttribute(parser, "r", op.rejectTime);
+                op.duration = XmlUtils.readIntAttribute(parser, "d", op.duration);
+                op.proxyUid = XmlUtils.readIntAttribute(parser, "pu", op.proxyUid);
                 String proxyPackageName = parser.getAttributeValue(null, "pp");
                 if (proxyPackageName != null) {
                     op.proxyPackageName = proxyPackageName;
                 }
 
-                UidState uidState = getUidStateLocked(uid, true);
+                UidState uidState = getUidState(uidStates, uid, true);
                 if (uidState.pkgOps == null) {
                     uidState.pkgOps = new ArrayMap<>();
                 }
@@ -1436,6 +1643,17 @@ public class AppOpsService extends IAppOpsService.Stub {
     void writeState() {
         synchronized (mFile) {
             List<AppOpsManager.PackageOps> allOps = getPackagesForOps(null);
+            final SparseArray<SparseIntArray> uidOpModes = new SparseArray<>();
+            for (UidStripe stripe : mUidStripes) {
+                synchronized (stripe) {
+                    for (int i = 0; i < stripe.uidStates.size(); i++) {
+                        UidState uidState = stripe.uidStates.valueAt(i);
+                        if (uidState.opModes != null && uidState.opModes.size() > 0) {
+                            uidOpModes.put(uidState.uid, uidState.opModes.clone());
+                        }
+                    }
+                }
+            }
 
             FileOutputStream stream;
             try {
@@ -1446,29 +1664,26 @@ public class AppOpsService extends IAppOpsService.Stub {
             }
 
             try {
-                XmlSerializer out = new FastXmlSerializer();
+                XmlSerializer out = new BinaryXmlSerializer();
                 out.setOutput(stream, StandardCharsets.UTF_8.name());
                 out.startDocument(null, true);
                 out.startTag(null, "app-ops");
 
-                final int uidStateCount = mUidStates.size();
-                for (int i = 0; i < uidStateCount; i++) {
-                    UidState uidState = mUidStates.valueAt(i);
-                    if (uidState.opModes != null && uidState.opModes.size() > 0) {
-                        out.startTag(null, "uid");
-                        out.attribute(null, "n", Integer.toString(uidState.uid));
-                        SparseIntArray uidOpModes = uidState.opModes;
-                        final int opCount = uidOpModes.size();
-                        for (int j = 0; j < opCount; j++) {
-                            final int op = uidOpModes.keyAt(j);
-                            final int mode = uidOpModes.valueAt(j);
-                            out.startTag(null, "op");
-                            out.attribute(null, "n", Integer.toString(op));
-                            out.attribute(null, "m", Integer.toString(mode));
-                            out.endTag(null, "op");
-                        }
-                        out.endTag(null, "uid");
+                final int uidCount = uidOpModes.size();
+                for (int i = 0; i < uidCount; i++) {
+                    out.startTag(null, "uid");
+                    XmlUtils.writeIntAttribute(out, "n", uidOpModes.keyAt(i));
+                    SparseIntArray opModes = uidOpModes.valueAt(i);
+                    final int opCount = opModes.size();
+                    for (int j = 0; j < opCount; j++) {
+                        final int op = opModes.keyAt(j);
+                        final int mode = opModes.valueAt(j);
+                        out.startTag(null, "op");
+                        XmlUtils.writeIntAttribute(out, "n", op);
+                        XmlUtils.writeIntAttribute(out, "m", mode);
+                        out.endTag(null, "op");
                     }
+                    out.endTag(null, "uid");
                 }
 
                 if (allOps != null) {
@@ -1484,40 +1699,40 @@ public class AppOpsService extends IAppOpsService.Stub {
                             out.attribute(null, "n", lastPkg);
                         }
                         out.startTag(null, "uid");
-                        out.attribute(null, "n", Integer.toString(pkg.getUid()));
-                        synchronized (this) {
+                        XmlUtils.writeIntAttribute(out, "n", pkg.getUid());
+                        synchronized (stripeFor(pkg.getUid())) {
                             Ops ops = getOpsLocked(pkg.getUid(), pkg.getPackageName(), false);
                             // Should always be present as the list of PackageOps is generated
                             // from Ops.
                             if (ops != null) {
-                                out.attribute(null, "p", Boolean.toString(ops.isPrivileged));
+                                XmlUtils.writeBooleanAttribute(out, "p", ops.isPrivileged);
                             } else {
-                                out.attribute(null, "p", Boolean.toString(false));
+                                XmlUtils.writeBooleanAttribute(out, "p", false);
                             }
                         }
                         List<AppOpsManager.OpEntry> ops = pkg.getOps();
                         for (int j=0; j<ops.size(); j++) {
                             AppOpsManager.OpEntry op = ops.get(j);
                             out.startTag(null, "op");
-                            out.attribute(null, "n", Integer.toString(op.getOp()));
+                            XmlUtils.writeIntAttribute(out, "n", op.getOp());
                             if (op.getMode() != AppOpsManager.opToDefaultMode(op.getOp())) {
-                                out.attribute(null, "m", Integer.toString(op.getMode()));
+                                XmlUtils.writeIntAttribute(out, "m", op.getMode());
                             }
                             long time = op.getTime();
                             if (time != 0) {
-                                out.attribute(null, "t", Long.toString(time));
+                                XmlUtils.writeLongAttribute(out, "t", time);
                             }
                             time = op.getRejectTime();
                             if (time != 0) {
-                                out.attribute(null, "r", Long.toString(time));
+                                XmlUtils.writeLongAttribute(out, "r", time);
                             }
                             int dur = op.getDuration();
                             if (dur != 0) {
-                                out.attribute(null, "d", Integer.toString(dur));
+                                XmlUtils.writeIntAttribute(out, "d", dur);
                             }
                             int proxyUid = op.getProxyUid();
                             if (proxyUid != -1) {
-                                out.attribute(null, "pu", Integer.toString(proxyUid));
+                                XmlUtils.writeIntAttribute(out, "pu", proxyUid);
                             }
                             String proxyPackageName = op.getProxyPackageName();
                             if (proxyPackageName != null) {
@@ -1645,13 +1860,17 @@ public class AppOpsService extends IAppOpsService.Stub {
                     pw.print("    "); pw.print(mClients.keyAt(i)); pw.println(":");
                     ClientState cs = mClients.valueAt(i);
                     pw.print("      "); pw.println(cs);
-                    if (cs.mStartedOps != null && cs.mStartedOps.size() > 0) {
-                        pw.println("      Started ops:");
-                        for (int j=0; j<cs.mStartedOps.size(); j++) {
-                            Op op = cs.mStartedOps.get(j);
-                            pw.print("        "); pw.print("uid="); pw.print(op.uid);
-                            pw.print(" pkg="); pw.print(op.packageName);
-                            pw.print(" op="); pw.println(AppOpsManager.opToName(op.op));
+                    if (cs.mStartedOps != null) {
+                        synchronized (cs.mStartedOps) {
+                            if (cs.mStartedOps.size() > 0) {
+                                pw.println("      Started ops:");
+                            }
+                            for (int j=0; j<cs.mStartedOps.size(); j++) {
+                                Op op = cs.mStartedOps.get(j);
+                                pw.print("        "); pw.print("uid="); pw.print(op.uid);
+                                pw.print(" pkg="); pw.print(op.packageName);
+                                pw.print(" op="); pw.println(AppOpsManager.opToName(op.op));
+                            }
                         }
                     }
                 }
@@ -1684,47 +1903,53 @@ public class AppOpsService extends IAppOpsService.Stub {
             if (needSep) {
                 pw.println();
             }
-            for (int i=0; i<mUidStates.size(); i++) {
-                UidState uidState = mUidStates.valueAt(i);
-
-                pw.print("  Uid "); UserHandle.formatUid(pw, uidState.uid); pw.println(":");
-
-                SparseIntArray opModes = uidState.opModes;
-                if (opModes != null) {
-                    final int opModeCount = opModes.size();
-                    for (int j = 0; j < opModeCount; j++) {
-                        final int code = opModes.keyAt(j);
-                        final int mode = opModes.valueAt(j);
-                        pw.print("      "); pw.print(AppOpsManager.opToName(code));
-                        pw.print(": mode="); pw.println(mode);
-                    }
-                }
-
-                ArrayMap<String, Ops> pkgOps = uidState.pkgOps;
-                if (pkgOps == null) {
-                    continue;
-                }
-
-                for (Ops ops : pkgOps.values()) {
-                    pw.print("    Package "); pw.print(ops.packageName); pw.println(":");
-                    for (int j=0; j<ops.size(); j++) {
-                        Op op = ops.valueAt(j);
-                        pw.print("      "); pw.print(AppOpsManager.opToName(op.op));
-                        pw.print(": mode="); pw.print(op.mode);
-                        if (op.time != 0) {
-                            pw.print("; time="); TimeUtils.formatDuration(now-op.time, pw);
-                            pw.print(" ago");
+            for (UidStripe stripe : mUidStripes) {
+                synchronized (stripe) {
+                    for (int i=0; i<stripe.uidStates.size(); i++) {
+                        UidState uidState = stripe.uidStates.valueAt(i);
+
+                        pw.print("  Uid "); UserHandle.formatUid(pw, uidState.uid); pw.println(":");
+
+                        SparseIntArray opModes = uidState.opModes;
+                        if (opModes != null) {
+                            final int opModeCount = opModes.size();
+                            for (int j = 0; j < opModeCount; j++) {
+                                final int code = opModes.keyAt(j);
+                                final int mode = opModes.valueAt(j);
+                                pw.print("      "); pw.print(AppOpsManager.opToName(code));
+                                pw.print(": mode="); pw.println(mode);
+                            }
                         }
-                        if (op.rejectTime != 0) {
-                            pw.print("; rejectTime="); TimeUtils.formatDuration(now-op.rejectTime, pw);
-                            pw.print(" ago");
+
+                        ArrayMap<String, Ops> pkgOps = uidState.pkgOps;
+                        if (pkgOps == null) {
+                            continue;
                         }
-                        if (op.duration == -1) {
-                            pw.print(" (running)");
-                        } else if (op.duration != 0) {
-                            pw.print("; duration="); TimeUtils.formatDuration(op.duration, pw);
+
+                        for (Ops ops : pkgOps.values()) {
+                            pw.print("    Package "); pw.print(ops.packageName); pw.println(":");
+                            for (int j=0; j<ops.size(); j++) {
+                                Op op = ops.valueAt(j);
+                                pw.print("      "); pw.print(AppOpsManager.opToName(op.op));
+                                pw.print(": mode="); pw.print(op.mode);
+                                if (op.time != 0) {
+                                    pw.print("; time="); TimeUtils.formatDuration(now-op.time, pw);
+                                    pw.print(" ago");
+                                }
+                                if (op.rejectTime != 0) {
+                                    pw.print("; rejectTime=");
+                                    TimeUtils.formatDuration(now-op.rejectTime, pw);
+                                    pw.print(" ago");
+                                }
+                                if (op.duration == -1) {
+                                    pw.print(" (running)");
+                                } else if (op.duration != 0) {
+                                    pw.print("; duration=");
+                                    TimeUtils.formatDuration(op.duration, pw);
+                                }
+                                pw.println();
+                            }
                         }
-                        pw.println();
                     }
                 }
             }
@@ -1740,11 +1965,7 @@ public class AppOpsService extends IAppOpsService.Stub {
     @Override
     public void setUserRestrictions(Bundle restrictions, int userHandle) throws RemoteException {
         checkSystemUid("setUserRestrictions");
-        boolean[] opRestrictions = mOpRestrictions.get(userHandle);
-        if (opRestrictions == null) {
-            opRestrictions = new boolean[AppOpsManager._NUM_OP];
-            mOpRestrictions.put(userHandle, opRestrictions);
-        }
+        boolean[] opRestrictions = new boolean[AppOpsManager._NUM_OP];
         for (int i = 0; i < opRestrictions.length; ++i) {
             String restriction = AppOpsManager.opToRestriction(i);
             if (restriction != null) {
@@ -1753,12 +1974,21 @@ public class AppOpsService extends IAppOpsService.Stub {
                 opRestrictions[i] = false;
             }
         }
+        synchronized (this) {
+            SparseArray<boolean[]> newRestrictions = mOpRestrictions.clone();
+            newRestrictions.put(userHandle, opRestrictions);
+            mOpRestrictions = newRestrictions;
+        }
     }
 
     @Override
     public void removeUser(int userHandle) throws RemoteException {
         checkSystemUid("removeUser");
-        mOpRestrictions.remove(userHandle);
+        synchronized (this) {
+            SparseArray<boolean[]> newRestrictions = mOpRestrictions.clone();
+            newRestrictions.remove(userHandle);
+            mOpRestrictions = newRestrictions;
+        }
     }
 
     private void checkSystemUid(String function) {
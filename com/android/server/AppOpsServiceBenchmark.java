@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.app.AppOpsManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.android.internal.util.BinaryXmlSerializer;
+import com.android.internal.util.XmlUtils;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Calls {@link AppOpsService#noteOperation} and {@link AppOpsService#checkOperation}
+ * from several threads at once, each thread for its own apps, the way binder
+ * threads do for apps noting ops at the same time.  The apps are read from a
+ * state file so that the package manager is never asked about them.
+ * Per rep, every thread makes one call.
+ */
+public class AppOpsServiceBenchmark extends SimpleBenchmark {
+
+    enum Call { NOTE, CHECK }
+
+    @Param({"1", "2", "4", "8"})
+    int mThreads;
+
+    @Param({"64"})
+    int mApps;
+
+    @Param
+    Call mCall;
+
+    private static final int FIRST_UID = 10000;
+    private static final int[] OPS = {
+        AppOpsManager.OP_WAKE_LOCK,
+        AppOpsManager.OP_COARSE_LOCATION,
+        AppOpsManager.OP_READ_EXTERNAL_STORAGE,
+    };
+
+    private File mFile;
+    private HandlerThread mThread;
+    private AppOpsService mService;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("appops", ".xml");
+        final FileOutputStream stream = new FileOutputStream(mFile);
+        try {
+            final XmlSerializer out = new BinaryXmlSerializer();
+            out.setOutput(stream, StandardCharsets.UTF_8.name());
+            out.startDocument(null, true);
+            out.startTag(null, "app-ops");
+            for (int i = 0; i < mApps; i++) {
+                out.startTag(null, "pkg");
+                out.attribute(null, "n", packageName(i));
+                out.startTag(null, "uid");
+                XmlUtils.writeIntAttribute(out, "n", FIRST_UID + i);
+                XmlUtils.writeBooleanAttribute(out, "p", false);
+                for (int op : OPS) {
+                    out.startTag(null, "op");
+                    XmlUtils.writeIntAttribute(out, "n", op);
+                    out.endTag(null, "op");
+                }
+                out.endTag(null, "uid");
+                out.endTag(null, "pkg");
+            }
+            out.endTag(null, "app-ops");
+            out.endDocument();
+        } finally {
+            stream.close();
+        }
+        mThread = new HandlerThread("AppOpsServiceBenchmark");
+        mThread.start();
+        mService = new AppOpsService(mFile, new Handler(mThread.getLooper()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        mFile.delete();
+    }
+
+    private static String packageName(int app) {
+        return "com.example.app" + app;
+    }
+
+    public void timeCalls(final int reps) throws Exception {
+        final String[] packageNames = new String[mApps];
+        for (int i = 0; i < mApps; i++) {
+            packageNames[i] = packageName(i);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(mThreads);
+        for (int t = 0; t < mThreads; t++) {
+            final int thread = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    int app = thread;
+                    for (int i = 0; i < reps; i++) {
+                        final int op = OPS[i % OPS.length];
+                        if (mCall == Call.NOTE) {
+                            mService.noteOperation(op, FIRST_UID + app, packageNames[app]);
+                        } else {
+                            mService.checkOperation(op, FIRST_UID + app, packageNames[app]);
+                        }
+                        app += mThreads;
+                        if (app >= mApps) {
+                            app = thread;
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+    }
+}
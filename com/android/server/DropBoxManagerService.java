@@ -49,6 +49,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -72,9 +73,11 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
 
     private static final boolean PROFILE_DUMP = false;
 
-    // TODO: This implementation currently uses one file per entry, which is
-    // inefficient for smallish entries -- consider using a single queue file
-    // per tag (or even globally) instead.
+    // Entries get a file each, which is inefficient for smallish ones; with
+    // Settings.Global.DROPBOX_SEGMENTS set, small entries are appended to
+    // shared segment files instead (see DropBoxSegmentStore).
+
+    private static final String SEGMENTS_DIR = "segments";
 
     // The cached context and derived objects
 
@@ -86,6 +89,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
 
     private FileList mAllFiles = null;
     private HashMap<String, FileList> mFilesByTag = null;
+    private DropBoxSegmentStore mSegments = null;
 
     // Various bits of disk information
 
@@ -172,6 +176,9 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
     /** Unregisters broadcast receivers and any other hooks -- for test instances */
     public void stop() {
         mContext.unregisterReceiver(mReceiver);
+        synchronized (this) {
+            if (mSegments != null) mSegments.close();
+        }
     }
 
     @Override
@@ -201,6 +208,24 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
                 read += n;
             }
 
+            // Small entries go into a segment file if that is enabled; bigger
+            // ones still get a file of their own, so readers can stream them.
+
+            if ((flags & DropBoxManager.IS_GZIPPED) == 0 && isSegmentStorageEnabled()) {
+                buffer = readAtMost(input, buffer, read, DropBoxSegmentStore.MAX_ENTRY_BYTES + 1);
+                read = buffer.length;
+                if (read <= DropBoxSegmentStore.MAX_ENTRY_BYTES && read <= max) {
+                    // Compress before and sync after taking the lock, so that other
+                    // callers (some holding locks of their own) don't queue behind it.
+                    DropBoxSegmentStore.PendingEntry pending =
+                            DropBoxSegmentStore.prepare(tag, buffer, flags, mBlockSize);
+                    long time = createSegmentEntry(pending);
+                    DropBoxSegmentStore.sync(pending);
+                    sendEntryAddedBroadcast(tag, time);
+                    return;
+                }
+            }
+
             // If we have at least one block, compress it -- otherwise, just write
             // the data in uncompressed form.
 
@@ -210,7 +235,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             if (bufferSize < 512) bufferSize = 512;
             FileOutputStream foutput = new FileOutputStream(temp);
             output = new BufferedOutputStream(foutput, bufferSize);
-            if (read == buffer.length && ((flags & DropBoxManager.IS_GZIPPED) == 0)) {
+            if (read >= mBlockSize && ((flags & DropBoxManager.IS_GZIPPED) == 0)) {
                 output = new GZIPOutputStream(output);
                 flags = flags | DropBoxManager.IS_GZIPPED;
             }
@@ -244,18 +269,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
 
             long time = createEntry(temp, tag, flags);
             temp = null;
-
-            final Intent dropboxIntent = new Intent(DropBoxManager.ACTION_DROPBOX_ENTRY_ADDED);
-            dropboxIntent.putExtra(DropBoxManager.EXTRA_TAG, tag);
-            dropboxIntent.putExtra(DropBoxManager.EXTRA_TIME, time);
-            if (!mBooted) {
-                dropboxIntent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY);
-            }
-            // Call sendBroadcast after returning from this call to avoid deadlock. In particular
-            // the caller may be holding the WindowManagerService lock but sendBroadcast requires a
-            // lock in ActivityManagerService. ActivityManagerService has been caught holding that
-            // very lock while waiting for the WindowManagerService lock.
-            mHandler.sendMessage(mHandler.obtainMessage(MSG_SEND_BROADCAST, dropboxIntent));
+            sendEntryAddedBroadcast(tag, time);
         } catch (IOException e) {
             Slog.e(TAG, "Can't write: " + tag, e);
         } finally {
@@ -265,6 +279,48 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         }
     }
 
+    private void sendEntryAddedBroadcast(String tag, long time) {
+        final Intent dropboxIntent = new Intent(DropBoxManager.ACTION_DROPBOX_ENTRY_ADDED);
+        dropboxIntent.putExtra(DropBoxManager.EXTRA_TAG, tag);
+        dropboxIntent.putExtra(DropBoxManager.EXTRA_TIME, time);
+        if (!mBooted) {
+            dropboxIntent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY);
+        }
+        // Call sendBroadcast after returning from this call to avoid deadlock. In particular
+        // the caller may be holding the WindowManagerService lock but sendBroadcast requires a
+        // lock in ActivityManagerService. ActivityManagerService has been caught holding that
+        // very lock while waiting for the WindowManagerService lock.
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_SEND_BROADCAST, dropboxIntent));
+    }
+
+    /**
+     * Returns the {@code read} bytes in {@code buffer} followed by the rest of
+     * {@code input}, or by as much of it as makes {@code limit} bytes.  The
+     * input is known to have ended if the buffer isn't full.
+     */
+    private static byte[] readAtMost(InputStream input, byte[] buffer, int read, int limit)
+            throws IOException {
+        if (read < buffer.length) return Arrays.copyOf(buffer, read);
+        byte[] data = buffer;
+        while (read < limit) {
+            if (read == data.length) data = Arrays.copyOf(data, Math.min(limit, read * 2));
+            int n = input.read(data, read, data.length - read);
+            if (n <= 0) break;
+            read += n;
+        }
+        return read == data.length ? data : Arrays.copyOf(data, read);
+    }
+
+    private boolean isSegmentStorageEnabled() {
+        final long token = Binder.clearCallingIdentity();
+        try {
+            return Settings.Global.getInt(mContentResolver,
+                    Settings.Global.DROPBOX_SEGMENTS, 0) != 0;
+        } finally {
+            Binder.restoreCallingIdentity(token);
+        }
+    }
+
     public boolean isTagEnabled(String tag) {
         final long token = Binder.clearCallingIdentity();
         try {
@@ -289,23 +345,36 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         }
 
         FileList list = tag == null ? mAllFiles : mFilesByTag.get(tag);
-        if (list == null) return null;
 
-        for (EntryFile entry : list.contents.tailSet(new EntryFile(millis + 1))) {
-            if (entry.tag == null) continue;
-            if ((entry.flags & DropBoxManager.IS_EMPTY) != 0) {
-                return new DropBoxManager.Entry(entry.tag, entry.timestampMillis);
+        // Entries in segments are indexed apart from files; return whichever is next.
+        long after = millis;
+        while (true) {
+            long segmentMillis = mSegments.getNextTime(tag, after);
+            if (list != null) {
+                for (EntryFile entry : list.contents.tailSet(new EntryFile(after + 1))) {
+                    if (entry.timestampMillis > segmentMillis) break;
+                    if (entry.tag == null) continue;
+                    if ((entry.flags & DropBoxManager.IS_EMPTY) != 0) {
+                        return new DropBoxManager.Entry(entry.tag, entry.timestampMillis);
+                    }
+                    try {
+                        return new DropBoxManager.Entry(
+                                entry.tag, entry.timestampMillis, entry.file, entry.flags);
+                    } catch (IOException e) {
+                        Slog.e(TAG, "Can't read: " + entry.file, e);
+                        // Continue to next file
+                    }
+                }
             }
+
+            if (segmentMillis == Long.MAX_VALUE) return null;
             try {
-                return new DropBoxManager.Entry(
-                        entry.tag, entry.timestampMillis, entry.file, entry.flags);
+                return mSegments.getEntry(segmentMillis);
             } catch (IOException e) {
-                Slog.e(TAG, "Can't read: " + entry.file, e);
-                // Continue to next file
+                Slog.e(TAG, "Can't read: " + mSegments.getLocation(segmentMillis), e);
+                after = segmentMillis;  // Continue to next entry
             }
         }
-
-        return null;
     }
 
     public synchronized void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
@@ -340,7 +409,17 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             }
         }
 
-        out.append("Drop box contents: ").append(mAllFiles.contents.size()).append(" entries\n");
+        TreeSet<EntryFile> entries = mAllFiles.contents;
+        if (mSegments.size() > 0) {
+            entries = new TreeSet<EntryFile>(entries);
+            for (int i = 0; i < mSegments.size(); i++) {
+                entries.add(new EntryFile(mSegments.getTag(i), mSegments.getTime(i),
+                        mSegments.getFlags(i), mSegments.getLength(i)));
+            }
+        }
+
+        out.append("Drop box contents: ").append(entries.size()).append(" entries\n");
+        if (mSegments.size() > 0) mSegments.dump(out);
 
         if (!searchArgs.isEmpty()) {
             out.append("Searching for:");
@@ -351,7 +430,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         int numFound = 0, numArgs = searchArgs.size();
         Time time = new Time();
         out.append("\n");
-        for (EntryFile entry : mAllFiles.contents) {
+        for (EntryFile entry : entries) {
             time.set(entry.timestampMillis);
             String date = time.format("%Y-%m-%d %H:%M:%S");
             boolean match = true;
@@ -364,7 +443,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             numFound++;
             if (doPrint) out.append("========================================\n");
             out.append(date).append(" ").append(entry.tag == null ? "(no tag)" : entry.tag);
-            if (entry.file == null) {
+            if (entry.file == null && entry.segmentLength < 0) {
                 out.append(" (no file)\n");
                 continue;
             } else if ((entry.flags & DropBoxManager.IS_EMPTY) != 0) {
@@ -374,20 +453,23 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
                 out.append(" (");
                 if ((entry.flags & DropBoxManager.IS_GZIPPED) != 0) out.append("compressed ");
                 out.append((entry.flags & DropBoxManager.IS_TEXT) != 0 ? "text" : "data");
-                out.append(", ").append(entry.file.length()).append(" bytes)\n");
+                out.append(", ").append(entry.file != null
+                        ? entry.file.length() : entry.segmentLength).append(" bytes)\n");
             }
 
             if (doFile || (doPrint && (entry.flags & DropBoxManager.IS_TEXT) == 0)) {
                 if (!doPrint) out.append("    ");
-                out.append(entry.file.getPath()).append("\n");
+                out.append(entry.file != null ? entry.file.getPath()
+                        : mSegments.getLocation(entry.timestampMillis)).append("\n");
             }
 
             if ((entry.flags & DropBoxManager.IS_TEXT) != 0 && (doPrint || !doFile)) {
                 DropBoxManager.Entry dbe = null;
                 InputStreamReader isr = null;
                 try {
-                    dbe = new DropBoxManager.Entry(
-                             entry.tag, entry.timestampMillis, entry.file, entry.flags);
+                    dbe = entry.file != null ? new DropBoxManager.Entry(
+                             entry.tag, entry.timestampMillis, entry.file, entry.flags)
+                            : mSegments.getEntry(entry.timestampMillis);
 
                     if (doPrint) {
                         isr = new InputStreamReader(dbe.getInputStream());
@@ -420,7 +502,8 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
                     }
                 } catch (IOException e) {
                     out.append("*** ").append(e.toString()).append("\n");
-                    Slog.e(TAG, "Can't read: " + entry.file, e);
+                    Slog.e(TAG, "Can't read: " + (entry.file != null ? entry.file
+                            : mSegments.getLocation(entry.timestampMillis)), e);
                 } finally {
                     if (dbe != null) dbe.close();
                     if (isr != null) {
@@ -470,6 +553,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         public final int flags;
         public final File file;
         public final int blocks;
+        public final int segmentLength;  // Bytes in its segment, -1 if not in one
 
         /** Sorts earlier EntryFile instances before later ones. */
         public final int compareTo(EntryFile o) {
@@ -509,6 +593,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
                 throw new IOException("Can't rename " + temp + " to " + this.file);
             }
             this.blocks = (int) ((this.file.length() + blockSize - 1) / blockSize);
+            this.segmentLength = -1;
         }
 
         /**
@@ -524,6 +609,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             this.flags = DropBoxManager.IS_EMPTY;
             this.file = new File(dir, Uri.encode(tag) + "@" + timestampMillis + ".lost");
             this.blocks = 0;
+            this.segmentLength = -1;
             new FileOutputStream(this.file).close();
         }
 
@@ -535,6 +621,7 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         public EntryFile(File file, int blockSize) {
             this.file = file;
             this.blocks = (int) ((this.file.length() + blockSize - 1) / blockSize);
+            this.segmentLength = -1;
 
             String name = file.getName();
             int at = name.lastIndexOf('@');
@@ -581,6 +668,23 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             this.flags = DropBoxManager.IS_EMPTY;
             this.file = null;
             this.blocks = 0;
+            this.segmentLength = -1;
+        }
+
+        /**
+         * Describes an entry kept in a segment file, to list it with the others.
+         * @param tag of the entry
+         * @param timestampMillis of the entry
+         * @param flags for the entry data
+         * @param segmentLength of the entry data in the segment
+         */
+        public EntryFile(String tag, long timestampMillis, int flags, int segmentLength) {
+            this.tag = tag;
+            this.timestampMillis = timestampMillis;
+            this.flags = flags;
+            this.file = null;
+            this.blocks = 0;
+            this.segmentLength = segmentLength;
         }
     }
 
@@ -604,11 +708,18 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             File[] files = mDropBoxDir.listFiles();
             if (files == null) throw new IOException("Can't list files: " + mDropBoxDir);
 
+            // Segments are always loaded, whether or not new entries go into them.
+            DropBoxSegmentStore segments = new DropBoxSegmentStore(
+                    new File(mDropBoxDir, SEGMENTS_DIR), mBlockSize, true);
+            segments.load();
+
+            mSegments = segments;
             mAllFiles = new FileList();
             mFilesByTag = new HashMap<String, FileList>();
 
             // Scan pre-existing files.
             for (File file : files) {
+                if (file.getName().equals(SEGMENTS_DIR)) continue;
                 if (file.getName().endsWith(".tmp")) {
                     Slog.i(TAG, "Cleaning temp file: " + file);
                     file.delete();
@@ -651,6 +762,25 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
 
     /** Moves a temporary file to a final log filename and enrolls it. */
     private synchronized long createEntry(File temp, String tag, int flags) throws IOException {
+        long t = nextEntryTime();
+        if (temp == null) {
+            enrollEntry(new EntryFile(mDropBoxDir, tag, t));
+        } else {
+            enrollEntry(new EntryFile(temp, mDropBoxDir, tag, t, flags, mBlockSize));
+        }
+        return t;
+    }
+
+    /** Appends a prepared entry to a segment, without syncing it. */
+    private synchronized long createSegmentEntry(DropBoxSegmentStore.PendingEntry entry)
+            throws IOException {
+        long t = nextEntryTime();
+        mSegments.add(entry, t);
+        return t;
+    }
+
+    /** Picks the timestamp for a new entry. */
+    private synchronized long nextEntryTime() throws IOException {
         long t = System.currentTimeMillis();
 
         // Require each entry to have a unique timestamp; if there are entries
@@ -664,9 +794,14 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
             tail.clear();  // Remove from mAllFiles
         }
 
+        // Entries in segments can't be renamed, so future ones stay where they
+        // are, and the timestamps they have are skipped.
+        long segmentMillis = mSegments.getLastTimeBefore(t + 10000);
+
         if (!mAllFiles.contents.isEmpty()) {
             t = Math.max(t, mAllFiles.contents.last().timestampMillis + 1);
         }
+        t = mSegments.nextFreeTime(Math.max(t, segmentMillis + 1));
 
         if (future != null) {
             for (EntryFile late : future) {
@@ -677,18 +812,13 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
                 }
                 if ((late.flags & DropBoxManager.IS_EMPTY) == 0) {
                     enrollEntry(new EntryFile(
-                            late.file, mDropBoxDir, late.tag, t++, late.flags, mBlockSize));
+                            late.file, mDropBoxDir, late.tag, t, late.flags, mBlockSize));
                 } else {
-                    enrollEntry(new EntryFile(mDropBoxDir, late.tag, t++));
+                    enrollEntry(new EntryFile(mDropBoxDir, late.tag, t));
                 }
+                t = mSegments.nextFreeTime(t + 1);
             }
         }
-
-        if (temp == null) {
-            enrollEntry(new EntryFile(mDropBoxDir, tag, t));
-        } else {
-            enrollEntry(new EntryFile(temp, mDropBoxDir, tag, t, flags, mBlockSize));
-        }
         return t;
     }
 
@@ -704,9 +834,19 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         int maxFiles = Settings.Global.getInt(mContentResolver,
                 Settings.Global.DROPBOX_MAX_FILES, DEFAULT_MAX_FILES);
         long cutoffMillis = System.currentTimeMillis() - ageSeconds * 1000;
-        while (!mAllFiles.contents.isEmpty()) {
+        while (!mAllFiles.contents.isEmpty() || mSegments.size() > 0) {
+            // Entries in segments count toward maxFiles like the others.
+            int count = mAllFiles.contents.size() + mSegments.size();
+            long segmentMillis = mSegments.getFirstTime();
+            if (mAllFiles.contents.isEmpty()
+                    || segmentMillis < mAllFiles.contents.first().timestampMillis) {
+                if (segmentMillis > cutoffMillis && count < maxFiles) break;
+                mSegments.removeFirst();  // Deletes the segment with its last entry
+                continue;
+            }
+
             EntryFile entry = mAllFiles.contents.first();
-            if (entry.timestampMillis > cutoffMillis && mAllFiles.contents.size() < maxFiles) break;
+            if (entry.timestampMillis > cutoffMillis && count < maxFiles) break;
 
             FileList tag = mFilesByTag.get(entry.tag);
             if (tag != null && tag.contents.remove(entry)) tag.blocks -= entry.blocks;
@@ -749,11 +889,18 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
         //
         // Deleted files are replaced with zero-length tombstones to mark what
         // was lost.  Tombstones are expunged by age (see above).
+        //
+        // Segments share space as if they were one tag, and are trimmed a
+        // whole segment at a time, oldest first, without tombstones.
 
-        if (mAllFiles.blocks > mCachedQuotaBlocks) {
+        int segmentBlocks = mSegments.getBlocks();
+        if (mAllFiles.blocks + segmentBlocks > mCachedQuotaBlocks) {
             // Find a fair share amount of space to limit each tag
-            int unsqueezed = mAllFiles.blocks, squeezed = 0;
+            int unsqueezed = mAllFiles.blocks + segmentBlocks, squeezed = 0;
             TreeSet<FileList> tags = new TreeSet<FileList>(mFilesByTag.values());
+            FileList segments = new FileList();
+            segments.blocks = segmentBlocks;
+            if (segmentBlocks > 0) tags.add(segments);
             for (FileList tag : tags) {
                 if (squeezed > 0 && tag.blocks <= (mCachedQuotaBlocks - unsqueezed) / squeezed) {
                     break;
@@ -765,7 +912,13 @@ public final class DropBoxManagerService extends IDropBoxManagerService.Stub {
 
             // Remove old items from each tag until it meets the per-tag quota.
             for (FileList tag : tags) {
-                if (mAllFiles.blocks < mCachedQuotaBlocks) break;
+                if (mAllFiles.blocks + mSegments.getBlocks() < mCachedQuotaBlocks) break;
+                if (tag == segments) {
+                    while (mSegments.getBlocks() > tagQuota && mSegments.dropOldestSegment()) {
+                        // Keep dropping
+                    }
+                    continue;
+                }
                 while (tag.blocks > tagQuota && !tag.contents.isEmpty()) {
                     EntryFile entry = tag.contents.first();
                     if (tag.contents.remove(entry)) tag.blocks -= entry.blocks;
@@ -0,0 +1,696 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.os.DropBoxManager;
+import android.util.Slog;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps small drop box entries in append-only segment files instead of a file
+ * per entry, with an in-memory index by time, overall and per tag.
+ *
+ * <p>A segment is a sequence of records:
+ * <pre>
+ * int magic, int flags, short tag length, tag (UTF-8), int data length, data,
+ * long time, int CRC32 of everything before it
+ * </pre>
+ * Entries of at least one block are gzipped, as entry files are.  A record is
+ * compressed and serialized by {@link #prepare} before its time is known, so
+ * that the caller can do that, and {@link #sync} the segment afterwards,
+ * without holding its lock; only the time and the end of the checksum are
+ * filled in by {@link #add}.  Space is
+ * given back a segment at a time: a segment file is deleted once all of its
+ * entries have been trimmed, or dropped whole when the quota calls for it.
+ * A torn record at the end of a segment, left by a crash in the middle of a
+ * write, is cut off when the segments are loaded.
+ *
+ * <p>Not thread safe; {@link DropBoxManagerService} only calls it with itself locked,
+ * apart from the static {@link #prepare} and {@link #sync}.
+ */
+final class DropBoxSegmentStore {
+    private static final String TAG = "DropBoxSegmentStore";
+
+    /** Entries bigger than this get a file of their own. */
+    static final int MAX_ENTRY_BYTES = 64 * 1024;
+
+    /** A new segment is started once the current one has reached this size. */
+    static final int SEGMENT_BYTES = 256 * 1024;
+
+    private static final int RECORD_MAGIC = 0x44425832;  // "DBX2"
+    private static final int RECORD_OVERHEAD = 4 + 4 + 2 + 4 + 8 + 4;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) c = (c & 1) != 0 ? 0xedb88320 ^ (c >>> 1) : c >>> 1;
+            CRC_TABLE[n] = c;
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final File file;
+        long length;
+        int entries;
+
+        Segment(int id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    /** Entries sorted by time in parallel arrays, so that the oldest goes in O(1). */
+    private static final class Index {
+        final String tag;
+        long[] times = new long[16];
+        int[] segments = new int[16];
+        int[] offsets = new int[16];
+        // Only kept by the overall index.
+        String[] tags;
+        int[] flags;
+        int[] lengths;
+        int start;
+        int end;
+
+        /** @param tag the tag of the entries, or null for an index of all of them */
+        Index(String tag) {
+            this.tag = tag;
+            if (tag == null) {
+                tags = new String[16];
+                flags = new int[16];
+                lengths = new int[16];
+            }
+        }
+
+        int size() {
+            return end - start;
+        }
+
+        /** @return the position of the first entry after {@code millis}, or end */
+        int after(long millis) {
+            int lo = start, hi = end;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (times[mid] <= millis) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        int indexOf(long time) {
+            final int pos = after(time - 1);
+            return pos < end && times[pos] == time ? pos : -1;
+        }
+
+        void add(long time, int segment, int offset, String tag, int flags, int length) {
+            if (end == times.length) makeRoom();
+            final int pos = after(time);
+            if (pos < end) move(pos, pos + 1, end - pos);
+            times[pos] = time;
+            segments[pos] = segment;
+            offsets[pos] = offset;
+            if (tags != null) {
+                tags[pos] = tag;
+                this.flags[pos] = flags;
+                lengths[pos] = length;
+            }
+            end++;
+        }
+
+        void remove(int pos) {
+            if (pos == start) {
+                if (tags != null) tags[pos] = null;
+                start++;
+            } else {
+                move(pos + 1, pos, end - pos - 1);
+                end--;
+                if (tags != null) tags[end] = null;
+            }
+            if (start == end) start = end = 0;
+        }
+
+        /** Removes all entries kept in {@code segment}. */
+        void removeSegment(int segment) {
+            int to = start;
+            for (int from = start; from < end; from++) {
+                if (segments[from] != segment) {
+                    if (to != from) move(from, to, 1);
+                    to++;
+                }
+            }
+            if (tags != null) {
+                for (int i = to; i < end; i++) tags[i] = null;
+            }
+            end = to;
+            if (start == end) start = end = 0;
+        }
+
+        private void makeRoom() {
+            final int size = size();
+            if (size < times.length / 2) {
+                move(start, 0, size);
+                if (tags != null) {
+                    for (int i = size; i < end; i++) tags[i] = null;
+                }
+            } else {
+                final int capacity = times.length * 2;
+                times = copyOf(times, start, size, capacity);
+                segments = copyOf(segments, start, size, capacity);
+                offsets = copyOf(offsets, start, size, capacity);
+                if (tags != null) {
+                    final String[] newTags = new String[capacity];
+                    System.arraycopy(tags, start, newTags, 0, size);
+                    tags = newTags;
+                    flags = copyOf(flags, start, size, capacity);
+                    lengths = copyOf(lengths, start, size, capacity);
+                }
+            }
+            start = 0;
+            end = size;
+        }
+
+        private void move(int from, int to, int count) {
+            System.arraycopy(times, from, times, to, count);
+            System.arraycopy(segments, from, segments, to, count);
+            System.arraycopy(offsets, from, offsets, to, count);
+            if (tags != null) {
+                System.arraycopy(tags, from, tags, to, count);
+                System.arraycopy(flags, from, flags, to, count);
+                System.arraycopy(lengths, from, lengths, to, count);
+            }
+        }
+
+        private static long[] copyOf(long[] array, int from, int count, int capacity) {
+            final long[] copy = new long[capacity];
+            System.arraycopy(array, from, copy, 0, count);
+            return copy;
+        }
+
+        private static int[] copyOf(int[] array, int from, int count, int capacity) {
+            final int[] copy = new int[capacity];
+            System.arraycopy(array, from, copy, 0, count);
+            return copy;
+        }
+    }
+
+    /** An entry compressed and serialized by {@link #prepare}, waiting for its time. */
+    static final class PendingEntry {
+        final String tag;
+        final int flags;
+        final int dataLength;
+        /** The whole record; its time and checksum are filled in by {@link #add}. */
+        final byte[] record;
+        /** The CRC32 of the record up to its time. */
+        final int bodyCrc;
+        /** The segment to sync once the entry is added, or null. */
+        File syncFile;
+
+        PendingEntry(String tag, int flags, int dataLength, byte[] record, int bodyCrc) {
+            this.tag = tag;
+            this.flags = flags;
+            this.dataLength = dataLength;
+            this.record = record;
+            this.bodyCrc = bodyCrc;
+        }
+    }
+
+    /** One record, as read back from a segment. */
+    private static final class Record {
+        long time;
+        int flags;
+        String tag;
+        byte[] data;
+
+        int size() {
+            return RECORD_OVERHEAD + tag.getBytes(StandardCharsets.UTF_8).length + data.length;
+        }
+    }
+
+    private final File mDir;
+    private final int mBlockSize;
+    private final boolean mSync;
+
+    private final SparseArray<Segment> mSegments = new SparseArray<Segment>();
+    private final Index mAll = new Index(null);
+    private final HashMap<String, Index> mByTag = new HashMap<String, Index>();
+
+    // The segment being appended to, and its open file (opened on first use).
+    private Segment mCurrent;
+    private FileOutputStream mOutput;
+
+    private long mDroppedSegments;
+    private long mTruncatedSegments;
+
+    /**
+     * @param dir to keep the segment files in; created on the first write
+     * @param blockSize of the file system, for space accounting
+     * @param sync whether to sync every write, as entry files are
+     */
+    DropBoxSegmentStore(File dir, int blockSize, boolean sync) {
+        mDir = dir;
+        mBlockSize = blockSize;
+        mSync = sync;
+    }
+
+    /** Scans the segment files on disk and builds the index. */
+    void load() throws IOException {
+        if (!mDir.isDirectory()) return;
+        final File[] files = mDir.listFiles();
+        if (files == null) throw new IOException("Can't list files: " + mDir);
+
+        for (File file : files) {
+            final int id = parseSegmentId(file.getName());
+            if (id < 0) {
+                Slog.w(TAG, "Unrecognized file: " + file);
+                continue;
+            }
+            mSegments.put(id, new Segment(id, file));
+        }
+        // Oldest first, so that entries are appended to the indexes rather than
+        // inserted at their fronts.
+        final ArrayList<Segment> empty = new ArrayList<Segment>();
+        for (int i = 0; i < mSegments.size(); i++) {
+            final Segment segment = mSegments.valueAt(i);
+            loadSegment(segment);
+            if (segment.entries == 0) empty.add(segment);
+        }
+        for (Segment segment : empty) deleteSegment(segment);
+
+        // Go on appending to the newest segment if it has room.
+        if (mSegments.size() > 0) {
+            final Segment newest = mSegments.valueAt(mSegments.size() - 1);
+            if (newest.length < SEGMENT_BYTES) mCurrent = newest;
+        }
+    }
+
+    private void loadSegment(Segment segment) throws IOException {
+        final long fileLength = segment.file.length();
+        final CRC32 crc = new CRC32();
+        final DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(segment.file)), crc));
+        long offset = 0;
+        try {
+            while (offset < fileLength) {
+                final Record record;
+                try {
+                    record = readRecord(in, crc);
+                } catch (IOException e) {
+                    break;
+                }
+                index(segment, record.tag, record.time, record.flags, (int) offset,
+                        record.data.length);
+                offset += record.size();
+            }
+        } finally {
+            in.close();
+        }
+
+        if (offset < fileLength) {
+            Slog.w(TAG, "Truncating " + segment.file + " from " + fileLength + " to " + offset
+                    + " bytes");
+            mTruncatedSegments++;
+            final RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+            try {
+                file.setLength(offset);
+            } finally {
+                file.close();
+            }
+        }
+        segment.length = offset;
+    }
+
+    private static int parseSegmentId(String name) {
+        if (!name.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Record readRecord(DataInputStream in, CRC32 crc) throws IOException {
+        crc.reset();
+        if (in.readInt() != RECORD_MAGIC) throw new IOException("Bad record magic");
+        final Record record = new Record();
+        record.flags = in.readInt();
+        final byte[] tag = new byte[in.readUnsignedShort()];
+        in.readFully(tag);
+        record.tag = new String(tag, StandardCharsets.UTF_8);
+        final int length = in.readInt();
+        // Gzip can make data a little bigger than it was.
+        if (length < 0 || length > MAX_ENTRY_BYTES + 1024) {
+            throw new IOException("Bad record length: " + length);
+        }
+        record.data = new byte[length];
+        in.readFully(record.data);
+        record.time = in.readLong();
+        final int expected = (int) crc.getValue();
+        if (in.readInt() != expected) throw new IOException("Bad record checksum");
+        return record;
+    }
+
+    /**
+     * Compresses and serializes an entry for {@link #add}.  Touches no state,
+     * so it can be called without the lock that guards the store.
+     * @param data at most {@link #MAX_ENTRY_BYTES}, not compressed yet
+     * @param flags of the entry, without {@link DropBoxManager#IS_GZIPPED}
+     */
+    static PendingEntry prepare(String tag, byte[] data, int flags, int blockSize)
+            throws IOException {
+        if (data.length >= blockSize) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2);
+            final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(data);
+            gzip.close();
+            data = compressed.toByteArray();
+            flags |= DropBoxManager.IS_GZIPPED;
+        }
+        final byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        if (tagBytes.length > 0xffff) throw new IOException("Tag too long: " + tag);
+        final ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(RECORD_OVERHEAD + tagBytes.length + data.length);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(RECORD_MAGIC);
+        out.writeInt(flags);
+        out.writeShort(tagBytes.length);
+        out.write(tagBytes);
+        out.writeInt(data.length);
+        out.write(data);
+        final int bodyLength = out.size();
+        out.writeLong(0);  // time
+        out.writeInt(0);  // checksum
+        final byte[] record = bytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, bodyLength);
+        return new PendingEntry(tag, flags, data.length, record, (int) crc.getValue());
+    }
+
+    /** Continues a CRC32 value over the big-endian bytes of {@code value}. */
+    private static int updateCrc(int crc, long value) {
+        int c = ~crc;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            c = CRC_TABLE[(c ^ (int) (value >>> shift)) & 0xff] ^ (c >>> 8);
+        }
+        return ~c;
+    }
+
+    private static void putInt(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value >>> 24);
+        b[pos + 1] = (byte) (value >>> 16);
+        b[pos + 2] = (byte) (value >>> 8);
+        b[pos + 3] = (byte) value;
+    }
+
+    /**
+     * Compresses and appends an entry, syncing it if the store syncs writes.
+     * @param data at most {@link #MAX_ENTRY_BYTES}, not compressed yet
+     * @param flags of the entry, without {@link DropBoxManager#IS_GZIPPED}
+     */
+    void add(String tag, long time, byte[] data, int flags) throws IOException {
+        final PendingEntry entry = prepare(tag, data, flags, mBlockSize);
+        add(entry, time);
+        sync(entry);
+    }
+
+    /**
+     * Appends an entry made by {@link #prepare}.  The write isn't synced here;
+     * if the store syncs writes, {@link PendingEntry#syncFile} is set for
+     * {@link #sync}.
+     */
+    void add(PendingEntry entry, long time) throws IOException {
+        final byte[] record = entry.record;
+        final int timePos = record.length - 12;
+        putInt(record, timePos, (int) (time >>> 32));
+        putInt(record, timePos + 4, (int) time);
+        putInt(record, timePos + 8, updateCrc(entry.bodyCrc, time));
+
+        if (mCurrent == null || mCurrent.length >= SEGMENT_BYTES) {
+            startSegment();
+        } else if (mOutput == null) {
+            mOutput = new FileOutputStream(mCurrent.file, true);
+        }
+        final long offset = mCurrent.length;
+        try {
+            mOutput.write(record);
+        } catch (IOException e) {
+            // Don't leave a partial record for the next one to be appended to.
+            try { mOutput.getChannel().truncate(offset); } catch (IOException ignored) {}
+            throw e;
+        }
+        mCurrent.length += record.length;
+        index(mCurrent, entry.tag, time, entry.flags, (int) offset, entry.dataLength);
+        entry.syncFile = mSync ? mCurrent.file : null;
+    }
+
+    /**
+     * Syncs the segment an entry was added to.  Touches no state, so it can be
+     * called without the lock that guards the store; the segment may even have
+     * been dropped since, in which case there is nothing left to sync.
+     */
+    static void sync(PendingEntry entry) {
+        if (entry.syncFile == null) return;
+        final FileInputStream file;
+        try {
+            file = new FileInputStream(entry.syncFile);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            // Syncing any descriptor of the file flushes what the store wrote.
+            file.getFD().sync();
+        } catch (IOException e) {
+            Slog.w(TAG, "Can't sync: " + entry.syncFile, e);
+        } finally {
+            try { file.close(); } catch (IOException e) {}
+        }
+    }
+
+    private void startSegment() throws IOException {
+        closeOutput();
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't mkdir: " + mDir);
+        }
+        final int id = mSegments.size() > 0 ? mSegments.keyAt(mSegments.size() - 1) + 1 : 0;
+        final Segment segment = new Segment(id, new File(mDir, id + SEGMENT_SUFFIX));
+        mOutput = new FileOutputStream(segment.file, true);
+        mSegments.put(id, segment);
+        mCurrent = segment;
+    }
+
+    private void index(Segment segment, String tag, long time, int flags, int offset,
+            int length) {
+        Index tagIndex = mByTag.get(tag);
+        if (tagIndex == null) {
+            tagIndex = new Index(tag);
+            mByTag.put(tag, tagIndex);
+        }
+        tagIndex.add(time, segment.id, offset, null, 0, 0);
+        mAll.add(time, segment.id, offset, tagIndex.tag, flags, length);
+        segment.entries++;
+    }
+
+    /** @return the number of entries */
+    int size() {
+        return mAll.size();
+    }
+
+    /** @return the time of the oldest entry, or Long.MAX_VALUE if there are none */
+    long getFirstTime() {
+        return mAll.size() > 0 ? mAll.times[mAll.start] : Long.MAX_VALUE;
+    }
+
+    /** @return the time of the newest entry before {@code millis}, or 0 if there is none */
+    long getLastTimeBefore(long millis) {
+        final int pos = mAll.after(millis - 1) - 1;
+        return pos >= mAll.start ? mAll.times[pos] : 0;
+    }
+
+    /** @return the first time from {@code millis} on that no entry has */
+    long nextFreeTime(long millis) {
+        while (mAll.indexOf(millis) >= 0) millis++;
+        return millis;
+    }
+
+    /**
+     * @param tag of the entry, or null for any
+     * @return the time of the first entry after {@code millis}, or Long.MAX_VALUE
+     */
+    long getNextTime(String tag, long millis) {
+        final Index index = tag == null ? mAll : mByTag.get(tag);
+        if (index == null) return Long.MAX_VALUE;
+        final int pos = index.after(millis);
+        return pos < index.end ? index.times[pos] : Long.MAX_VALUE;
+    }
+
+    /** @return the entry added at {@code time}, or null if there is none */
+    DropBoxManager.Entry getEntry(long time) throws IOException {
+        final int pos = mAll.indexOf(time);
+        if (pos < 0) return null;
+        final Segment segment = mSegments.get(mAll.segments[pos]);
+        final FileInputStream file = new FileInputStream(segment.file);
+        final Record record;
+        try {
+            file.getChannel().position(mAll.offsets[pos]);
+            final CRC32 crc = new CRC32();
+            record = readRecord(new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(file), crc)), crc);
+        } finally {
+            file.close();
+        }
+        if (record.time != time) {
+            throw new IOException("Expected entry at " + time + " in " + segment.file);
+        }
+
+        byte[] data = record.data;
+        if ((record.flags & DropBoxManager.IS_GZIPPED) != 0) {
+            // Entries built from bytes expect them uncompressed.
+            final InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            try {
+                final byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            } finally {
+                in.close();
+            }
+            data = out.toByteArray();
+        }
+        return new DropBoxManager.Entry(record.tag, record.time, data,
+                record.flags & ~DropBoxManager.IS_GZIPPED);
+    }
+
+    /** Removes the oldest entry, and its segment if that was the last entry in it. */
+    void removeFirst() {
+        final int pos = mAll.start;
+        final long time = mAll.times[pos];
+        final Index tagIndex = mByTag.get(mAll.tags[pos]);
+        final Segment segment = mSegments.get(mAll.segments[pos]);
+        mAll.remove(pos);
+        tagIndex.remove(tagIndex.indexOf(time));
+        if (tagIndex.size() == 0) mByTag.remove(tagIndex.tag);
+        if (--segment.entries == 0) deleteSegment(segment);
+    }
+
+    /**
+     * Deletes the oldest segment with all of its entries.
+     * @return false if there are no segments
+     */
+    boolean dropOldestSegment() {
+        if (mSegments.size() == 0) return false;
+        final Segment segment = mSegments.valueAt(0);
+        mAll.removeSegment(segment.id);
+        final Iterator<Index> it = mByTag.values().iterator();
+        while (it.hasNext()) {
+            final Index tagIndex = it.next();
+            tagIndex.removeSegment(segment.id);
+            if (tagIndex.size() == 0) it.remove();
+        }
+        deleteSegment(segment);
+        mDroppedSegments++;
+        return true;
+    }
+
+    private void deleteSegment(Segment segment) {
+        if (segment == mCurrent) {
+            closeOutput();
+            mCurrent = null;
+        }
+        mSegments.remove(segment.id);
+        if (!segment.file.delete()) Slog.w(TAG, "Can't delete: " + segment.file);
+    }
+
+    /** @return the blocks used by all segments */
+    int getBlocks() {
+        long blocks = 0;
+        for (int i = 0; i < mSegments.size(); i++) {
+            blocks += (mSegments.valueAt(i).length + mBlockSize - 1) / mBlockSize;
+        }
+        return (int) blocks;
+    }
+
+    // Entries by position, oldest first, for listing them.
+
+    long getTime(int i) {
+        return mAll.times[mAll.start + i];
+    }
+
+    String getTag(int i) {
+        return mAll.tags[mAll.start + i];
+    }
+
+    int getFlags(int i) {
+        return mAll.flags[mAll.start + i];
+    }
+
+    int getLength(int i) {
+        return mAll.lengths[mAll.start + i];
+    }
+
+    /** @return where the entry added at {@code time} is kept, for humans */
+    String getLocation(long time) {
+        final int pos = mAll.indexOf(time);
+        if (pos < 0) return null;
+        return mSegments.get(mAll.segments[pos]).file.getPath() + "@" + mAll.offsets[pos];
+    }
+
+    void close() {
+        closeOutput();
+    }
+
+    private void closeOutput() {
+        if (mOutput != null) {
+            try { mOutput.close(); } catch (IOException e) {}
+            mOutput = null;
+        }
+    }
+
+    void dump(StringBuilder out) {
+        out.append("Segments: ").append(mSegments.size())
+                .append(" (").append(getBlocks()).append(" blocks), ")
+                .append(mAll.size()).append(" entries, ")
+                .append(mByTag.size()).append(" tags, ")
+                .append(mDroppedSegments).append(" dropped, ")
+                .append(mTruncatedSegments).append(" truncated\n");
+    }
+}
@@ -28,6 +28,7 @@ import android.os.ServiceManager;
 import android.os.StatFs;
 import android.provider.Settings;
 import android.test.AndroidTestCase;
+import android.util.Log;
 
 import com.android.server.DropBoxManagerService;
 
@@ -38,6 +39,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.Random;
 import java.util.zip.GZIPOutputStream;
 
@@ -48,6 +50,7 @@ public class DropBoxTest extends AndroidTestCase {
         Settings.Global.putString(cr, Settings.Global.DROPBOX_AGE_SECONDS, "");
         Settings.Global.putString(cr, Settings.Global.DROPBOX_MAX_FILES, "");
         Settings.Global.putString(cr, Settings.Global.DROPBOX_QUOTA_KB, "");
+        Settings.Global.putString(cr, Settings.Global.DROPBOX_SEGMENTS, "");
         Settings.Global.putString(cr, Settings.Global.DROPBOX_TAG_PREFIX + "DropBoxTest", "");
     }
 
@@ -514,6 +517,188 @@ public class DropBoxTest extends AndroidTestCase {
         f2.close();
     }
 
+    public void testSegmentEntries() throws Exception {
+        File dir = getEmptyDir("testSegmentEntries");
+        int blockSize = new StatFs(dir.getPath()).getBlockSize();
+        ContentResolver cr = getContext().getContentResolver();
+        Settings.Global.putString(cr, Settings.Global.DROPBOX_SEGMENTS, "1");
+
+        DropBoxManagerService service = new DropBoxManagerService(getContext(), dir);
+        DropBoxManager dropbox = new DropBoxManager(service);
+
+        // Small entries go into a segment, big ones still get files
+        StringBuilder big = new StringBuilder();
+        while (big.length() < blockSize * 2) big.append("A1 is big enough to be compressed. ");
+        dropbox.addText("DropBoxTest.A", "A0");
+        dropbox.addText("DropBoxTest.B", "B0");
+        addRandomEntry(dropbox, "DropBoxTest.C", DropBoxSegmentStore.MAX_ENTRY_BYTES + 1);
+        dropbox.addText("DropBoxTest.A", big.toString());
+
+        File[] files = dir.listFiles();
+        assertEquals(2, files.length);
+        assertTrue(new File(dir, "segments/0.seg").isFile());
+
+        for (int pass = 0; pass < 2; pass++) {
+            DropBoxManager.Entry a0 = dropbox.getNextEntry("DropBoxTest.A", 0);
+            DropBoxManager.Entry a1 = dropbox.getNextEntry("DropBoxTest.A", a0.getTimeMillis());
+            assertTrue(null == dropbox.getNextEntry("DropBoxTest.A", a1.getTimeMillis()));
+            assertEquals("A0", a0.getText(80));
+            assertEquals(big.toString(), a1.getText(big.length() + 1));
+            assertEquals(big.length(), getEntrySize(a1));
+
+            DropBoxManager.Entry x0 = dropbox.getNextEntry(null, 0);
+            DropBoxManager.Entry x1 = dropbox.getNextEntry(null, x0.getTimeMillis());
+            DropBoxManager.Entry x2 = dropbox.getNextEntry(null, x1.getTimeMillis());
+            DropBoxManager.Entry x3 = dropbox.getNextEntry(null, x2.getTimeMillis());
+            assertTrue(null == dropbox.getNextEntry(null, x3.getTimeMillis()));
+            assertEquals("DropBoxTest.A", x0.getTag());
+            assertEquals("DropBoxTest.B", x1.getTag());
+            assertEquals("DropBoxTest.C", x2.getTag());
+            assertEquals("DropBoxTest.A", x3.getTag());
+            assertEquals(DropBoxSegmentStore.MAX_ENTRY_BYTES + 1, getEntrySize(x2));
+
+            a0.close();
+            a1.close();
+            x0.close();
+            x1.close();
+            x2.close();
+            x3.close();
+
+            // Everything is still there after a restart
+            service.stop();
+            service = new DropBoxManagerService(getContext(), dir);
+            dropbox = new DropBoxManager(service);
+        }
+        service.stop();
+    }
+
+    public void testSegmentTornWrite() throws Exception {
+        File dir = getEmptyDir("testSegmentTornWrite");
+        ContentResolver cr = getContext().getContentResolver();
+        Settings.Global.putString(cr, Settings.Global.DROPBOX_SEGMENTS, "1");
+
+        DropBoxManagerService service = new DropBoxManagerService(getContext(), dir);
+        DropBoxManager dropbox = new DropBoxManager(service);
+        dropbox.addText("DropBoxTest", "TEST0");
+        dropbox.addText("DropBoxTest", "TEST1");
+        service.stop();
+
+        // Cut the last entry short, as a crash in the middle of a write would
+        File segment = new File(dir, "segments/0.seg");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        service = new DropBoxManagerService(getContext(), dir);
+        dropbox = new DropBoxManager(service);
+        dropbox.addText("DropBoxTest", "TEST2");
+
+        DropBoxManager.Entry e0 = dropbox.getNextEntry("DropBoxTest", 0);
+        DropBoxManager.Entry e1 = dropbox.getNextEntry("DropBoxTest", e0.getTimeMillis());
+        assertTrue(null == dropbox.getNextEntry("DropBoxTest", e1.getTimeMillis()));
+        assertEquals("TEST0", e0.getText(80));
+        assertEquals("TEST2", e1.getText(80));
+
+        e0.close();
+        e1.close();
+        service.stop();
+    }
+
+    public void testSegmentSizeLimits() throws Exception {
+        File dir = getEmptyDir("testSegmentSizeLimits");
+        int blockSize = new StatFs(dir.getPath()).getBlockSize();
+        int segmentBlocks = DropBoxSegmentStore.SEGMENT_BYTES / blockSize;
+
+        // Leave room for about three segments
+        int kb = segmentBlocks * 3 * blockSize / 1024;
+        ContentResolver cr = getContext().getContentResolver();
+        Settings.Global.putString(cr, Settings.Global.DROPBOX_QUOTA_KB, Integer.toString(kb));
+        Settings.Global.putString(cr, Settings.Global.DROPBOX_MAX_FILES, "100000");
+        Settings.Global.putString(cr, Settings.Global.DROPBOX_SEGMENTS, "1");
+
+        DropBoxManagerService service = new DropBoxManagerService(getContext(), dir);
+        DropBoxManager dropbox = new DropBoxManager(service);
+
+        // Random data doesn't compress, so each entry takes about a block
+        for (int i = 0; i < segmentBlocks * 6; i++) {
+            addRandomEntry(dropbox, "DropBoxTest", blockSize);
+        }
+
+        // Whole segments were dropped, oldest first, and the rest fit
+        File[] segments = new File(dir, "segments").listFiles();
+        assertTrue(segments.length > 1);
+        assertTrue(segments.length <= 4);
+        assertFalse(new File(dir, "segments/0.seg").exists());
+        long bytes = 0;
+        for (File segment : segments) bytes += segment.length();
+        assertTrue(bytes <= (kb + DropBoxSegmentStore.MAX_ENTRY_BYTES / 1024) * 1024L);
+
+        int count = 0;
+        DropBoxManager.Entry e = dropbox.getNextEntry(null, 0);
+        while (e != null) {
+            assertEquals(blockSize, getEntrySize(e));
+            e.close();
+            count++;
+            e = dropbox.getNextEntry(null, e.getTimeMillis());
+        }
+        assertTrue(count > segmentBlocks);
+        assertTrue(count < segmentBlocks * 6);
+        service.stop();
+    }
+
+    public void testSegmentStoreLoad() throws Exception {
+        File dir = getEmptyDir("testSegmentStoreLoad");
+        int blockSize = new StatFs(dir.getPath()).getBlockSize();
+        int entries = 100000, tags = 50;
+
+        // Syncing each write would measure the flash rather than the store
+        DropBoxSegmentStore store = new DropBoxSegmentStore(dir, blockSize, false);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < entries; i++) {
+            store.add("DropBoxTest." + (i % tags), 1000000 + i,
+                    ("entry " + i + " of the load test").getBytes(), DropBoxManager.IS_TEXT);
+        }
+        long added = System.currentTimeMillis();
+        assertEquals(entries, store.size());
+
+        // Step through one tag, then look up entries all over the range
+        int found = 0;
+        for (long t = store.getNextTime("DropBoxTest.7", 0); t != Long.MAX_VALUE;
+                t = store.getNextTime("DropBoxTest.7", t)) {
+            assertEquals(7, (t - 1000000) % tags);
+            found++;
+        }
+        assertEquals(entries / tags, found);
+        for (int i = 0; i < entries; i += 997) {
+            assertEquals(1000000 + i, store.getNextTime(null, 1000000 + i - 1));
+            DropBoxManager.Entry e = store.getEntry(1000000 + i);
+            assertEquals("entry " + i + " of the load test", e.getText(80));
+            e.close();
+        }
+        long queried = System.currentTimeMillis();
+        store.close();
+
+        // Reload, then trim by entry and by segment
+        store = new DropBoxSegmentStore(dir, blockSize, false);
+        store.load();
+        long loaded = System.currentTimeMillis();
+        assertEquals(entries, store.size());
+        // Loading is linear in the entries, like adding them; it runs under the service lock
+        assertTrue("load took " + (loaded - queried) + "ms",
+                loaded - queried < 4 * (added - start) + 1000);
+        for (int i = 0; i < 1000; i++) store.removeFirst();
+        assertEquals(1000000 + 1000, store.getFirstTime());
+        int blocks = store.getBlocks();
+        assertTrue(store.dropOldestSegment());
+        assertTrue(store.getBlocks() < blocks);
+        assertTrue(store.getFirstTime() > 1000000 + 1000);
+        assertEquals(store.getFirstTime(), store.getNextTime(null, 0));
+        store.close();
+
+        Log.i("DropBoxTest", entries + " entries: add " + (added - start)
+                + "ms, query " + (queried - added) + "ms, load " + (loaded - queried) + "ms");
+    }
+
     public void testCreateDropBoxManagerWithInvalidDirectory() throws Exception {
         // If created with an invalid directory, the DropBoxManager should suffer quietly
         // and fail all operations (this is how it survives a full disk).
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -30,6 +31,7 @@ import android.util.FastImmutableArraySet;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.MutableInt;
 import android.util.PrintWriterPrinter;
 import android.util.Slog;
@@ -49,6 +51,9 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
     final private static boolean localLOGV = DEBUG || false;
     final private static boolean localVerificationLOGV = DEBUG || false;
 
+    /** How many recent intent shapes to remember the matching filters of. */
+    final private static int QUERY_CACHE_SIZE = 64;
+
     public void addFilter(F f) {
         if (localLOGV) {
             Slog.v(TAG, "Adding filter: " + f);
@@ -56,9 +61,14 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             Slog.v(TAG, "    Building Lookup Maps:");
         }
 
+        mQueryCache.evictAll();
         mFilters.add(f);
+        mFilterOrder.put(f, mNextFilterOrder++);
         int numS = register_intent_filter(f, f.schemesIterator(),
                 mSchemeToFilter, "      Scheme: ");
+        if (numS != 0) {
+            register_scheme_hosts(f);
+        }
         int numT = register_mime_types(f, "      Type: ");
         if (numS == 0 && numT == 0) {
             register_intent_filter(f, f.actionsIterator(),
@@ -200,8 +210,13 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             Slog.v(TAG, "    Cleaning Lookup Maps:");
         }
 
+        mQueryCache.evictAll();
+        mFilterOrder.remove(f);
         int numS = unregister_intent_filter(f, f.schemesIterator(),
                 mSchemeToFilter, "      Scheme: ");
+        if (numS != 0) {
+            unregister_scheme_hosts(f);
+        }
         int numT = unregister_mime_types(f, "      Type: ");
         if (numS == 0 && numT == 0) {
             unregister_intent_filter(f, f.actionsIterator(),
@@ -279,6 +294,21 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         return printedSomething;
     }
 
+    /**
+     * Prints how often {@link #queryIntent} found the matching filters cached.
+     */
+    public void dumpQueryCacheStats(PrintWriter out, String prefix) {
+        final int hits = mQueryCache.hitCount();
+        final int misses = mQueryCache.missCount();
+        out.print(prefix); out.print("entries="); out.print(mQueryCache.size());
+                out.print("/"); out.print(mQueryCache.maxSize());
+                out.print(" hits="); out.print(hits);
+                out.print(" misses="); out.print(misses);
+                out.print(" hitRate=");
+                out.print(hits + misses > 0 ? hits * 100L / (hits + misses) : 0);
+                out.println("%");
+    }
+
     public boolean dump(PrintWriter out, String title, String prefix, String packageName,
             boolean printFilter, boolean collapseDuplicates) {
         String innerPrefix = prefix + "  ";
@@ -381,6 +411,46 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             TAG, "Resolving type=" + resolvedType + " scheme=" + scheme
             + " defaultOnly=" + defaultOnly + " userId=" + userId + " of " + intent);
 
+        if (!debug) {
+            // Which filters match depends only on the shape of the intent,
+            // so reuse the matches found for the same shape earlier and only
+            // redo the checks that depend on the caller and on package state.
+            final String key = getQueryKey(intent, resolvedType);
+            Matches matches = mQueryCache.get(key);
+            if (matches == null) {
+                matches = findMatches(intent, resolvedType,
+                        collectCuts(intent, resolvedType, false));
+                mQueryCache.put(key, matches);
+            }
+            buildResolveList(intent, defaultOnly, matches, finalList, userId);
+            sortResults(finalList);
+            return finalList;
+        }
+
+        ArrayList<F[]> cuts = collectCuts(intent, resolvedType, debug);
+        FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+        for (int i = 0; i < cuts.size(); i++) {
+            buildResolveList(intent, categories, debug, defaultOnly,
+                    resolvedType, scheme, cuts.get(i), finalList, userId);
+        }
+        sortResults(finalList);
+
+        if (debug) {
+            Slog.v(TAG, "Final result list:");
+            for (int i=0; i<finalList.size(); i++) {
+                Slog.v(TAG, "  " + finalList.get(i));
+            }
+        }
+        return finalList;
+    }
+
+    /**
+     * Returns the lists of filters that an intent needs to be matched
+     * against, in the order their results go into the result list.
+     */
+    private ArrayList<F[]> collectCuts(Intent intent, String resolvedType, boolean debug) {
+        String scheme = intent.getScheme();
+
         F[] firstTypeCut = null;
         F[] secondTypeCut = null;
         F[] thirdTypeCut = null;
@@ -425,10 +495,11 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
 
         // If the intent includes a data URI, then we want to collect all of
-        // the filters that match its scheme (we will further refine matches
-        // on the authority and path by directly matching each resulting filter).
+        // the filters that match its scheme and could match its host (we will
+        // further refine matches on the authority and path by directly
+        // matching each resulting filter).
         if (scheme != null) {
-            schemeCut = mSchemeToFilter.get(scheme);
+            schemeCut = getSchemeCut(scheme, intent.getData());
             if (debug) Slog.v(TAG, "Scheme list: " + Arrays.toString(schemeCut));
         }
 
@@ -440,32 +511,137 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             if (debug) Slog.v(TAG, "Action list: " + Arrays.toString(firstTypeCut));
         }
 
-        FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+        ArrayList<F[]> cuts = new ArrayList<F[]>(4);
         if (firstTypeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, firstTypeCut, finalList, userId);
+            cuts.add(firstTypeCut);
         }
         if (secondTypeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, secondTypeCut, finalList, userId);
+            cuts.add(secondTypeCut);
         }
         if (thirdTypeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, thirdTypeCut, finalList, userId);
+            cuts.add(thirdTypeCut);
         }
         if (schemeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, schemeCut, finalList, userId);
+            cuts.add(schemeCut);
         }
-        sortResults(finalList);
+        return cuts;
+    }
 
-        if (debug) {
-            Slog.v(TAG, "Final result list:");
-            for (int i=0; i<finalList.size(); i++) {
-                Slog.v(TAG, "  " + finalList.get(i));
+    /**
+     * Returns the filters registered for {@code scheme} that can match
+     * {@code data}: those for its host, and those that can match any host.
+     */
+    private F[] getSchemeCut(String scheme, Uri data) {
+        final F[] anyHost = mSchemeAnyHostToFilter.get(scheme);
+        final String host = data != null ? data.getHost() : null;
+        if (host == null) {
+            return anyHost;
+        }
+        final F[] hostCut = mSchemeHostToFilter.get(scheme + ':' + normalizeHost(host));
+        if (hostCut == null) {
+            return anyHost;
+        } else if (anyHost == null) {
+            return hostCut;
+        }
+
+        // Merge the two in registration order, which is the order of the
+        // full scheme list.
+        int na = 0;
+        while (na < hostCut.length && hostCut[na] != null) {
+            na++;
+        }
+        int nb = 0;
+        while (nb < anyHost.length && anyHost[nb] != null) {
+            nb++;
+        }
+        final F[] cut = newArray(na + nb);
+        int a = 0;
+        int b = 0;
+        int i = 0;
+        while (a < na && b < nb) {
+            if (mFilterOrder.get(hostCut[a]) < mFilterOrder.get(anyHost[b])) {
+                cut[i++] = hostCut[a++];
+            } else {
+                cut[i++] = anyHost[b++];
             }
         }
-        return finalList;
+        while (a < na) {
+            cut[i++] = hostCut[a++];
+        }
+        while (b < nb) {
+            cut[i++] = anyHost[b++];
+        }
+        return cut;
+    }
+
+    /**
+     * Returns a key that is equal for two intents exactly when every filter
+     * matches both of them, or neither, in the same way.
+     */
+    public static String getQueryKey(Intent intent, String resolvedType) {
+        final StringBuilder sb = new StringBuilder(128);
+        appendQueryKeyPart(sb, intent.getAction());
+        appendQueryKeyPart(sb, resolvedType);
+        final Uri data = intent.getData();
+        if (data == null) {
+            sb.append('-');
+        } else {
+            // Opaque and hierarchical URIs can print the same but parse into
+            // different parts.
+            sb.append(data.isOpaque() ? 'o' : 'h');
+            appendQueryKeyPart(sb, data.toString());
+        }
+        final Set<String> categories = intent.getCategories();
+        if (categories != null) {
+            final String[] sorted = categories.toArray(new String[categories.size()]);
+            Arrays.sort(sorted);
+            for (String category : sorted) {
+                appendQueryKeyPart(sb, category);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendQueryKeyPart(StringBuilder sb, String part) {
+        if (part == null) {
+            sb.append('-');
+        } else {
+            sb.append(part.length()).append(':').append(part);
+        }
+    }
+
+    /**
+     * Matches an intent against each of {@code cuts}.
+     */
+    private Matches findMatches(Intent intent, String resolvedType, ArrayList<F[]> cuts) {
+        final String action = intent.getAction();
+        final String scheme = intent.getScheme();
+        final Uri data = intent.getData();
+        final FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+
+        final ArrayList<F> filters = new ArrayList<F>();
+        final ArrayList<Integer> matches = new ArrayList<Integer>();
+        final int[] cutEnds = new int[cuts.size()];
+        for (int c = 0; c < cutEnds.length; c++) {
+            final F[] src = cuts.get(c);
+            F filter;
+            for (int i = 0; i < src.length && (filter = src[i]) != null; i++) {
+                final int match = filter.match(action, resolvedType, scheme, data, categories,
+                        TAG);
+                if (match >= 0) {
+                    filters.add(filter);
+                    matches.add(match);
+                }
+            }
+            cutEnds[c] = filters.size();
+        }
+
+        final int N = filters.size();
+        final int[] matchArray = new int[N];
+        for (int i = 0; i < N; i++) {
+            matchArray[i] = matches.get(i);
+        }
+        return new Matches(filters.toArray(), matchArray, cutEnds);
     }
 
     /**
@@ -617,6 +793,77 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         return num;
     }
 
+    private final void register_scheme_hosts(F filter) {
+        final String[] hosts = getExactHosts(filter);
+        final Iterator<String> i = filter.schemesIterator();
+        while (i.hasNext()) {
+            String scheme = i.next();
+            if (hosts == null) {
+                addFilter(mSchemeAnyHostToFilter, scheme, filter);
+            } else {
+                for (String host : hosts) {
+                    addFilter(mSchemeHostToFilter, scheme + ':' + host, filter);
+                }
+            }
+        }
+    }
+
+    private final void unregister_scheme_hosts(F filter) {
+        final String[] hosts = getExactHosts(filter);
+        final Iterator<String> i = filter.schemesIterator();
+        while (i.hasNext()) {
+            String scheme = i.next();
+            if (hosts == null) {
+                remove_all_objects(mSchemeAnyHostToFilter, scheme, filter);
+            } else {
+                for (String host : hosts) {
+                    remove_all_objects(mSchemeHostToFilter, scheme + ':' + host, filter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct normalized hosts of {@code filter} if it can only
+     * match URIs with one of them, or null if it can match other URIs too:
+     * because it has no authorities, a wildcard one, or scheme specific parts.
+     */
+    private static String[] getExactHosts(IntentFilter filter) {
+        final int N = filter.countDataAuthorities();
+        if (N == 0 || filter.countDataSchemeSpecificParts() != 0) {
+            return null;
+        }
+        final ArraySet<String> hosts = new ArraySet<String>(N);
+        for (int i = 0; i < N; i++) {
+            final String host = filter.getDataAuthority(i).getHost();
+            if (host.length() > 0 && host.charAt(0) == '*') {
+                return null;
+            }
+            hosts.add(normalizeHost(host));
+        }
+        return hosts.toArray(new String[hosts.size()]);
+    }
+
+    /**
+     * Maps {@code host} to a form that is equal for two hosts exactly when
+     * {@link String#compareToIgnoreCase} says they are, as authorities
+     * compare hosts that way.
+     */
+    private static String normalizeHost(String host) {
+        final int N = host.length();
+        for (int i = 0; i < N; i++) {
+            final char c = host.charAt(i);
+            if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+                final char[] chars = host.toCharArray();
+                for (int j = i; j < N; j++) {
+                    chars[j] = Character.toLowerCase(Character.toUpperCase(chars[j]));
+                }
+                return new String(chars);
+            }
+        }
+        return host;
+    }
+
     private final int register_intent_filter(F filter, Iterator<String> i,
             ArrayMap<String, F[]> dest, String prefix) {
         if (i == null) {
@@ -685,6 +932,56 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         return new FastImmutableArraySet<String>(categories.toArray(new String[categories.size()]));
     }
 
+    /**
+     * Adds results for {@code matches} to {@code dest}, applying the checks
+     * that depend on the caller rather than on the shape of the intent. This
+     * gives the same results as matching each filter again.
+     */
+    @SuppressWarnings("unchecked")
+    private void buildResolveList(Intent intent, boolean defaultOnly, Matches matches,
+            List<R> dest, int userId) {
+        final String packageName = intent.getPackage();
+        final boolean excludingStopped = intent.isExcludingStopped();
+
+        int start = 0;
+        for (int c = 0; c < matches.cutEnds.length; c++) {
+            final int end = matches.cutEnds[c];
+            boolean hasNonDefaults = false;
+            for (int i = start; i < end; i++) {
+                final F filter = (F) matches.filters[i];
+                if (excludingStopped && isFilterStopped(filter, userId)) {
+                    continue;
+                }
+                if (packageName != null && !isPackageForFilter(packageName, filter)) {
+                    continue;
+                }
+                if (!allowFilterResult(filter, dest)) {
+                    continue;
+                }
+                if (!defaultOnly || filter.hasCategory(Intent.CATEGORY_DEFAULT)) {
+                    final R oneResult = newResult(filter, matches.matches[i], userId);
+                    if (oneResult != null) {
+                        dest.add(oneResult);
+                    }
+                } else {
+                    hasNonDefaults = true;
+                }
+            }
+            if (hasNonDefaults) {
+                warnNonDefaults(dest);
+            }
+            start = end;
+        }
+    }
+
+    private static void warnNonDefaults(List<?> dest) {
+        if (dest.size() == 0) {
+            Slog.w(TAG, "resolveIntent failed: found match, but none with CATEGORY_DEFAULT");
+        } else if (dest.size() > 1) {
+            Slog.w(TAG, "resolveIntent: multiple matches, only some with CATEGORY_DEFAULT");
+        }
+    }
+
     private void buildResolveList(Intent intent, FastImmutableArraySet<String> categories,
             boolean debug, boolean defaultOnly,
             String resolvedType, String scheme, F[] src, List<R> dest, int userId) {
@@ -780,11 +1077,7 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
 
         if (hasNonDefaults) {
-            if (dest.size() == 0) {
-                Slog.w(TAG, "resolveIntent failed: found match, but none with CATEGORY_DEFAULT");
-            } else if (dest.size() > 1) {
-                Slog.w(TAG, "resolveIntent: multiple matches, only some with CATEGORY_DEFAULT");
-            }
+            warnNonDefaults(dest);
         }
     }
 
@@ -840,4 +1133,49 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
      * All of the actions that have been registered and specified a MIME type.
      */
     private final ArrayMap<String, F[]> mTypedActionToFilter = new ArrayMap<String, F[]>();
+
+    /**
+     * The filters with URI schemes that only match a fixed set of hosts,
+     * keyed by scheme and normalized host, such as "http:www.example.com".
+     * Together with {@link #mSchemeAnyHostToFilter} this splits up
+     * {@link #mSchemeToFilter}.
+     */
+    private final ArrayMap<String, F[]> mSchemeHostToFilter = new ArrayMap<String, F[]>();
+
+    /**
+     * The filters with URI schemes that can match a URI with any host, or
+     * without one, keyed by scheme.
+     */
+    private final ArrayMap<String, F[]> mSchemeAnyHostToFilter = new ArrayMap<String, F[]>();
+
+    /**
+     * When each registered filter was added, to keep lists merged from
+     * several maps in registration order.
+     */
+    private final HashMap<F, Integer> mFilterOrder = new HashMap<F, Integer>();
+    private int mNextFilterOrder;
+
+    /**
+     * The filters that matched recently queried intents, keyed by
+     * {@link #getQueryKey}. Cleared whenever a filter is added or removed.
+     */
+    private final LruCache<String, Matches> mQueryCache =
+            new LruCache<String, Matches>(QUERY_CACHE_SIZE);
+
+    /**
+     * Filters that matched an intent, in result order, with their match
+     * values. {@code cutEnds[c]} is where the matches from the c-th list of
+     * candidates end.
+     */
+    private static final class Matches {
+        final Object[] filters;
+        final int[] matches;
+        final int[] cutEnds;
+
+        Matches(Object[] filters, int[] matches, int[] cutEnds) {
+            this.filters = filters;
+            this.matches = matches;
+            this.cutEnds = cutEnds;
+        }
+    }
 }
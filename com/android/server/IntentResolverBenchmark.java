@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server;
+
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+/**
+ * Resolves web intents against a large set of filters, most of which claim a
+ * single host, the way a device with many installed apps looks to the
+ * package manager. Repeated intents hit the query cache; unique paths only
+ * benefit from the host index.
+ */
+public class IntentResolverBenchmark extends SimpleBenchmark {
+
+    @Param({"500", "5000"})
+    int mFilters;
+
+    private Resolver mResolver;
+    private Intent[] mRepeated;
+    private Intent[] mUnique;
+
+    private static class Resolver extends IntentResolver<IntentFilter, IntentFilter> {
+        @Override
+        protected boolean isPackageForFilter(String packageName, IntentFilter filter) {
+            return false;
+        }
+
+        @Override
+        protected IntentFilter[] newArray(int size) {
+            return new IntentFilter[size];
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mResolver = new Resolver();
+        for (int i = 0; i < mFilters; i++) {
+            final IntentFilter filter = new IntentFilter(Intent.ACTION_VIEW);
+            filter.addCategory(Intent.CATEGORY_DEFAULT);
+            filter.addCategory(Intent.CATEGORY_BROWSABLE);
+            filter.addDataScheme("http");
+            filter.addDataScheme("https");
+            // One filter in fifty is a browser that takes any host.
+            if (i % 50 != 0) {
+                filter.addDataAuthority("host" + i + ".example.com", null);
+            }
+            mResolver.addFilter(filter);
+        }
+
+        mRepeated = new Intent[16];
+        for (int i = 0; i < mRepeated.length; i++) {
+            mRepeated[i] = newIntent("http://host" + (i * 7 + 1) + ".example.com/");
+        }
+        mUnique = new Intent[1024];
+        for (int i = 0; i < mUnique.length; i++) {
+            mUnique[i] = newIntent("https://host" + (i % mFilters) + ".example.com/page" + i);
+        }
+    }
+
+    private static Intent newIntent(String uri) {
+        final Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(uri));
+        intent.addCategory(Intent.CATEGORY_BROWSABLE);
+        return intent;
+    }
+
+    private int query(Intent intent) {
+        return mResolver.queryIntent(intent, null, true, 0).size();
+    }
+
+    public int timeRepeatedIntent(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            sum += query(mRepeated[i % mRepeated.length]);
+        }
+        return sum;
+    }
+
+    public int timeUniqueIntent(int reps) {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            sum += query(mUnique[i % mUnique.length]);
+        }
+        return sum;
+    }
+}
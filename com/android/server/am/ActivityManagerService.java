@@ -351,6 +351,10 @@ public final class ActivityManagerService extends ActivityManagerNative
     static final int BROADCAST_FG_TIMEOUT = 10*1000;
     static final int BROADCAST_BG_TIMEOUT = 60*1000;
 
+    // Number of shards each broadcast queue dispatches unordered broadcasts to
+    // manifest receivers through; 0 dispatches them on the queue itself.
+    static final int BROADCAST_SHARDS = SystemProperties.getInt("ro.am.broadcast_shards", 0);
+
     // How long we wait until we timeout on key dispatching.
     static final int KEY_DISPATCHING_TIMEOUT = 5*1000;
 
@@ -421,9 +425,9 @@ public final class ActivityManagerService extends ActivityManagerNative
 
     BroadcastQueue mFgBroadcastQueue;
     BroadcastQueue mBgBroadcastQueue;
-    // Convenient for easy iteration over the queues. Foreground is first
-    // so that dispatch of foreground broadcasts gets precedence.
-    final BroadcastQueue[] mBroadcastQueues = new BroadcastQueue[2];
+    // Convenient for easy iteration over the queues, including their shards.
+    // Foreground is first so that dispatch of foreground broadcasts gets precedence.
+    final BroadcastQueue[] mBroadcastQueues;
 
     BroadcastQueue broadcastQueueForIntent(Intent intent) {
         final boolean isFg = (intent.getFlags() & Intent.FLAG_RECEIVER_FOREGROUND) != 0;
@@ -777,6 +781,11 @@ public final class ActivityManagerService extends ActivityManagerNative
         }
     };
 
+    /**
+     * Manifest receivers that recent broadcast intents resolved to.
+     */
+    final ReceiverResolutionCache mReceiverResolutionCache = new ReceiverResolutionCache();
+
     /**
      * State of all active sticky broadcasts per user.  Keys are the action of the
      * sticky Intent, values are an ArrayList of all broadcasted intents with
@@ -2300,11 +2309,15 @@ public final class ActivityManagerService extends ActivityManagerNative
         mUiHandler = new UiHandler();
 
         mFgBroadcastQueue = new BroadcastQueue(this, mHandler,
-                "foreground", BROADCAST_FG_TIMEOUT, false);
+                "foreground", BROADCAST_FG_TIMEOUT, false, BROADCAST_SHARDS);
         mBgBroadcastQueue = new BroadcastQueue(this, mHandler,
-                "background", BROADCAST_BG_TIMEOUT, true);
+                "background", BROADCAST_BG_TIMEOUT, true, BROADCAST_SHARDS);
+        mBroadcastQueues = new BroadcastQueue[2 * (1 + BROADCAST_SHARDS)];
         mBroadcastQueues[0] = mFgBroadcastQueue;
-        mBroadcastQueues[1] = mBgBroadcastQueue;
+        System.arraycopy(mFgBroadcastQueue.mShards, 0, mBroadcastQueues, 1, BROADCAST_SHARDS);
+        mBroadcastQueues[1 + BROADCAST_SHARDS] = mBgBroadcastQueue;
+        System.arraycopy(mBgBroadcastQueue.mShards, 0, mBroadcastQueues, 2 + BROADCAST_SHARDS,
+                BROADCAST_SHARDS);
 
         mServices = new ActiveServices(this);
         mProviderMap = new ProviderMap(this);
@@ -8671,7 +8684,7 @@ public final class ActivityManagerService extends ActivityManagerNative
         for (int i = 0; i < procsToKill.size(); i++) {
             ProcessRecord pr = procsToKill.get(i);
             if (pr.setSchedGroup == Process.THREAD_GROUP_BG_NONINTERACTIVE
-                    && pr.curReceiver == null) {
+                    && pr.curReceivers.isEmpty()) {
                 pr.kill("remove task", true);
             } else {
                 // We delay killing processes that are not in the background or running a receiver.
@@ -13984,6 +13997,19 @@ public final class ActivityManagerService extends ActivityManagerNative
             }
         }
 
+        if (!onlyHistory && dumpPackage == null) {
+            if (needSep) {
+                pw.println();
+            }
+            pw.println("  Receiver resolution caches:");
+            pw.println("    Manifest receivers:");
+            mReceiverResolutionCache.dump(pw, "      ");
+            pw.println("    Registered receivers:");
+            mReceiverResolver.dumpQueryCacheStats(pw, "      ");
+            needSep = true;
+            printedAnything = true;
+        }
+
         for (BroadcastQueue q : mBroadcastQueues) {
             needSep = q.dumpLocked(fd, pw, args, opti, dumpAll, dumpPackage, needSep);
             printedAnything |= needSep;
@@ -16087,8 +16113,12 @@ public final class ActivityManagerService extends ActivityManagerNative
     // =========================================================
 
     boolean isPendingBroadcastProcessLocked(int pid) {
-        return mFgBroadcastQueue.isPendingBroadcastProcessLocked(pid)
-                || mBgBroadcastQueue.isPendingBroadcastProcessLocked(pid);
+        for (BroadcastQueue queue : mBroadcastQueues) {
+            if (queue.isPendingBroadcastProcessLocked(pid)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     void skipPendingBroadcastLocked(int pid) {
@@ -16332,22 +16362,8 @@ public final class ActivityManagerService extends ActivityManagerNative
                                 UserManager.DISALLOW_DEBUGGING_FEATURES, user)) {
                     continue;
                 }
-                List<ResolveInfo> newReceivers = AppGlobals.getPackageManager()
-                        .queryIntentReceivers(intent, resolvedType, STOCK_PM_FLAGS, user);
-                if (user != UserHandle.USER_OWNER && newReceivers != null) {
-                    // If this is not the primary user, we need to check for
-                    // any receivers that should be filtered out.
-                    for (int i=0; i<newReceivers.size(); i++) {
-                        ResolveInfo ri = newReceivers.get(i);
-                        if ((ri.activityInfo.flags&ActivityInfo.FLAG_PRIMARY_USER_ONLY) != 0) {
-                            newReceivers.remove(i);
-                            i--;
-                        }
-                    }
-                }
-                if (newReceivers != null && newReceivers.size() == 0) {
-                    newReceivers = null;
-                }
+                List<ResolveInfo> newReceivers = mReceiverResolutionCache.queryLocked(intent,
+                        resolvedType, user);
                 if (receivers == null) {
                     receivers = newReceivers;
                 } else if (newReceivers != null) {
@@ -16406,6 +16422,9 @@ public final class ActivityManagerService extends ActivityManagerNative
         // By default broadcasts do not go to stopped apps.
         intent.addFlags(Intent.FLAG_EXCLUDE_STOPPED_PACKAGES);
 
+        // Only set by the broadcast queue itself; a receiver may hand back the intent it got.
+        intent.setFlags(intent.getFlags() & ~Intent.FLAG_RECEIVER_SHARDED);
+
         // If we have not finished booting, don't allow this to launch new processes.
         if (!mProcessesReady && (intent.getFlags()&Intent.FLAG_RECEIVER_BOOT_UPGRADE) == 0) {
             intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY);
@@ -17007,7 +17026,11 @@ public final class ActivityManagerService extends ActivityManagerNative
             synchronized(this) {
                 BroadcastQueue queue = (flags & Intent.FLAG_RECEIVER_FOREGROUND) != 0
                         ? mFgBroadcastQueue : mBgBroadcastQueue;
-                r = queue.getMatchingOrderedReceiver(who);
+                r = (flags & Intent.FLAG_RECEIVER_SHARDED) != 0
+                        ? queue.getMatchingShardedReceiver(who) : null;
+                if (r == null) {
+                    r = queue.getMatchingOrderedReceiver(who);
+                }
                 if (r != null) {
                     doNext = r.queue.finishReceiverLocked(r, resultCode,
                         resultData, resultExtras, resultAbort, true);
@@ -17452,11 +17475,20 @@ public final class ActivityManagerService extends ActivityManagerNative
 
     // Returns which broadcast queue the app is the current [or imminent] receiver
     // on, or 'null' if the app is not an active broadcast recipient.
+    // If the app is receiving on more than one queue, a foreground one wins.
     private BroadcastQueue isReceivingBroadcast(ProcessRecord app) {
-        BroadcastRecord r = app.curReceiver;
-        if (r != null) {
-            return r.queue;
+        BroadcastQueue found = null;
+        for (int i = app.curReceivers.size() - 1; i >= 0; i--) {
+            BroadcastQueue queue = app.curReceivers.valueAt(i).queue;
+            if (queue == mFgBroadcastQueue || queue.mParent == mFgBroadcastQueue) {
+                return queue;
+            }
+            found = queue;
+        }
+        if (found != null) {
+            return found;
         }
+        BroadcastRecord r;
 
         // It's not the current receiver, but it might be starting up to become one
         synchronized (this) {
@@ -17617,7 +17649,7 @@ public final class ActivityManagerService extends ActivityManagerNative
             // It's placed in a sched group based on the nature of the
             // broadcast as reflected by which queue it's active in.
             adj = ProcessList.FOREGROUND_APP_ADJ;
-            schedGroup = (queue == mFgBroadcastQueue)
+            schedGroup = (queue == mFgBroadcastQueue || queue.mParent == mFgBroadcastQueue)
                     ? Process.THREAD_GROUP_DEFAULT : Process.THREAD_GROUP_BG_NONINTERACTIVE;
             app.adjType = "broadcast";
             procState = ActivityManager.PROCESS_STATE_RECEIVER;
@@ -18580,7 +18612,7 @@ public final class ActivityManagerService extends ActivityManagerNative
             if (DEBUG_SWITCH || DEBUG_OOM_ADJ) Slog.v(TAG_OOM_ADJ,
                     "Setting process group of " + app.processName
                     + " to " + app.curSchedGroup);
-            if (app.waitingToKill != null && app.curReceiver == null
+            if (app.waitingToKill != null && app.curReceivers.isEmpty()
                     && app.setSchedGroup == Process.THREAD_GROUP_BG_NONINTERACTIVE) {
                 app.kill(app.waitingToKill, true);
                 success = false;
@@ -19345,7 +19377,7 @@ public final class ActivityManagerService extends ActivityManagerNative
             for (i=mRemovedProcesses.size()-1; i>=0; i--) {
                 final ProcessRecord app = mRemovedProcesses.get(i);
                 if (app.activities.size() == 0
-                        && app.curReceiver == null && app.services.size() == 0) {
+                        && app.curReceivers.isEmpty() && app.services.size() == 0) {
                     Slog.i(
                         TAG, "Exiting empty application process "
                         + app.processName + " ("
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.am;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Replays a broadcast trace through a model of {@link BroadcastQueue}, once
+ * with every broadcast to manifest receivers dispatched serially and once with
+ * the unordered ones split over shards the way the queue splits them, and
+ * prints throughput and latency for both.
+ *
+ * <p>The model only keeps what decides the timing: a queue calls one receiver
+ * at a time, a process runs one receiver at a time, and a receiver takes as
+ * long as the trace says, process start included.  Run it with no arguments
+ * for a synthetic trace, or pass a shard count and a trace file with one
+ * broadcast per line:
+ * <pre>
+ * # enqueue-ms ordered receivers
+ * 0 0 com.example.app:10042:35,com.example.other:10051:2400
+ * </pre>
+ */
+final class BroadcastDispatchSimulator {
+
+    static final class Receiver {
+        final String processName;
+        final int uid;
+        final long duration;
+
+        Receiver(String processName, int uid, long duration) {
+            this.processName = processName;
+            this.uid = uid;
+            this.duration = duration;
+        }
+    }
+
+    static final class Broadcast {
+        final long enqueueTime;
+        final boolean ordered;
+        final ArrayList<Receiver> receivers;
+
+        Broadcast(long enqueueTime, boolean ordered, ArrayList<Receiver> receivers) {
+            this.enqueueTime = enqueueTime;
+            this.ordered = ordered;
+            this.receivers = receivers;
+        }
+    }
+
+    /** The part of a broadcast that one queue dispatches. */
+    private static final class Part {
+        final Broadcast broadcast;
+        final ArrayList<Receiver> receivers;
+        int nextReceiver;
+
+        Part(Broadcast broadcast, ArrayList<Receiver> receivers) {
+            this.broadcast = broadcast;
+            this.receivers = receivers;
+        }
+    }
+
+    private static final class Queue {
+        final String name;
+        final ArrayDeque<Part> parts = new ArrayDeque<Part>();
+        final BroadcastLatencyHistogram dispatchLatency = new BroadcastLatencyHistogram();
+        long freeAt;
+
+        Queue(String name) {
+            this.name = name;
+        }
+
+        /** When the next receiver could be called, ignoring whether its process is busy. */
+        long nextStart() {
+            return Math.max(freeAt, parts.peekFirst().broadcast.enqueueTime);
+        }
+    }
+
+    static final class Result {
+        final int shards;
+        final int broadcasts;
+        final BroadcastLatencyHistogram finishLatency = new BroadcastLatencyHistogram();
+        final ArrayList<Queue> queues = new ArrayList<Queue>();
+        long lastFinish;
+
+        Result(int shards, int broadcasts) {
+            this.shards = shards;
+            this.broadcasts = broadcasts;
+        }
+
+        void dump(PrintWriter pw) {
+            pw.print(shards == 0 ? "Serial" : "Sharded (" + shards + ")");
+            pw.print(": "); pw.print(broadcasts); pw.print(" broadcasts done at ");
+            pw.print(lastFinish); pw.print("ms, ");
+            pw.print(lastFinish > 0 ? broadcasts * 1000L / lastFinish : broadcasts);
+            pw.println(" broadcasts/s");
+            pw.println("  Enqueue to finish, all queues:");
+            finishLatency.dump(pw, "    ");
+            for (int i = 0; i < queues.size(); i++) {
+                final Queue q = queues.get(i);
+                if (q.dispatchLatency.getCount() == 0) {
+                    continue;
+                }
+                pw.print("  ["); pw.print(q.name); pw.println("] enqueue to dispatch:");
+                q.dispatchLatency.dump(pw, "    ");
+            }
+        }
+    }
+
+    /**
+     * Runs {@code trace}, which must be sorted by enqueue time, with the given
+     * number of shards; 0 dispatches everything on the main queue.
+     */
+    static Result simulate(ArrayList<Broadcast> trace, int shardCount) {
+        final Queue main = new Queue("main");
+        final Queue[] shards = new Queue[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Queue("main." + i);
+        }
+        final HashMap<Broadcast, int[]> pendingParts = new HashMap<Broadcast, int[]>();
+        for (int i = 0; i < trace.size(); i++) {
+            final Broadcast b = trace.get(i);
+            if (shardCount == 0 || b.ordered) {
+                main.parts.addLast(new Part(b, b.receivers));
+                pendingParts.put(b, new int[] { 1 });
+                continue;
+            }
+            final ArrayList<Receiver>[] split = newSplit(shardCount);
+            int count = 0;
+            for (int j = 0; j < b.receivers.size(); j++) {
+                final Receiver r = b.receivers.get(j);
+                final int shard = BroadcastQueue.shardFor(r.processName, r.uid, shardCount);
+                if (split[shard] == null) {
+                    split[shard] = new ArrayList<Receiver>();
+                    count++;
+                }
+                split[shard].add(r);
+            }
+            for (int j = 0; j < shardCount; j++) {
+                if (split[j] != null) {
+                    shards[j].parts.addLast(new Part(b, split[j]));
+                }
+            }
+            pendingParts.put(b, new int[] { count });
+        }
+
+        final ArrayList<Queue> queues = new ArrayList<Queue>();
+        queues.add(main);
+        for (int i = 0; i < shardCount; i++) {
+            queues.add(shards[i]);
+        }
+        final HashMap<String, Long> processFreeAt = new HashMap<String, Long>();
+        final Result result = new Result(shardCount, trace.size());
+        result.queues.addAll(queues);
+        while (true) {
+            Queue next = null;
+            for (int i = 0; i < queues.size(); i++) {
+                final Queue q = queues.get(i);
+                if (!q.parts.isEmpty() && (next == null || q.nextStart() < next.nextStart())) {
+                    next = q;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            final Part part = next.parts.peekFirst();
+            final Receiver r = part.receivers.get(part.nextReceiver);
+            final String process = r.uid + ":" + r.processName;
+            final Long busyUntil = processFreeAt.get(process);
+            final long start = Math.max(next.nextStart(), busyUntil != null ? busyUntil : 0);
+            final long end = start + r.duration;
+            processFreeAt.put(process, end);
+            next.freeAt = end;
+            if (part.nextReceiver++ == 0) {
+                next.dispatchLatency.add(start - part.broadcast.enqueueTime);
+            }
+            if (part.nextReceiver == part.receivers.size()) {
+                next.parts.removeFirst();
+                if (--pendingParts.get(part.broadcast)[0] == 0) {
+                    result.finishLatency.add(end - part.broadcast.enqueueTime);
+                }
+                result.lastFinish = Math.max(result.lastFinish, end);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Receiver>[] newSplit(int shardCount) {
+        return new ArrayList[shardCount];
+    }
+
+    /**
+     * A trace of apps reacting to system broadcasts: most receivers are quick,
+     * a few have to start their process or do real work first, and one in ten
+     * broadcasts is ordered.
+     */
+    static ArrayList<Broadcast> syntheticTrace(int broadcasts, int processes, long seed) {
+        final Random random = new Random(seed);
+        final ArrayList<Broadcast> trace = new ArrayList<Broadcast>(broadcasts);
+        long now = 0;
+        for (int i = 0; i < broadcasts; i++) {
+            now += random.nextInt(1000);
+            final int count = 1 + random.nextInt(4);
+            final ArrayList<Receiver> receivers = new ArrayList<Receiver>(count);
+            for (int j = 0; j < count; j++) {
+                final int app = random.nextInt(processes);
+                final int chance = random.nextInt(100);
+                final long duration = chance < 1 ? 1000 + random.nextInt(4000)
+                        : chance < 10 ? 200 + random.nextInt(800) : 1 + random.nextInt(40);
+                receivers.add(new Receiver("com.example.app" + app, 10000 + app, duration));
+            }
+            trace.add(new Broadcast(now, random.nextInt(10) == 0, receivers));
+        }
+        return trace;
+    }
+
+    static ArrayList<Broadcast> readTrace(String path) throws IOException {
+        final ArrayList<Broadcast> trace = new ArrayList<Broadcast>();
+        final BufferedReader in = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IOException("Bad trace line: " + line);
+                }
+                final ArrayList<Receiver> receivers = new ArrayList<Receiver>();
+                for (String receiver : fields[2].split(",")) {
+                    final String[] parts = receiver.split(":");
+                    if (parts.length != 3) {
+                        throw new IOException("Bad receiver " + receiver + " in: " + line);
+                    }
+                    receivers.add(new Receiver(parts[0], Integer.parseInt(parts[1]),
+                            Long.parseLong(parts[2])));
+                }
+                trace.add(new Broadcast(Long.parseLong(fields[0]), !"0".equals(fields[1]),
+                        receivers));
+            }
+        } finally {
+            in.close();
+        }
+        return trace;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int shards = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final ArrayList<Broadcast> trace = args.length > 1
+                ? readTrace(args[1]) : syntheticTrace(2000, 60, 42);
+        final PrintWriter pw = new PrintWriter(System.out);
+        simulate(trace, 0).dump(pw);
+        pw.println();
+        simulate(trace, shards).dump(pw);
+        pw.flush();
+    }
+}
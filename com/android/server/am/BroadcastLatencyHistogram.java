@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.am;
+
+import java.io.PrintWriter;
+
+/**
+ * Counts latencies in power-of-two millisecond buckets: bucket 0 holds 0ms,
+ * bucket i holds [2^(i-1), 2^i) ms and the last bucket everything longer.
+ * Fixed size and allocation free, so it can be updated on every dispatch.
+ */
+final class BroadcastLatencyHistogram {
+    static final int BUCKETS = 20;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mTotal;
+    private long mMax;
+
+    static int bucketFor(long millis) {
+        if (millis <= 0) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    /** Smallest latency that falls in {@code bucket}. */
+    static long bucketStart(int bucket) {
+        return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+
+    void add(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        mCounts[bucketFor(millis)]++;
+        mCount++;
+        mTotal += millis;
+        if (millis > mMax) {
+            mMax = millis;
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = mTotal = mMax = 0;
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    long getMax() {
+        return mMax;
+    }
+
+    long getMean() {
+        return mCount > 0 ? mTotal / mCount : 0;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile: the end of the bucket it
+     * falls in, or the maximum if that is smaller.
+     */
+    long getPercentile(int percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final long rank = (mCount * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : Math.min(mMax, bucketStart(i + 1) - 1);
+            }
+        }
+        return mMax;
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print("count="); pw.print(mCount);
+                pw.print(" mean="); pw.print(getMean());
+                pw.print("ms p50<="); pw.print(getPercentile(50));
+                pw.print("ms p90<="); pw.print(getPercentile(90));
+                pw.print("ms p99<="); pw.print(getPercentile(99));
+                pw.print("ms max="); pw.print(mMax); pw.println("ms");
+        if (mCount == 0) {
+            return;
+        }
+        pw.print(prefix);
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mCounts[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                pw.print(" ");
+            }
+            first = false;
+            pw.print(bucketStart(i));
+            pw.print(i == BUCKETS - 1 ? "+" : "-" + (bucketStart(i + 1) - 1));
+            pw.print("ms:"); pw.print(mCounts[i]);
+        }
+        pw.println();
+    }
+}
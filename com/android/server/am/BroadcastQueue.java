@@ -53,6 +53,17 @@ import static com.android.server.am.ActivityManagerDebugConfig.*;
  *
  * We keep two broadcast queues and associated bookkeeping, one for those at
  * foreground priority, and one for normal (background-priority) broadcasts.
+ *
+ * Each of them may have shards: queues of their own that take the unordered
+ * broadcasts to manifest receivers, split by receiving process.  Nothing is
+ * waiting on the outcome of such a broadcast, so a receiver that is slow to
+ * start or to finish only holds up later broadcasts to its own shard instead
+ * of everything behind it.  All receivers in one process land in the same
+ * shard, so sharded broadcasts reach a process one at a time and in order.
+ * That says nothing about the main queue: ordered broadcasts and broadcasts
+ * to registered receivers may overtake sharded ones, and a process may be
+ * running a receiver for its parent queue and one for its shard at the same
+ * time, which is why ProcessRecord keeps a set of current receivers.
  */
 public final class BroadcastQueue {
     private static final String TAG = "BroadcastQueue";
@@ -81,6 +92,27 @@ public final class BroadcastQueue {
      */
     final boolean mDelayBehindServices;
 
+    /**
+     * The queue this is a shard of, or null.
+     */
+    final BroadcastQueue mParent;
+
+    /**
+     * Shards that unordered broadcasts to manifest receivers are dispatched
+     * through; empty if this queue handles them itself.
+     */
+    final BroadcastQueue[] mShards;
+
+    /**
+     * Time from enqueueing a broadcast until its first receiver is called.
+     */
+    final BroadcastLatencyHistogram mDispatchLatency = new BroadcastLatencyHistogram();
+
+    /**
+     * Time from enqueueing a broadcast until it is done with all receivers.
+     */
+    final BroadcastLatencyHistogram mFinishLatency = new BroadcastLatencyHistogram();
+
     /**
      * Lists of all active broadcasts that are to be executed immediately
      * (without waiting for another broadcast to finish).  Currently this only
@@ -199,11 +231,28 @@ public final class BroadcastQueue {
 
     BroadcastQueue(ActivityManagerService service, Handler handler,
             String name, long timeoutPeriod, boolean allowDelayBehindServices) {
+        this(service, handler, name, timeoutPeriod, allowDelayBehindServices, 0, null);
+    }
+
+    BroadcastQueue(ActivityManagerService service, Handler handler,
+            String name, long timeoutPeriod, boolean allowDelayBehindServices, int shardCount) {
+        this(service, handler, name, timeoutPeriod, allowDelayBehindServices, shardCount, null);
+    }
+
+    private BroadcastQueue(ActivityManagerService service, Handler handler,
+            String name, long timeoutPeriod, boolean allowDelayBehindServices, int shardCount,
+            BroadcastQueue parent) {
         mService = service;
         mHandler = new BroadcastHandler(handler.getLooper());
         mQueueName = name;
         mTimeoutPeriod = timeoutPeriod;
         mDelayBehindServices = allowDelayBehindServices;
+        mParent = parent;
+        mShards = new BroadcastQueue[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            mShards[i] = new BroadcastQueue(service, handler, name + "." + i, timeoutPeriod,
+                    allowDelayBehindServices, 0, this);
+        }
     }
 
     public boolean isPendingBroadcastProcessLocked(int pid) {
@@ -213,11 +262,78 @@ public final class BroadcastQueue {
     public void enqueueParallelBroadcastLocked(BroadcastRecord r) {
         mParallelBroadcasts.add(r);
         r.enqueueClockTime = System.currentTimeMillis();
+        r.enqueueTime = SystemClock.uptimeMillis();
     }
 
     public void enqueueOrderedBroadcastLocked(BroadcastRecord r) {
+        if (mShards.length > 0 && canShard(r)) {
+            enqueueShardedBroadcastLocked(r);
+            return;
+        }
         mOrderedBroadcasts.add(r);
         r.enqueueClockTime = System.currentTimeMillis();
+        r.enqueueTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Whether the receivers of {@code r} may be called in any order: nobody
+     * waits for the result, receivers can't abort it or pass results along,
+     * and it can't be replaced in the queue by a later broadcast.
+     */
+    private static boolean canShard(BroadcastRecord r) {
+        if (r.ordered || r.resultTo != null || r.receivers == null
+                || (r.intent.getFlags() & Intent.FLAG_RECEIVER_REPLACE_PENDING) != 0) {
+            return false;
+        }
+        for (int i = r.receivers.size() - 1; i >= 0; i--) {
+            if (!(r.receivers.get(i) instanceof ResolveInfo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shard that receivers running in the given process go to.
+     */
+    static int shardFor(String processName, int uid, int shardCount) {
+        final int hash = (processName != null ? processName.hashCode() : 0) * 31 + uid;
+        return (hash & Integer.MAX_VALUE) % shardCount;
+    }
+
+    /**
+     * Splits {@code r} by receiving process and hands each part to its shard.
+     * Receivers keep their priority order within a part.
+     */
+    private void enqueueShardedBroadcastLocked(BroadcastRecord r) {
+        final ArrayList[] parts = new ArrayList[mShards.length];
+        final int N = r.receivers.size();
+        for (int i = 0; i < N; i++) {
+            final ResolveInfo info = (ResolveInfo) r.receivers.get(i);
+            final int shard = shardFor(info.activityInfo.processName,
+                    info.activityInfo.applicationInfo.uid, mShards.length);
+            if (parts[shard] == null) {
+                parts[shard] = new ArrayList<ResolveInfo>();
+            }
+            parts[shard].add(info);
+        }
+        for (int i = 0; i < mShards.length; i++) {
+            if (parts[i] == null) {
+                continue;
+            }
+            final BroadcastQueue shard = mShards[i];
+            // Every part gets its own intent, since dispatch sets the component on it.
+            final Intent intent = new Intent(r.intent);
+            intent.addFlags(Intent.FLAG_RECEIVER_SHARDED);
+            final BroadcastRecord part = new BroadcastRecord(shard, intent, r.callerApp,
+                    r.callerPackage, r.callingPid, r.callingUid, r.resolvedType,
+                    r.requiredPermissions, r.appOp, r.options, parts[i], null, r.resultCode,
+                    r.resultData, r.resultExtras, false, r.sticky, r.initialSticky, r.userId);
+            if (DEBUG_BROADCAST) Slog.v(TAG_BROADCAST, "Enqueueing " + parts[i].size()
+                    + " of " + N + " receivers on [" + shard.mQueueName + "]: " + r.intent);
+            shard.enqueueOrderedBroadcastLocked(part);
+            shard.scheduleBroadcastsLocked();
+        }
     }
 
     public final boolean replaceParallelBroadcastLocked(BroadcastRecord r) {
@@ -227,6 +343,7 @@ public final class BroadcastQueue {
                         "***** DROPPING PARALLEL ["
                 + mQueueName + "]: " + r.intent);
                 mParallelBroadcasts.set(i, r);
+                r.enqueueTime = SystemClock.uptimeMillis();
                 return true;
             }
         }
@@ -240,6 +357,7 @@ public final class BroadcastQueue {
                         "***** DROPPING ORDERED ["
                         + mQueueName + "]: " + r.intent);
                 mOrderedBroadcasts.set(i, r);
+                r.enqueueTime = SystemClock.uptimeMillis();
                 return true;
             }
         }
@@ -255,7 +373,7 @@ public final class BroadcastQueue {
         }
         r.receiver = app.thread.asBinder();
         r.curApp = app;
-        app.curReceiver = r;
+        app.curReceivers.add(r);
         app.forceProcessStateUpTo(ActivityManager.PROCESS_STATE_RECEIVER);
         mService.updateLruProcessLocked(app, false, null);
         mService.updateOomAdjLocked();
@@ -282,7 +400,7 @@ public final class BroadcastQueue {
                         "Process cur broadcast " + r + ": NOT STARTED!");
                 r.receiver = null;
                 r.curApp = null;
-                app.curReceiver = null;
+                app.curReceivers.remove(r);
             }
         }
     }
@@ -364,6 +482,20 @@ public final class BroadcastQueue {
         return null;
     }
 
+    /**
+     * Like {@link #getMatchingOrderedReceiver}, for a broadcast that was
+     * dispatched through one of this queue's shards.
+     */
+    public BroadcastRecord getMatchingShardedReceiver(IBinder receiver) {
+        for (int i = 0; i < mShards.length; i++) {
+            final BroadcastRecord r = mShards[i].getMatchingOrderedReceiver(receiver);
+            if (r != null) {
+                return r;
+            }
+        }
+        return null;
+    }
+
     public boolean finishReceiverLocked(BroadcastRecord r, int resultCode,
             String resultData, Bundle resultExtras, boolean resultAbort, boolean waitForServices) {
         final int state = r.state;
@@ -374,8 +506,8 @@ public final class BroadcastQueue {
         }
         r.receiver = null;
         r.intent.setComponent(null);
-        if (r.curApp != null && r.curApp.curReceiver == r) {
-            r.curApp.curReceiver = null;
+        if (r.curApp != null) {
+            r.curApp.curReceivers.remove(r);
         }
         if (r.curFilter != null) {
             r.curFilter.receiverList.curBroadcast = null;
@@ -583,7 +715,7 @@ public final class BroadcastQueue {
                     // things that directly call the IActivityManager API, which
                     // are already core system stuff so don't matter for this.
                     r.curApp = filter.receiverList.app;
-                    filter.receiverList.app.curReceiver = r;
+                    filter.receiverList.app.curReceivers.add(r);
                     mService.updateOomAdjLocked(r.curApp);
                 }
             }
@@ -603,7 +735,7 @@ public final class BroadcastQueue {
                     r.curFilter = null;
                     filter.receiverList.curBroadcast = null;
                     if (filter.receiverList.app != null) {
-                        filter.receiverList.app.curReceiver = null;
+                        filter.receiverList.app.curReceivers.remove(r);
                     }
                 }
             }
@@ -655,6 +787,7 @@ public final class BroadcastQueue {
                 r = mParallelBroadcasts.remove(0);
                 r.dispatchTime = SystemClock.uptimeMillis();
                 r.dispatchClockTime = System.currentTimeMillis();
+                mDispatchLatency.add(r.dispatchTime - r.enqueueTime);
                 final int N = r.receivers.size();
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Processing parallel broadcast ["
                         + mQueueName + "] " + r);
@@ -798,6 +931,7 @@ public final class BroadcastQueue {
             if (recIdx == 0) {
                 r.dispatchTime = r.receiverTime;
                 r.dispatchClockTime = System.currentTimeMillis();
+                mDispatchLatency.add(r.dispatchTime - r.enqueueTime);
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Processing ordered broadcast ["
                         + mQueueName + "] " + r);
             }
@@ -1223,6 +1357,7 @@ public final class BroadcastQueue {
             return;
         }
         r.finishTime = SystemClock.uptimeMillis();
+        mFinishLatency.add(r.finishTime - r.enqueueTime);
 
         mBroadcastHistory[mHistoryNext] = r;
         mHistoryNext = ringAdvance(mHistoryNext, 1, MAX_BROADCAST_HISTORY);
@@ -1336,6 +1471,23 @@ public final class BroadcastQueue {
             }
         }
 
+        if (dumpPackage == null && (mDispatchLatency.getCount() > 0 || mShards.length > 0)) {
+            if (needSep) {
+                pw.println();
+            }
+            needSep = true;
+            pw.print("  Broadcast latency [" + mQueueName + "]");
+            if (mShards.length > 0) {
+                pw.print(", unordered app broadcasts go to ");
+                pw.print(mShards.length); pw.print(" shards");
+            }
+            pw.println(":");
+            pw.println("    Enqueue to dispatch:");
+            mDispatchLatency.dump(pw, "      ");
+            pw.println("    Enqueue to finish:");
+            mFinishLatency.dump(pw, "      ");
+        }
+
         int i;
         boolean printed = false;
 
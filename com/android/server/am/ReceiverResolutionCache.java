@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.am;
+
+import android.app.AppGlobals;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageManagerInternal;
+import android.content.pm.ResolveInfo;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.util.LruCache;
+
+import com.android.server.IntentResolver;
+import com.android.server.LocalServices;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The manifest receivers that recently sent broadcasts resolved to, per user,
+ * so that broadcasts sent again and again, like time ticks and battery or
+ * connectivity changes, don't have the package manager resolve them each time.
+ *
+ * <p>Everything is dropped as soon as the package manager's
+ * {@link PackageManagerInternal#getReceiverStateGeneration receiver state}
+ * changes.  Callers get their own copies of the entries.  Must be used with
+ * the activity manager locked.
+ */
+final class ReceiverResolutionCache {
+    static final int MAX_ENTRIES = 128;
+
+    private final LruCache<String, List<ResolveInfo>> mEntries =
+            new LruCache<String, List<ResolveInfo>>(MAX_ENTRIES);
+    private PackageManagerInternal mPackageManagerInternal;
+    private int mGeneration;
+
+    private long mHits;
+    private long mMisses;
+    private long mUncached;
+    private long mInvalidations;
+
+    /**
+     * Returns the receivers that {@code intent} resolves to for {@code userId},
+     * without those limited to the primary user if that is not {@code userId}.
+     * The caller owns the returned list and its entries; null means there are none.
+     */
+    List<ResolveInfo> queryLocked(Intent intent, String resolvedType, int userId)
+            throws RemoteException {
+        if (mPackageManagerInternal == null) {
+            // The package manager starts after us.
+            mPackageManagerInternal = LocalServices.getService(PackageManagerInternal.class);
+        }
+        final String key = getKey(intent, resolvedType, userId);
+        if (key == null || mPackageManagerInternal == null) {
+            mUncached++;
+            final List<ResolveInfo> receivers = resolve(intent, resolvedType, userId);
+            return receivers == null || receivers.isEmpty() ? null : receivers;
+        }
+
+        final int generation = mPackageManagerInternal.getReceiverStateGeneration();
+        if (generation != mGeneration) {
+            if (mEntries.size() > 0) {
+                mEntries.evictAll();
+                mInvalidations++;
+            }
+            mGeneration = generation;
+        }
+        List<ResolveInfo> receivers = mEntries.get(key);
+        if (receivers != null) {
+            mHits++;
+            return copy(receivers);
+        }
+        mMisses++;
+        receivers = resolve(intent, resolvedType, userId);
+        if (receivers == null) {
+            receivers = Collections.emptyList();
+        }
+        // Whatever changed while we were resolving may not be reflected in the result.
+        if (mPackageManagerInternal.getReceiverStateGeneration() == generation) {
+            mEntries.put(key, receivers);
+        }
+        return copy(receivers);
+    }
+
+    private static List<ResolveInfo> resolve(Intent intent, String resolvedType, int userId)
+            throws RemoteException {
+        final List<ResolveInfo> receivers = AppGlobals.getPackageManager()
+                .queryIntentReceivers(intent, resolvedType, ActivityManagerService.STOCK_PM_FLAGS,
+                        userId);
+        if (userId != UserHandle.USER_OWNER && receivers != null) {
+            // If this is not the primary user, we need to check for
+            // any receivers that should be filtered out.
+            for (int i = receivers.size() - 1; i >= 0; i--) {
+                final ResolveInfo ri = receivers.get(i);
+                if ((ri.activityInfo.flags & ActivityInfo.FLAG_PRIMARY_USER_ONLY) != 0) {
+                    receivers.remove(i);
+                }
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * Copies the entries as well as the list: the broadcast queue replaces
+     * {@link ResolveInfo#activityInfo} for singleton receivers, which must not
+     * leak into the cached entry.
+     */
+    private static List<ResolveInfo> copy(List<ResolveInfo> receivers) {
+        if (receivers == null || receivers.isEmpty()) {
+            return null;
+        }
+        final ArrayList<ResolveInfo> copy = new ArrayList<ResolveInfo>(receivers.size());
+        for (int i = 0; i < receivers.size(); i++) {
+            final ResolveInfo ri = new ResolveInfo(receivers.get(i));
+            ri.activityInfo = new ActivityInfo(ri.activityInfo);
+            copy.add(ri);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a key that is equal for two intents exactly when they resolve to the
+     * same receivers, or null if the intent should not be cached.
+     */
+    private static String getKey(Intent intent, String resolvedType, int userId) {
+        if (intent.getSelector() != null
+                || (intent.getFlags() & Intent.FLAG_DEBUG_LOG_RESOLUTION) != 0) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append(userId).append(intent.isExcludingStopped() ? 'x' : 'i');
+        final ComponentName component = intent.getComponent();
+        if (component != null) {
+            sb.append('c').append(component.flattenToShortString());
+            return sb.toString();
+        }
+        final String pkg = intent.getPackage();
+        if (pkg != null) {
+            sb.append('p').append(pkg.length()).append(':').append(pkg);
+        }
+        sb.append('q').append(IntentResolver.getQueryKey(intent, resolvedType));
+        return sb.toString();
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print("entries="); pw.print(mEntries.size());
+                pw.print("/"); pw.print(MAX_ENTRIES);
+                pw.print(" hits="); pw.print(mHits);
+                pw.print(" misses="); pw.print(mMisses);
+                pw.print(" hitRate=");
+                pw.print(mHits + mMisses > 0 ? mHits * 100 / (mHits + mMisses) : 0);
+                pw.print("% uncached="); pw.print(mUncached);
+                pw.print(" invalidations="); pw.println(mInvalidations);
+    }
+}
@@ -20,6 +20,7 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import android.app.ActivityManager;
@@ -116,9 +117,11 @@ public class JobSchedulerService extends com.android.server.SystemService
     List<StateController> mControllers;
     /**
      * Queue of pending jobs. The JobServiceContext class will receive jobs from this list
-     * when ready to execute them.
+     * when ready to execute them. Jobs run in the order they were queued.
      */
-    final ArrayList<JobStatus> mPendingJobs = new ArrayList<>();
+    final LinkedHashSet<JobStatus> mPendingJobs = new LinkedHashSet<>();
+    /** Jobs whose constraints are satisfied, updated as controllers report changes. */
+    final ReadyJobTracker mReadyJobs = new ReadyJobTracker();
 
     final ArrayList<Integer> mStartedUsers = new ArrayList<>();
 
@@ -363,6 +366,7 @@ public class JobSchedulerService extends com.android.server.SystemService
                         mControllers.get(controller).deviceIdleModeChanged(mDeviceIdleMode);
                         mControllers.get(controller).maybeStartTrackingJob(job);
                     }
+                    mReadyJobs.noteChanged(null, job);
                 }
                 // GO GO GO!
                 mHandler.obtainMessage(MSG_CHECK_JOB).sendToTarget();
@@ -390,6 +394,8 @@ public class JobSchedulerService extends com.android.server.SystemService
                 }
                 controller.maybeStartTrackingJob(jobStatus);
             }
+            // The controllers have set its constraints, so it needs evaluating.
+            mReadyJobs.noteChanged(null, jobStatus);
         }
     }
 
@@ -403,6 +409,7 @@ public class JobSchedulerService extends com.android.server.SystemService
         synchronized (mJobs) {
             // Remove from store as well as controllers.
             removed = mJobs.remove(jobStatus);
+            mReadyJobs.removeLocked(jobStatus);
             rocking = mReadyToRock;
         }
         if (removed && rocking) {
@@ -538,16 +545,23 @@ public class JobSchedulerService extends com.android.server.SystemService
 
     /**
      * Posts a message to the {@link com.android.server.job.JobSchedulerService.JobHandler} that
-     * some controller's state has changed, so as to run through the list of jobs and start/stop
-     * any that are eligible.
+     * some controller's state has changed, so as to run through the jobs it changed and start/stop
+     * any that are eligible. May be called with the controller's lock held, so this must not
+     * take the {@link JobStore} lock.
      */
     @Override
-    public void onControllerStateChanged() {
+    public void onControllerStateChanged(StateController controller,
+            List<JobStatus> changedJobs) {
+        mReadyJobs.noteChanged(controller, changedJobs);
         mHandler.obtainMessage(MSG_CHECK_JOB).sendToTarget();
     }
 
     @Override
     public void onRunJobNow(JobStatus jobStatus) {
+        if (jobStatus != null) {
+            // Its deadline has passed, which makes it ready.
+            mReadyJobs.noteChanged(null, jobStatus);
+        }
         mHandler.obtainMessage(MSG_JOB_EXPIRED, jobStatus).sendToTarget();
     }
 
@@ -567,6 +581,7 @@ public class JobSchedulerService extends com.android.server.SystemService
             switch (message.what) {
                 case MSG_JOB_EXPIRED:
                     synchronized (mJobs) {
+                        mReadyJobs.updateLocked(mJobs.getJobs());
                         JobStatus runNow = (JobStatus) message.obj;
                         // runNow can be null, which is a controller's way of indicating that its
                         // state is such that all ready jobs should be run immediately.
@@ -579,6 +594,7 @@ public class JobSchedulerService extends com.android.server.SystemService
                     break;
                 case MSG_CHECK_JOB:
                     synchronized (mJobs) {
+                        mReadyJobs.updateLocked(mJobs.getJobs());
                         // Check the list of jobs and run some of them if we feel inclined.
                         maybeQueueReadyJobsForExecutionLockedH();
                     }
@@ -594,7 +610,7 @@ public class JobSchedulerService extends com.android.server.SystemService
          * as many as we can.
          */
         private void queueReadyJobsForExecutionLockedH() {
-            ArraySet<JobStatus> jobs = mJobs.getJobs();
+            ArraySet<JobStatus> jobs = mReadyJobs.getReadyJobsLocked();
             if (DEBUG) {
                 Slog.d(TAG, "queuing all ready jobs for execution:");
             }
@@ -605,10 +621,9 @@ public class JobSchedulerService extends com.android.server.SystemService
                         Slog.d(TAG, "    queued " + job.toShortString());
                     }
                     mPendingJobs.add(job);
-                } else if (isReadyToBeCancelledLocked(job)) {
-                    stopJobOnServiceContextLocked(job);
                 }
             }
+            stopUnreadyActiveJobsLockedH();
             if (DEBUG) {
                 final int queuedJobs = mPendingJobs.size();
                 if (queuedJobs == 0) {
@@ -634,7 +649,7 @@ public class JobSchedulerService extends com.android.server.SystemService
             int backoffCount = 0;
             int connectivityCount = 0;
             List<JobStatus> runnableJobs = new ArrayList<JobStatus>();
-            ArraySet<JobStatus> jobs = mJobs.getJobs();
+            ArraySet<JobStatus> jobs = mReadyJobs.getReadyJobsLocked();
             for (int i=0; i<jobs.size(); i++) {
                 JobStatus job = jobs.valueAt(i);
                 if (isReadyToBeExecutedLocked(job)) {
@@ -651,10 +666,9 @@ public class JobSchedulerService extends com.android.server.SystemService
                         chargingCount++;
                     }
                     runnableJobs.add(job);
-                } else if (isReadyToBeCancelledLocked(job)) {
-                    stopJobOnServiceContextLocked(job);
                 }
             }
+            stopUnreadyActiveJobsLockedH();
             if (backoffCount > 0 ||
                     idleCount >= MIN_IDLE_COUNT ||
                     connectivityCount >= MIN_CONNECTIVITY_COUNT ||
@@ -678,6 +692,19 @@ public class JobSchedulerService extends com.android.server.SystemService
             }
         }
 
+        /**
+         * Cancel the running jobs whose constraints are no longer satisfied.
+         */
+        private void stopUnreadyActiveJobsLockedH() {
+            for (int i=0; i<mActiveServices.size(); i++) {
+                final JobStatus running = mActiveServices.get(i).getRunningJob();
+                if (running != null && mJobs.containsJob(running)
+                        && isReadyToBeCancelledLocked(running)) {
+                    stopJobOnServiceContextLocked(running);
+                }
+            }
+        }
+
         /**
          * Criteria for moving a job into the pending queue:
          *      - It's ready.
@@ -686,7 +713,7 @@ public class JobSchedulerService extends com.android.server.SystemService
          *      - The user that requested the job is running.
          */
         private boolean isReadyToBeExecutedLocked(JobStatus job) {
-            final boolean jobReady = job.isReady();
+            final boolean jobReady = mReadyJobs.isReadyLocked(job);
             final boolean jobPending = mPendingJobs.contains(job);
             final boolean jobActive = isCurrentlyActiveLocked(job);
             final boolean userRunning = mStartedUsers.contains(job.getUserId());
@@ -704,7 +731,7 @@ public class JobSchedulerService extends com.android.server.SystemService
          *      - It's running on a JSC.
          */
         private boolean isReadyToBeCancelledLocked(JobStatus job) {
-            return !job.isReady() && isCurrentlyActiveLocked(job);
+            return !mReadyJobs.isReadyLocked(job) && isCurrentlyActiveLocked(job);
         }
 
         /**
@@ -748,6 +775,7 @@ public class JobSchedulerService extends com.android.server.SystemService
                                 Slog.d(TAG, "Error executing " + nextPending);
                             }
                             mJobs.remove(nextPending);
+                            mReadyJobs.removeLocked(nextPending);
                         }
                         it.remove();
                     }
@@ -911,10 +939,12 @@ public class JobSchedulerService extends com.android.server.SystemService
             }
             pw.println();
             pw.println("Pending:");
-            for (int i=0; i<mPendingJobs.size(); i++) {
-                pw.println(mPendingJobs.get(i).hashCode());
+            for (JobStatus job : mPendingJobs) {
+                pw.println(job.hashCode());
             }
             pw.println();
+            mReadyJobs.dump(pw);
+            pw.println();
             pw.println("Active jobs:");
             for (int i=0; i<mActiveServices.size(); i++) {
                 JobServiceContext jsc = mActiveServices.get(i);
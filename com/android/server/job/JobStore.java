@@ -20,22 +20,29 @@ import android.content.ComponentName;
 import android.app.job.JobInfo;
 import android.content.Context;
 import android.os.Environment;
+import android.os.FileUtils;
 import android.os.Handler;
 import android.os.PersistableBundle;
 import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.AtomicFile;
 import android.util.ArraySet;
+import android.util.LongSparseArray;
 import android.util.Pair;
 import android.util.Slog;
-import android.util.Xml;
 
 import com.android.internal.annotations.VisibleForTesting;
-import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.BinaryXmlPullParser;
+import com.android.internal.util.BinaryXmlSerializer;
 import com.android.server.IoThread;
 import com.android.server.job.controllers.JobStatus;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -45,6 +52,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.CRC32;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -53,7 +61,8 @@ import org.xmlpull.v1.XmlSerializer;
 /**
  * Maintains the master list of jobs that the job scheduler is tracking. These jobs are compared by
  * reference, so none of the functions in this class should make a copy.
- * Also handles read/write of persisted jobs.
+ * Also handles read/write of persisted jobs. Changes are appended to a journal next to jobs.xml,
+ * and jobs.xml is only rewritten once the journal has grown as large as the set of jobs.
  *
  * Note on locking:
  *      All callers to this class must <strong>lock on the class object they are calling</strong>.
@@ -65,15 +74,30 @@ public class JobStore {
     private static final String TAG = "JobStore";
     private static final boolean DEBUG = JobSchedulerService.DEBUG;
 
-    /** Threshold to adjust how often we want to write to the db. */
-    private static final int MAX_OPS_BEFORE_WRITE = 1;
+    /** How long to wait for more changes before writing, so that a burst costs one sync. */
+    private static final long WRITE_DELAY_MILLIS = 100;
+    /** The journal is never compacted into jobs.xml while it has fewer records than this. */
+    private static final int MIN_JOURNAL_RECORDS_BEFORE_COMPACT = 64;
     final ArraySet<JobStatus> mJobSet;
     final Context mContext;
 
-    private int mDirtyOperations;
+    /** Changes to persisted jobs that have not been written yet, in order. */
+    private final ArrayList<JournalOp> mPendingOps = new ArrayList<JournalOp>();
+    /** Whether the next write should rewrite jobs.xml and empty the journal. */
+    private boolean mCompactPending;
+    private boolean mWriteScheduled;
+
+    // Only touched by the IO thread, once the store is constructed.
+    private int mJournalRecords;
+    private int mSnapshotJobs;
+    /** Written to jobs.xml and the journal header; a journal only applies to its snapshot. */
+    private long mSnapshotGeneration;
+    private volatile long mBytesWritten;
 
     private static final Object sSingletonLock = new Object();
     private final AtomicFile mJobsFile;
+    /** Changes made since {@link #mJobsFile} was last written. */
+    private final File mJournalFile;
     /** Handler backed by IoThread for writing to disk. */
     private final Handler mIoHandler = IoThread.getHandler();
     private static JobStore sSingleton;
@@ -104,16 +128,27 @@ public class JobStore {
      */
     private JobStore(Context context, File dataDir) {
         mContext = context;
-        mDirtyOperations = 0;
 
         File systemDir = new File(dataDir, "system");
         File jobDir = new File(systemDir, "job");
         jobDir.mkdirs();
         mJobsFile = new AtomicFile(new File(jobDir, "jobs.xml"));
+        mJournalFile = new File(jobDir, "jobs.journal");
 
         mJobSet = new ArraySet<JobStatus>();
 
-        readJobMapFromDisk(mJobSet);
+        ReadJobMapFromDiskRunnable reader = new ReadJobMapFromDiskRunnable(mJobSet);
+        reader.run();
+        synchronized (this) {
+            mSnapshotJobs = reader.snapshotJobs;
+            mSnapshotGeneration = reader.snapshotGeneration;
+            mJournalRecords = reader.journalRecords;
+            if (reader.journalCorrupt) {
+                // Anything appended after a torn record would be lost, so start a new journal.
+                mCompactPending = true;
+                scheduleWriteLocked();
+            }
+        }
     }
 
     /**
@@ -126,7 +161,7 @@ public class JobStore {
         boolean replaced = mJobSet.remove(jobStatus);
         mJobSet.add(jobStatus);
         if (jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+            maybeWriteStatusToDiskAsync(JournalOp.ADD, jobStatus);
         }
         if (DEBUG) {
             Slog.d(TAG, "Added job status to store: " + jobStatus);
@@ -168,7 +203,7 @@ public class JobStore {
             return false;
         }
         if (jobStatus.isPersisted()) {
-            maybeWriteStatusToDiskAsync();
+            maybeWriteStatusToDiskAsync(JournalOp.REMOVE, jobStatus);
         }
         return removed;
     }
@@ -176,7 +211,9 @@ public class JobStore {
     @VisibleForTesting
     public void clear() {
         mJobSet.clear();
-        maybeWriteStatusToDiskAsync();
+        mPendingOps.clear();
+        mCompactPending = true;
+        scheduleWriteLocked();
     }
 
     /**
@@ -243,73 +280,209 @@ public class JobStore {
     private static final String XML_TAG_ONEOFF = "one-off";
     private static final String XML_TAG_EXTRAS = "extras";
 
+    /** Journal file header. */
+    private static final int JOURNAL_MAGIC = 0x4a4f424a; // "JOBJ"
+    /** Journal records are never this large; a length that is means the record is garbage. */
+    private static final int MAX_JOURNAL_RECORD_BYTES = 1024 * 1024;
+
+    /** A change to a persisted job that has yet to be journaled. */
+    private static final class JournalOp {
+        static final int ADD = 1;
+        static final int REMOVE = 2;
+
+        final int op;
+        /** For an add, a copy of the job as it was added. */
+        final JobStatus job;
+
+        JournalOp(int op, JobStatus job) {
+            this.op = op;
+            this.job = job;
+        }
+    }
+
     /**
-     * Every time the state changes we write all the jobs in one swath, instead of trying to
-     * track incremental changes.
-     * @return Whether the operation was successful. This will only fail for e.g. if the system is
-     * low on storage. If this happens, we continue as normal
+     * Records a change to a persisted job. Changes are written in batches on the IO thread: a
+     * record per change is appended to the journal, unless the journal has grown large enough
+     * that it is time to rewrite jobs.xml instead. A write failure can only happen if e.g. the
+     * system is low on storage. If this happens, we continue as normal and try again with a full
+     * rewrite on the next change.
      */
-    private void maybeWriteStatusToDiskAsync() {
-        mDirtyOperations++;
-        if (mDirtyOperations >= MAX_OPS_BEFORE_WRITE) {
+    private void maybeWriteStatusToDiskAsync(int op, JobStatus jobStatus) {
+        if (op == JournalOp.ADD) {
+            // Copy the job so we can release the lock before writing.
+            jobStatus = new JobStatus(jobStatus.getJob(), jobStatus.getUid(),
+                    jobStatus.getEarliestRunTime(), jobStatus.getLatestRunTimeElapsed());
+        }
+        mPendingOps.add(new JournalOp(op, jobStatus));
+        scheduleWriteLocked();
+    }
+
+    private void scheduleWriteLocked() {
+        if (!mWriteScheduled) {
             if (DEBUG) {
                 Slog.v(TAG, "Writing jobs to disk.");
             }
-            mIoHandler.post(new WriteJobsMapToDiskRunnable());
+            mWriteScheduled = true;
+            mIoHandler.postDelayed(new WriteJobsMapToDiskRunnable(), WRITE_DELAY_MILLIS);
         }
     }
 
+    /**
+     * @return The number of bytes written to jobs.xml and the journal since construction.
+     */
+    @VisibleForTesting
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
     @VisibleForTesting
     public void readJobMapFromDisk(ArraySet<JobStatus> jobSet) {
         new ReadJobMapFromDiskRunnable(jobSet).run();
     }
 
+    /** Jobs are identified on disk by uid and job id; the store never holds two with the same. */
+    private static long getJournalKey(int uid, int jobId) {
+        return ((long) uid << 32) | (jobId & 0xffffffffL);
+    }
+
     /**
-     * Runnable that writes {@link #mJobSet} out to xml.
+     * Runnable that writes the pending changes to the journal, or all of {@link #mJobSet} out to
+     * xml when it is time to compact the journal.
      * NOTE: This Runnable locks on JobStore.this
      */
     private class WriteJobsMapToDiskRunnable implements Runnable {
         @Override
         public void run() {
             final long startElapsed = SystemClock.elapsedRealtime();
-            List<JobStatus> mStoreCopy = new ArrayList<JobStatus>();
+            List<JournalOp> ops = null;
+            List<JobStatus> mStoreCopy = null;
             synchronized (JobStore.this) {
-                // Copy over the jobs so we can release the lock before writing.
-                for (int i=0; i<mJobSet.size(); i++) {
-                    JobStatus jobStatus = mJobSet.valueAt(i);
-                    JobStatus copy = new JobStatus(jobStatus.getJob(), jobStatus.getUid(),
-                            jobStatus.getEarliestRunTime(), jobStatus.getLatestRunTimeElapsed());
-                    mStoreCopy.add(copy);
+                mWriteScheduled = false;
+                if (mCompactPending || mJournalRecords + mPendingOps.size()
+                        > Math.max(MIN_JOURNAL_RECORDS_BEFORE_COMPACT, mSnapshotJobs)) {
+                    // Copy over the jobs so we can release the lock before writing. The copy
+                    // includes every pending change.
+                    mStoreCopy = new ArrayList<JobStatus>();
+                    for (int i=0; i<mJobSet.size(); i++) {
+                        JobStatus jobStatus = mJobSet.valueAt(i);
+                        if (!jobStatus.isPersisted()) {
+                            continue;
+                        }
+                        JobStatus copy = new JobStatus(jobStatus.getJob(), jobStatus.getUid(),
+                                jobStatus.getEarliestRunTime(),
+                                jobStatus.getLatestRunTimeElapsed());
+                        mStoreCopy.add(copy);
+                    }
+                    mCompactPending = false;
+                } else {
+                    ops = new ArrayList<JournalOp>(mPendingOps);
+                }
+                mPendingOps.clear();
+            }
+            final boolean success = mStoreCopy != null
+                    ? writeJobsMapImpl(mStoreCopy) : appendToJournalImpl(ops);
+            if (!success) {
+                synchronized (JobStore.this) {
+                    // The changes are lost from the journal, so everything has to be rewritten.
+                    // A failed rewrite is retried on the next change instead of in a loop.
+                    mCompactPending = true;
+                    if (ops != null) {
+                        scheduleWriteLocked();
+                    }
                 }
             }
-            writeJobsMapImpl(mStoreCopy);
             if (JobSchedulerService.DEBUG) {
                 Slog.v(TAG, "Finished writing, took " + (SystemClock.elapsedRealtime()
                         - startElapsed) + "ms");
             }
         }
 
-        private void writeJobsMapImpl(List<JobStatus> jobList) {
+        /**
+         * Appends a record per change to the journal and syncs it. A record is its length, the
+         * CRC32 of the rest, the operation, the job's uid and id and, for an add, the job as a
+         * binary xml document.
+         */
+        private boolean appendToJournalImpl(List<JournalOp> ops) {
+            FileOutputStream fos = null;
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(baos);
+                if (mJournalRecords == 0 || mJournalFile.length() == 0) {
+                    out.writeInt(JOURNAL_MAGIC);
+                    out.writeInt(JOBS_FILE_VERSION);
+                    out.writeLong(mSnapshotGeneration);
+                }
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                CRC32 crc = new CRC32();
+                for (int i=0; i<ops.size(); i++) {
+                    record.reset();
+                    writeJournalRecord(new DataOutputStream(record), ops.get(i));
+                    crc.reset();
+                    crc.update(record.toByteArray());
+                    out.writeInt(record.size());
+                    out.writeInt((int) crc.getValue());
+                    record.writeTo(out);
+                }
+                out.flush();
+
+                // With no records yet there is nothing worth keeping, so start the file over.
+                fos = new FileOutputStream(mJournalFile, mJournalRecords != 0);
+                fos.write(baos.toByteArray());
+                FileUtils.sync(fos);
+                mJournalRecords += ops.size();
+                mBytesWritten += baos.size();
+                return true;
+            } catch (IOException e) {
+                if (DEBUG) {
+                    Slog.v(TAG, "Error writing out job journal.", e);
+                }
+            } catch (XmlPullParserException e) {
+                if (DEBUG) {
+                    Slog.d(TAG, "Error persisting bundle.", e);
+                }
+            } finally {
+                if (fos != null) {
+                    try {
+                        fos.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void writeJournalRecord(DataOutputStream out, JournalOp op)
+                throws IOException, XmlPullParserException {
+            out.writeByte(op.op);
+            out.writeInt(op.job.getUid());
+            out.writeInt(op.job.getJobId());
+            if (op.op == JournalOp.ADD) {
+                XmlSerializer xml = new BinaryXmlSerializer();
+                xml.setOutput(out, StandardCharsets.UTF_8.name());
+                xml.startDocument(null, true);
+                writeJobToXml(xml, op.job);
+                xml.endDocument();
+            }
+            out.flush();
+        }
+
+        /**
+         * Rewrites jobs.xml and empties the journal, whose changes it now includes.
+         */
+        private boolean writeJobsMapImpl(List<JobStatus> jobList) {
             try {
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                XmlSerializer out = new FastXmlSerializer();
+                XmlSerializer out = new BinaryXmlSerializer();
                 out.setOutput(baos, StandardCharsets.UTF_8.name());
                 out.startDocument(null, true);
                 out.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
 
                 out.startTag(null, "job-info");
                 out.attribute(null, "version", Integer.toString(JOBS_FILE_VERSION));
+                final long generation = mSnapshotGeneration + 1;
+                out.attribute(null, "generation", Long.toString(generation));
                 for (int i=0; i<jobList.size(); i++) {
-                    JobStatus jobStatus = jobList.get(i);
-                    if (DEBUG) {
-                        Slog.d(TAG, "Saving job " + jobStatus.getJobId());
-                    }
-                    out.startTag(null, "job");
-                    addIdentifierAttributesToJobTag(out, jobStatus);
-                    writeConstraintsToXml(out, jobStatus);
-                    writeExecutionCriteriaToXml(out, jobStatus);
-                    writeBundleToXml(jobStatus.getExtras(), out);
-                    out.endTag(null, "job");
+                    writeJobToXml(out, jobList.get(i));
                 }
                 out.endTag(null, "job-info");
                 out.endDocument();
@@ -318,7 +491,15 @@ public class JobStore {
                 FileOutputStream fos = mJobsFile.startWrite();
                 fos.write(baos.toByteArray());
                 mJobsFile.finishWrite(fos);
-                mDirtyOperations = 0;
+                mBytesWritten += baos.size();
+
+                // If we crash before the delete, the old journal is skipped on the next boot since
+                // its generation no longer matches jobs.xml.
+                mSnapshotGeneration = generation;
+                mJournalFile.delete();
+                mJournalRecords = 0;
+                mSnapshotJobs = jobList.size();
+                return true;
             } catch (IOException e) {
                 if (DEBUG) {
                     Slog.v(TAG, "Error writing out job data.", e);
@@ -328,6 +509,20 @@ public class JobStore {
                     Slog.d(TAG, "Error persisting bundle.", e);
                 }
             }
+            return false;
+        }
+
+        private void writeJobToXml(XmlSerializer out, JobStatus jobStatus)
+                throws IOException, XmlPullParserException {
+            if (DEBUG) {
+                Slog.d(TAG, "Saving job " + jobStatus.getJobId());
+            }
+            out.startTag(null, "job");
+            addIdentifierAttributesToJobTag(out, jobStatus);
+            writeConstraintsToXml(out, jobStatus);
+            writeExecutionCriteriaToXml(out, jobStatus);
+            writeBundleToXml(jobStatus.getExtras(), out);
+            out.endTag(null, "job");
         }
 
         /** Write out a tag with data comprising the required fields of this job and its client. */
@@ -405,11 +600,20 @@ public class JobStore {
     }
 
     /**
-     * Runnable that reads list of persisted job from xml. This is run once at start up, so doesn't
-     * need to go through {@link JobStore#add(com.android.server.job.controllers.JobStatus)}.
+     * Runnable that reads list of persisted job from xml, then replays the journal over it. This
+     * is run once at start up, so doesn't need to go through
+     * {@link JobStore#add(com.android.server.job.controllers.JobStatus)}.
      */
     private class ReadJobMapFromDiskRunnable implements Runnable {
         private final ArraySet<JobStatus> jobSet;
+        /** The number of jobs read from xml. */
+        int snapshotJobs;
+        /** The generation of jobs.xml, which the journal must have been written against. */
+        long snapshotGeneration;
+        /** The number of journal records replayed. */
+        int journalRecords;
+        /** Whether the journal ended in a record that could not be read. */
+        boolean journalCorrupt;
 
         /**
          * @param jobSet Reference to the (empty) set of JobStatus objects that back the JobStore,
@@ -421,16 +625,11 @@ public class JobStore {
 
         @Override
         public void run() {
+            List<JobStatus> jobs = null;
             try {
-                List<JobStatus> jobs;
                 FileInputStream fis = mJobsFile.openRead();
                 synchronized (JobStore.this) {
                     jobs = readJobMapImpl(fis);
-                    if (jobs != null) {
-                        for (int i=0; i<jobs.size(); i++) {
-                            this.jobSet.add(jobs.get(i));
-                        }
-                    }
                 }
                 fis.close();
             } catch (FileNotFoundException e) {
@@ -446,11 +645,118 @@ public class JobStore {
                     Slog.d(TAG, "Error parsing xml.", e);
                 }
             }
+            if (jobs == null) {
+                jobs = new ArrayList<JobStatus>();
+            }
+            snapshotJobs = jobs.size();
+            synchronized (JobStore.this) {
+                replayJournalImpl(jobs);
+                for (int i=0; i<jobs.size(); i++) {
+                    this.jobSet.add(jobs.get(i));
+                }
+            }
+        }
+
+        /**
+         * Applies the journal's records to {@code jobs}, stopping at the first one that is torn or
+         * corrupt. A journal written against an older jobs.xml is skipped; its changes are all in
+         * the newer file, and replaying them would undo later ones.
+         */
+        private void replayJournalImpl(List<JobStatus> jobs) {
+            if (mJournalFile.length() == 0) {
+                return;
+            }
+            final LongSparseArray<JobStatus> jobsByKey = new LongSparseArray<JobStatus>();
+            for (int i=0; i<jobs.size(); i++) {
+                final JobStatus job = jobs.get(i);
+                jobsByKey.put(getJournalKey(job.getUid(), job.getJobId()), job);
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(mJournalFile)));
+                if (in.readInt() != JOURNAL_MAGIC || in.readInt() != JOBS_FILE_VERSION) {
+                    Slog.d(TAG, "Invalid journal header, ignoring journal.");
+                    journalCorrupt = true;
+                    return;
+                }
+                if (in.readLong() != snapshotGeneration) {
+                    // Left behind by a crash after jobs.xml was rewritten; jobs.xml has it all.
+                    Slog.d(TAG, "Stale journal, ignoring journal.");
+                    return;
+                }
+                final CRC32 crc = new CRC32();
+                while (true) {
+                    final int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final int checksum = in.readInt();
+                    // Every record has at least the operation, uid and job id.
+                    if (length < 9 || length > MAX_JOURNAL_RECORD_BYTES) {
+                        throw new IOException("Bad journal record length " + length);
+                    }
+                    final byte[] record = new byte[length];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException("Bad journal record checksum");
+                    }
+                    final DataInputStream recordIn =
+                            new DataInputStream(new ByteArrayInputStream(record));
+                    final int op = recordIn.readByte();
+                    final long key = getJournalKey(recordIn.readInt(), recordIn.readInt());
+                    final JobStatus job = op == JournalOp.ADD ? readJournalJob(recordIn) : null;
+                    if (job != null) {
+                        jobsByKey.put(key, job);
+                    } else {
+                        jobsByKey.remove(key);
+                    }
+                    journalRecords++;
+                }
+            } catch (FileNotFoundException e) {
+                return;
+            } catch (IOException e) {
+                Slog.d(TAG, "Journal ends in a bad record after " + journalRecords + " records.");
+                journalCorrupt = true;
+            } catch (XmlPullParserException e) {
+                Slog.d(TAG, "Error parsing journal xml.", e);
+                journalCorrupt = true;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+            jobs.clear();
+            for (int i=0; i<jobsByKey.size(); i++) {
+                jobs.add(jobsByKey.valueAt(i));
+            }
+        }
+
+        private JobStatus readJournalJob(DataInputStream in)
+                throws XmlPullParserException, IOException {
+            XmlPullParser parser = new BinaryXmlPullParser();
+            parser.setInput(in, StandardCharsets.UTF_8.name());
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.START_TAG &&
+                    eventType != XmlPullParser.END_DOCUMENT) {
+                eventType = parser.next();
+            }
+            if (eventType == XmlPullParser.START_TAG && "job".equals(parser.getName())) {
+                return restoreJobFromXml(parser);
+            }
+            return null;
         }
 
         private List<JobStatus> readJobMapImpl(FileInputStream fis)
                 throws XmlPullParserException, IOException {
-            XmlPullParser parser = Xml.newPullParser();
+            XmlPullParser parser = new BinaryXmlPullParser();
             parser.setInput(fis, StandardCharsets.UTF_8.name());
 
             int eventType = parser.getEventType();
@@ -480,6 +786,15 @@ public class JobStore {
                     Slog.e(TAG, "Invalid version number, aborting jobs file read.");
                     return null;
                 }
+                final String generation = parser.getAttributeValue(null, "generation");
+                if (generation != null) {
+                    try {
+                        snapshotGeneration = Long.parseLong(generation);
+                    } catch (NumberFormatException e) {
+                        Slog.e(TAG, "Invalid generation, ignoring journal.");
+                        snapshotGeneration = -1;
+                    }
+                }
                 eventType = parser.next();
                 do {
                     // Read each <job/>
@@ -13,6 +13,11 @@ import android.util.ArraySet;
 
 import com.android.server.job.controllers.JobStatus;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
@@ -143,6 +148,111 @@ public class JobStoreTest extends AndroidTestCase {
         assertTasksEqual(task, loaded.getJob());
     }
 
+    public void testJournalReplay() throws Exception {
+        final JobStatus removed = new JobStatus(new Builder(1, mComponent)
+                .setRequiresCharging(true).setPersisted(true).build(), SOME_UID);
+        final JobStatus replaced = new JobStatus(new Builder(2, mComponent)
+                .setRequiresCharging(true).setPersisted(true).build(), SOME_UID);
+        final JobInfo replacement = new Builder(2, mComponent)
+                .setRequiresDeviceIdle(true).setPersisted(true).build();
+        final JobInfo kept = new Builder(3, mComponent)
+                .setPeriodic(10000L).setPersisted(true).build();
+        mTaskStoreUnderTest.add(removed);
+        mTaskStoreUnderTest.add(replaced);
+        mTaskStoreUnderTest.add(new JobStatus(kept, SOME_UID));
+        Thread.sleep(IO_WAIT);
+        mTaskStoreUnderTest.remove(removed);
+        mTaskStoreUnderTest.remove(replaced);
+        mTaskStoreUnderTest.add(new JobStatus(replacement, SOME_UID));
+        Thread.sleep(IO_WAIT);
+
+        final ArraySet<JobStatus> jobStatusSet = new ArraySet<JobStatus>();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet);
+        assertEquals("Incorrect # of persisted tasks.", 2, jobStatusSet.size());
+        for (JobStatus loaded : jobStatusSet) {
+            assertTasksEqual(loaded.getJobId() == 2 ? replacement : kept, loaded.getJob());
+        }
+    }
+
+    public void testTornJournalTailIsIgnored() throws Exception {
+        final JobInfo task = new Builder(4, mComponent)
+                .setRequiresCharging(true).setPersisted(true).build();
+        mTaskStoreUnderTest.add(new JobStatus(task, SOME_UID));
+        Thread.sleep(IO_WAIT);
+
+        // A crash in the middle of an append leaves part of a record behind.
+        final File journal = new File(mTestContext.getFilesDir(), "system/job/jobs.journal");
+        final FileOutputStream fos = new FileOutputStream(journal, true);
+        fos.write(new byte[] { 0, 0, 1, 0, 42 });
+        fos.close();
+
+        final ArraySet<JobStatus> jobStatusSet = new ArraySet<JobStatus>();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet);
+        assertEquals("Incorrect # of persisted tasks.", 1, jobStatusSet.size());
+        assertTasksEqual(task, jobStatusSet.valueAt(0).getJob());
+    }
+
+    public void testStaleJournalIsIgnored() throws Exception {
+        final JobStatus removed = new JobStatus(new Builder(5, mComponent)
+                .setRequiresCharging(true).setPersisted(true).build(), SOME_UID);
+        mTaskStoreUnderTest.add(removed);
+        Thread.sleep(IO_WAIT);
+        final File journal = new File(mTestContext.getFilesDir(), "system/job/jobs.journal");
+        final byte[] staleJournal = new byte[(int) journal.length()];
+        final DataInputStream in = new DataInputStream(new FileInputStream(journal));
+        in.readFully(staleJournal);
+        in.close();
+
+        // Rewriting jobs.xml deletes the journal; a crash just before the delete leaves it.
+        mTaskStoreUnderTest.clear();
+        Thread.sleep(IO_WAIT);
+        final FileOutputStream fos = new FileOutputStream(journal);
+        fos.write(staleJournal);
+        fos.close();
+
+        final ArraySet<JobStatus> jobStatusSet = new ArraySet<JobStatus>();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet);
+        assertEquals("Stale journal was replayed.", 0, jobStatusSet.size());
+    }
+
+    /**
+     * Rescheduling a job should write about one job's worth of data, not all of them.
+     */
+    public void testBytesWrittenPerOperation() throws Exception {
+        final int jobCount = 500;
+        final ArrayList<JobStatus> jobs = new ArrayList<JobStatus>();
+        for (int i = 0; i < jobCount; i++) {
+            final JobStatus js = new JobStatus(new Builder(i, mComponent)
+                    .setRequiresCharging(true)
+                    .setPeriodic(60 * 60 * 1000L)
+                    .setPersisted(true)
+                    .build(), SOME_UID);
+            mTaskStoreUnderTest.add(js);
+            jobs.add(js);
+        }
+        Thread.sleep(IO_WAIT);
+        final long initialBytes = mTaskStoreUnderTest.getBytesWritten();
+
+        final int reschedules = 100;
+        for (int i = 0; i < reschedules; i++) {
+            final JobStatus js = jobs.get(i);
+            mTaskStoreUnderTest.remove(js);
+            mTaskStoreUnderTest.add(new JobStatus(js.getJob(), SOME_UID));
+        }
+        Thread.sleep(IO_WAIT);
+        final long bytesPerOp =
+                (mTaskStoreUnderTest.getBytesWritten() - initialBytes) / (reschedules * 2);
+        Log.d(TAG, "Wrote " + initialBytes + " bytes for " + jobCount + " jobs, then "
+                + bytesPerOp + " bytes per operation.");
+        // Rewriting every job on each operation would cost about initialBytes each time.
+        assertTrue("Wrote " + bytesPerOp + " bytes per operation.",
+                bytesPerOp * 20 < initialBytes);
+
+        final ArraySet<JobStatus> jobStatusSet = new ArraySet<JobStatus>();
+        mTaskStoreUnderTest.readJobMapFromDisk(jobStatusSet);
+        assertEquals("Incorrect # of persisted tasks.", jobCount, jobStatusSet.size());
+    }
+
     /**
      * Helper function to throw an error if the provided task and TaskStatus objects are not equal.
      */
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.job;
+
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.job.controllers.JobStatus;
+import com.android.server.job.controllers.StateController;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Keeps the set of jobs whose constraints are currently satisfied, so that the scheduler does not
+ * have to ask every job whether it is ready each time some controller's state changes.
+ * Each controller only tracks the jobs that wait on its constraint, and reports exactly the jobs
+ * whose constraint it flipped; only those jobs are evaluated again.
+ *
+ * Note on locking: {@link #noteChanged} may be called from any thread, including by a controller
+ * holding its own lock, and only takes a lock private to this class. Everything else must be
+ * called with the {@link JobStore} locked.
+ */
+class ReadyJobTracker {
+    /** Jobs reported since the last {@link #updateLocked}. Guarded by itself. */
+    private final ArraySet<JobStatus> mChanged = new ArraySet<JobStatus>();
+    /** Jobs in the store that were ready when they were last evaluated. */
+    private final ArraySet<JobStatus> mReady = new ArraySet<JobStatus>();
+
+    /** Jobs reported per controller, keyed by controller name. Guarded by {@link #mChanged}. */
+    private final ArrayMap<String, int[]> mReportCounts = new ArrayMap<String, int[]>();
+    private long mEvaluations;
+    private long mUpdates;
+
+    /**
+     * Marks {@code job} for evaluation on the next {@link #updateLocked}.
+     * @param source The controller that changed it, or null if the scheduler itself did.
+     */
+    void noteChanged(StateController source, JobStatus job) {
+        synchronized (mChanged) {
+            mChanged.add(job);
+            countReportLocked(source, 1);
+        }
+    }
+
+    /**
+     * Marks {@code jobs} for evaluation on the next {@link #updateLocked}.
+     * @param source The controller that changed them, or null if the scheduler itself did.
+     */
+    void noteChanged(StateController source, List<JobStatus> jobs) {
+        synchronized (mChanged) {
+            for (int i = 0; i < jobs.size(); i++) {
+                mChanged.add(jobs.get(i));
+            }
+            countReportLocked(source, jobs.size());
+        }
+    }
+
+    private void countReportLocked(StateController source, int jobs) {
+        final String name = source != null ? source.getClass().getSimpleName() : "scheduler";
+        int[] counts = mReportCounts.get(name);
+        if (counts == null) {
+            counts = new int[2];
+            mReportCounts.put(name, counts);
+        }
+        counts[0]++;
+        counts[1] += jobs;
+    }
+
+    /**
+     * Evaluates the jobs reported since the last call.
+     * @param jobs The jobs in the store; reported jobs that are no longer in it are dropped.
+     * @return Whether any job became ready.
+     */
+    boolean updateLocked(ArraySet<JobStatus> jobs) {
+        final Object[] changed;
+        synchronized (mChanged) {
+            if (mChanged.isEmpty()) {
+                return false;
+            }
+            changed = mChanged.toArray();
+            mChanged.clear();
+        }
+        mUpdates++;
+        boolean newlyReady = false;
+        for (Object o : changed) {
+            final JobStatus job = (JobStatus) o;
+            mEvaluations++;
+            if (jobs.contains(job) && isReady(job)) {
+                newlyReady |= mReady.add(job);
+            } else {
+                mReady.remove(job);
+            }
+        }
+        return newlyReady;
+    }
+
+    @VisibleForTesting
+    boolean isReady(JobStatus job) {
+        return job.isReady();
+    }
+
+    /**
+     * @return The live set of ready jobs, as of the last {@link #updateLocked}.
+     */
+    ArraySet<JobStatus> getReadyJobsLocked() {
+        return mReady;
+    }
+
+    boolean isReadyLocked(JobStatus job) {
+        return mReady.contains(job);
+    }
+
+    void removeLocked(JobStatus job) {
+        mReady.remove(job);
+    }
+
+    @VisibleForTesting
+    long getEvaluationCount() {
+        return mEvaluations;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.print("Ready jobs: "); pw.print(mReady.size());
+        pw.print(" evaluations="); pw.print(mEvaluations);
+        pw.print(" updates="); pw.println(mUpdates);
+        synchronized (mChanged) {
+            for (int i = 0; i < mReportCounts.size(); i++) {
+                final int[] counts = mReportCounts.valueAt(i);
+                pw.print("  "); pw.print(mReportCounts.keyAt(i));
+                pw.print(": reports="); pw.print(counts[0]);
+                pw.print(" jobs="); pw.println(counts[1]);
+            }
+        }
+    }
+}
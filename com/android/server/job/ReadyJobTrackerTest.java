@@ -0,0 +1,119 @@
+package com.android.server.job;
+
+import android.app.job.JobInfo;
+import android.content.ComponentName;
+import android.test.AndroidTestCase;
+import android.util.ArraySet;
+
+import com.android.server.job.controllers.JobStatus;
+
+import java.util.ArrayList;
+
+/**
+ * Test that state changes only cause the reported jobs to be evaluated.
+ */
+public class ReadyJobTrackerTest extends AndroidTestCase {
+    private static final int SOME_UID = 34234;
+    private static final int JOB_COUNT = 10000;
+
+    /** Readiness is decided by the test instead of by the jobs' constraints. */
+    private static class TestTracker extends ReadyJobTracker {
+        final ArraySet<JobStatus> mSatisfied = new ArraySet<JobStatus>();
+
+        @Override
+        boolean isReady(JobStatus job) {
+            return mSatisfied.contains(job);
+        }
+    }
+
+    private TestTracker mTracker;
+    private ArraySet<JobStatus> mJobs;
+    private ArrayList<JobStatus> mJobList;
+
+    @Override
+    public void setUp() throws Exception {
+        final ComponentName component =
+                new ComponentName(getContext().getPackageName(), StubClass.class.getName());
+        mTracker = new TestTracker();
+        mJobs = new ArraySet<JobStatus>();
+        mJobList = new ArrayList<JobStatus>();
+        for (int i = 0; i < JOB_COUNT; i++) {
+            final JobInfo job = new JobInfo.Builder(i, component)
+                    .setRequiresCharging(true)
+                    .build();
+            final JobStatus js = new JobStatus(job, SOME_UID);
+            mJobs.add(js);
+            mJobList.add(js);
+        }
+        mTracker.noteChanged(null, mJobList);
+        assertFalse(mTracker.updateLocked(mJobs));
+    }
+
+    public void testOnlyReportedJobsAreEvaluated() throws Exception {
+        final long initial = mTracker.getEvaluationCount();
+        assertEquals(JOB_COUNT, initial);
+
+        final ArrayList<JobStatus> changed = new ArrayList<JobStatus>();
+        for (int i = 0; i < JOB_COUNT; i += 100) {
+            final JobStatus js = mJobList.get(i);
+            mTracker.mSatisfied.add(js);
+            changed.add(js);
+        }
+        mTracker.noteChanged(null, changed);
+        assertTrue(mTracker.updateLocked(mJobs));
+        assertEquals(initial + changed.size(), mTracker.getEvaluationCount());
+
+        final ArraySet<JobStatus> ready = mTracker.getReadyJobsLocked();
+        assertEquals(changed.size(), ready.size());
+        for (int i = 0; i < changed.size(); i++) {
+            assertTrue(mTracker.isReadyLocked(changed.get(i)));
+        }
+
+        // Nothing reported, nothing evaluated.
+        assertFalse(mTracker.updateLocked(mJobs));
+        assertEquals(initial + changed.size(), mTracker.getEvaluationCount());
+    }
+
+    public void testUnreportedChangesAreNotSeen() throws Exception {
+        final JobStatus reported = mJobList.get(1);
+        final JobStatus unreported = mJobList.get(2);
+        mTracker.mSatisfied.add(reported);
+        mTracker.mSatisfied.add(unreported);
+        mTracker.noteChanged(null, reported);
+        assertTrue(mTracker.updateLocked(mJobs));
+        assertTrue(mTracker.isReadyLocked(reported));
+        assertFalse(mTracker.isReadyLocked(unreported));
+    }
+
+    public void testJobsBecomeUnready() throws Exception {
+        final JobStatus js = mJobList.get(3);
+        mTracker.mSatisfied.add(js);
+        mTracker.noteChanged(null, js);
+        assertTrue(mTracker.updateLocked(mJobs));
+
+        mTracker.mSatisfied.remove(js);
+        mTracker.noteChanged(null, js);
+        assertFalse(mTracker.updateLocked(mJobs));
+        assertFalse(mTracker.isReadyLocked(js));
+        assertEquals(0, mTracker.getReadyJobsLocked().size());
+    }
+
+    public void testRemovedJobsAreDropped() throws Exception {
+        final JobStatus removed = mJobList.get(4);
+        final JobStatus stale = mJobList.get(5);
+        mTracker.mSatisfied.add(removed);
+        mTracker.mSatisfied.add(stale);
+        mTracker.noteChanged(null, removed);
+        assertTrue(mTracker.updateLocked(mJobs));
+        mTracker.removeLocked(removed);
+        assertFalse(mTracker.isReadyLocked(removed));
+
+        // A report that arrives after the job left the store must not make it ready.
+        mJobs.remove(stale);
+        mTracker.noteChanged(null, stale);
+        assertFalse(mTracker.updateLocked(mJobs));
+        assertFalse(mTracker.isReadyLocked(stale));
+    }
+
+    private static class StubClass {}
+}
@@ -17,6 +17,9 @@
 package com.android.server.job;
 
 import com.android.server.job.controllers.JobStatus;
+import com.android.server.job.controllers.StateController;
+
+import java.util.List;
 
 /**
  * Interface through which a {@link com.android.server.job.controllers.StateController} informs
@@ -25,10 +28,12 @@ import com.android.server.job.controllers.JobStatus;
  */
 public interface StateChangedListener {
     /**
-     * Called by the controller to notify the JobManager that it should check on the state of a
-     * task.
+     * Called by the controller to notify the JobManager that it has changed the constraint state
+     * of some tasks, so it should check on them.
+     * @param controller The controller whose state changed.
+     * @param changedJobs The tasks whose constraints changed; no other task needs checking.
      */
-    public void onControllerStateChanged();
+    public void onControllerStateChanged(StateController controller, List<JobStatus> changedJobs);
 
     /**
      * Called by the controller to notify the JobManager that regardless of the state of the task,
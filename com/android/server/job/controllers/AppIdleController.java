@@ -98,8 +98,8 @@ public class AppIdleController extends StateController {
     }
 
     void setAppIdleParoleOn(boolean isAppIdleParoleOn) {
-        // Flag if any app's idle state has changed
-        boolean changed = false;
+        // Jobs whose app's idle state has changed
+        final ArrayList<JobStatus> changedJobs = new ArrayList<JobStatus>();
         synchronized (mTrackedTasks) {
             if (mAppIdleParoleOn == isAppIdleParoleOn) {
                 return;
@@ -114,12 +114,12 @@ public class AppIdleController extends StateController {
                 }
                 if (task.appNotIdleConstraintSatisfied.get() == appIdle) {
                     task.appNotIdleConstraintSatisfied.set(!appIdle);
-                    changed = true;
+                    changedJobs.add(task);
                 }
             }
         }
-        if (changed) {
-            mStateChangedListener.onControllerStateChanged();
+        if (!changedJobs.isEmpty()) {
+            mStateChangedListener.onControllerStateChanged(this, changedJobs);
         }
     }
 
@@ -127,7 +127,7 @@ public class AppIdleController extends StateController {
             extends UsageStatsManagerInternal.AppIdleStateChangeListener {
         @Override
         public void onAppIdleStateChanged(String packageName, int userId, boolean idle) {
-            boolean changed = false;
+            final ArrayList<JobStatus> changedJobs = new ArrayList<JobStatus>();
             synchronized (mTrackedTasks) {
                 if (mAppIdleParoleOn) {
                     return;
@@ -141,13 +141,14 @@ public class AppIdleController extends StateController {
                                         + packageName + " to " + idle);
                             }
                             task.appNotIdleConstraintSatisfied.set(!idle);
-                            changed = true;
+                            changedJobs.add(task);
                         }
                     }
                 }
             }
-            if (changed) {
-                mStateChangedListener.onControllerStateChanged();
+            if (!changedJobs.isEmpty()) {
+                mStateChangedListener.onControllerStateChanged(AppIdleController.this,
+                        changedJobs);
             }
         }
 
@@ -103,19 +103,19 @@ public class BatteryController extends StateController {
         if (DEBUG) {
             Slog.d(TAG, "maybeReportNewChargingState: " + stablePower);
         }
-        boolean reportChange = false;
+        final ArrayList<JobStatus> changedJobs = new ArrayList<JobStatus>();
         synchronized (mTrackedTasks) {
             for (JobStatus ts : mTrackedTasks) {
                 boolean previous = ts.chargingConstraintSatisfied.getAndSet(stablePower);
                 if (previous != stablePower) {
-                    reportChange = true;
+                    changedJobs.add(ts);
                 }
             }
         }
         // Let the scheduler know that state has changed. This may or may not result in an
         // execution.
-        if (reportChange) {
-            mStateChangedListener.onControllerStateChanged();
+        if (!changedJobs.isEmpty()) {
+            mStateChangedListener.onControllerStateChanged(this, changedJobs);
         }
         // Also tell the scheduler that any ready jobs should be flushed.
         if (stablePower) {
@@ -32,6 +32,7 @@ import com.android.server.job.JobSchedulerService;
 import com.android.server.job.StateChangedListener;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -106,7 +107,7 @@ public class ConnectivityController extends StateController implements
      */
     private void updateTrackedJobs(int userId) {
         synchronized (mTrackedJobs) {
-            boolean changed = false;
+            final ArrayList<JobStatus> changedJobs = new ArrayList<JobStatus>();
             for (JobStatus js : mTrackedJobs) {
                 if (js.getUserId() != userId) {
                     continue;
@@ -115,11 +116,11 @@ public class ConnectivityController extends StateController implements
                         js.connectivityConstraintSatisfied.getAndSet(mNetworkConnected);
                 boolean prevIsMetered = js.unmeteredConstraintSatisfied.getAndSet(mNetworkUnmetered);
                 if (prevIsConnected != mNetworkConnected || prevIsMetered != mNetworkUnmetered) {
-                    changed = true;
+                    changedJobs.add(js);
                 }
             }
-            if (changed) {
-                mStateChangedListener.onControllerStateChanged();
+            if (!changedJobs.isEmpty()) {
+                mStateChangedListener.onControllerStateChanged(this, changedJobs);
             }
         }
     }
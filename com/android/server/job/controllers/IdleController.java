@@ -87,12 +87,17 @@ public class IdleController extends StateController {
      * Interaction with the task manager service
      */
     void reportNewIdleState(boolean isIdle) {
+        final ArrayList<JobStatus> changedJobs = new ArrayList<JobStatus>();
         synchronized (mTrackedTasks) {
             for (JobStatus task : mTrackedTasks) {
-                task.idleConstraintSatisfied.set(isIdle);
+                if (task.idleConstraintSatisfied.getAndSet(isIdle) != isIdle) {
+                    changedJobs.add(task);
+                }
             }
         }
-        mStateChangedListener.onControllerStateChanged();
+        if (!changedJobs.isEmpty()) {
+            mStateChangedListener.onControllerStateChanged(this, changedJobs);
+        }
     }
 
     /**
@@ -29,6 +29,7 @@ import com.android.server.job.JobSchedulerService;
 import com.android.server.job.StateChangedListener;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -179,7 +180,7 @@ public class TimeController extends StateController {
     private synchronized void checkExpiredDelaysAndResetAlarm() {
         final long nowElapsedMillis = SystemClock.elapsedRealtime();
         long nextDelayTime = Long.MAX_VALUE;
-        boolean ready = false;
+        final ArrayList<JobStatus> changedJobs = new ArrayList<JobStatus>();
         Iterator<JobStatus> it = mTrackedJobs.iterator();
         while (it.hasNext()) {
             final JobStatus job = it.next();
@@ -188,21 +189,20 @@ public class TimeController extends StateController {
             }
             final long jobDelayTime = job.getEarliestRunTime();
             if (jobDelayTime <= nowElapsedMillis) {
-                job.timeDelayConstraintSatisfied.set(true);
+                if (!job.timeDelayConstraintSatisfied.getAndSet(true)) {
+                    changedJobs.add(job);
+                }
                 if (canStopTrackingJob(job)) {
                     it.remove();
                 }
-                if (job.isReady()) {
-                    ready = true;
-                }
             } else {  // Keep going through list to get next delay time.
                 if (nextDelayTime > jobDelayTime) {
                     nextDelayTime = jobDelayTime;
                 }
             }
         }
-        if (ready) {
-            mStateChangedListener.onControllerStateChanged();
+        if (!changedJobs.isEmpty()) {
+            mStateChangedListener.onControllerStateChanged(this, changedJobs);
         }
         setDelayExpiredAlarm(nextDelayTime);
     }
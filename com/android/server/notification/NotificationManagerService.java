@@ -93,13 +93,14 @@ import android.util.ArraySet;
 import android.util.AtomicFile;
 import android.util.Log;
 import android.util.Slog;
-import android.util.Xml;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityManager;
 import android.widget.Toast;
 
 import com.android.internal.R;
 import com.android.internal.statusbar.NotificationVisibility;
+import com.android.internal.util.BinaryXmlPullParser;
+import com.android.internal.util.BinaryXmlSerializer;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.server.EventLogTags;
 import com.android.server.LocalServices;
@@ -342,7 +343,7 @@ public class NotificationManagerService extends SystemService {
 
     private void readPolicyXml(InputStream stream, boolean forRestore)
             throws XmlPullParserException, NumberFormatException, IOException {
-        final XmlPullParser parser = Xml.newPullParser();
+        final XmlPullParser parser = new BinaryXmlPullParser();
         parser.setInput(stream, StandardCharsets.UTF_8.name());
 
         int type;
@@ -422,7 +423,8 @@ public class NotificationManagerService extends SystemService {
     }
 
     private void writePolicyXml(OutputStream stream, boolean forBackup) throws IOException {
-        final XmlSerializer out = new FastXmlSerializer();
+        // Backups may be restored on devices that can only parse text XML.
+        final XmlSerializer out = forBackup ? new FastXmlSerializer() : new BinaryXmlSerializer();
         out.setOutput(stream, StandardCharsets.UTF_8.name());
         out.startDocument(null, true);
         out.startTag(null, TAG_NOTIFICATION_POLICY);
@@ -127,6 +127,7 @@ import android.content.pm.PackageParser;
 import android.content.pm.PackageParser.ActivityIntentInfo;
 import android.content.pm.PackageParser.PackageLite;
 import android.content.pm.PackageParser.PackageParserException;
+import android.content.pm.PackageParserCache;
 import android.content.pm.PackageStats;
 import android.content.pm.PackageUserState;
 import android.content.pm.ParceledListSlice;
@@ -430,6 +431,9 @@ public class PackageManagerService extends IPackageManager.Stub {
     final long mDexOptLRUThresholdInMills;
     final DisplayMetrics mMetrics;
     final int mDefParseFlags;
+
+    /** Parsed packages from earlier boots; null when running with only core apps. */
+    final PackageParserCache mPackageParserCache;
     final String[] mSeparateProcesses;
     final boolean mIsUpgrade;
 
@@ -532,6 +536,10 @@ public class PackageManagerService extends IPackageManager.Stub {
     final ActivityIntentResolver mReceivers =
             new ActivityIntentResolver();
 
+    // Changes whenever receivers come or go or the per-user state of a package
+    // changes, see PackageManagerInternal.getReceiverStateGeneration().
+    static final AtomicInteger sReceiverStateGeneration = new AtomicInteger();
+
     // All available services, for your resolving pleasure.
     final ServiceIntentResolver mServices = new ServiceIntentResolver();
 
@@ -1806,6 +1814,8 @@ public class PackageManagerService extends IPackageManager.Stub {
         mContext = context;
         mFactoryTest = factoryTest;
         mOnlyCore = onlyCore;
+        mPackageParserCache = onlyCore ? null : new PackageParserCache(
+                new File(Environment.getDataDirectory(), "system/package_cache"));
         mLazyDexOpt = "eng".equals(SystemProperties.get("ro.build.type"));
         mMetrics = new DisplayMetrics();
         mSettings = new Settings(mPackages);
@@ -2264,6 +2274,12 @@ public class PackageManagerService extends IPackageManager.Stub {
 
             EventLog.writeEvent(EventLogTags.BOOT_PROGRESS_PMS_SCAN_END,
                     SystemClock.uptimeMillis());
+            if (mPackageParserCache != null) {
+                mPackageParserCache.pruneUnused();
+                Slog.i(TAG, "Package parser cache: " + mPackageParserCache.getHitCount()
+                        + " hits, " + mPackageParserCache.getMissCount() + " misses, "
+                        + mPackageParserCache.getWriteFailureCount() + " write failures");
+            }
             Slog.i(TAG, "Time to scan packages: "
                     + ((SystemClock.uptimeMillis()-startTime)/1000f)
                     + " seconds");
@@ -5578,31 +5594,71 @@ public class PackageManagerService extends IPackageManager.Stub {
                     + " flags=0x" + Integer.toHexString(parseFlags));
         }
 
-        for (File file : files) {
-            final boolean isPackage = (isApkFile(file) || file.isDirectory())
-                    && !PackageInstallerService.isStageName(file.getName());
-            if (!isPackage) {
-                // Ignore entries which are not packages
-                continue;
+        // Parsing is independent per package, so it runs on a pool of workers;
+        // the results are committed here one at a time in directory order so
+        // that settings end up exactly as they would after a serial scan.
+        final long startTime = SystemClock.uptimeMillis();
+        final int packageParseFlags = getPackageParseFlags(
+                parseFlags | PackageParser.PARSE_MUST_BE_APK, scanFlags);
+        final ParallelPackageParser parallelParser = new ParallelPackageParser(
+                mSeparateProcesses, mOnlyCore, mMetrics, mPackageParserCache,
+                Runtime.getRuntime().availableProcessors());
+        int packageCount = 0;
+        long waitTime = 0;
+        long commitTime = 0;
+        try {
+            for (File file : files) {
+                final boolean isPackage = (isApkFile(file) || file.isDirectory())
+                        && !PackageInstallerService.isStageName(file.getName());
+                if (!isPackage) {
+                    // Ignore entries which are not packages
+                    continue;
+                }
+                parallelParser.submit(file, packageParseFlags);
+                packageCount++;
             }
-            try {
-                scanPackageLI(file, parseFlags | PackageParser.PARSE_MUST_BE_APK,
-                        scanFlags, currentTime, null);
-            } catch (PackageManagerException e) {
-                Slog.w(TAG, "Failed to parse " + file + ": " + e.getMessage());
 
-                // Delete invalid userdata apps
-                if ((parseFlags & PackageParser.PARSE_IS_SYSTEM) == 0 &&
-                        e.error == PackageManager.INSTALL_FAILED_INVALID_APK) {
-                    logCriticalInfo(Log.WARN, "Deleting invalid package at " + file);
-                    if (file.isDirectory()) {
-                        mInstaller.rmPackageDir(file.getAbsolutePath());
-                    } else {
-                        file.delete();
+            ParallelPackageParser.ParseResult result;
+            long now = SystemClock.uptimeMillis();
+            while ((result = parallelParser.take()) != null) {
+                final long parsed = SystemClock.uptimeMillis();
+                waitTime += parsed - now;
+                final File file = result.scanFile;
+                try {
+                    if (result.throwable instanceof PackageParserException) {
+                        throw PackageManagerException.from(
+                                (PackageParserException) result.throwable);
+                    } else if (result.throwable != null) {
+                        throw new IllegalStateException("Unexpected exception parsing "
+                                + file, result.throwable);
+                    }
+                    scanParsedPackageLI(result.parser, result.pkg, file, result.parseFlags,
+                            scanFlags, currentTime, null);
+                } catch (PackageManagerException e) {
+                    Slog.w(TAG, "Failed to parse " + file + ": " + e.getMessage());
+
+                    // Delete invalid userdata apps
+                    if ((parseFlags & PackageParser.PARSE_IS_SYSTEM) == 0 &&
+                            e.error == PackageManager.INSTALL_FAILED_INVALID_APK) {
+                        logCriticalInfo(Log.WARN, "Deleting invalid package at " + file);
+                        if (file.isDirectory()) {
+                            mInstaller.rmPackageDir(file.getAbsolutePath());
+                        } else {
+                            file.delete();
+                        }
                     }
                 }
+                now = SystemClock.uptimeMillis();
+                commitTime += now - parsed;
             }
+        } finally {
+            parallelParser.close();
         }
+
+        Slog.i(TAG, "Scanned " + packageCount + " packages in " + dir + " in "
+                + (SystemClock.uptimeMillis() - startTime) + " ms: parse "
+                + parallelParser.getParseTimeMillis() + " ms on workers, waited "
+                + waitTime + " ms for parse results, commit " + commitTime + " ms");
     }
 
     private static File getSettingsProblemFile() {
@@ -5673,6 +5729,17 @@ public class PackageManagerService extends IPackageManager.Stub {
         }
     }
 
+    /**
+     * Returns the flags a package scanned with the given flags is parsed with.
+     */
+    private int getPackageParseFlags(int parseFlags, int scanFlags) {
+        parseFlags |= mDefParseFlags;
+        if ((scanFlags & SCAN_TRUSTED_OVERLAY) != 0) {
+            parseFlags |= PackageParser.PARSE_TRUSTED_OVERLAY;
+        }
+        return parseFlags;
+    }
+
     /*
      *  Scan a package and return the newly parsed package.
      *  Returns null in case of errors and the error code is stored in mLastScanError
@@ -5680,15 +5747,12 @@ public class PackageManagerService extends IPackageManager.Stub {
     private PackageParser.Package scanPackageLI(File scanFile, int parseFlags, int scanFlags,
             long currentTime, UserHandle user) throws PackageManagerException {
         if (DEBUG_INSTALL) Slog.d(TAG, "Parsing: " + scanFile);
-        parseFlags |= mDefParseFlags;
+        parseFlags = getPackageParseFlags(parseFlags, scanFlags);
         PackageParser pp = new PackageParser();
         pp.setSeparateProcesses(mSeparateProcesses);
         pp.setOnlyCoreApps(mOnlyCore);
         pp.setDisplayMetrics(mMetrics);
-
-        if ((scanFlags & SCAN_TRUSTED_OVERLAY) != 0) {
-            parseFlags |= PackageParser.PARSE_TRUSTED_OVERLAY;
-        }
+        pp.setCache(mPackageParserCache);
 
         final PackageParser.Package pkg;
         try {
@@ -5697,6 +5761,17 @@ public class PackageManagerService extends IPackageManager.Stub {
             throw PackageManagerException.from(e);
         }
 
+        return scanParsedPackageLI(pp, pkg, scanFile, parseFlags, scanFlags, currentTime, user);
+    }
+
+    /**
+     * Scans a package that {@code pp} has already parsed from {@code scanFile}.
+     * {@code parseFlags} must be the flags it was parsed with, as returned by
+     * {@link #getPackageParseFlags}.
+     */
+    private PackageParser.Package scanParsedPackageLI(PackageParser pp,
+            PackageParser.Package pkg, File scanFile, int parseFlags, int scanFlags,
+            long currentTime, UserHandle user) throws PackageManagerException {
         PackageSetting ps = null;
         PackageSetting updatedPkg;
         // reader
@@ -7292,6 +7367,7 @@ public class PackageManagerService extends IPackageManager.Stub {
                 a.info.processName = fixProcessName(pkg.applicationInfo.processName,
                         a.info.processName, pkg.applicationInfo.uid);
                 mReceivers.addActivity(a, "receiver");
+                sReceiverStateGeneration.incrementAndGet();
                 if ((parseFlags&PackageParser.PARSE_CHATTY) != 0) {
                     if (r == null) {
                         r = new StringBuilder(256);
@@ -8083,6 +8159,7 @@ public class PackageManagerService extends IPackageManager.Stub {
         for (i=0; i<N; i++) {
             PackageParser.Activity a = pkg.receivers.get(i);
             mReceivers.removeActivity(a, "receiver");
+            sReceiverStateGeneration.incrementAndGet();
             if (DEBUG_REMOVE && chatty) {
                 if (r == null) {
                     r = new StringBuilder(256);
@@ -16585,6 +16662,11 @@ public class PackageManagerService extends IPackageManager.Stub {
                         packageName, userId);
             }
         }
+
+        @Override
+        public int getReceiverStateGeneration() {
+            return sReceiverStateGeneration.get();
+        }
     }
 
     @Override
@@ -242,6 +242,7 @@ abstract class PackageSettingBase extends SettingBase {
     }
 
     private PackageUserState modifyUserState(int userId) {
+        PackageManagerService.sReceiverStateGeneration.incrementAndGet();
         PackageUserState state = userState.get(userId);
         if (state == null) {
             state = new PackageUserState();
@@ -441,6 +442,7 @@ abstract class PackageSettingBase extends SettingBase {
     }
 
     void removeUser(int userId) {
+        PackageManagerService.sReceiverStateGeneration.incrementAndGet();
         userState.delete(userId);
     }
 
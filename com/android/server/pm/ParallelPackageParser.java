@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.pm;
+
+import android.content.pm.PackageParser;
+import android.content.pm.PackageParserCache;
+import android.os.Process;
+import android.util.DisplayMetrics;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses packages on a small pool of worker threads. Results are handed back
+ * by {@link #take()} in the order the files were submitted, so callers that
+ * commit packages one at a time see the same order as a serial scan.
+ *
+ * <p>Each file gets its own {@link PackageParser}, which keeps per-parse
+ * state and must not be shared between threads.
+ */
+class ParallelPackageParser implements AutoCloseable {
+
+    /** Beyond four threads the parsers mostly wait on storage. */
+    static final int MAX_THREADS = 4;
+
+    static class ParseResult {
+        /** The parser that produced {@link #pkg}; needed to collect certificates. */
+        PackageParser parser;
+        File scanFile;
+        int parseFlags;
+        PackageParser.Package pkg;
+        /** Set instead of {@link #pkg} when parsing failed. */
+        Throwable throwable;
+    }
+
+    private final String[] mSeparateProcesses;
+    private final boolean mOnlyCore;
+    private final DisplayMetrics mMetrics;
+    private final PackageParserCache mCache;
+    private final ExecutorService mService;
+    private final ArrayDeque<Future<ParseResult>> mPending =
+            new ArrayDeque<Future<ParseResult>>();
+
+    /** Time spent inside {@link PackageParser#parsePackage}, summed over workers. */
+    private final AtomicLong mParseTime = new AtomicLong();
+
+    ParallelPackageParser(String[] separateProcesses, boolean onlyCore,
+            DisplayMetrics metrics, PackageParserCache cache, int threads) {
+        mSeparateProcesses = separateProcesses;
+        mOnlyCore = onlyCore;
+        mMetrics = metrics;
+        mCache = cache;
+        final int count = Math.max(1, Math.min(threads, MAX_THREADS));
+        mService = new ThreadPoolExecutor(count, count, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ParserThreadFactory());
+    }
+
+    /**
+     * Queues {@code scanFile} for parsing with {@code parseFlags}.
+     */
+    void submit(final File scanFile, final int parseFlags) {
+        mPending.add(mService.submit(new Callable<ParseResult>() {
+            @Override
+            public ParseResult call() {
+                final long start = System.nanoTime();
+                final ParseResult result = new ParseResult();
+                result.scanFile = scanFile;
+                result.parseFlags = parseFlags;
+                try {
+                    PackageParser pp = new PackageParser();
+                    pp.setSeparateProcesses(mSeparateProcesses);
+                    pp.setOnlyCoreApps(mOnlyCore);
+                    pp.setDisplayMetrics(mMetrics);
+                    pp.setCache(mCache);
+                    result.parser = pp;
+                    result.pkg = pp.parsePackage(scanFile, parseFlags);
+                } catch (Throwable e) {
+                    result.throwable = e;
+                }
+                mParseTime.addAndGet(System.nanoTime() - start);
+                return result;
+            }
+        }));
+    }
+
+    /**
+     * Returns the result for the oldest submitted file that has not been
+     * taken yet, waiting for it to be parsed if necessary, or null if every
+     * submitted file has been taken.
+     */
+    ParseResult take() {
+        final Future<ParseResult> future = mPending.poll();
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            // call() catches everything, so this cannot happen.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the total time the workers have spent parsing, in milliseconds.
+     */
+    long getParseTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mParseTime.get());
+    }
+
+    @Override
+    public void close() {
+        mService.shutdownNow();
+        mPending.clear();
+    }
+
+    private static class ParserThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread("package-parser-" + mCount.incrementAndGet()) {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                    r.run();
+                }
+            };
+        }
+    }
+}
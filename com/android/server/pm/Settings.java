@@ -56,7 +56,8 @@ import android.util.SparseLongArray;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.os.BackgroundThread;
 import com.android.internal.util.ArrayUtils;
-import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.BinaryXmlPullParser;
+import com.android.internal.util.BinaryXmlSerializer;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.internal.util.JournaledFile;
 import com.android.internal.util.Preconditions;
@@ -1420,7 +1421,7 @@ final class Settings {
                 }
                 str = new FileInputStream(userPackagesStateFile);
             }
-            final XmlPullParser parser = Xml.newPullParser();
+            final XmlPullParser parser = new BinaryXmlPullParser();
             parser.setInput(str, StandardCharsets.UTF_8.name());
 
             int type;
@@ -1740,7 +1741,7 @@ final class Settings {
             final FileOutputStream fstr = new FileOutputStream(userPackagesStateFile);
             final BufferedOutputStream str = new BufferedOutputStream(fstr);
 
-            final XmlSerializer serializer = new FastXmlSerializer();
+            final XmlSerializer serializer = new BinaryXmlSerializer();
             serializer.setOutput(str, StandardCharsets.UTF_8.name());
             serializer.startDocument(null, true);
             serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
@@ -2067,8 +2068,7 @@ final class Settings {
             FileOutputStream fstr = new FileOutputStream(mSettingsFilename);
             BufferedOutputStream str = new BufferedOutputStream(fstr);
 
-            //XmlSerializer serializer = XmlUtils.serializerInstance();
-            XmlSerializer serializer = new FastXmlSerializer();
+            XmlSerializer serializer = new BinaryXmlSerializer();
             serializer.setOutput(str, StandardCharsets.UTF_8.name());
             serializer.startDocument(null, true);
             serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
@@ -2523,7 +2523,7 @@ final class Settings {
                 }
                 str = new FileInputStream(mSettingsFilename);
             }
-            XmlPullParser parser = Xml.newPullParser();
+            XmlPullParser parser = new BinaryXmlPullParser();
             parser.setInput(str, StandardCharsets.UTF_8.name());
 
             int type;
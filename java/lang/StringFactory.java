@@ -83,6 +83,25 @@ public final class StringFactory {
             int s = 0;
 outer:
             while (idx < last) {
+                // Copy runs of ASCII eight bytes at a time. Bytes are signed,
+                // so eight ASCII bytes or'ed together are still non-negative.
+                while (idx + 8 <= last && (d[idx] | d[idx + 1] | d[idx + 2] | d[idx + 3]
+                        | d[idx + 4] | d[idx + 5] | d[idx + 6] | d[idx + 7]) >= 0) {
+                    v[s] = (char) d[idx];
+                    v[s + 1] = (char) d[idx + 1];
+                    v[s + 2] = (char) d[idx + 2];
+                    v[s + 3] = (char) d[idx + 3];
+                    v[s + 4] = (char) d[idx + 4];
+                    v[s + 5] = (char) d[idx + 5];
+                    v[s + 6] = (char) d[idx + 6];
+                    v[s + 7] = (char) d[idx + 7];
+                    idx += 8;
+                    s += 8;
+                }
+                if (idx == last) {
+                    break;
+                }
+
                 byte b0 = d[idx++];
                 if ((b0 & 0x80) == 0) {
                     // 0xxxxxxx
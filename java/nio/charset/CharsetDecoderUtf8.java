@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/**
+ * A UTF-8 decoder written in Java so that it can work on buffers directly,
+ * without the copies into and out of native memory that ICU needs.
+ *
+ * <p>Runs of ASCII are copied eight bytes at a time. Everything else goes
+ * through a table-driven DFA (after Bjoern Hoehrmann's) that accepts exactly
+ * the well-formed sequences of RFC 3629: overlong forms, surrogates and
+ * values above U+10FFFF are malformed. Malformed input is reported with the
+ * length of its maximal subpart, as the Unicode standard recommends.
+ */
+final class CharsetDecoderUtf8 extends CharsetDecoder {
+    /**
+     * Maps each byte to its character class. Bytes with the same class
+     * behave the same in every state.
+     */
+    static final byte[] TYPES = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+        9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9,
+        7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        8, 8, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,
+        2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,
+        10, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 4, 3, 3,
+        11, 6, 6, 6, 5, 8, 8, 8, 8, 8, 8, 8, 8, 8, 8, 8,
+    };
+
+    /**
+     * Maps a state plus a character class to the next state. States are
+     * multiples of 12 so that they index rows directly.
+     */
+    static final byte[] TRANSITIONS = {
+        0, 12, 24, 36, 60, 96, 84, 12, 12, 12, 48, 72,
+        12, 12, 12, 12, 12, 12, 12, 12, 12, 12, 12, 12,
+        12, 0, 12, 12, 12, 12, 12, 0, 12, 0, 12, 12,
+        12, 24, 12, 12, 12, 12, 12, 24, 12, 24, 12, 12,
+        12, 12, 12, 12, 12, 12, 12, 24, 12, 12, 12, 12,
+        12, 24, 12, 12, 12, 12, 12, 12, 12, 24, 12, 12,
+        12, 12, 12, 12, 12, 12, 12, 36, 12, 36, 12, 12,
+        12, 36, 12, 12, 12, 12, 12, 36, 12, 36, 12, 12,
+        12, 36, 12, 12, 12, 12, 12, 12, 12, 12, 12, 12,
+    };
+
+    static final int ACCEPT = 0;
+    static final int REJECT = 12;
+
+    private static final long ASCII_MASK = 0x8080808080808080L;
+
+    CharsetDecoderUtf8(Charset cs) {
+        super(cs, 1.0f, 1.0f);
+    }
+
+    @Override protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            return decodeArrays(in, out);
+        }
+        return decodeBuffers(in, out);
+    }
+
+    private static CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
+        final byte[] src = in.array();
+        int sp = in.arrayOffset() + in.position();
+        final int sl = in.arrayOffset() + in.limit();
+        final char[] dst = out.array();
+        int dp = out.arrayOffset() + out.position();
+        final int dl = out.arrayOffset() + out.limit();
+        try {
+            while (sp < sl) {
+                // Bytes are signed, so eight ASCII bytes or'ed together are
+                // still non-negative.
+                while (sp + 8 <= sl && dp + 8 <= dl
+                        && (src[sp] | src[sp + 1] | src[sp + 2] | src[sp + 3]
+                        | src[sp + 4] | src[sp + 5] | src[sp + 6] | src[sp + 7]) >= 0) {
+                    dst[dp] = (char) src[sp];
+                    dst[dp + 1] = (char) src[sp + 1];
+                    dst[dp + 2] = (char) src[sp + 2];
+                    dst[dp + 3] = (char) src[sp + 3];
+                    dst[dp + 4] = (char) src[sp + 4];
+                    dst[dp + 5] = (char) src[sp + 5];
+                    dst[dp + 6] = (char) src[sp + 6];
+                    dst[dp + 7] = (char) src[sp + 7];
+                    sp += 8;
+                    dp += 8;
+                }
+                if (sp == sl) {
+                    break;
+                }
+
+                int b = src[sp];
+                if (b >= 0) {
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    dst[dp++] = (char) b;
+                    ++sp;
+                    continue;
+                }
+
+                int state = ACCEPT;
+                int codePoint = 0;
+                int p = sp;
+                do {
+                    if (p == sl) {
+                        // An incomplete sequence; wait for more input.
+                        return CoderResult.UNDERFLOW;
+                    }
+                    int v = src[p] & 0xff;
+                    int type = TYPES[v];
+                    codePoint = (state == ACCEPT)
+                            ? (0xff >> type) & v
+                            : (codePoint << 6) | (v & 0x3f);
+                    state = TRANSITIONS[state + type];
+                    if (state == REJECT) {
+                        return CoderResult.malformedForLength(Math.max(1, p - sp));
+                    }
+                    ++p;
+                } while (state != ACCEPT);
+
+                if (codePoint < 0x10000) {
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    dst[dp++] = (char) codePoint;
+                } else {
+                    if (dl - dp < 2) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    dst[dp++] = Character.highSurrogate(codePoint);
+                    dst[dp++] = Character.lowSurrogate(codePoint);
+                }
+                sp = p;
+            }
+            return CoderResult.UNDERFLOW;
+        } finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+        }
+    }
+
+    private static CoderResult decodeBuffers(ByteBuffer in, CharBuffer out) {
+        int sp = in.position();
+        final int sl = in.limit();
+        int dp = out.position();
+        final int dl = out.limit();
+        final boolean littleEndian = in.order() == ByteOrder.LITTLE_ENDIAN;
+        try {
+            while (sp < sl) {
+                while (sp + 8 <= sl && dp + 8 <= dl) {
+                    long word = in.getLong(sp);
+                    if ((word & ASCII_MASK) != 0) {
+                        break;
+                    }
+                    if (littleEndian) {
+                        word = Long.reverseBytes(word);
+                    }
+                    // The first byte is now the most significant.
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        out.put(dp++, (char) ((word >>> shift) & 0x7f));
+                    }
+                    sp += 8;
+                }
+                if (sp == sl) {
+                    break;
+                }
+
+                int b = in.get(sp);
+                if (b >= 0) {
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(dp++, (char) b);
+                    ++sp;
+                    continue;
+                }
+
+                int state = ACCEPT;
+                int codePoint = 0;
+                int p = sp;
+                do {
+                    if (p == sl) {
+                        return CoderResult.UNDERFLOW;
+                    }
+                    int v = in.get(p) & 0xff;
+                    int type = TYPES[v];
+                    codePoint = (state == ACCEPT)
+                            ? (0xff >> type) & v
+                            : (codePoint << 6) | (v & 0x3f);
+                    state = TRANSITIONS[state + type];
+                    if (state == REJECT) {
+                        return CoderResult.malformedForLength(Math.max(1, p - sp));
+                    }
+                    ++p;
+                } while (state != ACCEPT);
+
+                if (codePoint < 0x10000) {
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(dp++, (char) codePoint);
+                } else {
+                    if (dl - dp < 2) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(dp++, Character.highSurrogate(codePoint));
+                    out.put(dp++, Character.lowSurrogate(codePoint));
+                }
+                sp = p;
+            }
+            return CoderResult.UNDERFLOW;
+        } finally {
+            in.position(sp);
+            out.position(dp);
+        }
+    }
+}
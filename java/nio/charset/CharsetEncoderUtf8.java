@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/**
+ * A UTF-8 encoder written in Java so that it can work on buffers directly.
+ * Runs of ASCII are written eight characters at a time. Unpaired surrogates
+ * are malformed; every other character is mappable.
+ */
+final class CharsetEncoderUtf8 extends CharsetEncoder {
+    CharsetEncoderUtf8(Charset cs) {
+        super(cs, 2.0f, 3.0f, new byte[] { (byte) '?' }, true);
+    }
+
+    @Override protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            return encodeArrays(in, out);
+        }
+        return encodeBuffers(in, out);
+    }
+
+    private static CoderResult encodeArrays(CharBuffer in, ByteBuffer out) {
+        final char[] src = in.array();
+        int sp = in.arrayOffset() + in.position();
+        final int sl = in.arrayOffset() + in.limit();
+        final byte[] dst = out.array();
+        int dp = out.arrayOffset() + out.position();
+        final int dl = out.arrayOffset() + out.limit();
+        try {
+            while (sp < sl) {
+                while (sp + 8 <= sl && dp + 8 <= dl
+                        && (src[sp] | src[sp + 1] | src[sp + 2] | src[sp + 3]
+                        | src[sp + 4] | src[sp + 5] | src[sp + 6] | src[sp + 7]) < 0x80) {
+                    dst[dp] = (byte) src[sp];
+                    dst[dp + 1] = (byte) src[sp + 1];
+                    dst[dp + 2] = (byte) src[sp + 2];
+                    dst[dp + 3] = (byte) src[sp + 3];
+                    dst[dp + 4] = (byte) src[sp + 4];
+                    dst[dp + 5] = (byte) src[sp + 5];
+                    dst[dp + 6] = (byte) src[sp + 6];
+                    dst[dp + 7] = (byte) src[sp + 7];
+                    sp += 8;
+                    dp += 8;
+                }
+                if (sp == sl) {
+                    break;
+                }
+
+                char c = src[sp];
+                if (c < 0x80) {
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    dst[dp++] = (byte) c;
+                    ++sp;
+                } else if (c < 0x800) {
+                    if (dl - dp < 2) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    dst[dp++] = (byte) (0xc0 | (c >> 6));
+                    dst[dp++] = (byte) (0x80 | (c & 0x3f));
+                    ++sp;
+                } else if (!Character.isSurrogate(c)) {
+                    if (dl - dp < 3) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    dst[dp++] = (byte) (0xe0 | (c >> 12));
+                    dst[dp++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    dst[dp++] = (byte) (0x80 | (c & 0x3f));
+                    ++sp;
+                } else {
+                    if (!Character.isHighSurrogate(c)) {
+                        return CoderResult.malformedForLength(1);
+                    }
+                    if (sp + 1 == sl) {
+                        // The low surrogate may be in the next buffer.
+                        return CoderResult.UNDERFLOW;
+                    }
+                    char low = src[sp + 1];
+                    if (!Character.isLowSurrogate(low)) {
+                        return CoderResult.malformedForLength(1);
+                    }
+                    if (dl - dp < 4) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    int codePoint = Character.toCodePoint(c, low);
+                    dst[dp++] = (byte) (0xf0 | (codePoint >> 18));
+                    dst[dp++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    dst[dp++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    dst[dp++] = (byte) (0x80 | (codePoint & 0x3f));
+                    sp += 2;
+                }
+            }
+            return CoderResult.UNDERFLOW;
+        } finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+        }
+    }
+
+    private static CoderResult encodeBuffers(CharBuffer in, ByteBuffer out) {
+        int sp = in.position();
+        final int sl = in.limit();
+        int dp = out.position();
+        final int dl = out.limit();
+        final boolean littleEndian = out.order() == ByteOrder.LITTLE_ENDIAN;
+        try {
+            while (sp < sl) {
+                while (sp + 8 <= sl && dp + 8 <= dl) {
+                    // Gather eight characters into one word, first character
+                    // most significant, and write it with a single putLong.
+                    long word = 0;
+                    int bits = 0;
+                    for (int i = 0; i < 8; ++i) {
+                        char c = in.get(sp + i);
+                        bits |= c;
+                        word = (word << 8) | (c & 0xff);
+                    }
+                    if (bits >= 0x80) {
+                        break;
+                    }
+                    out.putLong(dp, littleEndian ? Long.reverseBytes(word) : word);
+                    sp += 8;
+                    dp += 8;
+                }
+                if (sp == sl) {
+                    break;
+                }
+
+                char c = in.get(sp);
+                if (c < 0x80) {
+                    if (dp == dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(dp++, (byte) c);
+                    ++sp;
+                } else if (c < 0x800) {
+                    if (dl - dp < 2) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(dp++, (byte) (0xc0 | (c >> 6)));
+                    out.put(dp++, (byte) (0x80 | (c & 0x3f)));
+                    ++sp;
+                } else if (!Character.isSurrogate(c)) {
+                    if (dl - dp < 3) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    out.put(dp++, (byte) (0xe0 | (c >> 12)));
+                    out.put(dp++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+                    out.put(dp++, (byte) (0x80 | (c & 0x3f)));
+                    ++sp;
+                } else {
+                    if (!Character.isHighSurrogate(c)) {
+                        return CoderResult.malformedForLength(1);
+                    }
+                    if (sp + 1 == sl) {
+                        return CoderResult.UNDERFLOW;
+                    }
+                    char low = in.get(sp + 1);
+                    if (!Character.isLowSurrogate(low)) {
+                        return CoderResult.malformedForLength(1);
+                    }
+                    if (dl - dp < 4) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    int codePoint = Character.toCodePoint(c, low);
+                    out.put(dp++, (byte) (0xf0 | (codePoint >> 18)));
+                    out.put(dp++, (byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                    out.put(dp++, (byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                    out.put(dp++, (byte) (0x80 | (codePoint & 0x3f)));
+                    sp += 2;
+                }
+            }
+            return CoderResult.UNDERFLOW;
+        } finally {
+            in.position(sp);
+            out.position(dp);
+        }
+    }
+}
@@ -20,10 +20,17 @@ final class CharsetICU extends Charset {
     }
 
     public CharsetDecoder newDecoder() {
+        // UTF-8 is coded in Java, which avoids copying buffers through native memory.
+        if (icuCanonicalName.equals("UTF-8")) {
+            return new CharsetDecoderUtf8(this);
+        }
         return CharsetDecoderICU.newInstance(this, icuCanonicalName);
     }
 
     public CharsetEncoder newEncoder() {
+        if (icuCanonicalName.equals("UTF-8")) {
+            return new CharsetEncoderUtf8(this);
+        }
         return CharsetEncoderICU.newInstance(this, icuCanonicalName);
     }
 
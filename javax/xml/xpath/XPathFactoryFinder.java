@@ -213,7 +213,7 @@ final class XPathFactoryFinder {
         // platform default
         if(uri.equals(XPathFactory.DEFAULT_OBJECT_MODEL_URI)) {
             if (debug) debugPrintln("attempting to use the platform default W3C DOM XPath lib");
-            return createInstance("org.apache.xpath.jaxp.XPathFactoryImpl");
+            return createInstance("org.apache.harmony.xml.xpath.XPathFactoryImpl");
         }
 
         if (debug) debugPrintln("all things were tried, but none was found. bailing out.");
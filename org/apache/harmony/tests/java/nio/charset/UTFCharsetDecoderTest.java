@@ -18,7 +18,12 @@ package org.apache.harmony.tests.java.nio.charset;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 /**
  * test utf-8 decoder
@@ -73,4 +78,80 @@ public class UTFCharsetDecoderTest extends CharsetDecoderTest {
                 (byte) 0xe6, (byte) 0x84, (byte) 0x9b });
     }
 
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private String decodeReplacing(byte[] input, boolean direct) {
+        ByteBuffer in = direct ? ByteBuffer.allocateDirect(input.length)
+                : ByteBuffer.allocate(input.length);
+        in.put(input).flip();
+        CharBuffer out = CharBuffer.allocate(input.length);
+        CharsetDecoder d = cs.newDecoder().onMalformedInput(CodingErrorAction.REPLACE);
+        assertTrue(d.decode(in, out, true).isUnderflow());
+        assertTrue(d.flush(out).isUnderflow());
+        return out.flip().toString();
+    }
+
+    /**
+     * Malformed sequences are replaced per maximal subpart, so an invalid
+     * continuation byte is decoded again as the start of the next sequence.
+     */
+    public void testMalformedSubparts() {
+        // Overlong, surrogate and out of range sequences.
+        assertEquals("\ufffd\ufffd", decodeReplacing(bytes(0xc0, 0xaf), false));
+        assertEquals("\ufffd\ufffd\ufffd", decodeReplacing(bytes(0xe0, 0x80, 0xaf), false));
+        assertEquals("\ufffd\ufffd\ufffd", decodeReplacing(bytes(0xed, 0xa0, 0x80), false));
+        assertEquals("\ufffd\ufffd\ufffd\ufffd",
+                decodeReplacing(bytes(0xf4, 0x90, 0x80, 0x80), false));
+        // Truncated sequences collapse to one replacement each.
+        assertEquals("\ufffda\ufffd",
+                decodeReplacing(bytes(0xe6, 0x84, 'a', 0xf0, 0x9f, 0x98), true));
+        assertEquals("\ud83d\ude00", decodeReplacing(bytes(0xf0, 0x9f, 0x98, 0x80), true));
+
+        CharsetDecoder d = cs.newDecoder();
+        ByteBuffer in = ByteBuffer.wrap(bytes('a', 0xe6, 0x84, 'b'));
+        CoderResult result = d.decode(in, CharBuffer.allocate(4), true);
+        assertTrue(result.isMalformed());
+        assertEquals(2, result.length());
+        assertEquals(1, in.position());
+    }
+
+    /** Long ASCII runs take the word-at-a-time path, whatever the buffer type. */
+    public void testDirectBuffers() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("ascii text run ").append(i).append(getString());
+        }
+        String expected = builder.toString();
+        byte[] encoded = expected.getBytes("UTF-8");
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer in = ByteBuffer.allocateDirect(encoded.length).order(order);
+            in.put(encoded).flip();
+            CharBuffer out = ByteBuffer.allocateDirect(encoded.length * 2).asCharBuffer();
+            assertTrue(cs.newDecoder().decode(in, out, true).isUnderflow());
+            assertEquals(expected, out.flip().toString());
+        }
+        assertEquals(expected, decodeReplacing(encoded, true));
+    }
+
+    /** Sequences split across buffers are held back until the rest arrives. */
+    public void testSplitSequences() throws Exception {
+        String expected = getString() + "\ud83d\ude00";
+        byte[] encoded = expected.getBytes("UTF-8");
+        CharsetDecoder d = cs.newDecoder();
+        CharBuffer out = CharBuffer.allocate(expected.length());
+        ByteBuffer in = ByteBuffer.allocate(encoded.length);
+        for (int i = 0; i < encoded.length; i++) {
+            in.put(encoded[i]).flip();
+            assertTrue(d.decode(in, out, i == encoded.length - 1).isUnderflow());
+            in.compact();
+        }
+        assertTrue(d.flush(out).isUnderflow());
+        assertEquals(expected, out.flip().toString());
+    }
 }
@@ -16,9 +16,12 @@
 
 package org.apache.harmony.tests.java.nio.charset;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * test case specific activity of utf-8 charset encoder
@@ -75,6 +78,28 @@ public class UTFCharsetEncoderTest extends CharsetEncoderTest {
 		assertEquals(3, encoder.maxBytesPerChar(), 0);
 	}
 
+	/*
+	 * Long ASCII runs take the word-at-a-time path, whatever the buffer type.
+	 */
+	public void testDirectBuffers() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			builder.append("ascii text run ").append(i).append("\u041c\u0430 \u611b \ud83d\ude00");
+		}
+		String string = builder.toString();
+		byte[] expected = string.getBytes("UTF-8");
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			CharBuffer in = ByteBuffer.allocateDirect(string.length() * 2).asCharBuffer();
+			in.put(string).flip();
+			ByteBuffer out = ByteBuffer.allocateDirect(expected.length).order(order);
+			encoder.reset();
+			assertTrue(encoder.encode(in, out, true).isUnderflow());
+			byte[] actual = new byte[out.flip().remaining()];
+			out.get(actual);
+			assertTrue(Arrays.equals(expected, actual));
+		}
+	}
+
 	CharBuffer getMalformedCharBuffer() {
 		return CharBuffer.wrap("\ud800 buffer");
 	}
@@ -16,6 +16,7 @@
 
 package org.apache.harmony.xml;
 
+import java.util.Arrays;
 import org.xml.sax.Attributes;
 
 /**
@@ -28,6 +29,13 @@ abstract class ExpatAttributes implements Attributes {
      */
     private static final String CDATA = "CDATA";
 
+    /**
+     * Values fetched so far, by index. Expat keeps values in native memory;
+     * each is only copied into a String when first asked for, and only once.
+     */
+    private String[] values;
+    private boolean hasValues;
+
     /**
      * Gets the number of attributes.
      */
@@ -69,9 +77,30 @@ abstract class ExpatAttributes implements Attributes {
     }
 
     public String getValue(int index) {
-        return (index < 0 || index >= getLength())
-                ? null
-                : getValueByIndex(getPointer(), index);
+        if (index < 0 || index >= getLength()) {
+            return null;
+        }
+        if (values == null || values.length < getLength()) {
+            values = new String[Math.max(getLength(), 8)];
+        }
+        String value = values[index];
+        if (value == null) {
+            value = getValueByIndex(getPointer(), index);
+            values[index] = value;
+            hasValues = true;
+        }
+        return value;
+    }
+
+    /**
+     * Forgets the values fetched so far. Called when the underlying native
+     * attributes change.
+     */
+    void clearValues() {
+        if (hasValues) {
+            Arrays.fill(values, null);
+            hasValues = false;
+        }
     }
 
     public int getIndex(String uri, String localName) {
@@ -124,7 +153,8 @@ abstract class ExpatAttributes implements Attributes {
         if (pointer == 0) {
             return null;
         }
-        return getValue(pointer, uri, localName);
+        int index = getIndex(pointer, uri, localName);
+        return index == -1 ? null : getValue(index);
     }
 
     public String getValue(String qName) {
@@ -135,7 +165,8 @@ abstract class ExpatAttributes implements Attributes {
         if (pointer == 0) {
             return null;
         }
-        return getValueForQName(pointer, qName);
+        int index = getIndexForQName(pointer, qName);
+        return index == -1 ? null : getValue(index);
     }
 
     private static native String getURI(long pointer, long attributePointer, int index);
@@ -22,6 +22,8 @@ import java.io.Reader;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import libcore.io.IoUtils;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -61,6 +63,20 @@ class ExpatParser {
 
     private final ExpatAttributes attributes = new CurrentAttributes();
 
+    /**
+     * True to deliver each run of text in one {@code characters()} call. Expat
+     * reports text in pieces, split at line ends, entity references and its
+     * own buffer boundaries; in this mode the pieces are collected in {@link
+     * #textBuffer}, which is reused for the whole document, and delivered just
+     * before the next event.
+     */
+    private final boolean coalesceCharacters;
+    private char[] textBuffer;
+    private int textLength;
+
+    /** Reused to feed the bytes of direct buffers to Expat. */
+    private byte[] byteBuffer;
+
     private static final String OUTSIDE_START_ELEMENT
             = "Attributes can only be used within the scope of startElement().";
 
@@ -82,6 +98,7 @@ class ExpatParser {
         this.systemId = systemId;
 
         this.xmlReader = xmlReader;
+        this.coalesceCharacters = xmlReader.coalesceCharacters;
 
         /*
          * TODO: Let Expat try to guess the encoding instead of defaulting.
@@ -104,6 +121,7 @@ class ExpatParser {
             String publicId, String systemId) {
         this.encoding = encoding;
         this.xmlReader = xmlReader;
+        this.coalesceCharacters = xmlReader.coalesceCharacters;
         this.pointer = pointer;
         this.systemId = systemId;
         this.publicId = publicId;
@@ -130,6 +148,7 @@ class ExpatParser {
      */
     /*package*/ void startElement(String uri, String localName, String qName,
             long attributePointer, int attributeCount) throws SAXException {
+        flushText();
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler == null) {
             return;
@@ -144,6 +163,7 @@ class ExpatParser {
                     uri, localName, qName, this.attributes);
         } finally {
             inStartElement = false;
+            this.attributes.clearValues();
             this.attributeCount = -1;
             this.attributePointer = 0;
         }
@@ -151,6 +171,7 @@ class ExpatParser {
 
     /*package*/ void endElement(String uri, String localName, String qName)
             throws SAXException {
+        flushText();
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
             contentHandler.endElement(uri, localName, qName);
@@ -158,13 +179,42 @@ class ExpatParser {
     }
 
     /*package*/ void text(char[] text, int length) throws SAXException {
+        if (coalesceCharacters) {
+            if (textBuffer == null) {
+                textBuffer = new char[Math.max(length, 256)];
+            } else if (textBuffer.length - textLength < length) {
+                textBuffer = Arrays.copyOf(textBuffer,
+                        Math.max(textBuffer.length * 2, textLength + length));
+            }
+            System.arraycopy(text, 0, textBuffer, textLength, length);
+            textLength += length;
+            return;
+        }
+
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
             contentHandler.characters(text, 0, length);
         }
     }
 
+    /**
+     * Delivers the text collected since the last event, if any. The locator
+     * reports the position of the event that ended the text.
+     */
+    /*package*/ void flushText() throws SAXException {
+        if (textLength == 0) {
+            return;
+        }
+        int length = textLength;
+        textLength = 0;
+        ContentHandler contentHandler = xmlReader.contentHandler;
+        if (contentHandler != null) {
+            contentHandler.characters(textBuffer, 0, length);
+        }
+    }
+
     /*package*/ void comment(char[] text, int length) throws SAXException {
+        flushText();
         LexicalHandler lexicalHandler = xmlReader.lexicalHandler;
         if (lexicalHandler != null) {
             lexicalHandler.comment(text, 0, length);
@@ -172,6 +222,7 @@ class ExpatParser {
     }
 
     /*package*/ void startCdata() throws SAXException {
+        flushText();
         LexicalHandler lexicalHandler = xmlReader.lexicalHandler;
         if (lexicalHandler != null) {
             lexicalHandler.startCDATA();
@@ -179,6 +230,7 @@ class ExpatParser {
     }
 
     /*package*/ void endCdata() throws SAXException {
+        flushText();
         LexicalHandler lexicalHandler = xmlReader.lexicalHandler;
         if (lexicalHandler != null) {
             lexicalHandler.endCDATA();
@@ -187,6 +239,7 @@ class ExpatParser {
 
     /*package*/ void startNamespace(String prefix, String uri)
             throws SAXException {
+        flushText();
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
             contentHandler.startPrefixMapping(prefix, uri);
@@ -194,6 +247,7 @@ class ExpatParser {
     }
 
     /*package*/ void endNamespace(String prefix) throws SAXException {
+        flushText();
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
             contentHandler.endPrefixMapping(prefix);
@@ -202,6 +256,7 @@ class ExpatParser {
 
     /*package*/ void startDtd(String name, String publicId, String systemId)
             throws SAXException {
+        flushText();
         LexicalHandler lexicalHandler = xmlReader.lexicalHandler;
         if (lexicalHandler != null) {
             lexicalHandler.startDTD(name, publicId, systemId);
@@ -209,6 +264,7 @@ class ExpatParser {
     }
 
     /*package*/ void endDtd() throws SAXException {
+        flushText();
         LexicalHandler lexicalHandler = xmlReader.lexicalHandler;
         if (lexicalHandler != null) {
             lexicalHandler.endDTD();
@@ -217,6 +273,7 @@ class ExpatParser {
 
     /*package*/ void processingInstruction(String target, String data)
             throws SAXException {
+        flushText();
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
             contentHandler.processingInstruction(target, data);
@@ -224,6 +281,7 @@ class ExpatParser {
     }
 
     /*package*/ void notationDecl(String name, String publicId, String systemId) throws SAXException {
+        flushText();
         DTDHandler dtdHandler = xmlReader.dtdHandler;
         if (dtdHandler != null) {
             dtdHandler.notationDecl(name, publicId, systemId);
@@ -231,6 +289,7 @@ class ExpatParser {
     }
 
     /*package*/ void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+        flushText();
         DTDHandler dtdHandler = xmlReader.dtdHandler;
         if (dtdHandler != null) {
             dtdHandler.unparsedEntityDecl(name, publicId, systemId, notationName);
@@ -246,6 +305,7 @@ class ExpatParser {
      */
     /*package*/ void handleExternalEntity(String context, String publicId,
             String systemId) throws SAXException, IOException {
+        flushText();
         EntityResolver entityResolver = xmlReader.entityResolver;
         if (entityResolver == null) {
             return;
@@ -465,6 +525,28 @@ class ExpatParser {
     private native void appendBytes(long pointer, byte[] xml, int offset,
             int length) throws SAXException, ExpatException;
 
+    /**
+     * Appends the remaining bytes of {@code xml}, which may end anywhere in
+     * the document, and advances its position to its limit.
+     *
+     * @throws SAXException if an error occurs during parsing
+     */
+    /*package*/ void append(ByteBuffer xml) throws SAXException {
+        if (xml.hasArray()) {
+            append(xml.array(), xml.arrayOffset() + xml.position(), xml.remaining());
+            xml.position(xml.limit());
+            return;
+        }
+        if (byteBuffer == null) {
+            byteBuffer = new byte[BUFFER_SIZE];
+        }
+        while (xml.hasRemaining()) {
+            int length = Math.min(byteBuffer.length, xml.remaining());
+            xml.get(byteBuffer, 0, length);
+            append(byteBuffer, 0, length);
+        }
+    }
+
     /**
      * Parses an XML document from the given input stream.
      */
@@ -517,7 +599,7 @@ class ExpatParser {
         }
     }
 
-    private void startDocument() throws SAXException {
+    /*package*/ void startDocument() throws SAXException {
         ContentHandler contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
             contentHandler.setDocumentLocator(this.locator);
@@ -525,7 +607,8 @@ class ExpatParser {
         }
     }
 
-    private void endDocument() throws SAXException {
+    /*package*/ void endDocument() throws SAXException {
+        flushText();
         ContentHandler contentHandler;
         contentHandler = xmlReader.contentHandler;
         if (contentHandler != null) {
@@ -788,6 +871,8 @@ class ExpatParser {
                 throws SAXException {
             if (--depth > 0) {
                 super.endElement(uri, localName, qName);
+            } else {
+                flushText();
             }
         }
 
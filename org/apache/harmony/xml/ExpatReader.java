@@ -19,6 +19,7 @@ package org.apache.harmony.xml;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import libcore.io.IoUtils;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
@@ -48,10 +49,23 @@ public class ExpatReader implements XMLReader {
 
     private boolean processNamespaces = true;
     private boolean processNamespacePrefixes = false;
+    /*package*/ boolean coalesceCharacters = false;
+
+    /** The document being parsed by {@link #parse(ByteBuffer)}, if any. */
+    private ExpatParser incrementalParser;
 
     private static final String LEXICAL_HANDLER_PROPERTY
             = "http://xml.org/sax/properties/lexical-handler";
 
+    /**
+     * Delivers each run of text in a single {@link ContentHandler#characters}
+     * call, using one buffer for the whole document, rather than in the many
+     * small pieces Expat produces. Off by default, since a run of text is then
+     * held in memory until it ends.
+     */
+    public static final String COALESCE_CHARACTERS
+            = "http://android.com/features/xml/coalesce-characters";
+
     private static class Feature {
         private static final String BASE_URI = "http://xml.org/sax/features/";
         private static final String VALIDATION = BASE_URI + "validation";
@@ -88,6 +102,10 @@ public class ExpatReader implements XMLReader {
             return true;
         }
 
+        if (name.equals(COALESCE_CHARACTERS)) {
+            return coalesceCharacters;
+        }
+
         throw new SAXNotRecognizedException(name);
     }
 
@@ -127,6 +145,11 @@ public class ExpatReader implements XMLReader {
             }
         }
 
+        if (name.equals(COALESCE_CHARACTERS)) {
+            coalesceCharacters = value;
+            return;
+        }
+
         throw new SAXNotRecognizedException(name);
     }
 
@@ -246,7 +269,7 @@ public class ExpatReader implements XMLReader {
         this.processNamespaces = processNamespaces;
     }
 
-    public void parse(InputSource input) throws IOException, SAXException {
+    private void checkFeatures() throws SAXNotSupportedException {
         if (processNamespacePrefixes && processNamespaces) {
             /*
              * Expat has XML_SetReturnNSTriplet, but that still doesn't
@@ -259,6 +282,10 @@ public class ExpatReader implements XMLReader {
                     "feature is not supported while the 'namespaces' " +
                     "feature is enabled.");
         }
+    }
+
+    public void parse(InputSource input) throws IOException, SAXException {
+        checkFeatures();
 
         // Try the character stream.
         Reader reader = input.getCharacterStream();
@@ -319,4 +346,64 @@ public class ExpatReader implements XMLReader {
     public void parse(String systemId) throws IOException, SAXException {
         parse(new InputSource(systemId));
     }
+
+    /**
+     * Starts parsing a document whose bytes will be supplied as they become
+     * available through {@link #parse(ByteBuffer)}, for example as they
+     * arrive on a non-blocking socket. Events are delivered as soon as enough
+     * input has been seen; {@link #finishParse()} ends the document.
+     *
+     * @param encoding the document's encoding, or null for UTF-8
+     * @throws IllegalStateException if a document is already being parsed
+     *     incrementally
+     */
+    public void startParse(String encoding, String publicId, String systemId)
+            throws SAXException {
+        if (incrementalParser != null) {
+            throw new IllegalStateException("Already parsing a document");
+        }
+        checkFeatures();
+        ExpatParser parser =
+            new ExpatParser(encoding, this, processNamespaces, publicId, systemId);
+        parser.startDocument();
+        incrementalParser = parser;
+    }
+
+    /**
+     * Parses the remaining bytes of {@code input}, which may end anywhere in
+     * the document, and advances its position to its limit. If parsing fails
+     * the document is abandoned.
+     *
+     * @throws IllegalStateException if {@link #startParse} wasn't called
+     */
+    public void parse(ByteBuffer input) throws SAXException {
+        if (incrementalParser == null) {
+            throw new IllegalStateException("startParse() not called");
+        }
+        boolean success = false;
+        try {
+            incrementalParser.append(input);
+            success = true;
+        } finally {
+            if (!success) {
+                incrementalParser = null;
+            }
+        }
+    }
+
+    /**
+     * Ends the document started by {@link #startParse}.
+     *
+     * @throws SAXException if the document is incomplete
+     * @throws IllegalStateException if {@link #startParse} wasn't called
+     */
+    public void finishParse() throws SAXException {
+        ExpatParser parser = incrementalParser;
+        if (parser == null) {
+            throw new IllegalStateException("startParse() not called");
+        }
+        incrementalParser = null;
+        parser.finish();
+        parser.endDocument();
+    }
 }
@@ -43,7 +43,8 @@ public final class AttrImpl extends NodeImpl implements Attr {
     String prefix;
     String localName;
 
-    private String value = "";
+    // Package visible so that CompactTree can set it without side effects.
+    String value = "";
 
     AttrImpl(DocumentImpl document, String namespaceURI, String qualifiedName) {
         super(document);
@@ -105,10 +106,12 @@ public final class AttrImpl extends NodeImpl implements Attr {
     @Override
     public void setPrefix(String prefix) {
         this.prefix = validatePrefix(prefix, namespaceAware, namespaceURI);
+        document.invalidateIndexes();
     }
 
     public void setValue(String value) throws DOMException {
         this.value = value;
+        document.invalidateIndexes();
     }
 
     public TypeInfo getSchemaTypeInfo() {
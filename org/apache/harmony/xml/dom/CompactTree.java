@@ -0,0 +1,588 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.dom;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import libcore.util.Objects;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
+
+/**
+ * A parsed document held in parallel arrays rather than one object per node.
+ * Node objects are created a level at a time, when a node's children or an
+ * element's attributes are first accessed; parts of the document that are
+ * never visited cost a few array slots per node and their text a range in one
+ * shared char buffer.
+ *
+ * <p>Created nodes are ordinary DOM nodes that may be modified freely. While
+ * the document is unmodified, {@link DocumentImpl} answers ID and tag name
+ * lookups by scanning the arrays and only creates the nodes it returns.
+ *
+ * <p>Nodes are numbered in document order with the document itself at 0, so a
+ * node's first child, if any, is the node that follows it.
+ */
+public final class CompactTree {
+    /** The index of the document node. */
+    public static final int DOCUMENT = 0;
+
+    private static final int NONE = -1;
+
+    private final DocumentImpl document;
+    private final boolean namespaceAware;
+
+    /** Node types, as in {@link Node#getNodeType}. */
+    private byte[] types;
+    private int[] parents;
+    private int[] nextSiblings;
+
+    /**
+     * Element and attribute local names (or qualified names if not namespace
+     * aware), processing instruction targets and entity reference names.
+     */
+    private String[] names;
+
+    /** Element prefixes and namespace URIs. Null if not namespace aware. */
+    private String[] prefixes;
+    private String[] namespaceURIs;
+
+    /**
+     * For character data and processing instructions, the range of the node's
+     * data in {@link #chars}. For elements, the range of its attributes.
+     */
+    private int[] starts;
+    private int[] lengths;
+
+    private int nodeCount;
+
+    private String[] attributeNames;
+    private String[] attributePrefixes;
+    private String[] attributeNamespaceURIs;
+    private int[] attributeStarts;
+    private int[] attributeLengths;
+    private int attributeCount;
+
+    private char[] chars;
+    private int charCount;
+
+    private DocumentTypeImpl doctype;
+
+    /** Only used while building. */
+    private int[] lastChildren;
+    private ElementImpl elementNameValidator;
+    private AttrImpl attributeNameValidator;
+
+    /** Created nodes by index, until the document is first modified. */
+    private LeafNodeImpl[] nodes;
+
+    /** Lazily built index from ID to the first element with that ID. */
+    private Map<String, Integer> ids;
+
+    public CompactTree(DocumentImpl document, boolean namespaceAware) {
+        this.document = document;
+        this.namespaceAware = namespaceAware;
+        this.types = new byte[64];
+        this.parents = new int[64];
+        this.nextSiblings = new int[64];
+        this.names = new String[64];
+        if (namespaceAware) {
+            this.prefixes = new String[64];
+            this.namespaceURIs = new String[64];
+            this.attributePrefixes = new String[16];
+            this.attributeNamespaceURIs = new String[16];
+        }
+        this.starts = new int[64];
+        this.lengths = new int[64];
+        this.lastChildren = new int[64];
+        this.attributeNames = new String[16];
+        this.attributeStarts = new int[16];
+        this.attributeLengths = new int[16];
+        this.chars = new char[1024];
+        this.elementNameValidator = new ElementImpl(document, "e");
+        this.attributeNameValidator = new AttrImpl(document, "a");
+
+        types[DOCUMENT] = Node.DOCUMENT_NODE;
+        parents[DOCUMENT] = NONE;
+        nextSiblings[DOCUMENT] = NONE;
+        lastChildren[DOCUMENT] = NONE;
+        nodeCount = 1;
+    }
+
+    /**
+     * Appends an element to {@code parent} and returns its index. The
+     * element's attributes must be appended before any other node.
+     */
+    public int appendElement(int parent, String namespaceURI, String prefix, String name) {
+        if (namespaceAware) {
+            NodeImpl.setNameNS(elementNameValidator, namespaceURI, name);
+            NodeImpl.validatePrefix(prefix, true, namespaceURI);
+        } else {
+            NodeImpl.setName(elementNameValidator, name);
+        }
+        if (parent == DOCUMENT && documentElement() != NONE) {
+            throw new DOMException(DOMException.HIERARCHY_REQUEST_ERR,
+                    "Only one root element allowed");
+        }
+        int element = append(parent, Node.ELEMENT_NODE, name);
+        if (namespaceAware) {
+            prefixes[element] = prefix;
+            namespaceURIs[element] = namespaceURI;
+        }
+        starts[element] = attributeCount;
+        return element;
+    }
+
+    /**
+     * Appends an attribute to {@code element}, which must be the most
+     * recently appended node.
+     */
+    public void appendAttribute(int element, String namespaceURI, String prefix, String name,
+            String value) {
+        if (element != nodeCount - 1 || types[element] != Node.ELEMENT_NODE) {
+            throw new IllegalStateException("Attributes must follow their element");
+        }
+        if (namespaceAware) {
+            NodeImpl.setNameNS(attributeNameValidator, namespaceURI, name);
+            NodeImpl.validatePrefix(prefix, true, namespaceURI);
+        } else {
+            NodeImpl.setName(attributeNameValidator, name);
+        }
+        if (attributeCount == attributeNames.length) {
+            int capacity = attributeCount * 2;
+            attributeNames = Arrays.copyOf(attributeNames, capacity);
+            attributeStarts = Arrays.copyOf(attributeStarts, capacity);
+            attributeLengths = Arrays.copyOf(attributeLengths, capacity);
+            if (namespaceAware) {
+                attributePrefixes = Arrays.copyOf(attributePrefixes, capacity);
+                attributeNamespaceURIs = Arrays.copyOf(attributeNamespaceURIs, capacity);
+            }
+        }
+        int attribute = attributeCount++;
+        attributeNames[attribute] = name;
+        if (namespaceAware) {
+            attributePrefixes[attribute] = prefix;
+            attributeNamespaceURIs[attribute] = namespaceURI;
+        }
+        attributeStarts[attribute] = charCount;
+        attributeLengths[attribute] = value.length();
+        appendChars(value);
+        lengths[element]++;
+    }
+
+    /**
+     * Appends a text or CDATA section node to {@code parent}.
+     */
+    public void appendText(int parent, String text, boolean cdata) {
+        int node = append(parent, cdata ? Node.CDATA_SECTION_NODE : Node.TEXT_NODE, null);
+        setData(node, text);
+    }
+
+    /**
+     * Appends {@code text} to the last child of {@code parent} if that is a
+     * text node (but not a CDATA section). Returns false if it isn't.
+     */
+    public boolean appendToLastText(int parent, String text) {
+        int last = lastChildren[parent];
+        if (last == NONE || types[last] != Node.TEXT_NODE) {
+            return false;
+        }
+        // the last child's data is always at the end of the buffer
+        appendChars(text);
+        lengths[last] += text.length();
+        return true;
+    }
+
+    public void appendComment(int parent, String data) {
+        setData(append(parent, Node.COMMENT_NODE, null), data);
+    }
+
+    public void appendProcessingInstruction(int parent, String target, String data) {
+        setData(append(parent, Node.PROCESSING_INSTRUCTION_NODE, target), data);
+    }
+
+    public void appendEntityReference(int parent, String name) {
+        append(parent, Node.ENTITY_REFERENCE_NODE, name);
+    }
+
+    public void appendDocumentType(String name, String publicId, String systemId) {
+        if (doctype != null) {
+            throw new DOMException(DOMException.HIERARCHY_REQUEST_ERR,
+                    "Only one DOCTYPE element allowed");
+        }
+        doctype = new DocumentTypeImpl(document, name, publicId, systemId);
+        append(DOCUMENT, Node.DOCUMENT_TYPE_NODE, name);
+    }
+
+    /**
+     * Makes this tree the content of its document. Nothing may be appended
+     * afterwards.
+     */
+    public void attach() {
+        if (lastChildren == null) {
+            throw new IllegalStateException("Already attached");
+        }
+        lastChildren = null;
+        elementNameValidator = null;
+        attributeNameValidator = null;
+
+        types = Arrays.copyOf(types, nodeCount);
+        parents = Arrays.copyOf(parents, nodeCount);
+        nextSiblings = Arrays.copyOf(nextSiblings, nodeCount);
+        names = Arrays.copyOf(names, nodeCount);
+        if (namespaceAware) {
+            prefixes = Arrays.copyOf(prefixes, nodeCount);
+            namespaceURIs = Arrays.copyOf(namespaceURIs, nodeCount);
+            attributePrefixes = Arrays.copyOf(attributePrefixes, attributeCount);
+            attributeNamespaceURIs = Arrays.copyOf(attributeNamespaceURIs, attributeCount);
+        }
+        starts = Arrays.copyOf(starts, nodeCount);
+        lengths = Arrays.copyOf(lengths, nodeCount);
+        attributeNames = Arrays.copyOf(attributeNames, attributeCount);
+        attributeStarts = Arrays.copyOf(attributeStarts, attributeCount);
+        attributeLengths = Arrays.copyOf(attributeLengths, attributeCount);
+        chars = Arrays.copyOf(chars, charCount);
+
+        nodes = new LeafNodeImpl[nodeCount];
+        nodes[DOCUMENT] = document;
+        if (nodeCount > 1) {
+            document.children = new ChildList(DOCUMENT, document);
+        }
+        document.compactTree = this;
+    }
+
+    private int append(int parent, int type, String name) {
+        if (lastChildren == null) {
+            throw new IllegalStateException("Already attached");
+        }
+        if (nodeCount == types.length) {
+            int capacity = nodeCount * 2;
+            types = Arrays.copyOf(types, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            names = Arrays.copyOf(names, capacity);
+            if (namespaceAware) {
+                prefixes = Arrays.copyOf(prefixes, capacity);
+                namespaceURIs = Arrays.copyOf(namespaceURIs, capacity);
+            }
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+        }
+        int node = nodeCount++;
+        types[node] = (byte) type;
+        parents[node] = parent;
+        nextSiblings[node] = NONE;
+        names[node] = name;
+        lastChildren[node] = NONE;
+        if (lastChildren[parent] != NONE) {
+            nextSiblings[lastChildren[parent]] = node;
+        }
+        lastChildren[parent] = node;
+        return node;
+    }
+
+    private void setData(int node, String data) {
+        starts[node] = charCount;
+        lengths[node] = data.length();
+        appendChars(data);
+    }
+
+    private void appendChars(String s) {
+        int length = s.length();
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+        }
+        s.getChars(0, length, chars, charCount);
+        charCount += length;
+    }
+
+    private int firstChild(int node) {
+        int next = node + 1;
+        return next < nodeCount && parents[next] == node ? next : NONE;
+    }
+
+    private int documentElement() {
+        for (int child = firstChild(DOCUMENT); child != NONE; child = nextSiblings[child]) {
+            if (types[child] == Node.ELEMENT_NODE) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Called on the first modification of the document. Nodes that haven't
+     * been created yet are still created from this tree when reached, but
+     * lookups no longer use it.
+     */
+    void detach() {
+        nodes = null;
+        ids = null;
+    }
+
+    /**
+     * Returns the first element whose "id" attribute has the value {@code id},
+     * like {@link ElementImpl#indexIds}, or null if there is none.
+     */
+    ElementImpl getElementById(String id) {
+        if (ids == null) {
+            Map<String, Integer> index = new HashMap<String, Integer>();
+            for (int node = 1; node < nodeCount; node++) {
+                if (types[node] != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                String value = "";
+                for (int a = starts[node], end = a + lengths[node]; a < end; a++) {
+                    if ("id".equals(attributeQualifiedName(a))) {
+                        value = new String(chars, attributeStarts[a], attributeLengths[a]);
+                        break;
+                    }
+                }
+                if (!index.containsKey(value)) {
+                    index.put(value, node);
+                }
+            }
+            ids = index;
+        }
+        Integer node = ids.get(id);
+        return node != null ? (ElementImpl) node(node) : null;
+    }
+
+    /**
+     * Adds the elements whose qualified name is {@code name}, or all elements
+     * if it is "*", to {@code out} in document order.
+     */
+    void getElementsByTagName(List<NodeImpl> out, String name) {
+        boolean all = "*".equals(name);
+        for (int node = 1; node < nodeCount; node++) {
+            if (types[node] == Node.ELEMENT_NODE
+                    && (all || name.equals(qualifiedName(node)))) {
+                out.add(node(node));
+            }
+        }
+    }
+
+    /**
+     * Adds the elements matching {@code namespaceURI} and {@code localName},
+     * either of which may be "*", to {@code out} in document order.
+     */
+    void getElementsByTagNameNS(List<NodeImpl> out, String namespaceURI, String localName) {
+        boolean anyNamespace = "*".equals(namespaceURI);
+        boolean anyName = "*".equals(localName);
+        for (int node = 1; node < nodeCount; node++) {
+            if (types[node] != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String nodeNamespaceURI = namespaceAware ? namespaceURIs[node] : null;
+            String nodeLocalName = namespaceAware ? names[node] : null;
+            if ((anyNamespace || Objects.equal(namespaceURI, nodeNamespaceURI))
+                    && (anyName || Objects.equal(localName, nodeLocalName))) {
+                out.add(node(node));
+            }
+        }
+    }
+
+    /**
+     * Returns the node at {@code index}, creating it and its siblings, and
+     * those of its ancestors, if necessary.
+     */
+    private LeafNodeImpl node(int index) {
+        if (nodes[index] == null) {
+            InnerNodeImpl parent = (InnerNodeImpl) node(parents[index]);
+            parent.children.size(); // creates the children, which records them
+        }
+        return nodes[index];
+    }
+
+    private String qualifiedName(int node) {
+        String prefix = namespaceAware ? prefixes[node] : null;
+        return prefix != null ? prefix + ":" + names[node] : names[node];
+    }
+
+    private String attributeQualifiedName(int attribute) {
+        String prefix = namespaceAware ? attributePrefixes[attribute] : null;
+        String name = attributeNames[attribute];
+        return prefix != null ? prefix + ":" + name : name;
+    }
+
+    private LeafNodeImpl create(int node) {
+        switch (types[node]) {
+        case Node.ELEMENT_NODE:
+            ElementImpl element;
+            if (namespaceAware) {
+                element = new ElementImpl(document, namespaceURIs[node], names[node]);
+                element.prefix = NodeImpl.validatePrefix(
+                        prefixes[node], true, namespaceURIs[node]);
+            } else {
+                element = new ElementImpl(document, names[node]);
+            }
+            if (firstChild(node) != NONE) {
+                element.children = new ChildList(node, element);
+            }
+            if (lengths[node] > 0) {
+                element.attributes = new AttributeList(node, element);
+            }
+            return element;
+        case Node.TEXT_NODE:
+            return new TextImpl(document, data(node));
+        case Node.CDATA_SECTION_NODE:
+            return new CDATASectionImpl(document, data(node));
+        case Node.COMMENT_NODE:
+            return new CommentImpl(document, data(node));
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            return new ProcessingInstructionImpl(document, names[node], data(node));
+        case Node.ENTITY_REFERENCE_NODE:
+            return new EntityReferenceImpl(document, names[node]);
+        case Node.DOCUMENT_TYPE_NODE:
+            return doctype;
+        default:
+            throw new AssertionError(types[node]);
+        }
+    }
+
+    private String data(int node) {
+        return new String(chars, starts[node], lengths[node]);
+    }
+
+    private AttrImpl createAttribute(int attribute, ElementImpl owner) {
+        AttrImpl attr;
+        if (namespaceAware) {
+            String namespaceURI = attributeNamespaceURIs[attribute];
+            attr = new AttrImpl(document, namespaceURI, attributeNames[attribute]);
+            attr.prefix = NodeImpl.validatePrefix(
+                    attributePrefixes[attribute], true, namespaceURI);
+        } else {
+            attr = new AttrImpl(document, attributeNames[attribute]);
+        }
+        attr.value = new String(chars, attributeStarts[attribute], attributeLengths[attribute]);
+        attr.ownerElement = owner;
+        return attr;
+    }
+
+    /**
+     * The children of a node, created on first access. Once created the owner
+     * holds them in a plain list and this one only forwards to it.
+     */
+    private final class ChildList extends AbstractList<LeafNodeImpl> implements RandomAccess {
+        private final int node;
+        private final InnerNodeImpl owner;
+        private List<LeafNodeImpl> list;
+
+        ChildList(int node, InnerNodeImpl owner) {
+            this.node = node;
+            this.owner = owner;
+        }
+
+        private List<LeafNodeImpl> list() {
+            if (list == null) {
+                List<LeafNodeImpl> children = new ArrayList<LeafNodeImpl>();
+                for (int child = firstChild(node); child != NONE; child = nextSiblings[child]) {
+                    LeafNodeImpl childNode = create(child);
+                    childNode.parent = owner;
+                    childNode.index = children.size();
+                    children.add(childNode);
+                    if (nodes != null) {
+                        nodes[child] = childNode;
+                    }
+                }
+                list = children;
+                owner.children = children;
+            }
+            return list;
+        }
+
+        @Override public boolean isEmpty() {
+            return list == null ? firstChild(node) == NONE : list.isEmpty();
+        }
+
+        @Override public int size() {
+            return list().size();
+        }
+
+        @Override public LeafNodeImpl get(int index) {
+            return list().get(index);
+        }
+
+        @Override public LeafNodeImpl set(int index, LeafNodeImpl element) {
+            return list().set(index, element);
+        }
+
+        @Override public void add(int index, LeafNodeImpl element) {
+            list().add(index, element);
+        }
+
+        @Override public LeafNodeImpl remove(int index) {
+            return list().remove(index);
+        }
+    }
+
+    /**
+     * The attributes of an element, created on first access. Once created the
+     * owner holds them in a plain list and this one only forwards to it.
+     */
+    private final class AttributeList extends AbstractList<AttrImpl> implements RandomAccess {
+        private final int node;
+        private final ElementImpl owner;
+        private List<AttrImpl> list;
+
+        AttributeList(int node, ElementImpl owner) {
+            this.node = node;
+            this.owner = owner;
+        }
+
+        private List<AttrImpl> list() {
+            if (list == null) {
+                List<AttrImpl> attributes = new ArrayList<AttrImpl>(lengths[node]);
+                for (int a = starts[node], end = a + lengths[node]; a < end; a++) {
+                    attributes.add(createAttribute(a, owner));
+                }
+                list = attributes;
+                owner.attributes = attributes;
+            }
+            return list;
+        }
+
+        @Override public boolean isEmpty() {
+            return list == null ? lengths[node] == 0 : list.isEmpty();
+        }
+
+        @Override public int size() {
+            return list == null ? lengths[node] : list.size();
+        }
+
+        @Override public AttrImpl get(int index) {
+            return list().get(index);
+        }
+
+        @Override public AttrImpl set(int index, AttrImpl element) {
+            return list().set(index, element);
+        }
+
+        @Override public void add(int index, AttrImpl element) {
+            list().add(index, element);
+        }
+
+        @Override public AttrImpl remove(int index) {
+            return list().remove(index);
+        }
+    }
+}
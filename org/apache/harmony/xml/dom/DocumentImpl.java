@@ -16,8 +16,10 @@
 
 package org.apache.harmony.xml.dom;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import org.w3c.dom.CharacterData;
@@ -73,6 +75,21 @@ public final class DocumentImpl extends InnerNodeImpl implements Document {
      */
     private WeakHashMap<NodeImpl, Map<String, UserData>> nodeToUserData;
 
+    /**
+     * Lazily built indexes from ID to the first element with that ID and from
+     * tag name to the elements with that name, both in document order. Any
+     * change to this document's elements or attributes discards them.
+     */
+    private Map<String, ElementImpl> idIndex;
+    private Map<String, List<NodeImpl>> tagNameIndex;
+
+    /**
+     * The arrays this document was parsed into, if it was parsed in compact
+     * mode and hasn't been modified since. Lookups then scan the arrays rather
+     * than creating every node.
+     */
+    CompactTree compactTree;
+
     public DocumentImpl(DOMImplementationImpl impl, String namespaceURI,
             String qualifiedName, DocumentType doctype, String inputEncoding) {
         super(null);
@@ -316,6 +333,7 @@ public final class DocumentImpl extends InnerNodeImpl implements Document {
         }
 
         setNameNS((NodeImpl) node, namespaceURI, qualifiedName);
+        invalidateIndexes();
         notifyUserDataHandlers(UserDataHandler.NODE_RENAMED, node, null);
         return node;
     }
@@ -381,18 +399,61 @@ public final class DocumentImpl extends InnerNodeImpl implements Document {
     }
 
     public Element getElementById(String elementId) {
-        ElementImpl root = (ElementImpl) getDocumentElement();
-
-        return (root == null ? null : root.getElementById(elementId));
+        if (compactTree != null) {
+            return compactTree.getElementById(elementId);
+        }
+        if (idIndex == null) {
+            Map<String, ElementImpl> index = new HashMap<String, ElementImpl>();
+            ElementImpl root = (ElementImpl) getDocumentElement();
+            if (root != null) {
+                root.indexIds(index);
+            }
+            idIndex = index;
+        }
+        return idIndex.get(elementId);
     }
 
     public NodeList getElementsByTagName(String name) {
-        NodeListImpl result = new NodeListImpl();
-        getElementsByTagName(result, name);
-        return result;
+        if (tagNameIndex == null) {
+            Map<String, List<NodeImpl>> index = new HashMap<String, List<NodeImpl>>();
+            if (compactTree == null) {
+                List<NodeImpl> all = new ArrayList<NodeImpl>();
+                index.put("*", all);
+                indexTagNames(index, all);
+            }
+            tagNameIndex = index;
+        }
+        List<NodeImpl> elements = tagNameIndex.get(name);
+        if (elements == null && compactTree != null) {
+            elements = new ArrayList<NodeImpl>();
+            compactTree.getElementsByTagName(elements, name);
+            tagNameIndex.put(name, elements);
+        }
+        return new NodeListImpl(elements != null
+                ? new ArrayList<NodeImpl>(elements)
+                : new ArrayList<NodeImpl>());
+    }
+
+    /**
+     * Discards the ID and tag name indexes. Called whenever an element or
+     * attribute of this document is added, removed or renamed, or an attribute
+     * value changes.
+     */
+    void invalidateIndexes() {
+        idIndex = null;
+        tagNameIndex = null;
+        if (compactTree != null) {
+            compactTree.detach();
+            compactTree = null;
+        }
     }
 
     public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+        if (compactTree != null) {
+            List<NodeImpl> elements = new ArrayList<NodeImpl>();
+            compactTree.getElementsByTagNameNS(elements, namespaceURI, localName);
+            return new NodeListImpl(elements);
+        }
         NodeListImpl result = new NodeListImpl();
         getElementsByTagNameNS(result, namespaceURI, localName);
         return result;
@@ -18,6 +18,7 @@ package org.apache.harmony.xml.dom;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import libcore.util.Objects;
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
@@ -44,7 +45,8 @@ public class ElementImpl extends InnerNodeImpl implements Element {
     String prefix;
     String localName;
 
-    private List<AttrImpl> attributes = new ArrayList<AttrImpl>();
+    // Replaced by CompactTree for parsed elements whose attributes are created lazily.
+    List<AttrImpl> attributes = new ArrayList<AttrImpl>();
 
     ElementImpl(DocumentImpl document, String namespaceURI, String qualifiedName) {
         super(document);
@@ -125,14 +127,14 @@ public class ElementImpl extends InnerNodeImpl implements Element {
     }
 
     /**
-     * This implementation walks the entire document looking for an element
-     * with the given ID attribute. We should consider adding an index to speed
-     * navigation of large documents.
+     * Adds this element and its descendants to {@code index} under each of
+     * their IDs. Elements are visited in document order and an ID keeps the
+     * first element that has it, matching a search of the whole document.
      */
-    Element getElementById(String name) {
+    void indexIds(Map<String, ElementImpl> index) {
         for (Attr attr : attributes) {
-            if (attr.isId() && name.equals(attr.getValue())) {
-                return this;
+            if (attr.isId() && !index.containsKey(attr.getValue())) {
+                index.put(attr.getValue(), this);
             }
         }
 
@@ -142,20 +144,16 @@ public class ElementImpl extends InnerNodeImpl implements Element {
          * Document.getElementById(): "Attributes with the name "ID"
          * or "id" are not of type ID unless so defined.
          */
-        if (name.equals(getAttribute("id"))) {
-            return this;
+        String id = getAttribute("id");
+        if (!index.containsKey(id)) {
+            index.put(id, this);
         }
 
         for (NodeImpl node : children) {
             if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element element = ((ElementImpl) node).getElementById(name);
-                if (element != null) {
-                    return element;
-                }
+                ((ElementImpl) node).indexIds(index);
             }
         }
-
-        return null;
     }
 
     public NodeList getElementsByTagName(String name) {
@@ -218,6 +216,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
 
         if (i != -1) {
             attributes.remove(i);
+            document.invalidateIndexes();
         }
     }
 
@@ -227,6 +226,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
 
         if (i != -1) {
             attributes.remove(i);
+            document.invalidateIndexes();
         }
     }
 
@@ -239,6 +239,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
 
         attributes.remove(oldAttrImpl);
         oldAttrImpl.ownerElement = null;
+        document.invalidateIndexes();
 
         return oldAttrImpl;
     }
@@ -287,6 +288,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
 
         attributes.add(newAttrImpl);
         newAttrImpl.ownerElement = this;
+        document.invalidateIndexes();
 
         return oldAttrImpl;
     }
@@ -312,6 +314,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
 
         attributes.add(newAttrImpl);
         newAttrImpl.ownerElement = this;
+        document.invalidateIndexes();
 
         return oldAttrImpl;
     }
@@ -319,6 +322,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
     @Override
     public void setPrefix(String prefix) {
         this.prefix = validatePrefix(prefix, namespaceAware, namespaceURI);
+        document.invalidateIndexes();
     }
 
     public class ElementAttrNamedNodeMapImpl implements NamedNodeMap {
@@ -397,6 +401,7 @@ public class ElementImpl extends InnerNodeImpl implements Element {
                     "No such attribute: " + name);
         }
         attr.isId = isId;
+        document.invalidateIndexes();
     }
 
     public void setIdAttributeNS(String namespaceURI, String localName,
@@ -407,9 +412,11 @@ public class ElementImpl extends InnerNodeImpl implements Element {
                     "No such attribute: " + namespaceURI +  " " + localName);
         }
         attr.isId = isId;
+        document.invalidateIndexes();
     }
 
     public void setIdAttributeNode(Attr idAttr, boolean isId) throws DOMException {
         ((AttrImpl) idAttr).isId = isId;
+        document.invalidateIndexes();
     }
 }
@@ -18,6 +18,7 @@ package org.apache.harmony.xml.dom;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import libcore.util.Objects;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.DocumentFragment;
@@ -41,7 +42,8 @@ import org.w3c.dom.NodeList;
  */
 public abstract class InnerNodeImpl extends LeafNodeImpl {
 
-    // Maintained by LeafNodeImpl and ElementImpl.
+    // Maintained by LeafNodeImpl and ElementImpl, and by CompactTree for
+    // parsed nodes whose children haven't been visited.
     List<LeafNodeImpl> children = new ArrayList<LeafNodeImpl>();
 
     protected InnerNodeImpl(DocumentImpl document) {
@@ -79,7 +81,7 @@ public abstract class InnerNodeImpl extends LeafNodeImpl {
     }
 
     public boolean hasChildNodes() {
-        return children.size() != 0;
+        return !children.isEmpty();
     }
 
     public Node insertBefore(Node newChild, Node refChild) throws DOMException {
@@ -130,6 +132,9 @@ public abstract class InnerNodeImpl extends LeafNodeImpl {
         children.add(index, toInsert);
         toInsert.parent = this;
         refreshIndices(index);
+        if (document != null) {
+            document.invalidateIndexes();
+        }
 
         return newChild;
     }
@@ -185,6 +190,9 @@ public abstract class InnerNodeImpl extends LeafNodeImpl {
         children.remove(index);
         oldChildImpl.parent = null;
         refreshIndices(index);
+        if (document != null) {
+            document.invalidateIndexes();
+        }
 
         return oldChild;
     }
@@ -244,6 +252,27 @@ public abstract class InnerNodeImpl extends LeafNodeImpl {
         }
     }
 
+    /**
+     * Adds every element below this node to {@code all} and to the list for
+     * its tag name in {@code index}, in document order.
+     */
+    void indexTagNames(Map<String, List<NodeImpl>> index, List<NodeImpl> all) {
+        for (NodeImpl node : children) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                ElementImpl element = (ElementImpl) node;
+                String name = element.getNodeName();
+                List<NodeImpl> elements = index.get(name);
+                if (elements == null) {
+                    elements = new ArrayList<NodeImpl>();
+                    index.put(name, elements);
+                }
+                elements.add(element);
+                all.add(element);
+                element.indexTagNames(index, all);
+            }
+        }
+    }
+
     void getElementsByTagNameNS(NodeListImpl out, String namespaceURI, String localName) {
         for (NodeImpl node : children) {
             if (node.getNodeType() == Node.ELEMENT_NODE) {
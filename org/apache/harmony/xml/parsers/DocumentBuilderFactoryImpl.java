@@ -34,6 +34,15 @@ public class DocumentBuilderFactoryImpl extends DocumentBuilderFactory {
     private static final String VALIDATION =
             "http://xml.org/sax/features/validation";
 
+    /**
+     * Keeps parsed documents in compact arrays and creates their nodes on
+     * first access. Off by default.
+     */
+    public static final String COMPACT =
+            "http://android.com/features/xml/compact-dom";
+
+    private boolean compact;
+
     @Override
     public Object getAttribute(String name) throws IllegalArgumentException {
         throw new IllegalArgumentException(name);
@@ -49,6 +58,8 @@ public class DocumentBuilderFactoryImpl extends DocumentBuilderFactory {
             return isNamespaceAware();
         } else if (VALIDATION.equals(name)) {
             return isValidating();
+        } else if (COMPACT.equals(name)) {
+            return compact;
         } else {
             throw new ParserConfigurationException(name);
         }
@@ -71,6 +82,7 @@ public class DocumentBuilderFactoryImpl extends DocumentBuilderFactory {
          */
         DocumentBuilderImpl builder = new DocumentBuilderImpl();
         builder.setCoalescing(isCoalescing());
+        builder.setCompact(compact);
         builder.setIgnoreComments(isIgnoringComments());
         builder.setIgnoreElementContentWhitespace(isIgnoringElementContentWhitespace());
         builder.setNamespaceAware(isNamespaceAware());
@@ -97,6 +109,8 @@ public class DocumentBuilderFactoryImpl extends DocumentBuilderFactory {
             setNamespaceAware(value);
         } else if (VALIDATION.equals(name)) {
             setValidating(value);
+        } else if (COMPACT.equals(name)) {
+            compact = value;
         } else {
             throw new ParserConfigurationException(name);
         }
@@ -22,6 +22,7 @@ import java.net.URLConnection;
 import javax.xml.parsers.DocumentBuilder;
 import libcore.io.IoUtils;
 import org.apache.harmony.xml.dom.CDATASectionImpl;
+import org.apache.harmony.xml.dom.CompactTree;
 import org.apache.harmony.xml.dom.DOMImplementationImpl;
 import org.apache.harmony.xml.dom.DocumentImpl;
 import org.apache.harmony.xml.dom.DocumentTypeImpl;
@@ -51,6 +52,7 @@ class DocumentBuilderImpl extends DocumentBuilder {
     private static DOMImplementationImpl dom = DOMImplementationImpl.getInstance();
 
     private boolean coalescing;
+    private boolean compact;
     private EntityResolver entityResolver;
     private ErrorHandler errorHandler;
     private boolean ignoreComments;
@@ -60,6 +62,7 @@ class DocumentBuilderImpl extends DocumentBuilder {
 
     @Override public void reset() {
         coalescing = false;
+        compact = false;
         entityResolver = null;
         errorHandler = null;
         ignoreComments = false;
@@ -125,7 +128,13 @@ class DocumentBuilderImpl extends DocumentBuilder {
                 throw new SAXParseException("Unexpected end of document", null);
             }
 
-            parse(parser, document, document, XmlPullParser.END_DOCUMENT);
+            if (compact) {
+                CompactTree tree = new CompactTree(document, namespaceAware);
+                parse(parser, tree, CompactTree.DOCUMENT, XmlPullParser.END_DOCUMENT);
+                tree.attach();
+            } else {
+                parse(parser, document, document, XmlPullParser.END_DOCUMENT);
+            }
 
             parser.require(XmlPullParser.END_DOCUMENT, null, null);
         } catch (XmlPullParserException ex) {
@@ -329,6 +338,102 @@ class DocumentBuilderImpl extends DocumentBuilder {
         }
     }
 
+    /**
+     * Like {@link #parse(KXmlParser, DocumentImpl, Node, int)}, but appends
+     * the document's content to a compact tree rather than creating nodes.
+     *
+     * @param node The index of the node we're currently on in {@code tree}.
+     */
+    private void parse(KXmlParser parser, CompactTree tree, int node, int endToken)
+            throws XmlPullParserException, IOException {
+
+        int token = parser.getEventType();
+
+        while (token != endToken && token != XmlPullParser.END_DOCUMENT) {
+            if (token == XmlPullParser.PROCESSING_INSTRUCTION) {
+                String text = parser.getText();
+
+                int dot = text.indexOf(' ');
+
+                String target = (dot != -1 ? text.substring(0, dot) : text);
+                String data = (dot != -1 ? text.substring(dot + 1) : "");
+
+                tree.appendProcessingInstruction(node, target, data);
+            } else if (token == XmlPullParser.DOCDECL) {
+                tree.appendDocumentType(parser.getRootElementName(), parser.getPublicId(),
+                        parser.getSystemId());
+            } else if (token == XmlPullParser.COMMENT) {
+                if (!ignoreComments) {
+                    tree.appendComment(node, parser.getText());
+                }
+            } else if (token == XmlPullParser.IGNORABLE_WHITESPACE) {
+                if (!ignoreElementContentWhitespace && node != CompactTree.DOCUMENT) {
+                    appendText(tree, node, token, parser.getText());
+                }
+            } else if (token == XmlPullParser.TEXT || token == XmlPullParser.CDSECT) {
+                appendText(tree, node, token, parser.getText());
+            } else if (token == XmlPullParser.ENTITY_REF) {
+                String entity = parser.getName();
+                String resolved = resolvePredefinedOrCharacterEntity(entity);
+                if (resolved != null) {
+                    appendText(tree, node, token, resolved);
+                } else {
+                    tree.appendEntityReference(node, entity);
+                }
+            } else if (token == XmlPullParser.START_TAG) {
+                if (namespaceAware) {
+                    String namespace = parser.getNamespace();
+                    String name = parser.getName();
+                    if ("".equals(namespace)) {
+                        namespace = null;
+                    }
+
+                    int element = tree.appendElement(node, namespace, parser.getPrefix(), name);
+
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        String attrNamespace = parser.getAttributeNamespace(i);
+                        if ("".equals(attrNamespace)) {
+                            attrNamespace = null;
+                        }
+                        tree.appendAttribute(element, attrNamespace,
+                                parser.getAttributePrefix(i), parser.getAttributeName(i),
+                                parser.getAttributeValue(i));
+                    }
+
+                    token = parser.nextToken();
+                    parse(parser, tree, element, XmlPullParser.END_TAG);
+                    parser.require(XmlPullParser.END_TAG, namespace, name);
+
+                } else {
+                    String name = parser.getName();
+
+                    int element = tree.appendElement(node, null, null, name);
+
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        tree.appendAttribute(element, null, null, parser.getAttributeName(i),
+                                parser.getAttributeValue(i));
+                    }
+
+                    token = parser.nextToken();
+                    parse(parser, tree, element, XmlPullParser.END_TAG);
+                    parser.require(XmlPullParser.END_TAG, "", name);
+                }
+            }
+
+            token = parser.nextToken();
+        }
+    }
+
+    private void appendText(CompactTree tree, int parent, int token, String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if ((coalescing || token != XmlPullParser.CDSECT) && tree.appendToLastText(parent, text)) {
+            return;
+        }
+        tree.appendText(parent, text, token == XmlPullParser.CDSECT);
+    }
+
     /**
      * @param token the XML pull parser token type, such as XmlPullParser.CDSECT
      *      or XmlPullParser.ENTITY_REF.
@@ -374,6 +479,15 @@ class DocumentBuilderImpl extends DocumentBuilder {
         coalescing = value;
     }
 
+    /**
+     * Controls whether this DocumentBuilder keeps parsed documents in compact
+     * arrays and creates their nodes only when they are first visited. This
+     * suits large documents that are mostly read.
+     */
+    public void setCompact(boolean value) {
+        compact = value;
+    }
+
     /**
      * Controls whether this DocumentBuilder ignores element content whitespace.
      */
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.xpath.XPathVariableResolver;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * The dynamic context of an evaluation: the context node, position and size,
+ * plus state shared by every context derived from the same evaluation.
+ */
+final class Context {
+    final Node node;
+    final int position;
+    final int size;
+    private final Shared shared;
+
+    Context(Node node, XPathVariableResolver variables) {
+        this(node, 1, 1, new Shared(variables));
+    }
+
+    private Context(Node node, int position, int size, Shared shared) {
+        this.node = node;
+        this.position = position;
+        this.size = size;
+        this.shared = shared;
+    }
+
+    Context with(Node node, int position, int size) {
+        return new Context(node, position, size, shared);
+    }
+
+    XPathVariableResolver variables() {
+        return shared.variables;
+    }
+
+    /**
+     * Sorts {@code nodes} into document order and removes duplicates. Nodes
+     * are numbered by a single walk of their tree the first time a tree is
+     * sorted in this evaluation, so each later sort is a plain integer sort.
+     */
+    void sortDocumentOrder(List<Node> nodes) {
+        if (nodes.size() < 2) {
+            return;
+        }
+        final Map<Node, Integer> ordinals = shared.ordinals;
+        List<Node> unique = new ArrayList<Node>(nodes.size());
+        IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+        for (Node node : nodes) {
+            if (seen.put(node, Boolean.TRUE) == null) {
+                unique.add(node);
+                if (!ordinals.containsKey(node)) {
+                    number(root(node), ordinals);
+                }
+            }
+        }
+        Collections.sort(unique, new Comparator<Node>() {
+            @Override public int compare(Node a, Node b) {
+                return ordinals.get(a).compareTo(ordinals.get(b));
+            }
+        });
+        nodes.clear();
+        nodes.addAll(unique);
+    }
+
+    static Node root(Node node) {
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+            Node owner = ((Attr) node).getOwnerElement();
+            if (owner == null) {
+                return node;
+            }
+            node = owner;
+        }
+        for (Node parent = node.getParentNode(); parent != null; parent = node.getParentNode()) {
+            node = parent;
+        }
+        return node;
+    }
+
+    /**
+     * Assigns increasing numbers to {@code root} and its attributes and
+     * descendants in document order. Attributes follow their element and
+     * precede its children.
+     */
+    private static void number(Node root, Map<Node, Integer> ordinals) {
+        if (root.getNodeType() == Node.ATTRIBUTE_NODE) {
+            ordinals.put(root, ordinals.size());
+            return;
+        }
+        Node node = root;
+        while (node != null) {
+            ordinals.put(node, ordinals.size());
+            NamedNodeMap attributes = node.getAttributes();
+            if (attributes != null) {
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    ordinals.put(attributes.item(i), ordinals.size());
+                }
+            }
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+
+    /** State shared by all contexts of one evaluation. */
+    private static final class Shared {
+        final XPathVariableResolver variables;
+        final Map<Node, Integer> ordinals = new IdentityHashMap<Node, Integer>();
+
+        Shared(XPathVariableResolver variables) {
+            this.variables = variables;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A call to a function of the XPath 1.0 core function library.
+ */
+final class CoreFunction extends Expr {
+    private static final int LAST = 0;
+    private static final int POSITION = 1;
+    private static final int COUNT = 2;
+    private static final int ID = 3;
+    private static final int LOCAL_NAME = 4;
+    private static final int NAMESPACE_URI = 5;
+    private static final int NAME = 6;
+    private static final int STRING = 7;
+    private static final int CONCAT = 8;
+    private static final int STARTS_WITH = 9;
+    private static final int CONTAINS = 10;
+    private static final int SUBSTRING_BEFORE = 11;
+    private static final int SUBSTRING_AFTER = 12;
+    private static final int SUBSTRING = 13;
+    private static final int STRING_LENGTH = 14;
+    private static final int NORMALIZE_SPACE = 15;
+    private static final int TRANSLATE = 16;
+    private static final int BOOLEAN = 17;
+    private static final int NOT = 18;
+    private static final int TRUE = 19;
+    private static final int FALSE = 20;
+    private static final int LANG = 21;
+    private static final int NUMBER = 22;
+    private static final int SUM = 23;
+    private static final int FLOOR = 24;
+    private static final int CEILING = 25;
+    private static final int ROUND = 26;
+
+    /** Function name to {id, minimum arity, maximum arity, return type}. */
+    private static final Map<String, int[]> FUNCTIONS = new HashMap<String, int[]>();
+    static {
+        define("last", LAST, 0, 0, TYPE_NUMBER);
+        define("position", POSITION, 0, 0, TYPE_NUMBER);
+        define("count", COUNT, 1, 1, TYPE_NUMBER);
+        define("id", ID, 1, 1, TYPE_NODESET);
+        define("local-name", LOCAL_NAME, 0, 1, TYPE_STRING);
+        define("namespace-uri", NAMESPACE_URI, 0, 1, TYPE_STRING);
+        define("name", NAME, 0, 1, TYPE_STRING);
+        define("string", STRING, 0, 1, TYPE_STRING);
+        define("concat", CONCAT, 2, Integer.MAX_VALUE, TYPE_STRING);
+        define("starts-with", STARTS_WITH, 2, 2, TYPE_BOOLEAN);
+        define("contains", CONTAINS, 2, 2, TYPE_BOOLEAN);
+        define("substring-before", SUBSTRING_BEFORE, 2, 2, TYPE_STRING);
+        define("substring-after", SUBSTRING_AFTER, 2, 2, TYPE_STRING);
+        define("substring", SUBSTRING, 2, 3, TYPE_STRING);
+        define("string-length", STRING_LENGTH, 0, 1, TYPE_NUMBER);
+        define("normalize-space", NORMALIZE_SPACE, 0, 1, TYPE_STRING);
+        define("translate", TRANSLATE, 3, 3, TYPE_STRING);
+        define("boolean", BOOLEAN, 1, 1, TYPE_BOOLEAN);
+        define("not", NOT, 1, 1, TYPE_BOOLEAN);
+        define("true", TRUE, 0, 0, TYPE_BOOLEAN);
+        define("false", FALSE, 0, 0, TYPE_BOOLEAN);
+        define("lang", LANG, 1, 1, TYPE_BOOLEAN);
+        define("number", NUMBER, 0, 1, TYPE_NUMBER);
+        define("sum", SUM, 1, 1, TYPE_NUMBER);
+        define("floor", FLOOR, 1, 1, TYPE_NUMBER);
+        define("ceiling", CEILING, 1, 1, TYPE_NUMBER);
+        define("round", ROUND, 1, 1, TYPE_NUMBER);
+    }
+
+    private static void define(String name, int id, int minArity, int maxArity, int type) {
+        FUNCTIONS.put(name, new int[] { id, minArity, maxArity, type });
+    }
+
+    private final int function;
+    private final int type;
+    private final Expr[] arguments;
+
+    private CoreFunction(int function, int type, Expr[] arguments) {
+        this.function = function;
+        this.type = type;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Returns a call to the core function {@code name}, or null if there is no
+     * such function.
+     */
+    static CoreFunction create(String name, Expr[] arguments) throws XPathExpressionException {
+        int[] definition = FUNCTIONS.get(name);
+        if (definition == null) {
+            return null;
+        }
+        if (arguments.length < definition[1] || arguments.length > definition[2]) {
+            throw new XPathExpressionException(
+                    "Wrong number of arguments to " + name + "(): " + arguments.length);
+        }
+        return new CoreFunction(definition[0], definition[3], arguments);
+    }
+
+    @Override int type() {
+        return type;
+    }
+
+    @Override boolean usesPositionOrSize() {
+        if (function == LAST || function == POSITION) {
+            return true;
+        }
+        for (Expr argument : arguments) {
+            if (argument.usesPositionOrSize()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override Object evaluate(Context context) throws XPathExpressionException {
+        switch (function) {
+            case LAST:
+                return (double) context.size;
+            case POSITION:
+                return (double) context.position;
+            case COUNT:
+                return (double) nodeSet(0, context).size();
+            case ID:
+                return id(context);
+            case LOCAL_NAME:
+            case NAMESPACE_URI:
+            case NAME:
+                return name(context);
+            case STRING:
+                return arguments.length == 0 ? stringValue(context.node) : string(0, context);
+            case CONCAT:
+                StringBuilder result = new StringBuilder();
+                for (int i = 0; i < arguments.length; i++) {
+                    result.append(string(i, context));
+                }
+                return result.toString();
+            case STARTS_WITH:
+                return string(0, context).startsWith(string(1, context));
+            case CONTAINS:
+                return string(0, context).contains(string(1, context));
+            case SUBSTRING_BEFORE: {
+                String s = string(0, context);
+                int index = s.indexOf(string(1, context));
+                return index == -1 ? "" : s.substring(0, index);
+            }
+            case SUBSTRING_AFTER: {
+                String s = string(0, context);
+                String search = string(1, context);
+                int index = s.indexOf(search);
+                return index == -1 ? "" : s.substring(index + search.length());
+            }
+            case SUBSTRING:
+                return substring(context);
+            case STRING_LENGTH: {
+                String s = arguments.length == 0 ? stringValue(context.node) : string(0, context);
+                return (double) s.codePointCount(0, s.length());
+            }
+            case NORMALIZE_SPACE:
+                return normalizeSpace(
+                        arguments.length == 0 ? stringValue(context.node) : string(0, context));
+            case TRANSLATE:
+                return translate(string(0, context), string(1, context), string(2, context));
+            case BOOLEAN:
+                return toBoolean(arguments[0].evaluate(context));
+            case NOT:
+                return !toBoolean(arguments[0].evaluate(context));
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case LANG:
+                return lang(context);
+            case NUMBER:
+                return arguments.length == 0
+                        ? toNumber(stringValue(context.node))
+                        : toNumber(arguments[0].evaluate(context));
+            case SUM: {
+                double sum = 0;
+                for (Node node : nodeSet(0, context)) {
+                    sum += toNumber(stringValue(node));
+                }
+                return sum;
+            }
+            case FLOOR:
+                return Math.floor(number(0, context));
+            case CEILING:
+                return Math.ceil(number(0, context));
+            case ROUND:
+                return round(number(0, context));
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private List<Node> nodeSet(int index, Context context) throws XPathExpressionException {
+        return toNodeSet(arguments[index].evaluate(context));
+    }
+
+    private String string(int index, Context context) throws XPathExpressionException {
+        return toString(arguments[index].evaluate(context));
+    }
+
+    private double number(int index, Context context) throws XPathExpressionException {
+        return toNumber(arguments[index].evaluate(context));
+    }
+
+    private List<Node> id(Context context) throws XPathExpressionException {
+        Object argument = arguments[0].evaluate(context);
+        StringBuilder ids = new StringBuilder();
+        if (argument instanceof List) {
+            for (Node node : toNodeSet(argument)) {
+                ids.append(stringValue(node)).append(' ');
+            }
+        } else {
+            ids.append(toString(argument));
+        }
+
+        Node root = Context.root(context.node);
+        List<Node> result = new ArrayList<Node>();
+        if (root.getNodeType() != Node.DOCUMENT_NODE) {
+            return result;
+        }
+        Document document = (Document) root;
+        for (String id : normalizeSpace(ids.toString()).split(" ")) {
+            if (!id.isEmpty()) {
+                Element element = document.getElementById(id);
+                if (element != null) {
+                    result.add(element);
+                }
+            }
+        }
+        context.sortDocumentOrder(result);
+        return result;
+    }
+
+    private String name(Context context) throws XPathExpressionException {
+        Node node;
+        if (arguments.length == 0) {
+            node = context.node;
+        } else {
+            List<Node> nodes = nodeSet(0, context);
+            if (nodes.isEmpty()) {
+                return "";
+            }
+            node = nodes.get(0);
+        }
+        short type = node.getNodeType();
+        if (type != Node.ELEMENT_NODE && type != Node.ATTRIBUTE_NODE
+                && type != Node.PROCESSING_INSTRUCTION_NODE) {
+            return "";
+        }
+        if (function == NAMESPACE_URI) {
+            String uri = node.getNamespaceURI();
+            return uri != null ? uri : "";
+        }
+        if (function == LOCAL_NAME && type != Node.PROCESSING_INSTRUCTION_NODE) {
+            String localName = node.getLocalName();
+            if (localName != null) {
+                return localName;
+            }
+        }
+        return node.getNodeName();
+    }
+
+    private String substring(Context context) throws XPathExpressionException {
+        String s = string(0, context);
+        double start = round(number(1, context));
+        double end = arguments.length == 3
+                ? start + round(number(2, context))
+                : Double.POSITIVE_INFINITY;
+        StringBuilder result = new StringBuilder();
+        int position = 1;
+        for (int i = 0; i < s.length(); position++) {
+            int codePoint = s.codePointAt(i);
+            if (position >= start && position < end) {
+                result.appendCodePoint(codePoint);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return result.toString();
+    }
+
+    static String normalizeSpace(String s) {
+        StringBuilder result = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (isWhitespace(c)) {
+                space = result.length() > 0;
+            } else {
+                if (space) {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String translate(String s, String from, String to) {
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int index = from.indexOf(c);
+            if (index == -1) {
+                result.append(c);
+            } else if (index < to.length()) {
+                result.append(to.charAt(index));
+            }
+        }
+        return result.toString();
+    }
+
+    private boolean lang(Context context) throws XPathExpressionException {
+        String language = Path.language(context.node);
+        if (language == null) {
+            return false;
+        }
+        String wanted = string(0, context).toLowerCase(Locale.ROOT);
+        language = language.toLowerCase(Locale.ROOT);
+        return language.equals(wanted)
+                || (language.startsWith(wanted) && language.charAt(wanted.length()) == '-');
+    }
+
+    /** Rounds half up, keeping NaN, infinities and negative zero as XPath requires. */
+    private static double round(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d) || d == 0) {
+            return d;
+        }
+        if (d < 0 && d >= -0.5) {
+            return -0.0;
+        }
+        return Math.floor(d + 0.5);
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFunction;
+import javax.xml.xpath.XPathFunctionException;
+import javax.xml.xpath.XPathVariableResolver;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A compiled XPath 1.0 expression. Expressions are immutable once compiled
+ * and may be evaluated concurrently; all evaluation state lives in the
+ * {@link Context}.
+ *
+ * <p>Values are represented by {@link Boolean}, {@link Double}, {@link String}
+ * and, for node-sets, a {@code List<Node>} in document order without
+ * duplicates.
+ */
+abstract class Expr {
+    static final int TYPE_ANY = 0;
+    static final int TYPE_NODESET = 1;
+    static final int TYPE_BOOLEAN = 2;
+    static final int TYPE_NUMBER = 3;
+    static final int TYPE_STRING = 4;
+
+    abstract Object evaluate(Context context) throws XPathExpressionException;
+
+    /** Returns the type this expression always evaluates to, or TYPE_ANY. */
+    int type() {
+        return TYPE_ANY;
+    }
+
+    /**
+     * Returns true if this expression reads the context position or size
+     * directly, as opposed to from inside a nested predicate.
+     */
+    boolean usesPositionOrSize() {
+        return false;
+    }
+
+    // Conversions from the XPath 1.0 core function library.
+
+    static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            return d != 0 && !Double.isNaN(d);
+        } else if (value instanceof String) {
+            return !((String) value).isEmpty();
+        } else {
+            return !((List<?>) value).isEmpty();
+        }
+    }
+
+    static double toNumber(Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else {
+            return toNumber(toString(value));
+        }
+    }
+
+    static String toString(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Double) {
+            return toString(((Double) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return value.toString();
+        } else {
+            List<?> nodes = (List<?>) value;
+            return nodes.isEmpty() ? "" : stringValue((Node) nodes.get(0));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Node> toNodeSet(Object value) throws XPathExpressionException {
+        if (!(value instanceof List)) {
+            throw new XPathExpressionException("Expected a node-set but was " + value);
+        }
+        return (List<Node>) value;
+    }
+
+    static String stringValue(Node node) {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+                StringBuilder result = new StringBuilder();
+                for (Node child = node.getFirstChild(); child != null;
+                        child = child.getNextSibling()) {
+                    if (child.getNodeType() == Node.ELEMENT_NODE) {
+                        result.append(child.getTextContent());
+                    }
+                }
+                return result.toString();
+            case Node.ELEMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+                return node.getTextContent();
+            default:
+                String value = node.getNodeValue();
+                return value != null ? value : "";
+        }
+    }
+
+    static double toNumber(String s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        int i = start;
+        if (i < end && s.charAt(i) == '-') {
+            i++;
+        }
+        int digits = 0;
+        boolean dot = false;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        return digits == 0 ? Double.NaN : Double.parseDouble(s.substring(start, end));
+    }
+
+    static String toString(double d) {
+        if (Double.isNaN(d)) {
+            return "NaN";
+        } else if (Double.isInfinite(d)) {
+            return d > 0 ? "Infinity" : "-Infinity";
+        } else if (d == 0) {
+            return "0";
+        } else if (d == (long) d && Math.abs(d) < 1e18) {
+            return Long.toString((long) d);
+        } else {
+            return new BigDecimal(Double.toString(d)).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /** Converts a variable value or extension function result to an XPath value. */
+    static Object fromJava(Object value) {
+        if (value instanceof Boolean || value instanceof String) {
+            return value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Node) {
+            List<Node> nodes = new ArrayList<Node>(1);
+            nodes.add((Node) value);
+            return nodes;
+        } else if (value instanceof NodeList) {
+            NodeList list = (NodeList) value;
+            List<Node> nodes = new ArrayList<Node>(list.getLength());
+            for (int i = 0; i < list.getLength(); i++) {
+                nodes.add(list.item(i));
+            }
+            return nodes;
+        } else {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * Keeps the nodes for which each predicate holds. Positions count from 1
+     * in the order of {@code nodes}, which is the axis order for steps and
+     * document order for filter expressions.
+     */
+    static List<Node> filter(List<Node> nodes, Expr[] predicates, Context context)
+            throws XPathExpressionException {
+        for (Expr predicate : predicates) {
+            List<Node> kept = new ArrayList<Node>(nodes.size());
+            int size = nodes.size();
+            for (int i = 0; i < size; i++) {
+                Node node = nodes.get(i);
+                Object result = predicate.evaluate(context.with(node, i + 1, size));
+                if (result instanceof Double
+                        ? (Double) result == i + 1
+                        : toBoolean(result)) {
+                    kept.add(node);
+                }
+            }
+            nodes = kept;
+        }
+        return nodes;
+    }
+
+    static final class Literal extends Expr {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override Object evaluate(Context context) {
+            return value;
+        }
+
+        @Override int type() {
+            return value instanceof Double ? TYPE_NUMBER : TYPE_STRING;
+        }
+    }
+
+    static final class Variable extends Expr {
+        private final QName name;
+
+        Variable(QName name) {
+            this.name = name;
+        }
+
+        @Override Object evaluate(Context context) throws XPathExpressionException {
+            XPathVariableResolver variables = context.variables();
+            Object value = variables != null ? variables.resolveVariable(name) : null;
+            if (value == null) {
+                throw new XPathExpressionException("Unresolved variable $" + name);
+            }
+            return fromJava(value);
+        }
+    }
+
+    static final class Negate extends Expr {
+        private final Expr operand;
+
+        Negate(Expr operand) {
+            this.operand = operand;
+        }
+
+        @Override Object evaluate(Context context) throws XPathExpressionException {
+            return -toNumber(operand.evaluate(context));
+        }
+
+        @Override int type() {
+            return TYPE_NUMBER;
+        }
+
+        @Override boolean usesPositionOrSize() {
+            return operand.usesPositionOrSize();
+        }
+    }
+
+    /** A binary operator; {@code and} and {@code or} short-circuit. */
+    static final class Binary extends Expr {
+        static final int OR = 0;
+        static final int AND = 1;
+        static final int EQ = 2;
+        static final int NE = 3;
+        static final int LT = 4;
+        static final int LE = 5;
+        static final int GT = 6;
+        static final int GE = 7;
+        static final int PLUS = 8;
+        static final int MINUS = 9;
+        static final int MULTIPLY = 10;
+        static final int DIV = 11;
+        static final int MOD = 12;
+        static final int UNION = 13;
+
+        private final int operator;
+        private final Expr left;
+        private final Expr right;
+
+        Binary(int operator, Expr left, Expr right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override Object evaluate(Context context) throws XPathExpressionException {
+            switch (operator) {
+                case OR:
+                    return toBoolean(left.evaluate(context)) || toBoolean(right.evaluate(context));
+                case AND:
+                    return toBoolean(left.evaluate(context)) && toBoolean(right.evaluate(context));
+                case UNION:
+                    List<Node> a = toNodeSet(left.evaluate(context));
+                    List<Node> b = toNodeSet(right.evaluate(context));
+                    List<Node> union = new ArrayList<Node>(a.size() + b.size());
+                    union.addAll(a);
+                    union.addAll(b);
+                    context.sortDocumentOrder(union);
+                    return union;
+                default:
+                    break;
+            }
+            Object l = left.evaluate(context);
+            Object r = right.evaluate(context);
+            switch (operator) {
+                case PLUS:
+                    return toNumber(l) + toNumber(r);
+                case MINUS:
+                    return toNumber(l) - toNumber(r);
+                case MULTIPLY:
+                    return toNumber(l) * toNumber(r);
+                case DIV:
+                    return toNumber(l) / toNumber(r);
+                case MOD:
+                    return toNumber(l) % toNumber(r);
+                default:
+                    return compare(operator, l, r);
+            }
+        }
+
+        @Override int type() {
+            if (operator == UNION) {
+                return TYPE_NODESET;
+            } else if (operator >= PLUS) {
+                return TYPE_NUMBER;
+            } else {
+                return TYPE_BOOLEAN;
+            }
+        }
+
+        @Override boolean usesPositionOrSize() {
+            return left.usesPositionOrSize() || right.usesPositionOrSize();
+        }
+
+        /** Compares two values as described in section 3.4 of XPath 1.0. */
+        private static boolean compare(int operator, Object l, Object r) {
+            if (!(l instanceof List) && r instanceof List) {
+                Object swap = l;
+                l = r;
+                r = swap;
+                operator = mirror(operator);
+            }
+            if (l instanceof List) {
+                List<?> nodes = (List<?>) l;
+                if (r instanceof Boolean) {
+                    return compareAtoms(operator, !nodes.isEmpty(), r);
+                }
+                if (r instanceof List) {
+                    return compareNodeSets(operator, nodes, (List<?>) r);
+                }
+                for (Object node : nodes) {
+                    String value = stringValue((Node) node);
+                    if (compareAtoms(operator, r instanceof Double ? toNumber(value) : value, r)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return compareAtoms(operator, l, r);
+        }
+
+        private static boolean compareNodeSets(int operator, List<?> l, List<?> r) {
+            if (operator == EQ) {
+                Set<String> values = new HashSet<String>();
+                for (Object node : r) {
+                    values.add(stringValue((Node) node));
+                }
+                for (Object node : l) {
+                    if (values.contains(stringValue((Node) node))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (Object a : l) {
+                String value = stringValue((Node) a);
+                for (Object b : r) {
+                    if (compareAtoms(operator, value, stringValue((Node) b))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean compareAtoms(int operator, Object l, Object r) {
+            if (operator == EQ || operator == NE) {
+                boolean equal;
+                if (l instanceof Boolean || r instanceof Boolean) {
+                    equal = toBoolean(l) == toBoolean(r);
+                } else if (l instanceof Double || r instanceof Double) {
+                    equal = toNumber(l) == toNumber(r);
+                } else {
+                    equal = l.equals(r);
+                }
+                return operator == EQ ? equal : !equal;
+            }
+            double a = toNumber(l);
+            double b = toNumber(r);
+            switch (operator) {
+                case LT:
+                    return a < b;
+                case LE:
+                    return a <= b;
+                case GT:
+                    return a > b;
+                default:
+                    return a >= b;
+            }
+        }
+
+        private static int mirror(int operator) {
+            switch (operator) {
+                case LT:
+                    return GT;
+                case LE:
+                    return GE;
+                case GT:
+                    return LT;
+                case GE:
+                    return LE;
+                default:
+                    return operator;
+            }
+        }
+    }
+
+    /** A primary expression followed by predicates, as in {@code $nodes[2]}. */
+    static final class Filter extends Expr {
+        private final Expr primary;
+        private final Expr[] predicates;
+
+        Filter(Expr primary, Expr[] predicates) {
+            this.primary = primary;
+            this.predicates = predicates;
+        }
+
+        @Override Object evaluate(Context context) throws XPathExpressionException {
+            return filter(toNodeSet(primary.evaluate(context)), predicates, context);
+        }
+
+        @Override int type() {
+            return TYPE_NODESET;
+        }
+
+        @Override boolean usesPositionOrSize() {
+            return primary.usesPositionOrSize();
+        }
+    }
+
+    /** A call to a function supplied by an {@code XPathFunctionResolver}. */
+    static final class ExtensionCall extends Expr {
+        private final QName name;
+        private final XPathFunction function;
+        private final Expr[] arguments;
+
+        ExtensionCall(QName name, XPathFunction function, Expr[] arguments) {
+            this.name = name;
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override Object evaluate(Context context) throws XPathExpressionException {
+            List<Object> values = new ArrayList<Object>(arguments.length);
+            for (Expr argument : arguments) {
+                Object value = argument.evaluate(context);
+                values.add(value instanceof List ? new NodeSetList(toNodeSet(value)) : value);
+            }
+            Object result = function.evaluate(values);
+            if (result == null) {
+                throw new XPathFunctionException("Function " + name + " returned null");
+            }
+            return fromJava(result);
+        }
+
+        @Override boolean usesPositionOrSize() {
+            for (Expr argument : arguments) {
+                if (argument.usesPositionOrSize()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
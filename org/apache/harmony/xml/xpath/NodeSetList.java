@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.util.List;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A node-set returned to callers as a {@link NodeList}.
+ */
+final class NodeSetList implements NodeList {
+    private final List<Node> nodes;
+
+    NodeSetList(List<Node> nodes) {
+        this.nodes = nodes;
+    }
+
+    public Node item(int index) {
+        return index >= 0 && index < nodes.size() ? nodes.get(index) : null;
+    }
+
+    public int getLength() {
+        return nodes.size();
+    }
+}
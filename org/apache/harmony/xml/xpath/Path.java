@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import javax.xml.XMLConstants;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A location path, optionally starting from a filter expression as in
+ * {@code $nodes/item}.
+ */
+final class Path extends Expr {
+    static final int CHILD = 0;
+    static final int DESCENDANT = 1;
+    static final int PARENT = 2;
+    static final int ANCESTOR = 3;
+    static final int FOLLOWING_SIBLING = 4;
+    static final int PRECEDING_SIBLING = 5;
+    static final int FOLLOWING = 6;
+    static final int PRECEDING = 7;
+    static final int ATTRIBUTE = 8;
+    static final int NAMESPACE = 9;
+    static final int SELF = 10;
+    static final int DESCENDANT_OR_SELF = 11;
+    static final int ANCESTOR_OR_SELF = 12;
+
+    static final String[] AXIS_NAMES = {
+        "child", "descendant", "parent", "ancestor", "following-sibling", "preceding-sibling",
+        "following", "preceding", "attribute", "namespace", "self", "descendant-or-self",
+        "ancestor-or-self",
+    };
+
+    /** Evaluated for the initial node-set, or null for a location path. */
+    final Expr start;
+    final boolean absolute;
+    final Step[] steps;
+
+    Path(Expr start, boolean absolute, Step[] steps) {
+        this.start = start;
+        this.absolute = absolute;
+        this.steps = steps;
+    }
+
+    @Override Object evaluate(Context context) throws XPathExpressionException {
+        List<Node> nodes;
+        if (start != null) {
+            nodes = toNodeSet(start.evaluate(context));
+        } else {
+            nodes = new ArrayList<Node>(1);
+            nodes.add(absolute ? Context.root(context.node) : context.node);
+        }
+
+        // Whether no node in the set is an ancestor of another. Child and
+        // attribute steps from such a set give results already in document
+        // order, so only the general case needs a sort.
+        boolean flat = nodes.size() < 2;
+        for (Step step : steps) {
+            if (nodes.size() == 1) {
+                nodes = step.evaluate(nodes.get(0), context);
+            } else {
+                List<Node> result = new ArrayList<Node>();
+                for (Node node : nodes) {
+                    result.addAll(step.evaluate(node, context));
+                }
+                if (!flat || !step.keepsOrderFromFlatSet()) {
+                    context.sortDocumentOrder(result);
+                }
+                nodes = result;
+            }
+            flat = step.keepsFlat() && (flat || nodes.size() < 2);
+        }
+        return nodes;
+    }
+
+    @Override int type() {
+        return TYPE_NODESET;
+    }
+
+    @Override boolean usesPositionOrSize() {
+        return start != null && start.usesPositionOrSize();
+    }
+
+    /** Tests the kind and name of nodes on an axis. */
+    static final class NodeTest {
+        static final int NAME = 0;
+        static final int NODE = 1;
+        static final int TEXT = 2;
+        static final int COMMENT = 3;
+        static final int PROCESSING_INSTRUCTION = 4;
+
+        final int kind;
+        /** The resolved namespace of a prefixed name test, or null. */
+        final String namespaceURI;
+        /** The local name, "*", or the target of a processing-instruction() test. */
+        final String localName;
+        final boolean prefixed;
+
+        NodeTest(int kind, String namespaceURI, String localName, boolean prefixed) {
+            this.kind = kind;
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+            this.prefixed = prefixed;
+        }
+
+        boolean matches(Node node, int principalType) {
+            short type = node.getNodeType();
+            switch (kind) {
+                case NODE:
+                    return true;
+                case TEXT:
+                    return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE;
+                case COMMENT:
+                    return type == Node.COMMENT_NODE;
+                case PROCESSING_INSTRUCTION:
+                    return type == Node.PROCESSING_INSTRUCTION_NODE
+                            && (localName == null || localName.equals(node.getNodeName()));
+                default:
+                    return type == principalType && matchesName(node);
+            }
+        }
+
+        boolean matchesName(String uri, String local) {
+            if (!"*".equals(localName) && !localName.equals(local)) {
+                return false;
+            }
+            if (!prefixed) {
+                return "*".equals(localName) || uri == null || uri.isEmpty();
+            }
+            return namespaceURI.equals(uri);
+        }
+
+        private boolean matchesName(Node node) {
+            String local = node.getLocalName();
+            return matchesName(node.getNamespaceURI(), local != null ? local : node.getNodeName());
+        }
+    }
+
+    static final class Step {
+        final int axis;
+        final NodeTest test;
+        final Expr[] predicates;
+
+        Step(int axis, NodeTest test, Expr[] predicates) {
+            this.axis = axis;
+            this.test = test;
+            this.predicates = predicates;
+        }
+
+        boolean isReverse() {
+            return axis == PARENT || axis == ANCESTOR || axis == ANCESTOR_OR_SELF
+                    || axis == PRECEDING || axis == PRECEDING_SIBLING;
+        }
+
+        /**
+         * Returns true if, applied to each node of a flat set in document
+         * order, this step's results concatenate into document order without
+         * duplicates.
+         */
+        boolean keepsOrderFromFlatSet() {
+            return axis == CHILD || axis == ATTRIBUTE || axis == SELF
+                    || axis == DESCENDANT || axis == DESCENDANT_OR_SELF;
+        }
+
+        /** Returns true if this step maps a flat set to a flat set. */
+        boolean keepsFlat() {
+            return axis == CHILD || axis == ATTRIBUTE || axis == SELF;
+        }
+
+        /** Returns the nodes selected from {@code node}, in document order. */
+        List<Node> evaluate(Node node, Context context) throws XPathExpressionException {
+            List<Node> nodes = new ArrayList<Node>();
+            collect(node, nodes);
+            if (predicates.length > 0) {
+                nodes = filter(nodes, predicates, context);
+            }
+            if (isReverse()) {
+                Collections.reverse(nodes);
+            }
+            return nodes;
+        }
+
+        /** Adds the nodes on this step's axis that pass its test, in axis order. */
+        private void collect(Node node, List<Node> out) {
+            boolean isAttribute = node.getNodeType() == Node.ATTRIBUTE_NODE;
+            switch (axis) {
+                case SELF:
+                    add(node, out);
+                    break;
+                case CHILD:
+                    if (!isAttribute) {
+                        for (Node c = node.getFirstChild(); c != null; c = c.getNextSibling()) {
+                            add(c, out);
+                        }
+                    }
+                    break;
+                case DESCENDANT_OR_SELF:
+                    add(node, out);
+                    // fall through
+                case DESCENDANT:
+                    if (!isAttribute && !collectIndexed(node, out)) {
+                        addDescendants(node, out);
+                    }
+                    break;
+                case PARENT:
+                    Node parent = parent(node);
+                    if (parent != null) {
+                        add(parent, out);
+                    }
+                    break;
+                case ANCESTOR_OR_SELF:
+                    add(node, out);
+                    // fall through
+                case ANCESTOR:
+                    for (Node a = parent(node); a != null; a = parent(a)) {
+                        add(a, out);
+                    }
+                    break;
+                case FOLLOWING_SIBLING:
+                    if (!isAttribute) {
+                        for (Node s = node.getNextSibling(); s != null; s = s.getNextSibling()) {
+                            add(s, out);
+                        }
+                    }
+                    break;
+                case PRECEDING_SIBLING:
+                    if (!isAttribute) {
+                        for (Node s = node.getPreviousSibling(); s != null;
+                                s = s.getPreviousSibling()) {
+                            add(s, out);
+                        }
+                    }
+                    break;
+                case FOLLOWING:
+                    if (isAttribute) {
+                        node = ((Attr) node).getOwnerElement();
+                        if (node == null) {
+                            break;
+                        }
+                        addDescendants(node, out);
+                    }
+                    for (Node n = node; n != null; n = n.getParentNode()) {
+                        for (Node s = n.getNextSibling(); s != null; s = s.getNextSibling()) {
+                            add(s, out);
+                            addDescendants(s, out);
+                        }
+                    }
+                    break;
+                case PRECEDING:
+                    collectPreceding(isAttribute ? ((Attr) node).getOwnerElement() : node, out);
+                    break;
+                case ATTRIBUTE:
+                    NamedNodeMap attributes = node.getNodeType() == Node.ELEMENT_NODE
+                            ? node.getAttributes() : null;
+                    if (attributes != null) {
+                        for (int i = 0; i < attributes.getLength(); i++) {
+                            Node attribute = attributes.item(i);
+                            if (!isNamespaceDeclaration(attribute)) {
+                                add(attribute, out);
+                            }
+                        }
+                    }
+                    break;
+                case NAMESPACE:
+                    collectNamespaces(node, out);
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+        }
+
+        private void add(Node node, List<Node> out) {
+            int principalType = axis == ATTRIBUTE || axis == NAMESPACE
+                    ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE;
+            if (isXPathNode(node) && test.matches(node, principalType)) {
+                out.add(node);
+            }
+        }
+
+        private void addDescendants(Node root, List<Node> out) {
+            Node node = root.getFirstChild();
+            while (node != null) {
+                add(node, out);
+                Node next = node.getFirstChild();
+                while (next == null && node != root) {
+                    next = node.getNextSibling();
+                    if (next == null) {
+                        node = node.getParentNode();
+                    }
+                }
+                node = next;
+            }
+        }
+
+        /**
+         * Uses the document's element indexes for descendant name tests from
+         * the root, the common {@code //name} case. Returns false if the
+         * descendants must be walked instead.
+         */
+        private boolean collectIndexed(Node node, List<Node> out) {
+            if (node.getNodeType() != Node.DOCUMENT_NODE || test.kind != NodeTest.NAME) {
+                return false;
+            }
+            Document document = (Document) node;
+            NodeList elements = test.prefixed
+                    ? document.getElementsByTagNameNS(test.namespaceURI, test.localName)
+                    : document.getElementsByTagName(test.localName);
+            for (int i = 0, length = elements.getLength(); i < length; i++) {
+                add(elements.item(i), out);
+            }
+            return true;
+        }
+
+        private void collectPreceding(Node node, List<Node> out) {
+            if (node == null) {
+                return;
+            }
+            Set<Node> ancestors = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+            Node root = node;
+            for (Node a = node.getParentNode(); a != null; a = a.getParentNode()) {
+                ancestors.add(a);
+                root = a;
+            }
+            if (root == node) {
+                return;
+            }
+            List<Node> preceding = new ArrayList<Node>();
+            Node current = root.getFirstChild();
+            while (current != null && current != node) {
+                if (ancestors.contains(current)) {
+                    current = current.getFirstChild();
+                    continue;
+                }
+                add(current, preceding);
+                Node next = current.getFirstChild();
+                while (next == null && current != null) {
+                    next = current.getNextSibling();
+                    if (next == null) {
+                        current = current.getParentNode();
+                    }
+                }
+                current = next;
+            }
+            Collections.reverse(preceding);
+            out.addAll(preceding);
+        }
+
+        /** Adds the in-scope namespace declarations of an element. */
+        private void collectNamespaces(Node node, List<Node> out) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                return;
+            }
+            Set<String> prefixes = new HashSet<String>();
+            for (Node e = node; e != null && e.getNodeType() == Node.ELEMENT_NODE;
+                    e = e.getParentNode()) {
+                NamedNodeMap attributes = e.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    if (isNamespaceDeclaration(attribute)
+                            && prefixes.add(declaredPrefix(attribute))
+                            && !attribute.getNodeValue().isEmpty()
+                            && (test.kind == NodeTest.NAME
+                                    ? test.matchesName(null, declaredPrefix(attribute))
+                                    : test.matches(attribute, Node.ATTRIBUTE_NODE))) {
+                        out.add(attribute);
+                    }
+                }
+            }
+        }
+    }
+
+    static Node parent(Node node) {
+        return node.getNodeType() == Node.ATTRIBUTE_NODE
+                ? ((Attr) node).getOwnerElement()
+                : node.getParentNode();
+    }
+
+    /** Returns false for DOM nodes that have no XPath counterpart, like doctypes. */
+    static boolean isXPathNode(Node node) {
+        switch (node.getNodeType()) {
+            case Node.DOCUMENT_TYPE_NODE:
+            case Node.ENTITY_NODE:
+            case Node.NOTATION_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    static boolean isNamespaceDeclaration(Node attribute) {
+        if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+            return true;
+        }
+        String name = attribute.getNodeName();
+        return name.equals("xmlns") || name.startsWith("xmlns:");
+    }
+
+    static String declaredPrefix(Node attribute) {
+        String name = attribute.getNodeName();
+        return name.equals("xmlns") ? "" : name.substring("xmlns:".length());
+    }
+
+    /** Returns the value of the nearest {@code xml:lang} attribute, or null. */
+    static String language(Node node) {
+        for (Node e = node; e != null; e = parent(e)) {
+            if (e.getNodeType() == Node.ELEMENT_NODE) {
+                Element element = (Element) e;
+                Attr lang = element.getAttributeNodeNS(XMLConstants.XML_NS_URI, "lang");
+                if (lang == null) {
+                    lang = element.getAttributeNode("xml:lang");
+                }
+                if (lang != null) {
+                    return lang.getValue();
+                }
+            }
+        }
+        return null;
+    }
+}
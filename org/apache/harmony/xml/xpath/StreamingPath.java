@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.io.IOException;
+import javax.xml.xpath.XPathExpressionException;
+import org.apache.harmony.xml.ExpatReader;
+import org.apache.harmony.xml.xpath.Path.NodeTest;
+import org.apache.harmony.xml.xpath.Path.Step;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Evaluates simple forward-only paths like {@code /config/item/@name} or
+ * {@code //title} over a SAX stream, without building a DOM. Only absolute
+ * paths of child and descendant element steps without predicates, optionally
+ * ending in an attribute step, qualify.
+ *
+ * <p>Parsing stops at the first match, so scalar results for a value near the
+ * start of a large document cost little more than reading up to it.
+ */
+final class StreamingPath {
+    /** Open elements are tracked as bit sets of matched step counts. */
+    private static final int MAX_STEPS = 62;
+
+    private final NodeTest[] elementTests;
+    private final boolean[] descendant;
+    private final NodeTest attributeTest;
+
+    private StreamingPath(NodeTest[] elementTests, boolean[] descendant,
+            NodeTest attributeTest) {
+        this.elementTests = elementTests;
+        this.descendant = descendant;
+        this.attributeTest = attributeTest;
+    }
+
+    /** Returns a streaming evaluator for {@code expr}, or null if it doesn't qualify. */
+    static StreamingPath create(Expr expr) {
+        if (!(expr instanceof Path)) {
+            return null;
+        }
+        Path path = (Path) expr;
+        Step[] steps = path.steps;
+        if (path.start != null || !path.absolute || steps.length == 0
+                || steps.length > MAX_STEPS) {
+            return null;
+        }
+        NodeTest attributeTest = null;
+        int elementSteps = steps.length;
+        Step last = steps[steps.length - 1];
+        if (last.axis == Path.ATTRIBUTE) {
+            if (last.test.kind != NodeTest.NAME || last.predicates.length > 0) {
+                return null;
+            }
+            attributeTest = last.test;
+            elementSteps--;
+        }
+        if (elementSteps == 0) {
+            return null;
+        }
+        NodeTest[] elementTests = new NodeTest[elementSteps];
+        boolean[] descendant = new boolean[elementSteps];
+        for (int i = 0; i < elementSteps; i++) {
+            Step step = steps[i];
+            if ((step.axis != Path.CHILD && step.axis != Path.DESCENDANT)
+                    || step.test.kind != NodeTest.NAME || step.predicates.length > 0) {
+                return null;
+            }
+            elementTests[i] = step.test;
+            descendant[i] = step.axis == Path.DESCENDANT;
+        }
+        return new StreamingPath(elementTests, descendant, attributeTest);
+    }
+
+    /**
+     * Returns the string-value of the first node selected in {@code source},
+     * or null if the path selects nothing.
+     */
+    String firstMatch(InputSource source) throws XPathExpressionException {
+        Handler handler = new Handler();
+        ExpatReader reader = new ExpatReader();
+        reader.setContentHandler(handler);
+        try {
+            reader.parse(source);
+        } catch (StopParsing expected) {
+            // the handler found its match
+        } catch (SAXException e) {
+            throw new XPathExpressionException(e);
+        } catch (IOException e) {
+            throw new XPathExpressionException(e);
+        }
+        return handler.result;
+    }
+
+    private static final class StopParsing extends SAXException {
+    }
+
+    private final class Handler extends DefaultHandler {
+        private long[] states = new long[16];
+        private int depth;
+        private StringBuilder text;
+        private int textDepth;
+        String result;
+
+        Handler() {
+            states[0] = 1L;
+        }
+
+        @Override public void startElement(String uri, String localName, String qName,
+                Attributes attributes) throws SAXException {
+            long parentStates = states[depth];
+            long newStates = 0;
+            for (int matched = 0; matched < elementTests.length; matched++) {
+                if ((parentStates & (1L << matched)) == 0) {
+                    continue;
+                }
+                if (elementTests[matched].matchesName(uri, localName)) {
+                    newStates |= 1L << (matched + 1);
+                }
+                if (descendant[matched]) {
+                    newStates |= 1L << matched;
+                }
+            }
+            if (++depth == states.length) {
+                long[] bigger = new long[depth * 2];
+                System.arraycopy(states, 0, bigger, 0, depth);
+                states = bigger;
+            }
+            states[depth] = newStates;
+
+            if (text != null || (newStates & (1L << elementTests.length)) == 0) {
+                return;
+            }
+            if (attributeTest == null) {
+                text = new StringBuilder();
+                textDepth = depth;
+                return;
+            }
+            for (int i = 0; i < attributes.getLength(); i++) {
+                if (attributeTest.matchesName(attributes.getURI(i), attributes.getLocalName(i))) {
+                    result = attributes.getValue(i);
+                    throw new StopParsing();
+                }
+            }
+        }
+
+        @Override public void characters(char[] ch, int start, int length) {
+            if (text != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            if (text != null && depth == textDepth) {
+                result = text.toString();
+                throw new StopParsing();
+            }
+            depth--;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.io.IOException;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathVariableResolver;
+import org.apache.harmony.xml.dom.DOMImplementationImpl;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A compiled expression bound to the variable resolver of the {@code XPath}
+ * that compiled it. Instances are immutable when the resolver is.
+ */
+final class XPathExpressionImpl implements XPathExpression {
+    private final Expr expr;
+    private final StreamingPath streamingPath;
+    private final XPathVariableResolver variables;
+
+    XPathExpressionImpl(Expr expr, XPathVariableResolver variables) {
+        this.expr = expr;
+        this.streamingPath = StreamingPath.create(expr);
+        this.variables = variables;
+    }
+
+    public Object evaluate(Object item, QName returnType) throws XPathExpressionException {
+        checkReturnType(returnType);
+        Node node;
+        if (item == null) {
+            node = DOMImplementationImpl.getInstance().createDocument(null, null, null);
+        } else if (item instanceof Node) {
+            node = (Node) item;
+        } else {
+            throw new XPathExpressionException("Not a node: " + item);
+        }
+        Object value = expr.evaluate(new Context(node, variables));
+
+        if (returnType.equals(XPathConstants.STRING)) {
+            return Expr.toString(value);
+        } else if (returnType.equals(XPathConstants.NUMBER)) {
+            return Expr.toNumber(value);
+        } else if (returnType.equals(XPathConstants.BOOLEAN)) {
+            return Expr.toBoolean(value);
+        }
+        List<Node> nodes = Expr.toNodeSet(value);
+        if (returnType.equals(XPathConstants.NODESET)) {
+            return new NodeSetList(nodes);
+        } else {
+            return nodes.isEmpty() ? null : nodes.get(0);
+        }
+    }
+
+    public String evaluate(Object item) throws XPathExpressionException {
+        return (String) evaluate(item, XPathConstants.STRING);
+    }
+
+    /**
+     * Evaluates against a document read from {@code source}. String, number
+     * and boolean results of simple paths are computed while streaming;
+     * everything else builds a DOM first.
+     */
+    public Object evaluate(InputSource source, QName returnType)
+            throws XPathExpressionException {
+        if (source == null) {
+            throw new NullPointerException("source == null");
+        }
+        checkReturnType(returnType);
+        if (streamingPath != null
+                && !returnType.equals(XPathConstants.NODE)
+                && !returnType.equals(XPathConstants.NODESET)) {
+            String match = streamingPath.firstMatch(source);
+            if (returnType.equals(XPathConstants.BOOLEAN)) {
+                return match != null;
+            }
+            String value = match != null ? match : "";
+            return returnType.equals(XPathConstants.STRING) ? value : Expr.toNumber(value);
+        }
+        return evaluate(parse(source), returnType);
+    }
+
+    public String evaluate(InputSource source) throws XPathExpressionException {
+        return (String) evaluate(source, XPathConstants.STRING);
+    }
+
+    static Document parse(InputSource source) throws XPathExpressionException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            return factory.newDocumentBuilder().parse(source);
+        } catch (ParserConfigurationException e) {
+            throw new XPathExpressionException(e);
+        } catch (SAXException e) {
+            throw new XPathExpressionException(e);
+        } catch (IOException e) {
+            throw new XPathExpressionException(e);
+        }
+    }
+
+    static void checkReturnType(QName returnType) {
+        if (returnType == null) {
+            throw new NullPointerException("returnType == null");
+        }
+        if (!returnType.equals(XPathConstants.STRING)
+                && !returnType.equals(XPathConstants.NUMBER)
+                && !returnType.equals(XPathConstants.BOOLEAN)
+                && !returnType.equals(XPathConstants.NODE)
+                && !returnType.equals(XPathConstants.NODESET)) {
+            throw new IllegalArgumentException("Unsupported return type " + returnType);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFunctionResolver;
+import javax.xml.xpath.XPathVariableResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * Compiles and evaluates XPath 1.0 expressions over W3C DOM nodes.
+ *
+ * <p>Compiled expressions are cached, so evaluating the same expression string
+ * repeatedly parses it once. Expressions compiled without a namespace context
+ * or function resolver don't depend on this instance and are cached for the
+ * whole process; others are cached per instance until its namespace context or
+ * function resolver changes. Expressions compiled with secure processing have
+ * a process-wide cache of their own, since it changes how they are parsed.
+ */
+public final class XPathImpl implements XPath {
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<String, Expr> SHARED_CACHE = newCache();
+    private static final Map<String, Expr> SECURE_SHARED_CACHE = newCache();
+
+    private final Map<String, Expr> cache = newCache();
+
+    private final XPathVariableResolver originalVariableResolver;
+    private final XPathFunctionResolver originalFunctionResolver;
+    private final boolean secureProcessing;
+
+    private XPathVariableResolver variableResolver;
+    private XPathFunctionResolver functionResolver;
+    private NamespaceContext namespaceContext;
+
+    XPathImpl(XPathVariableResolver variableResolver, XPathFunctionResolver functionResolver,
+            boolean secureProcessing) {
+        this.originalVariableResolver = variableResolver;
+        this.originalFunctionResolver = functionResolver;
+        this.variableResolver = variableResolver;
+        this.functionResolver = functionResolver;
+        this.secureProcessing = secureProcessing;
+    }
+
+    private static Map<String, Expr> newCache() {
+        return new LinkedHashMap<String, Expr>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Expr> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    public void reset() {
+        variableResolver = originalVariableResolver;
+        functionResolver = originalFunctionResolver;
+        namespaceContext = null;
+        clearCache();
+    }
+
+    public void setXPathVariableResolver(XPathVariableResolver resolver) {
+        if (resolver == null) {
+            throw new NullPointerException("resolver == null");
+        }
+        variableResolver = resolver;
+    }
+
+    public XPathVariableResolver getXPathVariableResolver() {
+        return variableResolver;
+    }
+
+    public void setXPathFunctionResolver(XPathFunctionResolver resolver) {
+        if (resolver == null) {
+            throw new NullPointerException("resolver == null");
+        }
+        functionResolver = resolver;
+        clearCache();
+    }
+
+    public XPathFunctionResolver getXPathFunctionResolver() {
+        return functionResolver;
+    }
+
+    public void setNamespaceContext(NamespaceContext nsContext) {
+        if (nsContext == null) {
+            throw new NullPointerException("nsContext == null");
+        }
+        namespaceContext = nsContext;
+        clearCache();
+    }
+
+    public NamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+
+    public XPathExpression compile(String expression) throws XPathExpressionException {
+        if (expression == null) {
+            throw new NullPointerException("expression == null");
+        }
+        Map<String, Expr> cache = namespaceContext == null && functionResolver == null
+                ? (secureProcessing ? SECURE_SHARED_CACHE : SHARED_CACHE)
+                : this.cache;
+        Expr expr;
+        synchronized (cache) {
+            expr = cache.get(expression);
+        }
+        if (expr == null) {
+            expr = new XPathParser(expression, namespaceContext, functionResolver,
+                    secureProcessing).parse();
+            synchronized (cache) {
+                cache.put(expression, expr);
+            }
+        }
+        return new XPathExpressionImpl(expr, variableResolver);
+    }
+
+    public Object evaluate(String expression, Object item, QName returnType)
+            throws XPathExpressionException {
+        XPathExpressionImpl.checkReturnType(returnType);
+        return compile(expression).evaluate(item, returnType);
+    }
+
+    public String evaluate(String expression, Object item) throws XPathExpressionException {
+        return (String) evaluate(expression, item, XPathConstants.STRING);
+    }
+
+    public Object evaluate(String expression, InputSource source, QName returnType)
+            throws XPathExpressionException {
+        if (source == null) {
+            throw new NullPointerException("source == null");
+        }
+        XPathExpressionImpl.checkReturnType(returnType);
+        return compile(expression).evaluate(source, returnType);
+    }
+
+    public String evaluate(String expression, InputSource source)
+            throws XPathExpressionException {
+        return (String) evaluate(expression, source, XPathConstants.STRING);
+    }
+
+    private void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
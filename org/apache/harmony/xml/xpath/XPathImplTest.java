@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFunction;
+import javax.xml.xpath.XPathFunctionException;
+import javax.xml.xpath.XPathFunctionResolver;
+import javax.xml.xpath.XPathVariableResolver;
+import junit.framework.TestCase;
+import org.apache.harmony.xml.parsers.DocumentBuilderFactoryImpl;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public final class XPathImplTest extends TestCase {
+    private static final String XML = "<?xml version='1.0'?>"
+            + "<library xmlns:x='urn:extra' xml:lang='en-US'>"
+            + "<!-- comment -->"
+            + "<book id='b1' year='1999'><title>Alpha</title><x:note>first</x:note></book>"
+            + "<book id='b2' year='2005'><title>Beta</title>"
+            + "<chapter><title>Beta One</title></chapter></book>"
+            + "<book id='b3' year='2011'><title> Gamma  Delta </title></book>"
+            + "</library>";
+
+    private XPath xpath;
+    private Document document;
+
+    @Override protected void setUp() throws Exception {
+        xpath = new XPathFactoryImpl().newXPath();
+        DocumentBuilderFactoryImpl factory = new DocumentBuilderFactoryImpl();
+        factory.setNamespaceAware(true);
+        document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(XML)));
+    }
+
+    private String eval(String expression) throws XPathExpressionException {
+        return xpath.evaluate(expression, document);
+    }
+
+    public void testPaths() throws Exception {
+        assertEquals("Alpha", eval("/library/book/title"));
+        assertEquals("Beta", eval("/library/book[2]/title"));
+        assertEquals("Gamma Delta", eval("normalize-space(//book[last()]/title)"));
+        assertEquals("4", eval("count(//title)"));
+        assertEquals("3", eval("count(/library/*)"));
+        assertEquals("b2", eval("//chapter/ancestor::book/@id"));
+        assertEquals("b3", eval("//book[title='Beta']/following-sibling::book/@id"));
+        assertEquals("b1", eval("//book[@id='b2']/preceding::book/@id"));
+        assertEquals("Beta One", eval("//chapter/title/.."));
+        assertEquals("1", eval("count(/library/comment())"));
+        assertEquals("first", eval("//x:note", namespaces()));
+        assertEquals("true", eval("boolean(//title[lang('en')])"));
+    }
+
+    public void testPositionalPredicateAfterDescendantStep() throws Exception {
+        // //title[1] is the first title child of each parent, not the first title.
+        assertEquals("4", eval("count(//title[1])"));
+        assertEquals("1", eval("count((//title)[1])"));
+        assertEquals("Beta One", eval("(//title)[3]"));
+        assertEquals("2", eval("count(//book[title and @year > 2000])"));
+    }
+
+    public void testNodeSetResultsAreInDocumentOrder() throws Exception {
+        NodeList nodes = (NodeList) xpath.evaluate(
+                "//chapter/title | //book/title | /library/book[1]/@id", document,
+                XPathConstants.NODESET);
+        assertEquals(5, nodes.getLength());
+        assertEquals("b1", nodes.item(0).getNodeValue());
+        assertEquals("Alpha", nodes.item(1).getTextContent());
+        assertEquals("Beta", nodes.item(2).getTextContent());
+        assertEquals("Beta One", nodes.item(3).getTextContent());
+        assertEquals(" Gamma  Delta ", nodes.item(4).getTextContent());
+
+        Node node = (Node) xpath.evaluate("//book/ancestor-or-self::*", document,
+                XPathConstants.NODE);
+        assertEquals("library", node.getNodeName());
+    }
+
+    public void testFunctionsAndConversions() throws Exception {
+        assertEquals("6015", eval("sum(//@year)"));
+        assertEquals("0.5", eval("1 div 2"));
+        assertEquals("-Infinity", eval("-1 div 0"));
+        assertEquals("NaN", eval("number('abc')"));
+        assertEquals("2", eval("7 mod 5"));
+        assertEquals("3", eval("round(2.5)"));
+        assertEquals("-2", eval("round(-2.5)"));
+        assertEquals("1000000000000000000000", eval("number('1000000000000000000000')"));
+        assertEquals("0.000001", eval("1 div 1000000"));
+        assertEquals("ell", eval("substring('hello', 2, 3)"));
+        assertEquals("lo", eval("substring-after('hello', 'l')"));
+        assertEquals("BAr", eval("translate('bar', 'ab', 'AB')"));
+        assertEquals("true", eval("starts-with(//book[1]/title, 'Al') and not(false())"));
+        assertEquals("b1b2b3", eval("concat(//book[1]/@id, //book[2]/@id, //book[3]/@id)"));
+        assertEquals("book", eval("name(id('b2'))"));
+        assertEquals("2", eval("count(id('b3 b1'))"));
+        assertEquals("note", eval("local-name(//x:note)", namespaces()));
+        assertEquals("urn:extra", eval("namespace-uri(//x:note)", namespaces()));
+        assertEquals(Boolean.TRUE, xpath.evaluate("//book[@year >= 2011]", document,
+                XPathConstants.BOOLEAN));
+        assertEquals(2005.0, xpath.evaluate("//book[2]/@year", document, XPathConstants.NUMBER));
+    }
+
+    public void testIdIndexSeesMutations() throws Exception {
+        assertEquals("Alpha", eval("id('b1')/title"));
+        Element book = (Element) document.getElementById("b1");
+        book.setAttribute("id", "renamed");
+        assertEquals("", eval("id('b1')/title"));
+        assertEquals("Alpha", eval("id('renamed')/title"));
+
+        Element added = document.createElement("book");
+        added.setAttribute("id", "b4");
+        document.getDocumentElement().appendChild(added);
+        assertEquals("4", eval("count(//book)"));
+        assertEquals("book", eval("name(id('b4'))"));
+        document.getDocumentElement().removeChild(added);
+        assertEquals("3", eval("count(//book)"));
+    }
+
+    public void testVariablesAndExtensionFunctions() throws Exception {
+        xpath.setNamespaceContext(namespaces());
+        xpath.setXPathVariableResolver(new XPathVariableResolver() {
+            public Object resolveVariable(QName name) {
+                return name.getLocalPart().equals("year") ? 2000 : null;
+            }
+        });
+        xpath.setXPathFunctionResolver(new XPathFunctionResolver() {
+            public XPathFunction resolveFunction(QName name, int arity) {
+                if (!name.equals(new QName("urn:extra", "upper")) || arity != 1) {
+                    return null;
+                }
+                return new XPathFunction() {
+                    public Object evaluate(List args) {
+                        return String.valueOf(args.get(0)).toUpperCase();
+                    }
+                };
+            }
+        });
+        assertEquals("2", eval("count(//book[@year > $year])"));
+        assertEquals("ABC", eval("x:upper('abc')"));
+        try {
+            eval("$missing");
+            fail();
+        } catch (XPathExpressionException expected) {
+        }
+    }
+
+    public void testSecureProcessingRejectsExtensionFunctions() throws Exception {
+        XPathFactory factory = new XPathFactoryImpl();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        XPath secure = factory.newXPath();
+        secure.setNamespaceContext(namespaces());
+        try {
+            secure.compile("x:upper('abc')");
+            fail();
+        } catch (XPathFunctionException expected) {
+        }
+    }
+
+    public void testSyntaxErrors() throws Exception {
+        String[] invalid = { "", "/library/", "book[", "1 +", "foo()", "child::", "bogus::a",
+                "'unterminated", "a b", "y:a" };
+        for (String expression : invalid) {
+            try {
+                xpath.compile(expression);
+                fail(expression);
+            } catch (XPathExpressionException expected) {
+            }
+        }
+    }
+
+    public void testOperatorDisambiguation() throws Exception {
+        document = new DocumentBuilderFactoryImpl().newDocumentBuilder().parse(new InputSource(
+                new StringReader("<r><div>6</div><mod>4</mod><and>1</and></r>")));
+        assertEquals("1.5", eval("/r/div div /r/mod"));
+        assertEquals("2", eval("r/div mod r/mod"));
+        assertEquals("true", eval("r/and and r/*"));
+        assertEquals("24", eval("r/div * r/mod"));
+    }
+
+    public void testStreamingMatchesDom() throws Exception {
+        String[] expressions = { "/library/book/title", "//chapter/title", "//book/@year",
+                "/library/missing", "//x:note" };
+        xpath.setNamespaceContext(namespaces());
+        for (String expression : expressions) {
+            assertNotNull(StreamingPath.create(
+                    new XPathParser(expression, namespaces(), null, false).parse()));
+            String streamed = xpath.evaluate(expression, new InputSource(new StringReader(XML)));
+            assertEquals(expression, xpath.evaluate(expression, document), streamed);
+            assertEquals(expression, !streamed.isEmpty(), xpath.evaluate(expression,
+                    new InputSource(new StringReader(XML)), XPathConstants.BOOLEAN));
+        }
+        assertEquals(1999.0, xpath.evaluate("/library/book/@year",
+                new InputSource(new StringReader(XML)), XPathConstants.NUMBER));
+        assertNull(StreamingPath.create(
+                new XPathParser("//book[1]/title", null, null, false).parse()));
+    }
+
+    public void testCachedExpressionsFollowNamespaceContext() throws Exception {
+        assertEquals("first", eval("//x:note", namespaces()));
+        xpath.setNamespaceContext(new NamespaceContext() {
+            public String getNamespaceURI(String prefix) {
+                return prefix.equals("x") ? "urn:other" : XMLConstants.NULL_NS_URI;
+            }
+            public String getPrefix(String namespaceURI) {
+                return null;
+            }
+            public Iterator getPrefixes(String namespaceURI) {
+                return Collections.emptyList().iterator();
+            }
+        });
+        assertEquals("", eval("//x:note"));
+        xpath.reset();
+        assertEquals("0", xpath.evaluate("count(//book)", (Object) null));
+    }
+
+    private static NamespaceContext namespaces() {
+        return new NamespaceContext() {
+            public String getNamespaceURI(String prefix) {
+                return prefix.equals("x") ? "urn:extra" : XMLConstants.NULL_NS_URI;
+            }
+            public String getPrefix(String namespaceURI) {
+                return namespaceURI.equals("urn:extra") ? "x" : null;
+            }
+            public Iterator getPrefixes(String namespaceURI) {
+                return Collections.singletonList(getPrefix(namespaceURI)).iterator();
+            }
+        };
+    }
+
+    private String eval(String expression, NamespaceContext namespaces)
+            throws XPathExpressionException {
+        xpath.setNamespaceContext(namespaces);
+        return eval(expression);
+    }
+}
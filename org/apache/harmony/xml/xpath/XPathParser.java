@@ -0,0 +1,641 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.xml.xpath;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFunction;
+import javax.xml.xpath.XPathFunctionException;
+import javax.xml.xpath.XPathFunctionResolver;
+import org.apache.harmony.xml.xpath.Path.NodeTest;
+import org.apache.harmony.xml.xpath.Path.Step;
+
+/**
+ * Compiles XPath 1.0 expressions into {@link Expr} trees. Namespace prefixes
+ * and extension functions are resolved at compile time.
+ */
+final class XPathParser {
+    // Token types. The lexer applies the disambiguation rules of section 3.7
+    // of XPath 1.0, so names arrive already classified.
+    private static final int EOF = 0;
+    private static final int LPAREN = 1;
+    private static final int RPAREN = 2;
+    private static final int LBRACKET = 3;
+    private static final int RBRACKET = 4;
+    private static final int DOT = 5;
+    private static final int DOTDOT = 6;
+    private static final int AT = 7;
+    private static final int COMMA = 8;
+    private static final int COLONCOLON = 9;
+    private static final int SLASH = 10;
+    private static final int DOUBLE_SLASH = 11;
+    private static final int PIPE = 12;
+    private static final int PLUS = 13;
+    private static final int MINUS = 14;
+    private static final int EQ = 15;
+    private static final int NE = 16;
+    private static final int LT = 17;
+    private static final int LE = 18;
+    private static final int GT = 19;
+    private static final int GE = 20;
+    private static final int AND = 21;
+    private static final int OR = 22;
+    private static final int MOD = 23;
+    private static final int DIV = 24;
+    private static final int MULTIPLY = 25;
+    private static final int LITERAL = 26;
+    private static final int NUMBER = 27;
+    private static final int VARIABLE = 28;
+    private static final int NAME_TEST = 29;
+    private static final int NODE_TYPE = 30;
+    private static final int FUNCTION_NAME = 31;
+    private static final int AXIS_NAME = 32;
+
+    private static final Expr[] NO_PREDICATES = new Expr[0];
+
+    private final String expression;
+    private final NamespaceContext namespaces;
+    private final XPathFunctionResolver functions;
+    private final boolean secureProcessing;
+
+    private int position;
+    private int token = -1;
+    private String text;
+
+    XPathParser(String expression, NamespaceContext namespaces, XPathFunctionResolver functions,
+            boolean secureProcessing) {
+        this.expression = expression;
+        this.namespaces = namespaces;
+        this.functions = functions;
+        this.secureProcessing = secureProcessing;
+    }
+
+    Expr parse() throws XPathExpressionException {
+        next();
+        Expr result = parseOr();
+        if (token != EOF) {
+            throw error("Unexpected '" + text + "'");
+        }
+        return result;
+    }
+
+    private Expr parseOr() throws XPathExpressionException {
+        Expr left = parseAnd();
+        while (token == OR) {
+            next();
+            left = new Expr.Binary(Expr.Binary.OR, left, parseAnd());
+        }
+        return left;
+    }
+
+    private Expr parseAnd() throws XPathExpressionException {
+        Expr left = parseEquality();
+        while (token == AND) {
+            next();
+            left = new Expr.Binary(Expr.Binary.AND, left, parseEquality());
+        }
+        return left;
+    }
+
+    private Expr parseEquality() throws XPathExpressionException {
+        Expr left = parseRelational();
+        while (token == EQ || token == NE) {
+            int operator = token == EQ ? Expr.Binary.EQ : Expr.Binary.NE;
+            next();
+            left = new Expr.Binary(operator, left, parseRelational());
+        }
+        return left;
+    }
+
+    private Expr parseRelational() throws XPathExpressionException {
+        Expr left = parseAdditive();
+        while (token >= LT && token <= GE) {
+            int operator = Expr.Binary.LT + (token - LT);
+            next();
+            left = new Expr.Binary(operator, left, parseAdditive());
+        }
+        return left;
+    }
+
+    private Expr parseAdditive() throws XPathExpressionException {
+        Expr left = parseMultiplicative();
+        while (token == PLUS || token == MINUS) {
+            int operator = token == PLUS ? Expr.Binary.PLUS : Expr.Binary.MINUS;
+            next();
+            left = new Expr.Binary(operator, left, parseMultiplicative());
+        }
+        return left;
+    }
+
+    private Expr parseMultiplicative() throws XPathExpressionException {
+        Expr left = parseUnary();
+        while (token == MULTIPLY || token == DIV || token == MOD) {
+            int operator = token == MULTIPLY ? Expr.Binary.MULTIPLY
+                    : token == DIV ? Expr.Binary.DIV : Expr.Binary.MOD;
+            next();
+            left = new Expr.Binary(operator, left, parseUnary());
+        }
+        return left;
+    }
+
+    private Expr parseUnary() throws XPathExpressionException {
+        if (token == MINUS) {
+            next();
+            return new Expr.Negate(parseUnary());
+        }
+        Expr left = parsePath();
+        while (token == PIPE) {
+            next();
+            left = new Expr.Binary(Expr.Binary.UNION, left, parsePath());
+        }
+        return left;
+    }
+
+    private Expr parsePath() throws XPathExpressionException {
+        if (token == VARIABLE || token == LPAREN || token == LITERAL || token == NUMBER
+                || token == FUNCTION_NAME) {
+            Expr primary = parsePrimary();
+            Expr[] predicates = parsePredicates();
+            Expr filter = predicates.length == 0 ? primary : new Expr.Filter(primary, predicates);
+            if (token != SLASH && token != DOUBLE_SLASH) {
+                return filter;
+            }
+            List<Step> steps = new ArrayList<Step>();
+            parseRelativePath(steps);
+            return new Path(filter, false, optimize(steps));
+        }
+
+        List<Step> steps = new ArrayList<Step>();
+        boolean absolute = token == SLASH || token == DOUBLE_SLASH;
+        if (token == SLASH) {
+            next();
+            if (!startsStep()) {
+                return new Path(null, true, new Step[0]);
+            }
+            steps.add(parseStep());
+        } else if (token != DOUBLE_SLASH) {
+            steps.add(parseStep());
+        }
+        parseRelativePath(steps);
+        return new Path(null, absolute, optimize(steps));
+    }
+
+    /** Parses any number of {@code /step} and {@code //step}. */
+    private void parseRelativePath(List<Step> steps) throws XPathExpressionException {
+        while (token == SLASH || token == DOUBLE_SLASH) {
+            if (token == DOUBLE_SLASH) {
+                steps.add(new Step(Path.DESCENDANT_OR_SELF,
+                        new NodeTest(NodeTest.NODE, null, null, false), NO_PREDICATES));
+            }
+            next();
+            steps.add(parseStep());
+        }
+    }
+
+    private boolean startsStep() {
+        return token == DOT || token == DOTDOT || token == AT || token == AXIS_NAME
+                || token == NAME_TEST || token == NODE_TYPE;
+    }
+
+    private Step parseStep() throws XPathExpressionException {
+        if (token == DOT) {
+            next();
+            return new Step(Path.SELF, new NodeTest(NodeTest.NODE, null, null, false),
+                    NO_PREDICATES);
+        } else if (token == DOTDOT) {
+            next();
+            return new Step(Path.PARENT, new NodeTest(NodeTest.NODE, null, null, false),
+                    NO_PREDICATES);
+        }
+
+        int axis = Path.CHILD;
+        if (token == AT) {
+            axis = Path.ATTRIBUTE;
+            next();
+        } else if (token == AXIS_NAME) {
+            for (axis = 0; !Path.AXIS_NAMES[axis].equals(text); axis++) {
+            }
+            next();
+            expect(COLONCOLON);
+        }
+
+        NodeTest test;
+        if (token == NAME_TEST) {
+            test = nameTest(text);
+            next();
+        } else if (token == NODE_TYPE) {
+            String type = text;
+            next();
+            expect(LPAREN);
+            String target = null;
+            if (type.equals("processing-instruction") && token == LITERAL) {
+                target = text;
+                next();
+            }
+            expect(RPAREN);
+            int kind = type.equals("node") ? NodeTest.NODE
+                    : type.equals("text") ? NodeTest.TEXT
+                    : type.equals("comment") ? NodeTest.COMMENT
+                    : NodeTest.PROCESSING_INSTRUCTION;
+            test = new NodeTest(kind, null, target, false);
+        } else {
+            throw error("Expected a node test");
+        }
+        return new Step(axis, test, parsePredicates());
+    }
+
+    private NodeTest nameTest(String name) throws XPathExpressionException {
+        int colon = name.indexOf(':');
+        if (colon == -1) {
+            return new NodeTest(NodeTest.NAME, null, name, false);
+        }
+        String uri = namespaceURI(name.substring(0, colon));
+        return new NodeTest(NodeTest.NAME, uri, name.substring(colon + 1), true);
+    }
+
+    private Expr[] parsePredicates() throws XPathExpressionException {
+        if (token != LBRACKET) {
+            return NO_PREDICATES;
+        }
+        List<Expr> predicates = new ArrayList<Expr>();
+        while (token == LBRACKET) {
+            next();
+            predicates.add(parseOr());
+            expect(RBRACKET);
+        }
+        return predicates.toArray(new Expr[predicates.size()]);
+    }
+
+    private Expr parsePrimary() throws XPathExpressionException {
+        Expr result;
+        switch (token) {
+            case VARIABLE:
+                result = new Expr.Variable(qName(text));
+                next();
+                return result;
+            case LPAREN:
+                next();
+                result = parseOr();
+                expect(RPAREN);
+                return result;
+            case LITERAL:
+                result = new Expr.Literal(text);
+                next();
+                return result;
+            case NUMBER:
+                result = new Expr.Literal(Double.parseDouble(text));
+                next();
+                return result;
+            default:
+                return parseFunctionCall();
+        }
+    }
+
+    private Expr parseFunctionCall() throws XPathExpressionException {
+        String name = text;
+        next();
+        expect(LPAREN);
+        List<Expr> arguments = new ArrayList<Expr>();
+        if (token != RPAREN) {
+            arguments.add(parseOr());
+            while (token == COMMA) {
+                next();
+                arguments.add(parseOr());
+            }
+        }
+        expect(RPAREN);
+        Expr[] args = arguments.toArray(new Expr[arguments.size()]);
+
+        if (name.indexOf(':') == -1) {
+            Expr call = CoreFunction.create(name, args);
+            if (call == null) {
+                throw error("Unknown function " + name + "()");
+            }
+            return call;
+        }
+
+        QName qName = qName(name);
+        if (secureProcessing) {
+            throw new XPathFunctionException(
+                    "Extension function " + qName + " not allowed with secure processing");
+        }
+        XPathFunction function = functions != null
+                ? functions.resolveFunction(qName, args.length)
+                : null;
+        if (function == null) {
+            throw error("Unknown function " + qName);
+        }
+        return new Expr.ExtensionCall(qName, function, args);
+    }
+
+    private QName qName(String name) throws XPathExpressionException {
+        int colon = name.indexOf(':');
+        if (colon == -1) {
+            return new QName(name);
+        }
+        String prefix = name.substring(0, colon);
+        return new QName(namespaceURI(prefix), name.substring(colon + 1), prefix);
+    }
+
+    private String namespaceURI(String prefix) throws XPathExpressionException {
+        String uri = namespaces != null ? namespaces.getNamespaceURI(prefix) : null;
+        if (uri == null || uri.equals(XMLConstants.NULL_NS_URI)) {
+            throw error("Undeclared namespace prefix " + prefix);
+        }
+        return uri;
+    }
+
+    /**
+     * Replaces {@code descendant-or-self::node()/child::name}, as written by
+     * {@code //name}, with the equivalent {@code descendant::name}. This skips
+     * materializing every node of the document and lets evaluation from the
+     * root use the document's tag name index. Predicates that depend on the
+     * context position prevent the rewrite since their positions count
+     * children of each parent rather than all descendants.
+     */
+    private static Step[] optimize(List<Step> steps) {
+        for (int i = 0; i < steps.size() - 1; i++) {
+            Step step = steps.get(i);
+            Step next = steps.get(i + 1);
+            if (step.axis == Path.DESCENDANT_OR_SELF
+                    && step.test.kind == NodeTest.NODE
+                    && step.predicates.length == 0
+                    && next.axis == Path.CHILD
+                    && isPositionIndependent(next.predicates)) {
+                steps.set(i, new Step(Path.DESCENDANT, next.test, next.predicates));
+                steps.remove(i + 1);
+            }
+        }
+        return steps.toArray(new Step[steps.size()]);
+    }
+
+    private static boolean isPositionIndependent(Expr[] predicates) {
+        for (Expr predicate : predicates) {
+            int type = predicate.type();
+            if (type == Expr.TYPE_NUMBER || type == Expr.TYPE_ANY
+                    || predicate.usesPositionOrSize()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(int expected) throws XPathExpressionException {
+        if (token != expected) {
+            throw error(token == EOF
+                    ? "Unexpected end of expression"
+                    : "Unexpected '" + text + "'");
+        }
+        next();
+    }
+
+    private XPathExpressionException error(String message) {
+        return new XPathExpressionException(message + " in '" + expression + "'");
+    }
+
+    // Lexer
+
+    private void next() throws XPathExpressionException {
+        int previous = token;
+        while (position < expression.length() && Expr.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+        if (position == expression.length()) {
+            token = EOF;
+            text = "";
+            return;
+        }
+
+        // A name or '*' is an operator if it follows a token that can end an
+        // operand; see section 3.7.
+        boolean operatorExpected = previous != -1
+                && previous != AT && previous != COLONCOLON && previous != LPAREN
+                && previous != LBRACKET && previous != COMMA && !isOperator(previous);
+
+        int start = position;
+        char c = expression.charAt(position);
+        char lookahead = position + 1 < expression.length() ? expression.charAt(position + 1) : 0;
+        switch (c) {
+            case '(': single(LPAREN); return;
+            case ')': single(RPAREN); return;
+            case '[': single(LBRACKET); return;
+            case ']': single(RBRACKET); return;
+            case '@': single(AT); return;
+            case ',': single(COMMA); return;
+            case '|': single(PIPE); return;
+            case '+': single(PLUS); return;
+            case '-': single(MINUS); return;
+            case '=': single(EQ); return;
+            case '/':
+                if (lookahead == '/') {
+                    pair(DOUBLE_SLASH);
+                } else {
+                    single(SLASH);
+                }
+                return;
+            case '<':
+                if (lookahead == '=') {
+                    pair(LE);
+                } else {
+                    single(LT);
+                }
+                return;
+            case '>':
+                if (lookahead == '=') {
+                    pair(GE);
+                } else {
+                    single(GT);
+                }
+                return;
+            case '!':
+                if (lookahead != '=') {
+                    throw error("Expected '!='");
+                }
+                pair(NE);
+                return;
+            case ':':
+                if (lookahead != ':') {
+                    throw error("Unexpected ':'");
+                }
+                pair(COLONCOLON);
+                return;
+            case '"':
+            case '\'':
+                int end = expression.indexOf(c, position + 1);
+                if (end == -1) {
+                    throw error("Unterminated literal");
+                }
+                token = LITERAL;
+                text = expression.substring(position + 1, end);
+                position = end + 1;
+                return;
+            case '$':
+                position++;
+                if (!isNameStart(peek())) {
+                    throw error("Expected a variable name");
+                }
+                readQName(false);
+                token = VARIABLE;
+                text = expression.substring(start + 1, position);
+                return;
+            case '*':
+                position++;
+                token = operatorExpected ? MULTIPLY : NAME_TEST;
+                text = "*";
+                return;
+            case '.':
+                if (lookahead == '.') {
+                    pair(DOTDOT);
+                    return;
+                } else if (lookahead < '0' || lookahead > '9') {
+                    single(DOT);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+
+        if ((c >= '0' && c <= '9') || c == '.') {
+            while (position < expression.length() && isDigit(expression.charAt(position))) {
+                position++;
+            }
+            if (peek() == '.') {
+                position++;
+                while (position < expression.length() && isDigit(expression.charAt(position))) {
+                    position++;
+                }
+            }
+            token = NUMBER;
+            text = expression.substring(start, position);
+            return;
+        }
+
+        if (!isNameStart(c)) {
+            throw error("Unexpected '" + c + "'");
+        }
+
+        if (operatorExpected) {
+            readNCName();
+            text = expression.substring(start, position);
+            if (text.equals("and")) {
+                token = AND;
+            } else if (text.equals("or")) {
+                token = OR;
+            } else if (text.equals("mod")) {
+                token = MOD;
+            } else if (text.equals("div")) {
+                token = DIV;
+            } else {
+                throw error("Expected an operator but was '" + text + "'");
+            }
+            return;
+        }
+
+        readQName(true);
+        text = expression.substring(start, position);
+        int after = position;
+        while (after < expression.length() && Expr.isWhitespace(expression.charAt(after))) {
+            after++;
+        }
+        char following = after < expression.length() ? expression.charAt(after) : 0;
+        if (following == '(' && !text.endsWith("*")) {
+            token = isNodeType(text) ? NODE_TYPE : FUNCTION_NAME;
+        } else if (following == ':' && after + 1 < expression.length()
+                && expression.charAt(after + 1) == ':') {
+            if (!isAxisName(text)) {
+                throw error("Unknown axis " + text);
+            }
+            token = AXIS_NAME;
+        } else {
+            token = NAME_TEST;
+        }
+    }
+
+    private void single(int type) {
+        token = type;
+        text = expression.substring(position, position + 1);
+        position++;
+    }
+
+    private void pair(int type) {
+        token = type;
+        text = expression.substring(position, position + 2);
+        position += 2;
+    }
+
+    private char peek() {
+        return position < expression.length() ? expression.charAt(position) : 0;
+    }
+
+    /** Reads a QName, or with {@code allowWildcard} also {@code prefix:*}. */
+    private void readQName(boolean allowWildcard) {
+        readNCName();
+        if (peek() == ':' && position + 1 < expression.length()) {
+            char next = expression.charAt(position + 1);
+            if (isNameStart(next)) {
+                position++;
+                readNCName();
+            } else if (next == '*' && allowWildcard) {
+                position += 2;
+            }
+        }
+    }
+
+    private void readNCName() {
+        position++;
+        while (position < expression.length() && isNamePart(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isOperator(int token) {
+        return (token >= SLASH && token <= MULTIPLY);
+    }
+
+    private static boolean isNodeType(String name) {
+        return name.equals("node") || name.equals("text") || name.equals("comment")
+                || name.equals("processing-instruction");
+    }
+
+    private static boolean isAxisName(String name) {
+        for (String axis : Path.AXIS_NAMES) {
+            if (axis.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                || (c >= '\u00c0' && Character.isLetter(c));
+    }
+
+    private static boolean isNamePart(char c) {
+        return isNameStart(c) || isDigit(c) || c == '-' || c == '.' || c == '\u00b7'
+                || (c >= '\u00c0' && Character.isLetterOrDigit(c));
+    }
+}
@@ -17,10 +17,8 @@
 package org.json;
 
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
 
 // Note: this class was written without inspecting the non-free org.json sourcecode.
 
@@ -48,13 +46,13 @@ import java.util.List;
  */
 public class JSONArray {
 
-    private final List<Object> values;
+    private final JSONValueList values;
 
     /**
      * Creates a {@code JSONArray} with no values.
      */
     public JSONArray() {
-        values = new ArrayList<Object>();
+        values = new JSONValueList();
     }
 
     /**
@@ -116,7 +114,7 @@ public class JSONArray {
             throw new JSONException("Not a primitive array: " + array.getClass());
         }
         final int length = Array.getLength(array);
-        values = new ArrayList<Object>(length);
+        values = new JSONValueList();
         for (int i = 0; i < length; ++i) {
             put(JSONObject.wrap(Array.get(array, i)));
         }
@@ -147,7 +145,7 @@ public class JSONArray {
      * @return this array.
      */
     public JSONArray put(double value) throws JSONException {
-        values.add(JSON.checkDouble(value));
+        values.addDouble(JSON.checkDouble(value));
         return this;
     }
 
@@ -157,7 +155,7 @@ public class JSONArray {
      * @return this array.
      */
     public JSONArray put(int value) {
-        values.add(value);
+        values.addInt(value);
         return this;
     }
 
@@ -167,7 +165,7 @@ public class JSONArray {
      * @return this array.
      */
     public JSONArray put(long value) {
-        values.add(value);
+        values.addLong(value);
         return this;
     }
 
@@ -266,6 +264,23 @@ public class JSONArray {
         return this;
     }
 
+    /**
+     * Returns true if {@code index} is in range and this array stores its
+     * values unboxed, so that numeric getters can skip boxing and coercion.
+     */
+    private boolean isNumeric(int index) {
+        int kind = values.kind();
+        return kind != JSONValueList.EMPTY && kind != JSONValueList.OBJECTS
+                && index >= 0 && index < values.size();
+    }
+
+    /**
+     * Releases spare capacity once parsing is complete.
+     */
+    void trimToSize() {
+        values.trimToSize();
+    }
+
     /**
      * Returns true if this array has no value at {@code index}, or if its value
      * is the {@code null} reference or {@link JSONObject#NULL}.
@@ -358,6 +373,9 @@ public class JSONArray {
      *     cannot be coerced to a double.
      */
     public double getDouble(int index) throws JSONException {
+        if (isNumeric(index)) {
+            return values.getDouble(index);
+        }
         Object object = get(index);
         Double result = JSON.toDouble(object);
         if (result == null) {
@@ -379,6 +397,9 @@ public class JSONArray {
      * be coerced to a double. Returns {@code fallback} otherwise.
      */
     public double optDouble(int index, double fallback) {
+        if (isNumeric(index)) {
+            return values.getDouble(index);
+        }
         Object object = opt(index);
         Double result = JSON.toDouble(object);
         return result != null ? result : fallback;
@@ -392,6 +413,9 @@ public class JSONArray {
      *     cannot be coerced to a int.
      */
     public int getInt(int index) throws JSONException {
+        if (isNumeric(index)) {
+            return values.getInt(index);
+        }
         Object object = get(index);
         Integer result = JSON.toInteger(object);
         if (result == null) {
@@ -413,6 +437,9 @@ public class JSONArray {
      * can be coerced to an int. Returns {@code fallback} otherwise.
      */
     public int optInt(int index, int fallback) {
+        if (isNumeric(index)) {
+            return values.getInt(index);
+        }
         Object object = opt(index);
         Integer result = JSON.toInteger(object);
         return result != null ? result : fallback;
@@ -426,6 +453,9 @@ public class JSONArray {
      *     cannot be coerced to a long.
      */
     public long getLong(int index) throws JSONException {
+        if (isNumeric(index)) {
+            return values.getLong(index);
+        }
         Object object = get(index);
         Long result = JSON.toLong(object);
         if (result == null) {
@@ -447,6 +477,9 @@ public class JSONArray {
      * can be coerced to a long. Returns {@code fallback} otherwise.
      */
     public long optLong(int index, long fallback) {
+        if (isNumeric(index)) {
+            return values.getLong(index);
+        }
         Object object = opt(index);
         Long result = JSON.toLong(object);
         return result != null ? result : fallback;
@@ -564,4 +564,43 @@ public class JSONArrayTest extends TestCase {
         JSONArray a2 = new JSONArray(MyEnum.values());
         assertEquals("[null,null,null]", a2.toString());
     }
+
+    public void testNumericValuesKeepTheirTypes() throws JSONException {
+        JSONArray array = new JSONArray();
+        array.put(1);
+        array.put(2);
+        assertEquals(Integer.valueOf(2), array.get(1));
+        array.put(3L);
+        assertEquals(Integer.valueOf(1), array.get(0));
+        assertEquals(Long.valueOf(3), array.get(2));
+        array.put(4.5);
+        assertEquals(Double.valueOf(4.5), array.get(3));
+        assertEquals(4, array.getInt(3));
+        assertEquals("[1,2,3,4.5]", array.toString());
+    }
+
+    public void testUnboxedNumericAccessors() throws JSONException {
+        JSONArray doubles = new JSONArray("[1.5, -2.5, 3e10]");
+        assertEquals(1, doubles.getInt(0));
+        assertEquals(-2L, doubles.getLong(1));
+        assertEquals((int) 3e10, doubles.getInt(2));
+        assertEquals(3e10, doubles.getDouble(2));
+        assertEquals(7, doubles.optInt(3, 7));
+
+        JSONArray longs = new JSONArray();
+        longs.put(4294967296L);
+        assertEquals(0, longs.getInt(0));
+        assertEquals(4294967296.0, longs.getDouble(0));
+    }
+
+    public void testNumericArraysMutate() throws JSONException {
+        JSONArray array = new JSONArray("[1,2,3]");
+        array.put(1, 5);
+        assertEquals("[1,5,3]", array.toString());
+        assertEquals(5, array.remove(1));
+        array.put(1, "a");
+        assertEquals("[1,\"a\"]", array.toString());
+        assertTrue(array.equals(new JSONArray("[1,\"a\"]")));
+        assertEquals(new JSONArray("[1,\"a\"]").hashCode(), array.hashCode());
+    }
 }
@@ -19,7 +19,6 @@ package org.json;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -105,13 +104,13 @@ public class JSONObject {
         }
     };
 
-    private final LinkedHashMap<String, Object> nameValuePairs;
+    private final JSONShapeMap nameValuePairs;
 
     /**
      * Creates a {@code JSONObject} with no name/value mappings.
      */
     public JSONObject() {
-        nameValuePairs = new LinkedHashMap<String, Object>();
+        nameValuePairs = new JSONShapeMap();
     }
 
     /**
@@ -188,6 +187,13 @@ public class JSONObject {
         }
     }
 
+    /**
+     * Releases spare capacity once parsing is complete.
+     */
+    void trimToSize() {
+        nameValuePairs.trimToSize();
+    }
+
     /**
      * Returns the number of name/value mappings in this object.
      */
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -1038,4 +1039,88 @@ public class JSONObjectTest extends TestCase {
         } catch (JSONException expected) {
         }
     }
+
+    public void testInsertionOrderPreservedAcrossRemove() throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("a", 1);
+        object.put("b", 2);
+        object.put("c", 3);
+        assertEquals(2, object.remove("b"));
+        object.put("b", 4);
+        assertEquals("{\"a\":1,\"c\":3,\"b\":4}", object.toString());
+    }
+
+    public void testObjectsWithSameNamesAreIndependent() throws JSONException {
+        JSONArray array = new JSONArray("[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"b\"}]");
+        array.getJSONObject(0).put("id", 3);
+        array.getJSONObject(1).put("extra", true);
+        assertEquals("[{\"id\":3,\"name\":\"a\"},{\"id\":2,\"name\":\"b\",\"extra\":true}]",
+                array.toString());
+    }
+
+    public void testManyNames() throws JSONException {
+        JSONObject object = new JSONObject();
+        for (int i = 0; i < 200; i++) {
+            object.put("key" + i, i);
+        }
+        assertEquals(200, object.length());
+        assertEquals(150, object.getInt("key150"));
+        assertEquals(7, object.remove("key7"));
+        assertFalse(object.has("key7"));
+        Iterator<String> keys = object.keys();
+        assertEquals("key0", keys.next());
+        assertEquals("key1", keys.next());
+    }
+
+    public void testRemoveAllThroughKeysIterator() throws JSONException {
+        JSONObject object = new JSONObject();
+        for (int i = 0; i < 100; i++) {
+            object.put("key" + i, i);
+        }
+        Iterator<String> keys = object.keys();
+        int count = 0;
+        while (keys.hasNext()) {
+            String key = keys.next();
+            assertEquals("key" + count, key);
+            if (count % 2 == 0) {
+                keys.remove();
+            }
+            count++;
+        }
+        assertEquals(100, count);
+        assertEquals(50, object.length());
+        assertFalse(object.has("key0"));
+        assertTrue(object.has("key99"));
+    }
+
+    public void testOverflowDuringIterationThrows() throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("a", 1);
+        object.put("b", 2);
+        Iterator<String> keys = object.keys();
+        assertEquals("a", keys.next());
+        for (int i = 0; i < 100; i++) {
+            object.put("key" + i, i);
+        }
+        try {
+            keys.hasNext();
+            fail();
+        } catch (ConcurrentModificationException expected) {
+        }
+    }
+
+    public void testManyDistinctNames() throws JSONException {
+        // More distinct first names than one shape keeps children for.
+        JSONObject[] objects = new JSONObject[1000];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new JSONObject();
+            objects[i].put("unique" + i, i);
+            objects[i].put("common", i);
+        }
+        for (int i = 0; i < objects.length; i++) {
+            assertEquals(i, objects[i].getInt("unique" + i));
+            assertEquals(i, objects[i].getInt("common"));
+            assertEquals("unique" + i, objects[i].keys().next());
+        }
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An immutable, ordered table of names shared by every {@link JSONObject}
+ * whose names were added in the same sequence. Objects store only their
+ * values; the names, and the map from names to value slots, are stored once
+ * per shape. Because each shape holds the first instance of each name, the
+ * names of all objects with the same shape are also shared.
+ *
+ * <p>Shapes form a tree rooted at {@link #EMPTY}: adding a name to an object
+ * moves it to a child shape. The tree is process-wide and is read and
+ * extended without locks. A shape holds its children weakly, so the tree only
+ * keeps the shapes of live objects, and it holds at most {@link
+ * #MAX_TRANSITIONS} of them, so that names from arbitrary input can't pin
+ * memory. Objects that would need a shape beyond either limit fall back to a
+ * private hash map; see {@link JSONShapeMap}.
+ */
+final class JSONShape {
+
+    /** Objects with more names than this use a hash map instead. */
+    static final int MAX_NAMES = 64;
+
+    /** The limit on live children of each shape. */
+    private static final int MAX_TRANSITIONS = 32;
+
+    /** Shapes with more names than this build a hash index for lookups. */
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<JSONShape, ConcurrentHashMap> TRANSITIONS =
+            AtomicReferenceFieldUpdater.newUpdater(
+                    JSONShape.class, ConcurrentHashMap.class, "transitions");
+
+    static final JSONShape EMPTY = new JSONShape(new String[0]);
+
+    /** The names in insertion order. Never modified. */
+    final String[] names;
+
+    /** Maps names to slots for large shapes, or null. Never modified. */
+    private final HashMap<String, Integer> index;
+
+    /** The shapes that extend this one by a single name, or null. */
+    private volatile ConcurrentHashMap<String, WeakReference<JSONShape>> transitions;
+
+    private JSONShape(String[] names) {
+        this.names = names;
+        if (names.length > LINEAR_SEARCH_LIMIT) {
+            index = new HashMap<String, Integer>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                index.put(names[i], i);
+            }
+        } else {
+            index = null;
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the slot of {@code name}, or -1 if this shape doesn't contain it.
+     */
+    int indexOf(Object name) {
+        if (index != null) {
+            Integer slot = index.get(name);
+            return slot != null ? slot : -1;
+        }
+        if (name == null) {
+            return -1;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the shape with {@code name} appended, or null if such a shape
+     * would exceed the limits on shape size or on the children of this shape.
+     * {@code name} must not already be in this shape.
+     */
+    JSONShape withName(String name) {
+        if (names.length == MAX_NAMES) {
+            return null;
+        }
+        ConcurrentHashMap<String, WeakReference<JSONShape>> map = transitions;
+        if (map == null) {
+            map = new ConcurrentHashMap<String, WeakReference<JSONShape>>(4, 0.75f, 1);
+            if (!TRANSITIONS.compareAndSet(this, null, map)) {
+                map = transitions;
+            }
+        }
+
+        WeakReference<JSONShape> ref = map.get(name);
+        JSONShape existing = ref != null ? ref.get() : null;
+        if (existing != null) {
+            return existing;
+        }
+        if (ref == null && map.size() >= MAX_TRANSITIONS) {
+            removeCleared(map);
+            if (map.size() >= MAX_TRANSITIONS) {
+                return null;
+            }
+        }
+
+        String[] newNames = new String[names.length + 1];
+        System.arraycopy(names, 0, newNames, 0, names.length);
+        newNames[names.length] = name;
+        JSONShape result = new JSONShape(newNames);
+        WeakReference<JSONShape> newRef = new WeakReference<JSONShape>(result);
+
+        // Publish the new shape unless another thread got there first.
+        while (true) {
+            if (ref == null) {
+                ref = map.putIfAbsent(name, newRef);
+                if (ref == null) {
+                    return result;
+                }
+            } else if (map.replace(name, ref, newRef)) {
+                return result;
+            } else {
+                ref = map.get(name);
+            }
+            existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * Drops the children of a shape that are no longer used by any object.
+     */
+    private static void removeCleared(ConcurrentHashMap<String, WeakReference<JSONShape>> map) {
+        for (Map.Entry<String, WeakReference<JSONShape>> entry : map.entrySet()) {
+            if (entry.getValue().get() == null) {
+                map.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The name/value mappings of a {@link JSONObject}, in insertion order. The
+ * names are kept in a shared {@link JSONShape} and the values in an array, so
+ * that an object costs little more than its values when many objects have the
+ * same names. Objects whose names cannot be given a shape, and objects that
+ * outgrow {@link JSONShape#MAX_NAMES}, switch to a {@link LinkedHashMap}.
+ */
+final class JSONShapeMap extends AbstractMap<String, Object> {
+
+    private static final Object[] EMPTY_VALUES = new Object[0];
+
+    /** The names of this map, or null if {@link #dictionary} is in use. */
+    private JSONShape shape = JSONShape.EMPTY;
+
+    /** The values in the order of {@code shape.names}. May have spare room. */
+    private Object[] values = EMPTY_VALUES;
+
+    /** The mappings, once this map no longer uses a shape. */
+    private LinkedHashMap<String, Object> dictionary;
+
+    private int modCount;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    @Override public int size() {
+        return shape != null ? shape.size() : dictionary.size();
+    }
+
+    @Override public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override public Object get(Object name) {
+        if (shape == null) {
+            return dictionary.get(name);
+        }
+        int slot = shape.indexOf(name);
+        return slot != -1 ? values[slot] : null;
+    }
+
+    @Override public boolean containsKey(Object name) {
+        return shape != null ? shape.indexOf(name) != -1 : dictionary.containsKey(name);
+    }
+
+    @Override public Object put(String name, Object value) {
+        if (shape != null) {
+            int slot = shape.indexOf(name);
+            if (slot != -1) {
+                Object previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            JSONShape next = name != null ? shape.withName(name) : null;
+            if (next != null) {
+                int size = shape.size();
+                if (size == values.length) {
+                    Object[] newValues = new Object[size < 4 ? 4 : size * 2];
+                    System.arraycopy(values, 0, newValues, 0, size);
+                    values = newValues;
+                }
+                values[size] = value;
+                shape = next;
+                modCount++;
+                return null;
+            }
+            toDictionary();
+        }
+        modCount++;
+        return dictionary.put(name, value);
+    }
+
+    @Override public Object remove(Object name) {
+        if (shape == null) {
+            modCount++;
+            return dictionary.remove(name);
+        }
+        int slot = shape.indexOf(name);
+        if (slot == -1) {
+            return null;
+        }
+        Object previous = values[slot];
+
+        // Rebuild the shape without the name. This usually finds existing shapes.
+        String[] names = shape.names;
+        JSONShape newShape = JSONShape.EMPTY;
+        for (int i = 0; i < names.length && newShape != null; i++) {
+            if (i != slot) {
+                newShape = newShape.withName(names[i]);
+            }
+        }
+        modCount++;
+        if (newShape == null) {
+            toDictionary();
+            dictionary.remove(name);
+            return previous;
+        }
+        System.arraycopy(values, slot + 1, values, slot, names.length - slot - 1);
+        values[names.length - 1] = null;
+        shape = newShape;
+        return previous;
+    }
+
+    @Override public void clear() {
+        modCount++;
+        shape = JSONShape.EMPTY;
+        values = EMPTY_VALUES;
+        dictionary = null;
+    }
+
+    /**
+     * Releases spare capacity. Called once an object is completely parsed.
+     */
+    void trimToSize() {
+        if (shape != null && values.length > shape.size()) {
+            Object[] newValues = new Object[shape.size()];
+            System.arraycopy(values, 0, newValues, 0, newValues.length);
+            values = newValues;
+        }
+    }
+
+    private void toDictionary() {
+        String[] names = shape.names;
+        LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], values[i]);
+        }
+        dictionary = map;
+        shape = null;
+        values = null;
+    }
+
+    @Override public Set<Map.Entry<String, Object>> entrySet() {
+        Set<Map.Entry<String, Object>> result = entrySet;
+        if (result == null) {
+            result = entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @Override public Iterator<Map.Entry<String, Object>> iterator() {
+                    if (shape == null) {
+                        return dictionary.entrySet().iterator();
+                    }
+                    return new ShapeIterator();
+                }
+
+                @Override public int size() {
+                    return JSONShapeMap.this.size();
+                }
+            };
+        }
+        return result;
+    }
+
+    /**
+     * Iterates the mappings of a shaped map. If removing through this iterator
+     * moves the map to a dictionary, iteration continues in the dictionary.
+     */
+    private final class ShapeIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+        private Iterator<Map.Entry<String, Object>> delegate;
+
+        @Override public boolean hasNext() {
+            if (delegate != null) {
+                return delegate.hasNext();
+            }
+            if (modCount != expectedModCount) {
+                // The map may have moved to a dictionary underneath us.
+                throw new ConcurrentModificationException();
+            }
+            return next < shape.size();
+        }
+
+        @Override public Map.Entry<String, Object> next() {
+            if (delegate != null) {
+                return delegate.next();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= shape.size()) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next++;
+            return new ShapeEntry(shape.names[lastReturned]);
+        }
+
+        @Override public void remove() {
+            if (delegate != null) {
+                delegate.remove();
+                return;
+            }
+            if (lastReturned == -1) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            JSONShapeMap.this.remove(shape.names[lastReturned]);
+            next = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+            if (shape == null) {
+                delegate = dictionary.entrySet().iterator();
+                for (int i = 0; i < next; i++) {
+                    delegate.next();
+                }
+            }
+        }
+    }
+
+    /**
+     * A mapping of a shaped map, which reads and writes through to the map.
+     */
+    private final class ShapeEntry implements Map.Entry<String, Object> {
+        private final String name;
+
+        ShapeEntry(String name) {
+            this.name = name;
+        }
+
+        @Override public String getKey() {
+            return name;
+        }
+
+        @Override public Object getValue() {
+            return get(name);
+        }
+
+        @Override public Object setValue(Object value) {
+            return put(name, value);
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return name.equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override public int hashCode() {
+            Object value = getValue();
+            return name.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override public String toString() {
+            return name + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON from a {@link Reader} one buffer at a time and reports its
+ * structure to a {@link JSONVisitor}. This accepts the same lenient syntax as
+ * {@link JSONTokener}, but never holds more than one buffer of input and
+ * reuses a single scratch builder for strings and literals.
+ */
+final class JSONStreamTokenizer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Characters that end an unquoted literal, as in {@link JSONTokener}. */
+    private static final String LITERAL_DELIMITERS = "{}[]/\\:,=;# \t\f\r\n";
+
+    /** The input, or null if the whole input is already in {@link #buffer}. */
+    private final Reader in;
+
+    private final char[] buffer;
+
+    /** The index of the next character in {@link #buffer}. */
+    private int pos;
+
+    /** The number of valid characters in {@link #buffer}. */
+    private int limit;
+
+    /** The number of characters that were discarded by earlier fills. */
+    private long bufferStart;
+
+    /** Reused for every string and literal that is materialized. */
+    private final StringBuilder scratch = new StringBuilder();
+
+    JSONStreamTokenizer(Reader in) {
+        this.in = in;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Tokenizes characters that are already in memory, starting at {@code
+     * offset}. The array is not copied.
+     */
+    JSONStreamTokenizer(char[] chars, int offset) {
+        this.in = null;
+        this.buffer = chars;
+        this.pos = offset;
+        this.limit = chars.length;
+    }
+
+    /** Returns the number of characters consumed so far. */
+    long position() {
+        return bufferStart + pos;
+    }
+
+    /**
+     * Reads the next value from the input and reports it to {@code visitor}.
+     */
+    void visitValue(JSONVisitor visitor) throws JSONException {
+        int c = nextClean();
+        if (c == -1) {
+            throw syntaxError("End of input");
+        }
+        readValue(c, visitor);
+    }
+
+    /**
+     * Replaces the buffer contents with the next chunk of input.
+     *
+     * @return false if the input is exhausted.
+     */
+    private boolean fill() {
+        if (in == null) {
+            return false;
+        }
+        bufferStart += limit;
+        pos = 0;
+        limit = 0;
+        try {
+            int count;
+            do {
+                count = in.read(buffer, 0, buffer.length);
+            } while (count == 0);
+            if (count == -1) {
+                return false;
+            }
+            limit = count;
+            if (bufferStart == 0 && buffer[0] == '\ufeff') {
+                // consume an optional byte order mark (BOM) if it exists
+                pos = 1;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new JSONStreamException(e);
+        }
+    }
+
+    private int read() {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int peek() {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    /**
+     * Returns the next character that is not whitespace and does not belong to
+     * a comment, or -1 at the end of the input. Unless it is '/', the returned
+     * character was read directly from the buffer, so {@code pos--} unreads it.
+     */
+    private int nextClean() throws JSONException {
+        while (true) {
+            int c = read();
+            switch (c) {
+                case '\t':
+                case ' ':
+                case '\n':
+                case '\r':
+                    continue;
+
+                case '/':
+                    int peek = peek();
+                    if (peek == '*') {
+                        // skip a /* c-style comment */
+                        pos++;
+                        skipComment();
+                        continue;
+                    } else if (peek == '/') {
+                        // skip a // end-of-line comment
+                        pos++;
+                        skipToEndOfLine();
+                        continue;
+                    }
+                    return c;
+
+                case '#':
+                    // Skip a # hash end-of-line comment, like JSONTokener.
+                    skipToEndOfLine();
+                    continue;
+
+                default:
+                    return c;
+            }
+        }
+    }
+
+    private void skipComment() throws JSONException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated comment");
+            }
+            if (c == '*' && peek() == '/') {
+                pos++;
+                return;
+            }
+        }
+    }
+
+    private void skipToEndOfLine() {
+        while (true) {
+            int c = read();
+            if (c == -1 || c == '\r' || c == '\n') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the value whose first character {@code c} has already been read.
+     * A null visitor skips the value.
+     */
+    private void readValue(int c, JSONVisitor visitor) throws JSONException {
+        switch (c) {
+            case -1:
+                throw syntaxError("End of input");
+
+            case '{':
+                if (visitor != null && visitor.startObject()) {
+                    readObject(visitor);
+                    visitor.endObject();
+                } else {
+                    readObject(null);
+                }
+                return;
+
+            case '[':
+                if (visitor != null && visitor.startArray()) {
+                    readArray(visitor);
+                    visitor.endArray();
+                } else {
+                    readArray(null);
+                }
+                return;
+
+            case '\'':
+            case '"':
+                if (visitor != null) {
+                    visitor.value(readString((char) c));
+                } else {
+                    skipString((char) c);
+                }
+                return;
+
+            default:
+                readLiteral(c, visitor);
+        }
+    }
+
+    /**
+     * Reads the members and the closing brace of an object whose opening brace
+     * has already been read.
+     */
+    private void readObject(JSONVisitor visitor) throws JSONException {
+        int c = nextClean();
+        if (c == '}') {
+            return;
+        }
+
+        while (true) {
+            if (c == '\'' || c == '"') {
+                if (visitor != null) {
+                    visitor.name(readString((char) c));
+                } else {
+                    skipString((char) c);
+                }
+            } else {
+                readName(c, visitor);
+            }
+
+            /*
+             * Expect the name/value separator to be either a colon ':', an
+             * equals sign '=', or an arrow "=>", like JSONTokener.
+             */
+            int separator = nextClean();
+            if (separator != ':' && separator != '=') {
+                throw syntaxError("Expected ':' after name");
+            }
+            if (peek() == '>') {
+                pos++;
+            }
+
+            readValue(nextClean(), visitor);
+
+            switch (nextClean()) {
+                case '}':
+                    return;
+                case ';':
+                case ',':
+                    c = nextClean();
+                    continue;
+                default:
+                    throw syntaxError("Unterminated object");
+            }
+        }
+    }
+
+    /**
+     * Reads an unquoted member name. Like JSONTokener, literals that denote
+     * null, booleans or numbers are not accepted as names.
+     */
+    private void readName(int c, JSONVisitor visitor) throws JSONException {
+        if (c == -1) {
+            throw syntaxError("End of input");
+        }
+        if (c == '{' || c == '[') {
+            throw syntaxError("Names must be strings");
+        }
+        scanLiteral(c, true);
+        Object name = JSONTokener.parseLiteral(scratch.toString());
+        if (!(name instanceof String)) {
+            throw syntaxError("Names must be strings, but " + name
+                    + " is of type " + name.getClass().getName());
+        }
+        if (visitor != null) {
+            visitor.name((String) name);
+        }
+    }
+
+    /**
+     * Reads the elements and the closing bracket of an array whose opening
+     * bracket has already been read. Omitted elements are reported as missing.
+     */
+    private void readArray(JSONVisitor visitor) throws JSONException {
+        /* to cover input that ends with ",]". */
+        boolean hasTrailingSeparator = false;
+
+        while (true) {
+            int c = nextClean();
+            switch (c) {
+                case -1:
+                    throw syntaxError("Unterminated array");
+                case ']':
+                    if (hasTrailingSeparator && visitor != null) {
+                        visitor.missingValue();
+                    }
+                    return;
+                case ',':
+                case ';':
+                    /* A separator without a value first means "null". */
+                    if (visitor != null) {
+                        visitor.missingValue();
+                    }
+                    hasTrailingSeparator = true;
+                    continue;
+            }
+
+            readValue(c, visitor);
+
+            switch (nextClean()) {
+                case ']':
+                    return;
+                case ',':
+                case ';':
+                    hasTrailingSeparator = true;
+                    continue;
+                default:
+                    throw syntaxError("Unterminated array");
+            }
+        }
+    }
+
+    /**
+     * Returns the string up to but not including {@code quote}, unescaping any
+     * character escape sequences encountered along the way. The opening quote
+     * should have already been read.
+     */
+    private String readString(char quote) throws JSONException {
+        scratch.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == quote) {
+                    scratch.append(buffer, start, pos - 1 - start);
+                    return scratch.toString();
+                }
+                if (c == '\\') {
+                    scratch.append(buffer, start, pos - 1 - start);
+                    scratch.append(readEscapeCharacter());
+                    start = pos;
+                }
+            }
+            scratch.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /** Like {@link #readString}, but only advances past the string. */
+    private void skipString(char quote) throws JSONException {
+        while (true) {
+            int c = read();
+            if (c == quote) {
+                return;
+            } else if (c == '\\') {
+                if (read() == -1) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscapeCharacter() throws JSONException {
+        int escaped = read();
+        switch (escaped) {
+            case -1:
+                throw syntaxError("Unterminated escape sequence");
+
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    int c = read();
+                    if (c == -1) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int digit = Character.digit((char) c, 16);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+
+            case 't':
+                return '\t';
+
+            case 'b':
+                return '\b';
+
+            case 'n':
+                return '\n';
+
+            case 'r':
+                return '\r';
+
+            case 'f':
+                return '\f';
+
+            default:
+                return (char) escaped;
+        }
+    }
+
+    /**
+     * Advances past an unquoted literal whose first character {@code c} has
+     * already been read, leaving the delimiter that ends it unread. If {@code
+     * keep} is true the literal is left in {@link #scratch}.
+     */
+    private void scanLiteral(int c, boolean keep) throws JSONException {
+        if (LITERAL_DELIMITERS.indexOf(c) != -1) {
+            throw syntaxError("Expected literal value");
+        }
+        if (keep) {
+            scratch.setLength(0);
+            scratch.append((char) c);
+        }
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                if (LITERAL_DELIMITERS.indexOf(buffer[pos]) != -1) {
+                    if (keep) {
+                        scratch.append(buffer, start, pos - start);
+                    }
+                    return;
+                }
+                pos++;
+            }
+            if (keep) {
+                scratch.append(buffer, start, pos - start);
+            }
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a null, boolean, numeric or unquoted string literal value. Plain
+     * decimal integers are converted without creating a string.
+     */
+    private void readLiteral(int c, JSONVisitor visitor) throws JSONException {
+        scanLiteral(c, visitor != null);
+        if (visitor == null) {
+            return;
+        }
+
+        if (scratchEqualsIgnoreCase("null")) {
+            visitor.nullValue();
+            return;
+        } else if (scratchEqualsIgnoreCase("true")) {
+            visitor.value(true);
+            return;
+        } else if (scratchEqualsIgnoreCase("false")) {
+            visitor.value(false);
+            return;
+        }
+
+        if (scratchIsSimpleDecimal()) {
+            long value = 0;
+            int length = scratch.length();
+            boolean negative = scratch.charAt(0) == '-';
+            for (int i = negative ? 1 : 0; i < length; i++) {
+                value = value * 10 + (scratch.charAt(i) - '0');
+            }
+            visitor.value(negative ? -value : value);
+            return;
+        }
+
+        Object value = JSONTokener.parseLiteral(scratch.toString());
+        if (value instanceof Number) {
+            if (value instanceof Double) {
+                visitor.value(((Double) value).doubleValue());
+            } else {
+                visitor.value(((Number) value).longValue());
+            }
+        } else {
+            visitor.value((String) value);
+        }
+    }
+
+    private boolean scratchEqualsIgnoreCase(String s) {
+        int length = s.length();
+        if (scratch.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(scratch.charAt(i)) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the scratch literal is an optionally negative run of at
+     * most 18 decimal digits without a leading zero, which always fits in a
+     * long and is never parsed as octal.
+     */
+    private boolean scratchIsSimpleDecimal() {
+        int length = scratch.length();
+        int start = scratch.charAt(0) == '-' ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > 18) {
+            return false;
+        }
+        if (scratch.charAt(start) == '0' && digits > 1) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = scratch.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + position());
+    }
+
+    /**
+     * Carries an {@link IOException} from the underlying reader out of the
+     * tokenizer; {@link JSONTokener} unwraps it.
+     */
+    static final class JSONStreamException extends RuntimeException {
+        JSONStreamException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -16,6 +16,11 @@
 
 package org.json;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
 // Note: this class was written without inspecting the non-free org.json sourcecode.
 
 /**
@@ -52,6 +57,16 @@ package org.json;
  *   <li>Key-value pairs separated by {@code ;}.
  * </ul>
  *
+ * <p>Large documents can be parsed from a {@link #fromReader Reader} or
+ * {@link #fromStream InputStream} without first reading them into a string;
+ * such a tokener holds one small buffer of input at a time. Use {@link
+ * #visit} to receive the document as a series of {@link JSONVisitor}
+ * callbacks instead of as a tree, or {@link #select} to build only the parts
+ * of the tree that are needed.
+ * Tokeners that read from a stream support only these methods and {@link
+ * #nextValue}; the character-level legacy methods throw {@code
+ * UnsupportedOperationException}.
+ *
  * <p>Each tokener may be used to parse a single JSON string. Instances of this
  * class are not thread safe. Although this class is nonfinal, it was not
  * designed for inheritance and should not be subclassed. In particular,
@@ -61,9 +76,12 @@ package org.json;
  */
 public class JSONTokener {
 
-    /** The input JSON. */
+    /** The input JSON, or null if this tokener reads from a stream. */
     private final String in;
 
+    /** The streaming input, or null if this tokener reads from a string. */
+    private final JSONStreamTokenizer stream;
+
     /**
      * The index of the next character to be returned by {@link #next}. When
      * the input is exhausted, this equals the input's length.
@@ -81,6 +99,37 @@ public class JSONTokener {
             in = in.substring(1);
         }
         this.in = in;
+        this.stream = null;
+    }
+
+    private JSONTokener(JSONStreamTokenizer stream) {
+        this.in = null;
+        this.stream = stream;
+    }
+
+    /**
+     * Returns a tokener that reads JSON from {@code in} in chunks, as it is
+     * needed. The reader is not closed by the tokener.
+     *
+     * <p>This is a factory method rather than a constructor so that existing
+     * calls to {@code new JSONTokener(null)} remain unambiguous.
+     */
+    public static JSONTokener fromReader(Reader in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        return new JSONTokener(new JSONStreamTokenizer(in));
+    }
+
+    /**
+     * Returns a tokener that reads UTF-8 encoded JSON from {@code in} in
+     * chunks, as it is needed. The stream is not closed by the tokener.
+     */
+    public static JSONTokener fromStream(InputStream in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        return fromReader(new InputStreamReader(in, StandardCharsets.UTF_8));
     }
 
     /**
@@ -91,6 +140,12 @@ public class JSONTokener {
      * @throws JSONException if the input is malformed.
      */
     public Object nextValue() throws JSONException {
+        if (stream != null) {
+            JSONTreeBuilder builder = new JSONTreeBuilder(null);
+            visitStream(builder);
+            return builder.getResult();
+        }
+
         int c = nextCleanInternal();
         switch (c) {
             case -1:
@@ -190,6 +245,7 @@ public class JSONTokener {
      * @param quote either ' or ".
      */
     public String nextString(char quote) throws JSONException {
+        checkStringInput();
         /*
          * For strings that are free of escape sequences, we can just extract
          * the result as a substring of the input. But if we encounter an escape
@@ -282,7 +338,16 @@ public class JSONTokener {
 
         if (literal.length() == 0) {
             throw syntaxError("Expected literal value");
-        } else if ("null".equalsIgnoreCase(literal)) {
+        }
+        return parseLiteral(literal);
+    }
+
+    /**
+     * Converts a non-empty unquoted literal to a value, as described in
+     * {@link #readLiteral}.
+     */
+    static Object parseLiteral(String literal) {
+        if ("null".equalsIgnoreCase(literal)) {
             return JSONObject.NULL;
         } else if ("true".equalsIgnoreCase(literal)) {
             return Boolean.TRUE;
@@ -385,6 +450,7 @@ public class JSONTokener {
 
             switch (nextCleanInternal()) {
                 case '}':
+                    result.trimToSize();
                     return result;
                 case ';':
                 case ',':
@@ -415,6 +481,7 @@ public class JSONTokener {
                     if (hasTrailingSeparator) {
                         result.put(null);
                     }
+                    result.trimToSize();
                     return result;
                 case ',':
                 case ';':
@@ -430,6 +497,7 @@ public class JSONTokener {
 
             switch (nextCleanInternal()) {
                 case ']':
+                    result.trimToSize();
                     return result;
                 case ',':
                 case ';':
@@ -441,6 +509,62 @@ public class JSONTokener {
         }
     }
 
+    /**
+     * Reads the next value from the input and reports it to {@code visitor}
+     * rather than returning it. Containers for which the visitor's start
+     * callback returns false are skipped without creating their contents.
+     *
+     * @throws JSONException if the input is malformed or cannot be read.
+     */
+    public void visit(JSONVisitor visitor) throws JSONException {
+        if (visitor == null) {
+            throw new NullPointerException("visitor == null");
+        }
+        if (stream != null) {
+            visitStream(visitor);
+            return;
+        }
+        JSONStreamTokenizer tokenizer = new JSONStreamTokenizer(in.toCharArray(), pos);
+        try {
+            tokenizer.visitValue(visitor);
+        } finally {
+            pos = (int) tokenizer.position();
+        }
+    }
+
+    /**
+     * Returns the next value from the input, building only the values
+     * selected by {@code paths} and the containers that enclose them. Each
+     * path is a dot-separated list of member names and array indices, such as
+     * {@code "statuses.*.user.name"}; a {@code *} segment matches every member
+     * or element and the empty path selects the whole value. Everything else
+     * is skipped without being materialized. Elements of partially selected
+     * arrays are renumbered, so {@code "items.3"} is built as element 0.
+     *
+     * @return the outermost {@link JSONObject} or {@link JSONArray} containing
+     *     the selections, a selected top-level value, or null if the value
+     *     is a string, number, boolean or null that no path selects.
+     * @throws JSONException if the input is malformed or cannot be read.
+     */
+    public Object select(String... paths) throws JSONException {
+        if (paths == null) {
+            throw new NullPointerException("paths == null");
+        }
+        JSONTreeBuilder builder = new JSONTreeBuilder(paths);
+        visit(builder);
+        return builder.getResult();
+    }
+
+    private void visitStream(JSONVisitor visitor) throws JSONException {
+        try {
+            stream.visitValue(visitor);
+        } catch (JSONStreamTokenizer.JSONStreamException e) {
+            JSONException exception = new JSONException("Failed to read input" + this);
+            exception.initCause(e.getCause());
+            throw exception;
+        }
+    }
+
     /**
      * Returns an exception containing the given message plus the current
      * position and the entire input string.
@@ -453,6 +577,9 @@ public class JSONTokener {
      * Returns the current position and the entire input string.
      */
     @Override public String toString() {
+        if (stream != null) {
+            return " at character " + stream.position();
+        }
         // consistent with the original implementation
         return " at character " + pos + " of " + in;
     }
@@ -465,10 +592,22 @@ public class JSONTokener {
      * implementation and may be used by some clients.
      */
 
+    /**
+     * Throws if this tokener reads from a stream, which the character-level
+     * methods below do not support.
+     */
+    private void checkStringInput() {
+        if (stream != null) {
+            throw new UnsupportedOperationException(
+                    "Only nextValue(), visit() and select() support streamed input");
+        }
+    }
+
     /**
      * Returns true until the input has been exhausted.
      */
     public boolean more() {
+        checkStringInput();
         return pos < in.length();
     }
 
@@ -478,6 +617,7 @@ public class JSONTokener {
      * for JSON strings that contain the character '\0'.
      */
     public char next() {
+        checkStringInput();
         return pos < in.length() ? in.charAt(pos++) : '\0';
     }
 
@@ -500,6 +640,7 @@ public class JSONTokener {
      * method is ambiguous for JSON strings that contain the character '\0'.
      */
     public char nextClean() throws JSONException {
+        checkStringInput();
         int nextCleanInt = nextCleanInternal();
         return nextCleanInt == -1 ? '\0' : (char) nextCleanInt;
     }
@@ -516,6 +657,7 @@ public class JSONTokener {
      *     satisfy this request.
      */
     public String next(int length) throws JSONException {
+        checkStringInput();
         if (pos + length > in.length()) {
             throw syntaxError(length + " is out of bounds");
         }
@@ -541,6 +683,7 @@ public class JSONTokener {
      * @return a possibly-empty string
      */
     public String nextTo(String excluded) {
+        checkStringInput();
         if (excluded == null) {
             throw new NullPointerException("excluded == null");
         }
@@ -551,6 +694,7 @@ public class JSONTokener {
      * Equivalent to {@code nextTo(String.valueOf(excluded))}.
      */
     public String nextTo(char excluded) {
+        checkStringInput();
         return nextToInternal(String.valueOf(excluded)).trim();
     }
 
@@ -560,6 +704,7 @@ public class JSONTokener {
      * input is exhausted.
      */
     public void skipPast(String thru) {
+        checkStringInput();
         int thruStart = in.indexOf(thru, pos);
         pos = thruStart == -1 ? in.length() : (thruStart + thru.length());
     }
@@ -570,6 +715,7 @@ public class JSONTokener {
      * is unchanged.
      */
     public char skipTo(char to) {
+        checkStringInput();
         int index = in.indexOf(to, pos);
         if (index != -1) {
             pos = index;
@@ -584,6 +730,7 @@ public class JSONTokener {
      * been read, the input is unchanged.
      */
     public void back() {
+        checkStringInput();
         if (--pos == -1) {
             pos = 0;
         }
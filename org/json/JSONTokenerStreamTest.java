@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class JSONTokenerStreamTest extends TestCase {
+
+    private static final String LENIENT = "{\"a\":1,'b':[1,2.5,,true,null,\"x\\u0041\\n\"],"
+            + "c=>0x1F; d:{e:077, f: 12345678901234567890}, g: abc /*c*/ } // x";
+
+    public void testReaderMatchesString() throws JSONException {
+        String[] documents = {
+                LENIENT, "[,]", "[1,]", "\ufeff{\"k\":-5}", " \"str\" ", "{}", "[]",
+                "[9223372036854775807, -2147483648, 2147483648, 5e-10]",
+        };
+        for (String document : documents) {
+            Object expected = new JSONTokener(document).nextValue();
+            Object actual = JSONTokener.fromReader(new StringReader(document)).nextValue();
+            assertEquals(document, String.valueOf(expected), String.valueOf(actual));
+        }
+    }
+
+    public void testElidedElementsMatchString() throws JSONException {
+        for (String document : new String[] { "[1,,2]", "[,]" }) {
+            JSONArray expected = (JSONArray) new JSONTokener(document).nextValue();
+            JSONArray actual = (JSONArray) JSONTokener.fromReader(
+                    new StringReader(document)).nextValue();
+            assertEquals(document, expected.length(), actual.length());
+            for (int i = 0; i < expected.length(); i++) {
+                // JSONObject.NULL equals null, so compare the references.
+                assertSame(document, expected.opt(i), actual.opt(i));
+                assertEquals(document, expected.isNull(i), actual.isNull(i));
+            }
+            assertEquals(document, expected.toString(), actual.toString());
+        }
+    }
+
+    public void testNumberTypes() throws JSONException {
+        JSONArray array = (JSONArray) JSONTokener.fromReader(
+                new StringReader("[1, 2147483648, 1.5, 010]")).nextValue();
+        assertEquals(Integer.valueOf(1), array.get(0));
+        assertEquals(Long.valueOf(2147483648L), array.get(1));
+        assertEquals(Double.valueOf(1.5), array.get(2));
+        assertEquals(Integer.valueOf(8), array.get(3));
+    }
+
+    public void testInputStreamIsUtf8() throws JSONException {
+        byte[] bytes = { '[', '"', (byte) 0xc3, (byte) 0xa9, '"', ']' };
+        JSONArray array = (JSONArray) JSONTokener.fromStream(
+                new ByteArrayInputStream(bytes)).nextValue();
+        assertEquals("\u00e9", array.getString(0));
+    }
+
+    public void testValuesSpanningChunks() throws JSONException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"n\\t").append(i)
+                    .append("\",\"tags\":[\"a\",\"b\"]},");
+        }
+        json.append("1]");
+        Object expected = new JSONArray(json.toString());
+        Object actual = JSONTokener.fromReader(new OneCharReader(json.toString())).nextValue();
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    public void testVisitReportsEvents() throws JSONException {
+        final List<String> events = new ArrayList<String>();
+        JSONTokener.fromReader(new StringReader(LENIENT)).visit(new RecordingVisitor(events));
+        assertEquals("[{, a, 1L, b, [, 1L, 2.5D, null, true, null, xA\n, ], c, 31L, d, {, "
+                + "e, 63L, f, 1.2345678901234567E19D, }, g, abc, }]", events.toString());
+    }
+
+    public void testVisitSkipsRejectedContainers() throws JSONException {
+        final List<String> events = new ArrayList<String>();
+        new JSONTokener("{\"a\":{\"b\":[1,\"]\"]},\"c\":2}").visit(new RecordingVisitor(events) {
+            private int objects;
+            @Override public boolean startObject() {
+                super.startObject();
+                return objects++ == 0;
+            }
+        });
+        assertEquals("[{, a, {, c, 2L, }]", events.toString());
+    }
+
+    public void testVisitAdvancesStringTokener() throws JSONException {
+        JSONTokener tokener = new JSONTokener("[1] [2]");
+        tokener.visit(new JSONVisitor() {});
+        assertEquals("[2]", tokener.nextValue().toString());
+    }
+
+    public void testSelect() throws JSONException {
+        String json = "{\"a\":{\"b\":1,\"c\":2},\"d\":[{\"b\":1,\"x\":2},{\"b\":3}]}";
+        assertEquals("{\"a\":{\"b\":1}}", new JSONTokener(json).select("a.b").toString());
+        assertEquals("{\"d\":[{\"b\":1},{\"b\":3}]}",
+                JSONTokener.fromReader(new StringReader(json)).select("d.*.b").toString());
+        assertEquals("{\"d\":[{\"b\":3}]}", new JSONTokener(json).select("d.1").toString());
+        assertEquals(new JSONObject(json).toString(), new JSONTokener(json).select("").toString());
+        assertEquals("{}", new JSONTokener(json).select("missing").toString());
+        assertNull(new JSONTokener("5").select("a"));
+    }
+
+    public void testSyntaxErrors() {
+        String[] documents = { "{\"a\":1", "[1 2]", "{1:2}", "\"abc", "/* x", "{\"a\" 1}", "" };
+        for (String document : documents) {
+            try {
+                JSONTokener.fromReader(new StringReader(document)).nextValue();
+                fail(document);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    public void testReadFailure() {
+        Reader reader = new Reader() {
+            @Override public int read(char[] buffer, int offset, int count) throws IOException {
+                throw new IOException("broken");
+            }
+            @Override public void close() {
+            }
+        };
+        try {
+            JSONTokener.fromReader(reader).nextValue();
+            fail();
+        } catch (JSONException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    public void testLegacyMethodsRejectStreams() {
+        try {
+            JSONTokener.fromReader(new StringReader("[]")).next();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    private static class RecordingVisitor extends JSONVisitor {
+        private final List<String> events;
+
+        RecordingVisitor(List<String> events) {
+            this.events = events;
+        }
+
+        @Override public boolean startObject() {
+            events.add("{");
+            return true;
+        }
+
+        @Override public void endObject() {
+            events.add("}");
+        }
+
+        @Override public boolean startArray() {
+            events.add("[");
+            return true;
+        }
+
+        @Override public void endArray() {
+            events.add("]");
+        }
+
+        @Override public void name(String name) {
+            events.add(name);
+        }
+
+        @Override public void value(String value) {
+            events.add(value);
+        }
+
+        @Override public void value(long value) {
+            events.add(value + "L");
+        }
+
+        @Override public void value(double value) {
+            events.add(value + "D");
+        }
+
+        @Override public void value(boolean value) {
+            events.add(String.valueOf(value));
+        }
+
+        @Override public void nullValue() {
+            events.add("null");
+        }
+    }
+
+    /** Returns one character per read to exercise every buffer boundary. */
+    private static class OneCharReader extends StringReader {
+        OneCharReader(String s) {
+            super(s);
+        }
+
+        @Override public int read(char[] buffer, int offset, int count) throws IOException {
+            return super.read(buffer, offset, Math.min(count, 1));
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+/**
+ * Builds {@link JSONObject} and {@link JSONArray} trees from visitor
+ * callbacks. If paths are given, only the values they select and the
+ * containers enclosing them are built; everything else is skipped by the
+ * tokenizer without being materialized.
+ */
+final class JSONTreeBuilder extends JSONVisitor {
+
+    /** The value is not selected by any path. */
+    private static final int NONE = 0;
+
+    /** The value is on the way to a selected value. */
+    private static final int ANCESTOR = 1;
+
+    /** The value and everything inside it are selected. */
+    private static final int SELECTED = 2;
+
+    /** Path segments, or null to build the whole document. */
+    private final String[][] paths;
+
+    /** For each segment in {@link #paths}, its array index or -1. */
+    private final int[][] pathIndexes;
+
+    /** The open containers, outermost first. */
+    private Object[] containers = new Object[16];
+
+    /** Whether each open container was selected in its entirety. */
+    private boolean[] selected = new boolean[16];
+
+    /** For open arrays, the index of the next element. */
+    private int[] nextIndexes = new int[16];
+
+    /** The name or index leading to each open container's members. */
+    private String[] segmentNames = new String[16];
+    private int[] segmentIndexes = new int[16];
+
+    private int depth;
+    private String pendingName;
+    private Object result;
+
+    /**
+     * @param paths dot-separated paths of the values to build, or null to
+     *     build everything. A {@code *} segment matches any name or index and
+     *     the empty path selects the whole document.
+     */
+    JSONTreeBuilder(String[] paths) {
+        if (paths == null) {
+            this.paths = null;
+            this.pathIndexes = null;
+            return;
+        }
+        this.paths = new String[paths.length][];
+        this.pathIndexes = new int[paths.length][];
+        for (int p = 0; p < paths.length; p++) {
+            if (paths[p] == null) {
+                throw new NullPointerException("paths[" + p + "] == null");
+            }
+            String[] segments = paths[p].length() == 0
+                    ? new String[0]
+                    : paths[p].split("\\.", -1);
+            int[] indexes = new int[segments.length];
+            for (int s = 0; s < segments.length; s++) {
+                indexes[s] = parseIndex(segments[s]);
+            }
+            this.paths[p] = segments;
+            this.pathIndexes[p] = indexes;
+        }
+    }
+
+    private static int parseIndex(String segment) {
+        if (segment.length() == 0 || segment.length() > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Returns the built value: a tree, a single value, or null if nothing was
+     * selected.
+     */
+    Object getResult() {
+        return result;
+    }
+
+    @Override public boolean startObject() throws JSONException {
+        int selection = selectNext();
+        if (selection == NONE) {
+            return false;
+        }
+        JSONObject object = new JSONObject();
+        add(object);
+        push(object, selection == SELECTED);
+        return true;
+    }
+
+    @Override public void endObject() {
+        ((JSONObject) containers[--depth]).trimToSize();
+    }
+
+    @Override public boolean startArray() throws JSONException {
+        int selection = selectNext();
+        if (selection == NONE) {
+            return false;
+        }
+        JSONArray array = new JSONArray();
+        add(array);
+        push(array, selection == SELECTED);
+        return true;
+    }
+
+    @Override public void endArray() {
+        ((JSONArray) containers[--depth]).trimToSize();
+    }
+
+    @Override public void name(String name) {
+        pendingName = name;
+    }
+
+    @Override public void value(String value) throws JSONException {
+        if (selectNext() == SELECTED) {
+            add(value);
+        }
+    }
+
+    @Override public void value(long value) throws JSONException {
+        if (selectNext() == SELECTED) {
+            if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+                add((int) value);
+            } else {
+                add(value);
+            }
+        }
+    }
+
+    @Override public void value(double value) throws JSONException {
+        if (selectNext() == SELECTED) {
+            add(value);
+        }
+    }
+
+    @Override public void value(boolean value) throws JSONException {
+        if (selectNext() == SELECTED) {
+            add(value);
+        }
+    }
+
+    @Override public void nullValue() throws JSONException {
+        if (selectNext() == SELECTED) {
+            add(JSONObject.NULL);
+        }
+    }
+
+    @Override public void missingValue() throws JSONException {
+        // Matches JSONTokener.readArray, which stores omitted elements as null.
+        if (selectNext() == SELECTED) {
+            add(null);
+        }
+    }
+
+    /**
+     * Records the name or index of the value about to be reported and returns
+     * how it is selected.
+     */
+    private int selectNext() {
+        if (depth == 0) {
+            return paths == null ? SELECTED : match(0);
+        }
+        int parent = depth - 1;
+        if (containers[parent] instanceof JSONArray) {
+            segmentNames[parent] = null;
+            segmentIndexes[parent] = nextIndexes[parent]++;
+        } else {
+            segmentNames[parent] = pendingName;
+        }
+        return selected[parent] ? SELECTED : match(depth);
+    }
+
+    /**
+     * Matches the first {@code length} recorded segments against every path.
+     */
+    private int match(int length) {
+        int selection = NONE;
+        for (int p = 0; p < paths.length; p++) {
+            String[] path = paths[p];
+            int[] indexes = pathIndexes[p];
+            int count = Math.min(length, path.length);
+            boolean matches = true;
+            for (int s = 0; s < count && matches; s++) {
+                String segment = path[s];
+                if (segment.equals("*")) {
+                    continue;
+                }
+                String name = segmentNames[s];
+                matches = name != null
+                        ? segment.equals(name)
+                        : indexes[s] == segmentIndexes[s];
+            }
+            if (matches) {
+                if (path.length <= length) {
+                    return SELECTED;
+                }
+                selection = ANCESTOR;
+            }
+        }
+        return selection;
+    }
+
+    private void add(Object value) throws JSONException {
+        if (depth == 0) {
+            result = value;
+            return;
+        }
+        Object parent = containers[depth - 1];
+        if (parent instanceof JSONObject) {
+            ((JSONObject) parent).put(pendingName, value);
+        } else {
+            ((JSONArray) parent).put(value);
+        }
+    }
+
+    private void push(Object container, boolean all) {
+        if (depth == containers.length) {
+            int newLength = depth * 2;
+            Object[] newContainers = new Object[newLength];
+            System.arraycopy(containers, 0, newContainers, 0, depth);
+            containers = newContainers;
+            boolean[] newSelected = new boolean[newLength];
+            System.arraycopy(selected, 0, newSelected, 0, depth);
+            selected = newSelected;
+            int[] newNextIndexes = new int[newLength];
+            System.arraycopy(nextIndexes, 0, newNextIndexes, 0, depth);
+            nextIndexes = newNextIndexes;
+            String[] newSegmentNames = new String[newLength];
+            System.arraycopy(segmentNames, 0, newSegmentNames, 0, depth);
+            segmentNames = newSegmentNames;
+            int[] newSegmentIndexes = new int[newLength];
+            System.arraycopy(segmentIndexes, 0, newSegmentIndexes, 0, depth);
+            segmentIndexes = newSegmentIndexes;
+        }
+        containers[depth] = container;
+        selected[depth] = all;
+        nextIndexes[depth] = 0;
+        depth++;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The values of a {@link JSONArray}. Arrays whose values are all Integers, all
+ * Longs or all Doubles store them unboxed in a primitive array; the first
+ * value of any other type moves the whole list to an {@code Object[]}. Boxed
+ * values are created on demand when the list is read as objects, so {@link
+ * #get} does not necessarily return the same instance twice.
+ */
+final class JSONValueList extends AbstractList<Object> implements RandomAccess {
+
+    static final int EMPTY = 0;
+    static final int INTS = 1;
+    static final int LONGS = 2;
+    static final int DOUBLES = 3;
+    static final int OBJECTS = 4;
+
+    /** How the values are stored; one of the constants above. */
+    private int kind = EMPTY;
+    private int size;
+
+    /** At most one of these is non-null, according to {@link #kind}. */
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+
+    /** Returns how the values are stored. */
+    int kind() {
+        return kind;
+    }
+
+    @Override public int size() {
+        return size;
+    }
+
+    @Override public Object get(int index) {
+        checkIndex(index);
+        switch (kind) {
+            case INTS:
+                return ints[index];
+            case LONGS:
+                return longs[index];
+            case DOUBLES:
+                return doubles[index];
+            default:
+                return objects[index];
+        }
+    }
+
+    /**
+     * Returns the value at {@code index} as an int. The list must be of a
+     * numeric kind.
+     */
+    int getInt(int index) {
+        checkIndex(index);
+        switch (kind) {
+            case INTS:
+                return ints[index];
+            case LONGS:
+                return (int) longs[index];
+            default:
+                return (int) doubles[index];
+        }
+    }
+
+    /**
+     * Returns the value at {@code index} as a long. The list must be of a
+     * numeric kind.
+     */
+    long getLong(int index) {
+        checkIndex(index);
+        switch (kind) {
+            case INTS:
+                return ints[index];
+            case LONGS:
+                return longs[index];
+            default:
+                return (long) doubles[index];
+        }
+    }
+
+    /**
+     * Returns the value at {@code index} as a double. The list must be of a
+     * numeric kind.
+     */
+    double getDouble(int index) {
+        checkIndex(index);
+        switch (kind) {
+            case INTS:
+                return ints[index];
+            case LONGS:
+                return longs[index];
+            default:
+                return doubles[index];
+        }
+    }
+
+    void addInt(int value) {
+        if (kind == EMPTY) {
+            kind = INTS;
+            ints = new int[8];
+        }
+        if (kind != INTS) {
+            add((Integer) value);
+            return;
+        }
+        if (size == ints.length) {
+            int[] newInts = new int[newCapacity()];
+            System.arraycopy(ints, 0, newInts, 0, size);
+            ints = newInts;
+        }
+        ints[size++] = value;
+        modCount++;
+    }
+
+    void addLong(long value) {
+        if (kind == EMPTY) {
+            kind = LONGS;
+            longs = new long[8];
+        }
+        if (kind != LONGS) {
+            add((Long) value);
+            return;
+        }
+        if (size == longs.length) {
+            long[] newLongs = new long[newCapacity()];
+            System.arraycopy(longs, 0, newLongs, 0, size);
+            longs = newLongs;
+        }
+        longs[size++] = value;
+        modCount++;
+    }
+
+    void addDouble(double value) {
+        if (kind == EMPTY) {
+            kind = DOUBLES;
+            doubles = new double[8];
+        }
+        if (kind != DOUBLES) {
+            add((Double) value);
+            return;
+        }
+        if (size == doubles.length) {
+            double[] newDoubles = new double[newCapacity()];
+            System.arraycopy(doubles, 0, newDoubles, 0, size);
+            doubles = newDoubles;
+        }
+        doubles[size++] = value;
+        modCount++;
+    }
+
+    @Override public boolean add(Object value) {
+        if (kind != OBJECTS) {
+            Class<?> type = value != null ? value.getClass() : null;
+            if (type == Integer.class && (kind == EMPTY || kind == INTS)) {
+                addInt((Integer) value);
+                return true;
+            } else if (type == Long.class && (kind == EMPTY || kind == LONGS)) {
+                addLong((Long) value);
+                return true;
+            } else if (type == Double.class && (kind == EMPTY || kind == DOUBLES)) {
+                addDouble((Double) value);
+                return true;
+            }
+            toObjects();
+        }
+        if (size == objects.length) {
+            Object[] newObjects = new Object[newCapacity()];
+            System.arraycopy(objects, 0, newObjects, 0, size);
+            objects = newObjects;
+        }
+        objects[size++] = value;
+        modCount++;
+        return true;
+    }
+
+    @Override public Object set(int index, Object value) {
+        checkIndex(index);
+        Class<?> type = value != null ? value.getClass() : null;
+        if (kind == INTS && type == Integer.class) {
+            int previous = ints[index];
+            ints[index] = (Integer) value;
+            return previous;
+        } else if (kind == LONGS && type == Long.class) {
+            long previous = longs[index];
+            longs[index] = (Long) value;
+            return previous;
+        } else if (kind == DOUBLES && type == Double.class) {
+            double previous = doubles[index];
+            doubles[index] = (Double) value;
+            return previous;
+        }
+        toObjects();
+        Object previous = objects[index];
+        objects[index] = value;
+        return previous;
+    }
+
+    @Override public Object remove(int index) {
+        Object previous = get(index);
+        int moved = size - index - 1;
+        switch (kind) {
+            case INTS:
+                System.arraycopy(ints, index + 1, ints, index, moved);
+                break;
+            case LONGS:
+                System.arraycopy(longs, index + 1, longs, index, moved);
+                break;
+            case DOUBLES:
+                System.arraycopy(doubles, index + 1, doubles, index, moved);
+                break;
+            default:
+                System.arraycopy(objects, index + 1, objects, index, moved);
+                objects[size - 1] = null;
+        }
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override public void clear() {
+        kind = EMPTY;
+        size = 0;
+        ints = null;
+        longs = null;
+        doubles = null;
+        objects = null;
+        modCount++;
+    }
+
+    /**
+     * Releases spare capacity. Called once an array is completely parsed.
+     */
+    void trimToSize() {
+        if (size == 0) {
+            clear();
+            return;
+        }
+        switch (kind) {
+            case INTS:
+                if (ints.length > size) {
+                    int[] newInts = new int[size];
+                    System.arraycopy(ints, 0, newInts, 0, size);
+                    ints = newInts;
+                }
+                break;
+            case LONGS:
+                if (longs.length > size) {
+                    long[] newLongs = new long[size];
+                    System.arraycopy(longs, 0, newLongs, 0, size);
+                    longs = newLongs;
+                }
+                break;
+            case DOUBLES:
+                if (doubles.length > size) {
+                    double[] newDoubles = new double[size];
+                    System.arraycopy(doubles, 0, newDoubles, 0, size);
+                    doubles = newDoubles;
+                }
+                break;
+            default:
+                if (objects.length > size) {
+                    Object[] newObjects = new Object[size];
+                    System.arraycopy(objects, 0, newObjects, 0, size);
+                    objects = newObjects;
+                }
+        }
+    }
+
+    private int newCapacity() {
+        return size < 4 ? 8 : size + (size >> 1);
+    }
+
+    private void toObjects() {
+        if (kind == OBJECTS) {
+            return;
+        }
+        Object[] newObjects = new Object[Math.max(size + 1, 8)];
+        for (int i = 0; i < size; i++) {
+            newObjects[i] = get(i);
+        }
+        objects = newObjects;
+        ints = null;
+        longs = null;
+        doubles = null;
+        kind = OBJECTS;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+/**
+ * Receives the structure of a JSON document as a series of callbacks, in the
+ * style of a SAX handler. Pass an instance to {@link JSONTokener#visit} to
+ * process a document without building {@link JSONObject} and {@link
+ * JSONArray} trees.
+ *
+ * <p>For an object member the tokener calls {@link #name} followed by the
+ * callbacks for the member's value. Numbers are reported without boxing:
+ * integral literals that fit in a {@code long} (including the legacy hex and
+ * octal forms) go to {@link #value(long)}, all other numbers go to {@link
+ * #value(double)}. Unquoted literals that are not numbers, booleans or null go
+ * to {@link #value(String)}, just as {@link JSONTokener#nextValue} returns
+ * them as strings.
+ *
+ * <p>Returning false from {@link #startObject} or {@link #startArray} skips
+ * the container: its contents are scanned without creating any strings or
+ * numbers and no further callbacks are made for it, including the matching
+ * end callback.
+ *
+ * <p>All methods do nothing by default, so subclasses need only override the
+ * callbacks they are interested in.
+ */
+public abstract class JSONVisitor {
+
+    /**
+     * Called at the opening brace of an object.
+     *
+     * @return true to visit the object's members, false to skip them.
+     */
+    public boolean startObject() throws JSONException {
+        return true;
+    }
+
+    /** Called at the closing brace of an object that was not skipped. */
+    public void endObject() throws JSONException {
+    }
+
+    /**
+     * Called at the opening bracket of an array.
+     *
+     * @return true to visit the array's elements, false to skip them.
+     */
+    public boolean startArray() throws JSONException {
+        return true;
+    }
+
+    /** Called at the closing bracket of an array that was not skipped. */
+    public void endArray() throws JSONException {
+    }
+
+    /** Called with the name of an object member, before its value. */
+    public void name(String name) throws JSONException {
+    }
+
+    /** Called for string values, quoted or not. */
+    public void value(String value) throws JSONException {
+    }
+
+    /** Called for integral numbers that fit in a long. */
+    public void value(long value) throws JSONException {
+    }
+
+    /** Called for all other numbers. */
+    public void value(double value) throws JSONException {
+    }
+
+    /** Called for {@code true} and {@code false}. */
+    public void value(boolean value) throws JSONException {
+    }
+
+    /** Called for {@code null}. */
+    public void nullValue() throws JSONException {
+    }
+
+    /**
+     * Called for an array element that was omitted between two separators, as
+     * in {@code [1,,2]}. {@link JSONTokener#nextValue} stores such elements as
+     * Java null rather than {@link JSONObject#NULL}. Calls {@link #nullValue}
+     * by default.
+     */
+    public void missingValue() throws JSONException {
+        nullValue();
+    }
+}
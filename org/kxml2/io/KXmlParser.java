@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import libcore.internal.StringPool;
@@ -181,6 +182,25 @@ public class KXmlParser implements XmlPullParser, Closeable {
 
     public final StringPool stringPool = new StringPool();
 
+    /** Canonical element and attribute names, possibly shared with other parsers. */
+    private final NameTable names;
+
+    public KXmlParser() {
+        this(new NameTable());
+    }
+
+    /**
+     * Creates a parser that looks up element and attribute names in {@code
+     * names}. Parsers for the same schema can share a table so that each name
+     * is allocated once; see {@link NameTable} for the threading rules.
+     */
+    public KXmlParser(NameTable names) {
+        if (names == null) {
+            throw new NullPointerException("names == null");
+        }
+        this.names = names;
+    }
+
     /**
      * Retains namespace attributes like {@code xmlns="http://foo"} or {@code xmlns:foo="http:foo"}
      * in pulled elements. Most applications will only be interested in the effective namespaces of
@@ -200,8 +220,8 @@ public class KXmlParser implements XmlPullParser, Closeable {
             String prefix;
 
             if (cut != -1) {
-                prefix = attrName.substring(0, cut);
-                attrName = attrName.substring(cut + 1);
+                prefix = names.get(attrName, 0, cut);
+                attrName = names.get(attrName, cut + 1, attrName.length());
             } else if (attrName.equals("xmlns")) {
                 prefix = attrName;
                 attrName = null;
@@ -250,9 +270,9 @@ public class KXmlParser implements XmlPullParser, Closeable {
                     throw new RuntimeException(
                             "illegal attribute name: " + attrName + " at " + this);
                 } else if (cut != -1) {
-                    String attrPrefix = attrName.substring(0, cut);
+                    String attrPrefix = names.get(attrName, 0, cut);
 
-                    attrName = attrName.substring(cut + 1);
+                    attrName = names.get(attrName, cut + 1, attrName.length());
 
                     String attrNs = getNamespace(attrPrefix);
 
@@ -275,8 +295,8 @@ public class KXmlParser implements XmlPullParser, Closeable {
         }
 
         if (cut != -1) {
-            prefix = name.substring(0, cut);
-            name = name.substring(cut + 1);
+            prefix = names.get(name, 0, cut);
+            name = names.get(name, cut + 1, name.length());
         }
 
         this.namespace = getNamespace(prefix);
@@ -1536,6 +1556,7 @@ public class KXmlParser implements XmlPullParser, Closeable {
 
         // read the first character
         char c = buffer[position];
+        int hash = c;
         if ((c >= 'a' && c <= 'z')
                 || (c >= 'A' && c <= 'Z')
                 || c == '_'
@@ -1560,7 +1581,7 @@ public class KXmlParser implements XmlPullParser, Closeable {
                 }
                 result.append(buffer, start, position - start);
                 if (!fillBuffer(1)) {
-                    return result.toString();
+                    return names.get(result, 0, result.length());
                 }
                 start = position;
             }
@@ -1575,16 +1596,17 @@ public class KXmlParser implements XmlPullParser, Closeable {
                     || c == ':'
                     || c == '.'
                     || c >= '\u00b7') {  // TODO: check the XML spec
+                hash = 31 * hash + c;
                 position++;
                 continue;
             }
 
             // we encountered a non-name character. done!
             if (result == null) {
-                return stringPool.get(buffer, start, position - start);
+                return names.get(buffer, start, position - start, hash);
             } else {
                 result.append(buffer, start, position - start);
-                return result.toString();
+                return names.get(result, 0, result.length());
             }
         }
     }
@@ -1613,7 +1635,23 @@ public class KXmlParser implements XmlPullParser, Closeable {
         version = null;
         standalone = null;
 
+        prefix = null;
+        text = null;
+        error = null;
+        unresolved = false;
+        parsedTopLevelStartTag = false;
+        rootElementName = null;
+        systemId = null;
+        publicId = null;
+        bufferCapture = null;
+        nextContentSource = null;
+        defaultAttributes = null;
+
         if (reader == null) {
+            // Drop the previous document's strings but keep the warm buffers.
+            Arrays.fill(attributes, null);
+            Arrays.fill(elementStack, null);
+            Arrays.fill(nspStack, null);
             return;
         }
 
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.kxml2.io;
+
+/**
+ * A symbol table of element and attribute names. Looking up a name that is
+ * already in the table returns the canonical string without allocating.
+ *
+ * <p>Unlike {@code StringPool}, entries are never evicted, so a document that
+ * uses more distinct names than a pool has slots still gets one string per
+ * name. The table stops growing at {@link #MAX_SIZE} entries so hostile input
+ * cannot make it unbounded; names seen after that are returned uninterned.
+ *
+ * <p>A table may be passed to several {@link KXmlParser} instances so that
+ * parsers for the same schema share names. This class is not thread safe:
+ * parsers sharing a table must be used from one thread at a time.
+ */
+public final class NameTable {
+    /** The maximum number of names held by a table. */
+    public static final int MAX_SIZE = 4096;
+
+    private String[] table = new String[64];
+    private int size;
+
+    /**
+     * Returns the canonical string for {@code length} chars of {@code chars}
+     * starting at {@code start}.
+     */
+    public String get(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return get(chars, start, length, hash);
+    }
+
+    /**
+     * Like {@link #get(char[], int, int)} for callers that computed the
+     * {@link String#hashCode} of the chars while scanning them.
+     */
+    String get(char[] chars, int start, int length, int hash) {
+        String[] table = this.table;
+        int mask = table.length - 1;
+        for (int index = mix(hash) & mask; ; index = (index + 1) & mask) {
+            String candidate = table[index];
+            if (candidate == null) {
+                String result = new String(chars, start, length);
+                add(index, result);
+                return result;
+            }
+            if (candidate.length() == length && regionMatches(candidate, chars, start)) {
+                return candidate;
+            }
+        }
+    }
+
+    /**
+     * Returns the canonical string for the chars of {@code s} between
+     * {@code start} and {@code end}. Use this instead of {@link
+     * CharSequence#subSequence} to split qualified names.
+     */
+    public String get(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+        String[] table = this.table;
+        int mask = table.length - 1;
+        int length = end - start;
+        for (int index = mix(hash) & mask; ; index = (index + 1) & mask) {
+            String candidate = table[index];
+            if (candidate == null) {
+                String result = s.subSequence(start, end).toString();
+                add(index, result);
+                return result;
+            }
+            if (candidate.length() == length && regionMatches(candidate, s, start)) {
+                return candidate;
+            }
+        }
+    }
+
+    /** Returns the number of names in this table. */
+    public int size() {
+        return size;
+    }
+
+    private void add(int index, String name) {
+        if (size == MAX_SIZE) {
+            return;
+        }
+        table[index] = name;
+        size++;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] bigger = new String[capacity];
+        int mask = capacity - 1;
+        for (String name : table) {
+            if (name != null) {
+                int index = mix(name.hashCode()) & mask;
+                while (bigger[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                bigger[index] = name;
+            }
+        }
+        table = bigger;
+    }
+
+    private static boolean regionMatches(String candidate, char[] chars, int start) {
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(String candidate, CharSequence s, int start) {
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != s.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of a string hash; names that differ only in a trailing
+     * digit or letter would otherwise cluster in adjacent slots.
+     */
+    private static int mix(int hash) {
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.w3c.domts;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.harmony.xml.parsers.DocumentBuilderFactoryImpl;
+
+/**
+ *   Runs the suites against documents parsed in the compact mode of
+ *   the default parser. Unlike the plain JAXP factory, instances
+ *   created for other settings stay in compact mode.
+ */
+public class CompactDOMTestDocumentBuilderFactory
+    extends JAXPDOMTestDocumentBuilderFactory {
+
+  public CompactDOMTestDocumentBuilderFactory(
+      DocumentBuilderSetting[] settings) throws DOMTestIncompatibleException {
+    super(newCompactFactory(), settings);
+  }
+
+  private static DocumentBuilderFactory newCompactFactory() throws
+      DOMTestIncompatibleException {
+    DocumentBuilderFactory factory = new DocumentBuilderFactoryImpl();
+    try {
+      factory.setFeature(DocumentBuilderFactoryImpl.COMPACT, true);
+    }
+    catch (ParserConfigurationException ex) {
+      throw new DOMTestIncompatibleException(ex, null);
+    }
+    return factory;
+  }
+
+  protected DOMTestDocumentBuilderFactory createInstance(DocumentBuilderFactory
+      newFactory,
+      DocumentBuilderSetting[] mergedSettings) throws
+      DOMTestIncompatibleException {
+    return new CompactDOMTestDocumentBuilderFactory(mergedSettings);
+  }
+
+}
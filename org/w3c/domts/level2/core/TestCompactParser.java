@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.w3c.domts.level2.core;
+
+import java.lang.reflect.Constructor;
+
+import junit.framework.TestSuite;
+
+import org.w3c.domts.CompactDOMTestDocumentBuilderFactory;
+import org.w3c.domts.DOMTestDocumentBuilderFactory;
+import org.w3c.domts.DOMTestSuite;
+import org.w3c.domts.JAXPDOMTestDocumentBuilderFactory;
+import org.w3c.domts.JUnitTestSuiteAdapter;
+
+public class TestCompactParser extends TestSuite {
+
+  public static TestSuite suite() throws Exception
+  {
+    Class testClass = ClassLoader.getSystemClassLoader().loadClass("org.w3c.domts.level2.core.alltests");
+    Constructor testConstructor = testClass.getConstructor(new Class[] { DOMTestDocumentBuilderFactory.class });
+
+    DOMTestDocumentBuilderFactory factory =
+        new CompactDOMTestDocumentBuilderFactory(
+          JAXPDOMTestDocumentBuilderFactory.getConfiguration1());
+
+    Object test = testConstructor.newInstance(new Object[] { factory });
+
+    return new JUnitTestSuiteAdapter((DOMTestSuite) test);
+  }
+
+
+}